@@ -0,0 +1,69 @@
+package com.meitou.admin.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 准入控制注解
+ * 请求进入方法前按用户、站点两级做令牌桶限流，并按进行中的任务数做并发配额检查，超限时直接拒绝
+ *
+ * 使用示例：
+ * <pre>
+ * {@code
+ * @PostMapping("/text-to-video")
+ * @AdmissionControl(value = "video-generation", jobs = AdmissionControl.Jobs.GENERATION)
+ * public Result<VideoGenerationResponse> textToVideo(...) {
+ *     ...
+ * }
+ * }
+ * </pre>
+ *
+ * 限额通过配置调整（未配置的策略使用 admission.default.* 的值）：
+ * admission.{策略}.user.permitsPerMinute / user.burst / user.maxConcurrentJobs，
+ * admission.{策略}.site.permitsPerMinute / site.burst / site.maxConcurrentJobs
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AdmissionControl {
+
+    /**
+     * 策略名，同名策略共享限流桶
+     *
+     * @return 策略名
+     */
+    String value();
+
+    /**
+     * 每次请求消耗的令牌数
+     *
+     * @return 令牌数
+     */
+    int permits() default 1;
+
+    /**
+     * 并发配额统计的任务类型，NONE 表示只限流不检查并发
+     *
+     * @return 任务类型
+     */
+    Jobs jobs() default Jobs.NONE;
+
+    /**
+     * 并发配额统计的任务类型
+     */
+    enum Jobs {
+        /**
+         * 不检查并发
+         */
+        NONE,
+        /**
+         * 处理中的生成记录
+         */
+        GENERATION,
+        /**
+         * 未完成的分析记录
+         */
+        ANALYSIS
+    }
+}
@@ -0,0 +1,36 @@
+package com.meitou.admin.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 幂等提交注解
+ * 请求头带 Idempotency-Key 时，同一用户在同一接口上用相同的键重复提交（如客户端超时重试）不会再次执行方法，
+ * 而是返回首次请求的响应；首次请求仍在处理时，重复请求等待其结果。不带请求头时按普通请求处理。
+ *
+ * 使用示例：
+ * <pre>
+ * {@code
+ * @PostMapping("/text-to-video")
+ * @Idempotent("text-to-video")
+ * public Result<VideoGenerationResponse> textToVideo(...) {
+ *     ...
+ * }
+ * }
+ * </pre>
+ *
+ * 只缓存成功的响应（Result.code = 200）；首次请求失败时释放该键，客户端可用同一个键重试。
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Idempotent {
+
+    /**
+     * 接口名，幂等键按接口区分
+     *
+     * @return 接口名
+     */
+    String value();
+}
@@ -0,0 +1,63 @@
+package com.meitou.admin.aspect;
+
+import com.meitou.admin.annotation.AdmissionControl;
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.service.common.AdmissionControlService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+/**
+ * 准入控制切面类
+ * 处理 @AdmissionControl 注解：从登录信息取用户ID、从 SiteContext 取站点ID，
+ * 准入通过后执行方法，方法返回（任务已落库）后释放准入凭证
+ */
+@Slf4j
+@Aspect
+@Component
+@Order(3) // 在 SiteScopeAspect、IdempotencyAspect 之后执行，确保站点上下文已设置，重复提交不占用准入额度
+@RequiredArgsConstructor
+public class AdmissionControlAspect {
+
+    private final AdmissionControlService admissionControlService;
+
+    /**
+     * 环绕通知，处理 @AdmissionControl 注解
+     *
+     * @param joinPoint        连接点
+     * @param admissionControl 注解信息
+     * @return 方法执行结果
+     * @throws Throwable 异常
+     */
+    @Around("@annotation(admissionControl)")
+    public Object around(ProceedingJoinPoint joinPoint, AdmissionControl admissionControl) throws Throwable {
+        AdmissionControlService.Admission admission = admissionControlService.admit(
+                admissionControl.value(),
+                currentUserId(),
+                SiteContext.getSiteId(),
+                admissionControl.permits(),
+                admissionControl.jobs());
+        try {
+            return joinPoint.proceed();
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * 获取当前登录用户ID（JwtAuthenticationFilter 以用户ID作为 principal）
+     */
+    private Long currentUserId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof Long userId) {
+            return userId;
+        }
+        return null;
+    }
+}
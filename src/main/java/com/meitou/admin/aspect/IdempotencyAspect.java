@@ -0,0 +1,95 @@
+package com.meitou.admin.aspect;
+
+import com.meitou.admin.annotation.Idempotent;
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.service.common.IdempotencyService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+
+/**
+ * 幂等提交切面类
+ * 处理 @Idempotent 注解：读取 Idempotency-Key 请求头，按站点、用户、接口隔离幂等键；
+ * 在准入控制之前执行，重复请求不消耗限流令牌和并发配额
+ */
+@Aspect
+@Component
+@Order(2) // 在 SiteScopeAspect 之后、AdmissionControlAspect 之前执行
+@RequiredArgsConstructor
+public class IdempotencyAspect {
+
+    /**
+     * 幂等键请求头
+     */
+    public static final String HEADER = "Idempotency-Key";
+
+    private final IdempotencyService idempotencyService;
+
+    /**
+     * 环绕通知，处理 @Idempotent 注解
+     *
+     * @param joinPoint  连接点
+     * @param idempotent 注解信息
+     * @return 方法执行结果（重复请求返回首次请求的结果）
+     * @throws Throwable 异常
+     */
+    @Around("@annotation(idempotent)")
+    public Object around(ProceedingJoinPoint joinPoint, Idempotent idempotent) throws Throwable {
+        String key = currentIdempotencyKey();
+        if (!StringUtils.hasText(key)) {
+            return joinPoint.proceed();
+        }
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return idempotencyService.execute(
+                idempotent.value(),
+                SiteContext.getSiteId(),
+                currentUserId(),
+                key.trim(),
+                findRequestBody(method, joinPoint.getArgs()),
+                method.getGenericReturnType(),
+                joinPoint::proceed);
+    }
+
+    private String currentIdempotencyKey() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            HttpServletRequest request = attributes.getRequest();
+            return request.getHeader(HEADER);
+        }
+        return null;
+    }
+
+    /**
+     * 获取当前登录用户ID（JwtAuthenticationFilter 以用户ID作为 principal）
+     */
+    private Long currentUserId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof Long userId) {
+            return userId;
+        }
+        return null;
+    }
+
+    private Object findRequestBody(Method method, Object[] args) {
+        Parameter[] parameters = method.getParameters();
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].isAnnotationPresent(RequestBody.class)) {
+                return args[i];
+            }
+        }
+        return null;
+    }
+}
@@ -1,5 +1,6 @@
 package com.meitou.admin.config;
 
+import com.meitou.admin.service.common.UpstreamHttpClientProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
@@ -13,8 +14,11 @@ import org.springframework.web.client.RestTemplate;
  */
 @Configuration
 public class RestConfig {
+    /**
+     * 默认 RestTemplate，底层复用共享的上游HTTP连接池
+     */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(UpstreamHttpClientProvider upstreamHttpClientProvider) {
+        return upstreamHttpClientProvider.getRestTemplate();
     }
 }
@@ -56,6 +56,7 @@ public class SecurityConfig {
                         "/api/app/user/avatar/**",
                         "/api/app/site/**",
                         "/api/app/recharge/callback/**",
+                        "/api/app/generation/callback/**",
                         "/api/admin/auth/login",
                         "/api/debug/**",
                         "/error"
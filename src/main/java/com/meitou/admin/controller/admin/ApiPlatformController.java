@@ -67,6 +67,7 @@ public class ApiPlatformController {
                 ifaceResp.setHeaders(iface.getHeaders());
                 ifaceResp.setParametersJson(iface.getParametersJson());
                 ifaceResp.setParamDocs(iface.getParamDocs());
+                ifaceResp.setTimeoutSeconds(iface.getTimeoutSeconds());
                 return ifaceResp;
             }).collect(Collectors.toList());
             
@@ -117,6 +118,7 @@ public class ApiPlatformController {
             ifaceResp.setHeaders(iface.getHeaders());
             ifaceResp.setParametersJson(iface.getParametersJson());
             ifaceResp.setParamDocs(iface.getParamDocs());
+            ifaceResp.setTimeoutSeconds(iface.getTimeoutSeconds());
             return ifaceResp;
         }).collect(Collectors.toList());
         
@@ -168,6 +170,7 @@ public class ApiPlatformController {
                 apiInterface.setHeaders(ifaceReq.getHeaders());
                 apiInterface.setParametersJson(ifaceReq.getParametersJson());
                 apiInterface.setParamDocs(ifaceReq.getParamDocs());
+                apiInterface.setTimeoutSeconds(ifaceReq.getTimeoutSeconds());
                 interfaces.add(apiInterface);
             }
         }
@@ -198,6 +201,7 @@ public class ApiPlatformController {
             ifaceResp.setHeaders(iface.getHeaders());
             ifaceResp.setParametersJson(iface.getParametersJson());
             ifaceResp.setParamDocs(iface.getParamDocs());
+            ifaceResp.setTimeoutSeconds(iface.getTimeoutSeconds());
             return ifaceResp;
         }).collect(Collectors.toList());
         
@@ -250,6 +254,7 @@ public class ApiPlatformController {
                 apiInterface.setHeaders(ifaceReq.getHeaders());
                 apiInterface.setParametersJson(ifaceReq.getParametersJson());
                 apiInterface.setParamDocs(ifaceReq.getParamDocs());
+                apiInterface.setTimeoutSeconds(ifaceReq.getTimeoutSeconds());
                 interfaces.add(apiInterface);
             }
         }
@@ -280,6 +285,7 @@ public class ApiPlatformController {
             ifaceResp.setHeaders(iface.getHeaders());
             ifaceResp.setParametersJson(iface.getParametersJson());
             ifaceResp.setParamDocs(iface.getParamDocs());
+            ifaceResp.setTimeoutSeconds(iface.getTimeoutSeconds());
             return ifaceResp;
         }).collect(Collectors.toList());
         
@@ -0,0 +1,261 @@
+package com.meitou.admin.controller.admin;
+
+import com.meitou.admin.common.Result;
+import com.meitou.admin.service.admin.DashboardRollupService;
+import com.meitou.admin.service.app.CommunityFeedCache;
+import com.meitou.admin.service.app.CreditLedgerService;
+import com.meitou.admin.service.app.GenerationStatusPushService;
+import com.meitou.admin.service.app.LikeCountBuffer;
+import com.meitou.admin.service.common.AdmissionControlService;
+import com.meitou.admin.service.common.AliyunOssService;
+import com.meitou.admin.service.common.ApiPlatformRegistry;
+import com.meitou.admin.service.common.GenerationJobLeases;
+import com.meitou.admin.service.common.GenerationResultIngestor;
+import com.meitou.admin.service.common.GenerationTaskExecutor;
+import com.meitou.admin.service.common.HedgedRequests;
+import com.meitou.admin.service.common.IdempotencyService;
+import com.meitou.admin.service.common.PlatformHealthRouter;
+import com.meitou.admin.service.common.PromptOptimizeCache;
+import com.meitou.admin.service.common.SseStreamRelay;
+import com.meitou.admin.service.common.UpstreamHttpClientProvider;
+import com.meitou.admin.storage.FileStorageService;
+import com.meitou.admin.storage.impl.AliOssServiceImpl;
+import com.meitou.admin.task.GenerationCleanupTask;
+import com.meitou.admin.task.GenerationJobRecoveryTask;
+import com.meitou.admin.task.GenerationTaskPoller;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 管理端运行指标控制器
+ * 查看生成任务线程池等组件的运行状态
+ */
+@RestController
+@RequestMapping("/api/admin/runtime-metrics")
+@RequiredArgsConstructor
+public class RuntimeMetricsController {
+
+    private final GenerationTaskExecutor generationTaskExecutor;
+    private final GenerationResultIngestor generationResultIngestor;
+    private final GenerationStatusPushService generationStatusPushService;
+    private final GenerationTaskPoller generationTaskPoller;
+    private final GenerationCleanupTask generationCleanupTask;
+    private final LikeCountBuffer likeCountBuffer;
+    private final CommunityFeedCache communityFeedCache;
+    private final DashboardRollupService dashboardRollupService;
+    private final UpstreamHttpClientProvider upstreamHttpClientProvider;
+    private final SseStreamRelay sseStreamRelay;
+    private final AdmissionControlService admissionControlService;
+    private final ApiPlatformRegistry apiPlatformRegistry;
+    private final PlatformHealthRouter platformHealthRouter;
+    private final HedgedRequests hedgedRequests;
+    private final CreditLedgerService creditLedgerService;
+    private final GenerationJobLeases generationJobLeases;
+    private final GenerationJobRecoveryTask generationJobRecoveryTask;
+    private final IdempotencyService idempotencyService;
+    private final PromptOptimizeCache promptOptimizeCache;
+    private final AliyunOssService aliyunOssService;
+    private final FileStorageService fileStorageService;
+
+    /**
+     * 获取生成任务执行器指标（队列深度、并发数、完成/失败/拒绝数等）
+     *
+     * @return 指标
+     */
+    @GetMapping("/generation-executor")
+    public Result<Map<String, Object>> getGenerationExecutorStats() {
+        return Result.success(generationTaskExecutor.getStats());
+    }
+
+    /**
+     * 获取生成结果转存指标（并发线程、排队数、转存成功/回退/无效数、平均耗时）
+     *
+     * @return 指标
+     */
+    @GetMapping("/generation-ingestion")
+    public Result<Map<String, Object>> getGenerationIngestionStats() {
+        return Result.success(generationResultIngestor.getStats());
+    }
+
+    /**
+     * 获取任务状态推送指标（被观察的记录数、订阅数、上游轮询次数、推送事件数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/generation-status-push")
+    public Result<Map<String, Object>> getGenerationStatusPushStats() {
+        return Result.success(generationStatusPushService.getStats());
+    }
+
+    /**
+     * 获取任务状态轮询器指标（分片、跟踪任务数、检查/失败/限流次数、各平台平均耗时）
+     *
+     * @return 指标
+     */
+    @GetMapping("/generation-task-poller")
+    public Result<Map<String, Object>> getGenerationTaskPollerStats() {
+        return Result.success(generationTaskPoller.getStats());
+    }
+
+    /**
+     * 获取超时任务清理指标（置为失败/退款总量、分块及失败次数、最近一次处理量与吞吐）
+     *
+     * @return 指标
+     */
+    @GetMapping("/generation-timeout-sweep")
+    public Result<Map<String, Object>> getGenerationTimeoutSweepStats() {
+        return Result.success(generationCleanupTask.getStats());
+    }
+
+    /**
+     * 获取点赞数写回缓冲指标（待写回内容数、已写回行数、写回失败次数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/like-counter")
+    public Result<Map<String, Object>> getLikeCounterStats() {
+        return Result.success(likeCountBuffer.getStats());
+    }
+
+    /**
+     * 获取社区信息流缓存指标（缓存段数量、命中/未命中次数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/community-feed-cache")
+    public Result<Map<String, Object>> getCommunityFeedCacheStats() {
+        return Result.success(communityFeedCache.getStats());
+    }
+
+    /**
+     * 获取数据概览汇总指标（已汇总的日期区间、最近执行时间、汇总天数、失败次数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/dashboard-rollup")
+    public Result<Map<String, Object>> getDashboardRollupStats() {
+        return Result.success(dashboardRollupService.getStats());
+    }
+
+    /**
+     * 获取准入控制指标（限流后端、各策略准入/限流/配额拒绝次数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/admission")
+    public Result<Map<String, Object>> getAdmissionStats() {
+        return Result.success(admissionControlService.getStats());
+    }
+
+    /**
+     * 获取上游HTTP连接池指标（连接数、排队请求数、各主机请求耗时与错误数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/http-client")
+    public Result<Map<String, Object>> getHttpClientStats() {
+        return Result.success(upstreamHttpClientProvider.getStats());
+    }
+
+    /**
+     * 获取SSE流转发指标（活跃连接数、发送/丢弃事件数、慢客户端断开次数、结果保存任务数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/sse-relay")
+    public Result<Map<String, Object>> getSseRelayStats() {
+        return Result.success(sseStreamRelay.getStats());
+    }
+
+    /**
+     * 获取API平台注册表状态（快照版本、数据库签名、平台与接口数量）
+     *
+     * @return 指标
+     */
+    @GetMapping("/api-platform-registry")
+    public Result<Map<String, Object>> getApiPlatformRegistryStats() {
+        return Result.success(apiPlatformRegistry.getStats());
+    }
+
+    /**
+     * 获取平台路由与熔断指标（各平台熔断状态、错误率、平均耗时、进行中调用数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/platform-routing")
+    public Result<Map<String, Object>> getPlatformRoutingStats() {
+        return Result.success(platformHealthRouter.getStats());
+    }
+
+    /**
+     * 获取对冲请求指标（对冲次数、对冲胜出次数、各操作耗时P95）
+     *
+     * @return 指标
+     */
+    @GetMapping("/hedging")
+    public Result<Map<String, Object>> getHedgingStats() {
+        return Result.success(hedgedRequests.getStats());
+    }
+
+    /**
+     * 获取算力预留账本指标（预留、释放、批量结算次数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/credit-ledger")
+    public Result<Map<String, Object>> getCreditLedgerStats() {
+        return Result.success(creditLedgerService.getStats());
+    }
+
+    /**
+     * 获取生成任务租约指标（本节点执行中的任务数、续约次数、接管次数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/job-leases")
+    public Result<Map<String, Object>> getJobLeaseStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(generationJobLeases.getStats());
+        stats.put("recovery", generationJobRecoveryTask.getStats());
+        return Result.success(stats);
+    }
+
+    /**
+     * 获取幂等提交指标（执行、合并等待、从数据库重放、键冲突次数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/idempotency")
+    public Result<Map<String, Object>> getIdempotencyStats() {
+        return Result.success(idempotencyService.getStats());
+    }
+
+    /**
+     * 获取提示词优化缓存指标（命中、未命中、加入进行中请求、淘汰次数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/prompt-optimize-cache")
+    public Result<Map<String, Object>> getPromptOptimizeCacheStats() {
+        return Result.success(promptOptimizeCache.getStats());
+    }
+
+    /**
+     * 获取OSS签名URL缓存指标（缓存条数、命中/未命中次数）
+     *
+     * @return 指标
+     */
+    @GetMapping("/signed-url-cache")
+    public Result<Map<String, Object>> getSignedUrlCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("aliyunOssService", aliyunOssService.getSignedUrlCacheStats());
+        if (fileStorageService instanceof AliOssServiceImpl aliOssService) {
+            stats.put("fileStorageService", aliOssService.getSignedUrlCacheStats());
+        }
+        return Result.success(stats);
+    }
+}
@@ -2,6 +2,8 @@ package com.meitou.admin.controller.app;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.annotation.AdmissionControl;
+import com.meitou.admin.annotation.Idempotent;
 import com.meitou.admin.common.Result;
 import com.meitou.admin.dto.app.*;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
@@ -9,10 +11,13 @@ import com.meitou.admin.entity.ApiPlatform;
 import com.meitou.admin.entity.GenerationRecord;
 import com.meitou.admin.exception.ErrorCode;
 import com.meitou.admin.service.admin.ApiPlatformService;
+import com.meitou.admin.service.app.GenerationCallbackService;
 import com.meitou.admin.service.app.GenerationService;
+import com.meitou.admin.service.app.GenerationStatusPushService;
 import com.meitou.admin.util.TokenUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
@@ -33,6 +38,8 @@ import java.util.stream.Collectors;
 public class GenerationController {
 
     private final GenerationService generationService;
+    private final GenerationStatusPushService generationStatusPushService;
+    private final GenerationCallbackService generationCallbackService;
     private final ApiPlatformService apiPlatformService;
 
     /**
@@ -53,6 +60,24 @@ public class GenerationController {
         return Result.success(generationService.getUserGenerationRecords(userId, page, size, type));
     }
 
+    /**
+     * 按游标获取用户生成记录（下拉加载，不统计总数）
+     *
+     * @param cursor 上一页返回的 nextCursor，第一页不传
+     * @param size   每页数量
+     * @param type   类型筛选 (可选)
+     * @param userId 当前用户ID
+     * @return 记录列表及下一页游标
+     */
+    @GetMapping("/records/cursor")
+    public Result<CursorPageResponse<GenerationRecord>> getRecordsByCursor(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String type,
+            @AuthenticationPrincipal Long userId) {
+        return Result.success(generationService.getUserGenerationRecordsByCursor(userId, cursor, size, type));
+    }
+
     /**
      * 查询任务状态
      */
@@ -61,6 +86,36 @@ public class GenerationController {
         return Result.success(generationService.getTaskStatus(recordId));
     }
 
+    /**
+     * 订阅任务状态（SSE推送，替代轮询 /task/{recordId}）
+     * 事件名 status，数据为任务状态JSON；订阅的任务全部结束后服务端关闭连接
+     *
+     * @param recordIds 生成记录ID列表（逗号分隔）
+     * @param userId    当前用户ID
+     */
+    @GetMapping(value = "/task/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribeTaskStatus(
+            @RequestParam List<Long> recordIds,
+            @AuthenticationPrincipal Long userId) {
+        return generationStatusPushService.subscribe(userId, recordIds);
+    }
+
+    /**
+     * 上游平台任务完成回调（无需登录，通过回调地址中的令牌校验）
+     *
+     * @param platformId 平台ID
+     * @param token      回调令牌
+     * @param payload    回调请求体
+     * @return 任务最新状态
+     */
+    @PostMapping("/callback/{platformId}")
+    public Result<ImageGenerationResponse> taskCallback(
+            @PathVariable Long platformId,
+            @RequestParam String token,
+            @RequestBody String payload) {
+        return Result.success(generationCallbackService.handleCallback(platformId, token, payload));
+    }
+
     /**
      * 文生图
      *
@@ -69,6 +124,8 @@ public class GenerationController {
      * @return 生成结果
      */
     @PostMapping("/text-to-image")
+    @Idempotent("text-to-image")
+    @AdmissionControl(value = "image-generation", jobs = AdmissionControl.Jobs.GENERATION)
     public Result<ImageGenerationResponse> textToImage(
             @RequestBody TextToImageRequest request,
             @AuthenticationPrincipal Long userId) {
@@ -85,6 +142,8 @@ public class GenerationController {
      * @return 生成结果
      */
     @PostMapping("/image-to-image")
+    @Idempotent("image-to-image")
+    @AdmissionControl(value = "image-generation", jobs = AdmissionControl.Jobs.GENERATION)
     public Result<ImageGenerationResponse> imageToImage(
             @RequestBody ImageToImageRequest request,
             @AuthenticationPrincipal Long userId) {
@@ -101,6 +160,8 @@ public class GenerationController {
      * @return 生成结果
      */
     @PostMapping("/text-to-video")
+    @Idempotent("text-to-video")
+    @AdmissionControl(value = "video-generation", jobs = AdmissionControl.Jobs.GENERATION)
     public Result<VideoGenerationResponse> textToVideo(
             @RequestBody TextToVideoRequest request,
             @AuthenticationPrincipal Long userId) {
@@ -117,6 +178,8 @@ public class GenerationController {
      * @return 生成结果
      */
     @PostMapping("/image-to-video")
+    @Idempotent("image-to-video")
+    @AdmissionControl(value = "video-generation", jobs = AdmissionControl.Jobs.GENERATION)
     public Result<VideoGenerationResponse> imageToVideo(
             @RequestBody ImageToVideoRequest request,
             @AuthenticationPrincipal Long userId) {
@@ -134,6 +197,7 @@ public class GenerationController {
      * 提示词优化
      */
     @PostMapping("/prompt-optimize")
+    @AdmissionControl(value = "analysis", jobs = AdmissionControl.Jobs.ANALYSIS)
     public SseEmitter optimizePrompt(
             @RequestBody PromptOptimizeRequest request,
             @AuthenticationPrincipal Long userId) {
@@ -185,8 +249,8 @@ public class GenerationController {
      * 根据类型获取模型列表（通用方法）
      */
     private List<PlatformModelResponse> getModelsByType(String type) {
-        // 获取对应类型的平台列表（这里siteId传null，表示获取所有或全局配置）
-        List<ApiPlatform> platforms = apiPlatformService.getPlatformsByTypeWithDecryptedKey(type, null);
+        // 获取当前站点对应类型的平台列表（读取平台注册表，无需解密apiKey）
+        List<ApiPlatform> platforms = apiPlatformService.getEnabledPlatformsByType(type);
         ObjectMapper objectMapper = new ObjectMapper();
         
         return platforms.stream().map(platform -> {
@@ -2,6 +2,7 @@ package com.meitou.admin.controller.app;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.annotation.AdmissionControl;
 import com.meitou.admin.common.Result;
 import com.meitou.admin.dto.app.ImageAnalysisRequest;
 import com.meitou.admin.dto.app.PlatformModelResponse;
@@ -59,8 +60,8 @@ public class ImageAnalysisController {
      * 根据类型获取模型列表（通用方法）
      */
     private List<PlatformModelResponse> getModelsByType(String type) {
-        // 获取对应类型的平台列表（这里siteId传null，表示获取所有或全局配置）
-        List<ApiPlatform> platforms = apiPlatformService.getPlatformsByTypeWithDecryptedKey(type, null);
+        // 获取当前站点对应类型的平台列表（读取平台注册表，无需解密apiKey）
+        List<ApiPlatform> platforms = apiPlatformService.getEnabledPlatformsByType(type);
         ObjectMapper objectMapper = new ObjectMapper();
 
         return platforms.stream().map(platform -> {
@@ -148,6 +149,7 @@ public class ImageAnalysisController {
      * @return SSE流
      */
     @PostMapping(value = "/chat", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @AdmissionControl(value = "analysis", jobs = AdmissionControl.Jobs.ANALYSIS)
     public ResponseEntity<SseEmitter> analyzeImage(
             @RequestBody ImageAnalysisRequest request,
             @AuthenticationPrincipal Long userId) {
@@ -1,6 +1,7 @@
 package com.meitou.admin.controller.app;
 
 import com.meitou.admin.common.Result;
+import com.meitou.admin.dto.app.CursorPageResponse;
 import com.meitou.admin.entity.PublishedContent;
 import com.meitou.admin.exception.BusinessException;
 import com.meitou.admin.service.app.LikeService;
@@ -125,6 +126,32 @@ public class PublishedContentAppController {
         }
     }
     
+    /**
+     * 按游标获取发布内容列表（下拉加载，不统计总数）
+     * 
+     * @param type 类型筛选（可选：all/image/video）
+     * @param cursor 上一页返回的 nextCursor，第一页不传
+     * @param pageSize 每页数量，默认10
+     * @param userId 当前用户ID（可选，用于获取点赞状态）
+     * @return 发布内容列表及下一页游标
+     */
+    @GetMapping("/cursor")
+    public Result<CursorPageResponse<PublishedContent>> getPublishedContentsByCursor(
+            @RequestParam(value = "type", required = false, defaultValue = "all") String type,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "pageSize", defaultValue = "10") Integer pageSize,
+            @RequestHeader(value = "X-User-Id", required = false) Long userId
+    ) {
+        try {
+            return Result.success(contentService.getPublishedContentsByCursor(cursor, pageSize, type, userId));
+        } catch (BusinessException e) {
+            return Result.error(e.getCode(), e.getMessage());
+        } catch (Exception e) {
+            log.error("获取发布内容列表失败：{}", e.getMessage(), e);
+            return Result.error("获取发布内容列表失败：" + e.getMessage());
+        }
+    }
+    
     /**
      * 获取发布内容详情
      * 
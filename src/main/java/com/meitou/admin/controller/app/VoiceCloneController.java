@@ -1,5 +1,6 @@
 package com.meitou.admin.controller.app;
 
+import com.meitou.admin.annotation.AdmissionControl;
 import com.meitou.admin.common.Result;
 import com.meitou.admin.dto.app.VoiceCloneRequest;
 import com.meitou.admin.dto.app.VoiceCloneResponse;
@@ -28,6 +29,7 @@ public class VoiceCloneController {
      * @return 克隆响应
      */
     @PostMapping("/clone")
+    @AdmissionControl("voice-clone")
     public Result<VoiceCloneResponse> cloneVoice(
             @Valid @RequestBody VoiceCloneRequest request,
             @RequestHeader(value = "Authorization", required = false) String token
@@ -36,5 +36,10 @@ public class ApiInterfaceRequest {
      * 参数文档（JSON字符串）
      */
     private String paramDocs;
+    
+    /**
+     * 读取超时时间（秒）
+     */
+    private Integer timeoutSeconds;
 }
 
@@ -0,0 +1,27 @@
+package com.meitou.admin.dto.app;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页响应 DTO
+ */
+@Data
+public class CursorPageResponse<T> {
+
+    /**
+     * 当前页数据
+     */
+    private List<T> records;
+
+    /**
+     * 下一页游标（没有更多数据时为null）
+     */
+    private String nextCursor;
+
+    /**
+     * 是否还有更多数据
+     */
+    private Boolean hasMore;
+}
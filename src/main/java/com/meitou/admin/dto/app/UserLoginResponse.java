@@ -35,7 +35,7 @@ public class UserLoginResponse {
     private String email;
     
     /**
-     * 积分余额
+     * 可用积分余额（已扣除进行中任务预留的算力，与管理端用户的 availableBalance 一致）
      */
     private Integer balance;
     
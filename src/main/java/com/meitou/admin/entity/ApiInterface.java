@@ -63,6 +63,18 @@ public class ApiInterface {
     @TableField("param_docs")
     private String paramDocs;
     
+    /**
+     * 读取超时时间（秒），为空时使用全局默认值
+     */
+    @TableField("timeout_seconds")
+    private Integer timeoutSeconds;
+    
+    /**
+     * 端到端时间预算（秒），从请求进入开始计算，覆盖调用上游、解析结果和转存OSS；为空时使用全局默认值
+     */
+    @TableField("budget_seconds")
+    private Integer budgetSeconds;
+    
     /**
      * 创建时间
      */
@@ -0,0 +1,48 @@
+package com.meitou.admin.entity;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * 站点每日指标汇总
+ * 对应数据库表：daily_site_metrics（主键 site_id + stat_date）
+ */
+@Data
+public class DailySiteMetric {
+
+    /**
+     * 站点ID
+     */
+    private Long siteId;
+
+    /**
+     * 统计日期
+     */
+    private LocalDate statDate;
+
+    /**
+     * 新增用户数
+     */
+    private Long newUsers;
+
+    /**
+     * 消耗积分
+     */
+    private Long consumption;
+
+    /**
+     * 充值积分
+     */
+    private Long recharge;
+
+    /**
+     * 产生消耗的用户数（当天精确值）
+     */
+    private Long activeUsers;
+
+    /**
+     * 产生消耗用户的 HyperLogLog 草图，跨天合并后估算去重用户数
+     */
+    private byte[] activeUserSketch;
+}
@@ -0,0 +1,33 @@
+package com.meitou.admin.entity;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * 用户每日消耗汇总
+ * 对应数据库表：daily_user_consumption（主键 site_id + stat_date + user_id）
+ */
+@Data
+public class DailyUserConsumption {
+
+    /**
+     * 站点ID
+     */
+    private Long siteId;
+
+    /**
+     * 统计日期
+     */
+    private LocalDate statDate;
+
+    /**
+     * 用户ID
+     */
+    private Long userId;
+
+    /**
+     * 消耗积分
+     */
+    private Long consumption;
+}
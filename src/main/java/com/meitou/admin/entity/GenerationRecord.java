@@ -79,6 +79,18 @@ public class GenerationRecord {
      */
     private Integer cost;
     
+    /**
+     * 扣费状态：HELD-已预留，SETTLING-待结算，SETTLED-已结算，RELEASED-已释放；为空表示提交时已直接扣费（旧记录）
+     */
+    @TableField(value = "charge_status", updateStrategy = FieldStrategy.NEVER)
+    private String chargeStatus;
+    
+    /**
+     * 实际结算积分（按交付数量部分结算时小于预留的 cost）
+     */
+    @TableField(value = "settled_amount", updateStrategy = FieldStrategy.NEVER)
+    private Integer settledAmount;
+    
     /**
      * 状态：success-成功，failed-失败，processing-生成中
      */
@@ -105,6 +117,24 @@ public class GenerationRecord {
     @TableField("task_id")
     private String taskId;
 
+    /**
+     * 执行任务的节点（租约持有者）
+     */
+    @TableField(value = "lease_owner", updateStrategy = FieldStrategy.NEVER)
+    private String leaseOwner;
+
+    /**
+     * 租约到期时间，到期后任意节点可接管尚未取得上游 taskId 的任务
+     */
+    @TableField(value = "lease_expires_at", updateStrategy = FieldStrategy.NEVER)
+    private LocalDateTime leaseExpiresAt;
+
+    /**
+     * 执行次数（含崩溃后被接管重新执行的次数）
+     */
+    @TableField(value = "job_attempts", updateStrategy = FieldStrategy.NEVER)
+    private Integer jobAttempts;
+
     /**
      * 外部内容ID/PID
      */
@@ -0,0 +1,50 @@
+package com.meitou.admin.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 幂等键实体类
+ * 对应数据库表：idempotency_keys
+ */
+@Data
+@TableName("idempotency_keys")
+public class IdempotencyKey {
+
+    /**
+     * 幂等键（站点ID:用户ID:接口:客户端提交的键）
+     */
+    private String idemKey;
+
+    /**
+     * 请求体摘要（SHA-256），同一个键用于不同请求时拒绝
+     */
+    private String requestHash;
+
+    /**
+     * 状态：PENDING-处理中，DONE-已完成
+     */
+    private String status;
+
+    /**
+     * 首次请求的响应（JSON）
+     */
+    private String response;
+
+    /**
+     * 首次请求创建的生成记录ID（与记录在同一事务中写入；不为空时说明已提交，处理中的键不会被重新占用）
+     */
+    private Long generationRecordId;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createdAt;
+
+    /**
+     * 过期时间
+     */
+    private LocalDateTime expiresAt;
+}
@@ -87,9 +87,9 @@ public class PublishedContent {
     private Boolean isPinned;
     
     /**
-     * 点赞数
+     * 点赞数；只通过增量写回/校准SQL修改，updateById 不写回读取时的旧值（避免覆盖并发写回的点赞）
      */
-    @TableField("like_count")
+    @TableField(value = "like_count", updateStrategy = FieldStrategy.NEVER)
     private Integer likeCount;
     
     /**
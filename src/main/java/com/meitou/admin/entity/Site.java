@@ -63,6 +63,12 @@ public class Site {
      */
     private String status;
     
+    /**
+     * 生成任务调度权重（各站点排队时按权重分配上游并发，默认1）
+     */
+    @TableField("schedule_weight")
+    private Integer scheduleWeight;
+    
     /**
      * 站点描述
      */
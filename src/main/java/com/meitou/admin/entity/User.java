@@ -55,10 +55,25 @@ public class User {
     private String role;
     
     /**
-     * 积分余额
+     * 积分余额（总额，含预留中的算力）
      */
     private Integer balance;
     
+    /**
+     * 预留中的算力（已提交未结算的生成任务），可用余额 = balance - heldBalance；只通过预留/结算SQL修改
+     */
+    @TableField(value = "held_balance", updateStrategy = FieldStrategy.NEVER)
+    private Integer heldBalance;
+
+    /**
+     * 可用余额 = balance - heldBalance（不对应数据库字段；管理端与用户端展示的可用余额都按此计算）
+     */
+    public int getAvailableBalance() {
+        int total = balance != null ? balance : 0;
+        int held = heldBalance != null ? heldBalance : 0;
+        return Math.max(0, total - held);
+    }
+    
     /**
      * 状态：active-正常，suspended-停用
      */
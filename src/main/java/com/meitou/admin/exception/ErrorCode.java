@@ -15,6 +15,7 @@ public enum ErrorCode {
     PARAM_ERROR(400, "参数错误"),
     UNAUTHORIZED(401, "未登录或Token已过期"),
     FORBIDDEN(403, "无权限访问"),
+    TOO_MANY_REQUESTS(429, "操作过于频繁，请稍后再试"),
     
     // 认证相关 1000-1999
     PASSWORD_ERROR(1001, "密码错误"),
@@ -40,6 +41,12 @@ public enum ErrorCode {
     REFERENCE_IMAGE_REQUIRED(2006, "参考图片不能为空"),
     API_CALL_FAILED(2007, "API调用失败"),
     API_RESPONSE_ERROR(2008, "API返回错误"),
+    GENERATION_QUEUE_FULL(2009, "当前生成任务较多，请稍后再试"),
+    GENERATION_CALLBACK_VERIFY_FAILED(2010, "生成回调验证失败"),
+    CONCURRENT_JOBS_EXCEEDED(2011, "进行中的任务过多，请稍后再试"),
+    PLATFORM_UNAVAILABLE(2012, "生成平台暂时不可用，请稍后再试"),
+    DEADLINE_EXCEEDED(2013, "生成请求超时，请稍后重试"),
+    REQUEST_IN_PROGRESS(2014, "相同请求正在处理中，请稍后查看生成记录"),
 
     // 资源/记录相关 3000-3999
     RECORD_NOT_FOUND(3001, "记录不存在"),
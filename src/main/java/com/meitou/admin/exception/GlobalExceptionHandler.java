@@ -52,6 +52,23 @@ public class GlobalExceptionHandler {
             return HttpStatus.FORBIDDEN;
         }
 
+        if (ErrorCode.GENERATION_QUEUE_FULL.getCode().equals(businessCode)
+                || ErrorCode.CONCURRENT_JOBS_EXCEEDED.getCode().equals(businessCode)) {
+            return HttpStatus.TOO_MANY_REQUESTS;
+        }
+
+        if (ErrorCode.PLATFORM_UNAVAILABLE.getCode().equals(businessCode)) {
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+
+        if (ErrorCode.DEADLINE_EXCEEDED.getCode().equals(businessCode)) {
+            return HttpStatus.GATEWAY_TIMEOUT;
+        }
+
+        if (ErrorCode.REQUEST_IN_PROGRESS.getCode().equals(businessCode)) {
+            return HttpStatus.CONFLICT;
+        }
+
         if (businessCode >= 2000 && businessCode < 3000) {
             if (ErrorCode.API_CALL_FAILED.getCode().equals(businessCode) || ErrorCode.API_RESPONSE_ERROR.getCode().equals(businessCode)) {
                 // Return 400 instead of 502 to ensure frontend receives the JSON body with error message
@@ -1,13 +1,34 @@
 package com.meitou.admin.mapper;
 
+import com.baomidou.mybatisplus.annotation.InterceptorIgnore;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.meitou.admin.entity.ApiPlatform;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
 
 /**
  * API平台 Mapper 接口
  */
 @Mapper
 public interface ApiPlatformMapper extends BaseMapper<ApiPlatform> {
-}
 
+    /**
+     * 查询所有平台（忽略租户限制）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Select("SELECT * FROM api_platforms WHERE deleted = 0 ORDER BY created_at DESC, id DESC")
+    List<ApiPlatform> selectAllIgnoreTenant();
+
+    /**
+     * 查询平台配置版本签名（数量:最大ID:最大更新时间，忽略租户限制）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Select("""
+            SELECT CONCAT_WS(':', COUNT(*), IFNULL(MAX(id), 0), IFNULL(MAX(updated_at), ''))
+            FROM api_platforms
+            WHERE deleted = 0
+            """)
+    String selectVersionSignatureIgnoreTenant();
+}
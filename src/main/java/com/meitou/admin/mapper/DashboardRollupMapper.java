@@ -0,0 +1,167 @@
+package com.meitou.admin.mapper;
+
+import com.baomidou.mybatisplus.annotation.InterceptorIgnore;
+import com.meitou.admin.entity.DailySiteMetric;
+import com.meitou.admin.entity.DailyUserConsumption;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数据概览预聚合 Mapper 接口
+ * 汇总表跨站点读写，均忽略多租户插件，站点条件由调用方显式传入
+ */
+@Mapper
+public interface DashboardRollupMapper {
+
+    /**
+     * 写入或覆盖站点每日指标（重复汇总同一天时结果相同，可安全重试）
+     *
+     * @param metrics 指标列表
+     * @return 影响行数
+     */
+    @Insert("""
+            <script>
+            INSERT INTO daily_site_metrics (site_id, stat_date, new_users, consumption, recharge, active_users, active_user_sketch)
+            VALUES
+            <foreach collection="metrics" item="m" separator=",">
+                (#{m.siteId}, #{m.statDate}, #{m.newUsers}, #{m.consumption}, #{m.recharge}, #{m.activeUsers}, #{m.activeUserSketch})
+            </foreach>
+            ON DUPLICATE KEY UPDATE
+                new_users = VALUES(new_users),
+                consumption = VALUES(consumption),
+                recharge = VALUES(recharge),
+                active_users = VALUES(active_users),
+                active_user_sketch = VALUES(active_user_sketch)
+            </script>
+            """)
+    @InterceptorIgnore(tenantLine = "true")
+    int upsertSiteMetrics(@Param("metrics") List<DailySiteMetric> metrics);
+
+    /**
+     * 写入或覆盖用户每日消耗
+     *
+     * @param rows 消耗列表
+     * @return 影响行数
+     */
+    @Insert("""
+            <script>
+            INSERT INTO daily_user_consumption (site_id, stat_date, user_id, consumption)
+            VALUES
+            <foreach collection="rows" item="r" separator=",">
+                (#{r.siteId}, #{r.statDate}, #{r.userId}, #{r.consumption})
+            </foreach>
+            ON DUPLICATE KEY UPDATE consumption = VALUES(consumption)
+            </script>
+            """)
+    @InterceptorIgnore(tenantLine = "true")
+    int upsertUserConsumption(@Param("rows") List<DailyUserConsumption> rows);
+
+    /**
+     * 查询日期范围内的站点每日指标
+     *
+     * @param startDate 开始日期（含）
+     * @param endDate   结束日期（含）
+     * @param siteId    站点ID，为空表示全部站点
+     * @return 指标列表
+     */
+    @Select("""
+            <script>
+            SELECT site_id, stat_date, new_users, consumption, recharge, active_users, active_user_sketch
+            FROM daily_site_metrics
+            WHERE stat_date BETWEEN #{startDate} AND #{endDate}
+            <if test="siteId != null">AND site_id = #{siteId}</if>
+            </script>
+            """)
+    @InterceptorIgnore(tenantLine = "true")
+    List<DailySiteMetric> selectSiteMetrics(@Param("startDate") LocalDate startDate,
+                                            @Param("endDate") LocalDate endDate,
+                                            @Param("siteId") Long siteId);
+
+    /**
+     * 查询日期范围内消耗最多的用户（消耗相同时按用户ID升序，与数据概览合并排名的顺序一致）
+     *
+     * @param startDate 开始日期（含）
+     * @param endDate   结束日期（含）
+     * @param siteId    站点ID，为空表示全部站点
+     * @param limit     返回条数
+     * @return user_id、total
+     */
+    @Select("""
+            <script>
+            SELECT user_id, SUM(consumption) AS total
+            FROM daily_user_consumption
+            WHERE stat_date BETWEEN #{startDate} AND #{endDate}
+            <if test="siteId != null">AND site_id = #{siteId}</if>
+            GROUP BY user_id
+            ORDER BY total DESC, user_id ASC
+            LIMIT #{limit}
+            </script>
+            """)
+    @InterceptorIgnore(tenantLine = "true")
+    List<Map<String, Object>> selectTopUserConsumption(@Param("startDate") LocalDate startDate,
+                                                       @Param("endDate") LocalDate endDate,
+                                                       @Param("siteId") Long siteId,
+                                                       @Param("limit") int limit);
+
+    /**
+     * 查询指定用户在日期范围内的消耗合计
+     *
+     * @param startDate 开始日期（含）
+     * @param endDate   结束日期（含）
+     * @param userIds   用户ID
+     * @return user_id、total
+     */
+    @Select("""
+            <script>
+            SELECT user_id, SUM(consumption) AS total
+            FROM daily_user_consumption
+            WHERE stat_date BETWEEN #{startDate} AND #{endDate}
+            AND user_id IN
+            <foreach collection="userIds" item="userId" open="(" separator="," close=")">
+                #{userId}
+            </foreach>
+            GROUP BY user_id
+            </script>
+            """)
+    @InterceptorIgnore(tenantLine = "true")
+    List<Map<String, Object>> selectUserConsumption(@Param("startDate") LocalDate startDate,
+                                                    @Param("endDate") LocalDate endDate,
+                                                    @Param("userIds") Collection<Long> userIds);
+
+    /**
+     * 查询汇总进度
+     *
+     * @param name 汇总名称
+     * @return rolled_from、last_rolled_date，未开始汇总时返回null
+     */
+    @Select("SELECT rolled_from, last_rolled_date FROM metrics_rollup_state WHERE name = #{name}")
+    @InterceptorIgnore(tenantLine = "true")
+    Map<String, Object> selectRollupState(@Param("name") String name);
+
+    /**
+     * 推进汇总进度（只前进不后退，多节点并发执行时保留最大值）
+     *
+     * @param name           汇总名称
+     * @param rolledFrom     已汇总的起始日期
+     * @param lastRolledDate 已汇总的最后日期
+     * @return 影响行数
+     */
+    @Insert("""
+            INSERT INTO metrics_rollup_state (name, rolled_from, last_rolled_date)
+            VALUES (#{name}, #{rolledFrom}, #{lastRolledDate})
+            ON DUPLICATE KEY UPDATE
+                rolled_from = LEAST(rolled_from, VALUES(rolled_from)),
+                last_rolled_date = GREATEST(last_rolled_date, VALUES(last_rolled_date))
+            """)
+    @InterceptorIgnore(tenantLine = "true")
+    int advanceRollupState(@Param("name") String name,
+                           @Param("rolledFrom") LocalDate rolledFrom,
+                           @Param("lastRolledDate") LocalDate lastRolledDate);
+}
@@ -3,9 +3,11 @@ package com.meitou.admin.mapper;
 import com.baomidou.mybatisplus.annotation.InterceptorIgnore;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.meitou.admin.entity.GenerationRecord;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -16,27 +18,234 @@ import java.util.List;
 @Mapper
 public interface GenerationRecordMapper extends BaseMapper<GenerationRecord> {
 
+    /**
+     * 按ID游标查询已超时的处理中记录（只取超时清理分组、同步上游状态及判断宽限期所需字段）
+     */
     @InterceptorIgnore(tenantLine = "true")
     @Select("""
-            SELECT *
+            SELECT id, site_id, task_id, created_at
             FROM generation_records
             WHERE deleted = 0
               AND status = 'processing'
-            ORDER BY created_at ASC
+              AND created_at < #{threshold}
+              AND id > #{afterId}
+            ORDER BY id ASC
             LIMIT #{limit}
             """)
-    List<GenerationRecord> selectProcessingIgnoreTenant(@Param("limit") int limit);
+    List<GenerationRecord> selectExpiredProcessingIgnoreTenant(@Param("threshold") LocalDateTime threshold,
+            @Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 锁定站点下仍处于 processing 的记录（需在事务中调用，锁住后其他完成/失败路径会等待本事务结束）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Select("""
+            <script>
+            SELECT id, user_id, site_id, type, cost, charge_status
+            FROM generation_records
+            WHERE deleted = 0
+              AND site_id = #{siteId}
+              AND status = 'processing'
+              AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">
+                #{id}
+            </foreach>
+            ORDER BY id ASC
+            FOR UPDATE
+            </script>
+            """)
+    List<GenerationRecord> selectProcessingForUpdateIgnoreTenant(@Param("siteId") Long siteId, @Param("ids") List<Long> ids);
+
+    /**
+     * 批量将处理中的记录置为失败（status = 'processing' 条件保证每条记录只会失败一次），已预留的算力标记为释放
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("""
+            <script>
+            UPDATE generation_records
+            SET status = 'failed', failure_reason = #{reason}, updated_at = NOW(),
+                charge_status = CASE WHEN charge_status = 'HELD' THEN 'RELEASED' ELSE charge_status END
+            WHERE status = 'processing'
+              AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">
+                #{id}
+            </foreach>
+            </script>
+            """)
+    int failProcessingBatchIgnoreTenant(@Param("ids") List<Long> ids, @Param("reason") String reason);
 
+    /**
+     * 按分片查询处理中的记录（按ID游标分页，只取轮询所需字段）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Select("""
+            SELECT id, user_id, site_id, type, model, status, created_at
+            FROM generation_records
+            WHERE deleted = 0
+              AND status = 'processing'
+              AND id > #{afterId}
+              AND MOD(id, #{shardTotal}) = #{shardIndex}
+            ORDER BY id ASC
+            LIMIT #{limit}
+            """)
+    List<GenerationRecord> selectProcessingShardIgnoreTenant(@Param("afterId") long afterId,
+            @Param("shardTotal") int shardTotal, @Param("shardIndex") int shardIndex, @Param("limit") int limit);
+
+    /**
+     * 按上游任务ID查询站点下的原始生成记录（拆分出的记录共用任务ID，取最早的一条）
+     */
     @InterceptorIgnore(tenantLine = "true")
     @Select("""
             SELECT *
             FROM generation_records
             WHERE deleted = 0
+              AND site_id = #{siteId}
+              AND task_id = #{taskId}
+            ORDER BY id ASC
+            LIMIT 1
+            """)
+    GenerationRecord selectByTaskIdIgnoreTenant(@Param("siteId") Long siteId, @Param("taskId") String taskId);
+
+    /**
+     * 续约本节点正在执行的任务（一条语句批量续约；已结束的任务不再续约）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("""
+            <script>
+            UPDATE generation_records
+            SET lease_expires_at = #{expiresAt}
+            WHERE lease_owner = #{owner}
               AND status = 'processing'
-              AND created_at < #{threshold}
-            ORDER BY created_at ASC
+              AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">
+                #{id}
+            </foreach>
+            </script>
+            """)
+    int renewLeasesIgnoreTenant(@Param("owner") String owner, @Param("ids") List<Long> ids,
+            @Param("expiresAt") LocalDateTime expiresAt);
+
+    /**
+     * 查询租约已过期、尚未取得上游 taskId 的处理中任务（只取接管所需字段）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Select("""
+            SELECT id, site_id
+            FROM generation_records
+            WHERE deleted = 0
+              AND status = 'processing'
+              AND task_id IS NULL
+              AND lease_expires_at < #{now}
+            ORDER BY lease_expires_at ASC
             LIMIT #{limit}
             """)
-    List<GenerationRecord> selectProcessingBeforeIgnoreTenant(@Param("threshold") LocalDateTime threshold, @Param("limit") int limit);
-}
+    List<GenerationRecord> selectExpiredLeasesIgnoreTenant(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * 接管租约已过期的任务（条件更新，多个节点同时接管时只有一个成功）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("""
+            UPDATE generation_records
+            SET lease_owner = #{owner}, lease_expires_at = #{expiresAt}, job_attempts = job_attempts + 1
+            WHERE id = #{id}
+              AND status = 'processing'
+              AND task_id IS NULL
+              AND lease_expires_at < #{now}
+            """)
+    int claimExpiredLeaseIgnoreTenant(@Param("id") Long id, @Param("owner") String owner,
+            @Param("now") LocalDateTime now, @Param("expiresAt") LocalDateTime expiresAt);
+
+    /**
+     * 退回接管（本节点暂时无法执行）：租约立即到期、执行次数减一，其他节点或下次扫描可重新接管
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("""
+            UPDATE generation_records
+            SET lease_expires_at = #{now}, job_attempts = GREATEST(job_attempts - 1, 0)
+            WHERE id = #{id}
+              AND lease_owner = #{owner}
+              AND status = 'processing'
+              AND task_id IS NULL
+            """)
+    int releaseClaimIgnoreTenant(@Param("id") Long id, @Param("owner") String owner, @Param("now") LocalDateTime now);
+
+    /**
+     * 租约是否仍由指定节点持有（执行任务前校验，租约已被其他节点接管时不再调用上游）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Select("""
+            SELECT COUNT(*)
+            FROM generation_records
+            WHERE id = #{id}
+              AND lease_owner = #{owner}
+              AND status = 'processing'
+            """)
+    long countLeaseHeldIgnoreTenant(@Param("id") Long id, @Param("owner") String owner);
 
+    /**
+     * 保存上游 taskId（条件更新：租约仍由指定节点持有且尚未保存过 taskId）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("""
+            UPDATE generation_records
+            SET task_id = #{taskId}, generation_params = #{generationParams}
+            WHERE id = #{id}
+              AND lease_owner = #{owner}
+              AND status = 'processing'
+              AND task_id IS NULL
+            """)
+    int updateTaskIdUnderLeaseIgnoreTenant(@Param("id") Long id, @Param("owner") String owner,
+            @Param("taskId") String taskId, @Param("generationParams") String generationParams);
+
+    /**
+     * 锁定一批待结算的记录（需在事务中调用；并发结算时后到的事务等待并重新读取，不会重复结算）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Select("""
+            SELECT id, user_id, site_id, type, cost, settled_amount
+            FROM generation_records
+            WHERE charge_status = 'SETTLING'
+            ORDER BY id ASC
+            LIMIT #{limit}
+            FOR UPDATE
+            """)
+    List<GenerationRecord> selectSettlingForUpdateIgnoreTenant(@Param("limit") int limit);
+
+    /**
+     * 批量标记为已结算
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("""
+            <script>
+            UPDATE generation_records
+            SET charge_status = 'SETTLED'
+            WHERE charge_status = 'SETTLING'
+              AND id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">
+                #{id}
+            </foreach>
+            </script>
+            """)
+    int markSettledIgnoreTenant(@Param("ids") List<Long> ids);
+
+    /**
+     * 批量插入拆分出的生成记录（一条 INSERT 语句）
+     * 记录自带 siteId，忽略租户拦截；自定义 SQL 不经过自动填充，创建/更新时间直接取数据库时间
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Insert("""
+            <script>
+            INSERT INTO generation_records
+                (user_id, username, site_id, type, file_type, model, prompt, generation_params,
+                 task_id, pid, cost, status, content_url, thumbnail_url, created_at, updated_at)
+            VALUES
+            <foreach collection="records" item="r" separator=",">
+                (#{r.userId}, #{r.username}, #{r.siteId}, #{r.type}, #{r.fileType}, #{r.model}, #{r.prompt},
+                 #{r.generationParams}, #{r.taskId}, #{r.pid}, #{r.cost}, #{r.status}, #{r.contentUrl},
+                 #{r.thumbnailUrl}, NOW(), NOW())
+            </foreach>
+            </script>
+            """)
+    int insertBatch(@Param("records") List<GenerationRecord> records);
+}
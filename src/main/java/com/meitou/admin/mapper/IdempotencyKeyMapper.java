@@ -0,0 +1,100 @@
+package com.meitou.admin.mapper;
+
+import com.baomidou.mybatisplus.annotation.InterceptorIgnore;
+import com.meitou.admin.entity.IdempotencyKey;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.time.LocalDateTime;
+
+/**
+ * 幂等键 Mapper 接口
+ * key 中已包含站点/用户，均忽略多租户插件
+ */
+@Mapper
+public interface IdempotencyKeyMapper {
+
+    /**
+     * 占用幂等键（已存在时忽略）
+     *
+     * @param idemKey     幂等键
+     * @param requestHash 请求体摘要
+     * @param expiresAt   过期时间
+     * @return 影响行数，0 表示该键已被占用
+     */
+    @Insert("INSERT IGNORE INTO idempotency_keys (idem_key, request_hash, status, created_at, expires_at) " +
+            "VALUES (#{idemKey}, #{requestHash}, 'PENDING', NOW(), #{expiresAt})")
+    @InterceptorIgnore(tenantLine = "true")
+    int insertPending(@Param("idemKey") String idemKey, @Param("requestHash") String requestHash,
+            @Param("expiresAt") LocalDateTime expiresAt);
+
+    /**
+     * 查询幂等键
+     *
+     * @param idemKey 幂等键
+     * @return 幂等键记录
+     */
+    @Select("SELECT idem_key, request_hash, status, response, generation_record_id, created_at, expires_at " +
+            "FROM idempotency_keys WHERE idem_key = #{idemKey}")
+    @InterceptorIgnore(tenantLine = "true")
+    IdempotencyKey selectByKey(@Param("idemKey") String idemKey);
+
+    /**
+     * 保存首次请求的响应
+     *
+     * @param idemKey  幂等键
+     * @param response 响应（JSON）
+     * @return 影响行数
+     */
+    @Update("UPDATE idempotency_keys SET status = 'DONE', response = #{response} WHERE idem_key = #{idemKey} AND status = 'PENDING'")
+    @InterceptorIgnore(tenantLine = "true")
+    int complete(@Param("idemKey") String idemKey, @Param("response") String response);
+
+    /**
+     * 关联首次请求创建的生成记录（在创建记录的事务中调用，记录回滚时关联一并回滚）
+     *
+     * @param idemKey            幂等键
+     * @param generationRecordId 生成记录ID
+     * @return 影响行数
+     */
+    @Update("UPDATE idempotency_keys SET generation_record_id = #{generationRecordId} WHERE idem_key = #{idemKey} AND status = 'PENDING'")
+    @InterceptorIgnore(tenantLine = "true")
+    int bindGenerationRecord(@Param("idemKey") String idemKey, @Param("generationRecordId") Long generationRecordId);
+
+    /**
+     * 释放处理中的幂等键（首次请求失败时，客户端重试可重新执行）
+     *
+     * @param idemKey 幂等键
+     * @return 影响行数
+     */
+    @Delete("DELETE FROM idempotency_keys WHERE idem_key = #{idemKey} AND status = 'PENDING'")
+    @InterceptorIgnore(tenantLine = "true")
+    int deletePending(@Param("idemKey") String idemKey);
+
+    /**
+     * 删除长时间未完成且尚未创建生成记录的幂等键（处理请求的节点已崩溃）
+     *
+     * @param idemKey   幂等键
+     * @param threshold 创建时间早于该时间视为失效
+     * @return 影响行数
+     */
+    @Delete("DELETE FROM idempotency_keys WHERE idem_key = #{idemKey} AND status = 'PENDING' " +
+            "AND generation_record_id IS NULL AND created_at < #{threshold}")
+    @InterceptorIgnore(tenantLine = "true")
+    int deleteStalePending(@Param("idemKey") String idemKey, @Param("threshold") LocalDateTime threshold);
+
+    /**
+     * 删除已过期的幂等键
+     *
+     * @param now   当前时间
+     * @param limit 单次删除上限
+     * @return 删除行数
+     */
+    @Delete("DELETE FROM idempotency_keys WHERE expires_at < #{now} LIMIT #{limit}")
+    @InterceptorIgnore(tenantLine = "true")
+    int deleteExpired(@Param("now") LocalDateTime now, @Param("limit") int limit);
+}
@@ -2,11 +2,23 @@ package com.meitou.admin.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.meitou.admin.entity.Like;
+import org.apache.ibatis.annotations.Delete;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
  * 点赞 Mapper 接口
  */
 @Mapper
 public interface LikeMapper extends BaseMapper<Like> {
+
+    /**
+     * 删除用户对内容的点赞（物理删除，依赖 (user_id, content_id) 唯一索引去重）
+     *
+     * @param userId    用户ID
+     * @param contentId 内容ID
+     * @return 删除行数，0 表示原本未点赞
+     */
+    @Delete("DELETE FROM likes WHERE user_id = #{userId} AND content_id = #{contentId}")
+    int deleteByUserAndContent(@Param("userId") Long userId, @Param("contentId") Long contentId);
 }
@@ -9,6 +9,10 @@ import com.meitou.admin.entity.PublishedContent;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * 发布内容 Mapper 接口
@@ -23,4 +27,66 @@ public interface PublishedContentMapper extends BaseMapper<PublishedContent> {
 //    @InterceptorIgnore(tenantLine = "true")
 //    @Select("SELECT * FROM published_contents ${ew.customSqlSegment}")
 //    <E extends IPage<PublishedContent>> E selectAdminPage(E page, @Param(Constants.WRAPPER) Wrapper<PublishedContent> queryWrapper);
+
+    /**
+     * 批量累加点赞数（一条 UPDATE 语句，增量在数据库中原子相加，不会覆盖并发写入）
+     * 由后台刷新任务调用，没有站点上下文，忽略租户拦截
+     *
+     * @param deltas 内容ID -> 点赞数增量
+     * @return 更新行数
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("""
+            <script>
+            UPDATE published_contents
+            SET like_count = GREATEST(0, IFNULL(like_count, 0) + CASE id
+            <foreach collection="deltas" index="id" item="delta">
+                WHEN #{id} THEN #{delta}
+            </foreach>
+            ELSE 0 END)
+            WHERE id IN
+            <foreach collection="deltas" index="id" open="(" separator="," close=")">
+                #{id}
+            </foreach>
+            </script>
+            """)
+    int incrementLikeCounts(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 按ID游标读取一批内容的点赞数，以及 likes 表中实际的点赞记录数（用于定期校准点赞数）
+     *
+     * @param afterId 游标（上一批最后的内容ID）
+     * @param limit   数量
+     * @return id / likeCount / actualCount
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Select("""
+            SELECT p.id AS id,
+                   IFNULL(p.like_count, 0) AS likeCount,
+                   (SELECT COUNT(*) FROM likes l WHERE l.content_id = p.id) AS actualCount
+            FROM published_contents p
+            WHERE p.id > #{afterId}
+            ORDER BY p.id
+            LIMIT #{limit}
+            """)
+    List<Map<String, Object>> selectLikeCountsAfterIgnoreTenant(@Param("afterId") long afterId,
+            @Param("limit") int limit);
+
+    /**
+     * 校准点赞数（条件更新：点赞数在读取后被修改时不覆盖）
+     *
+     * @param id        内容ID
+     * @param expected  读取时的点赞数
+     * @param likeCount 校准后的点赞数
+     * @return 更新行数
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("""
+            UPDATE published_contents
+            SET like_count = #{likeCount}
+            WHERE id = #{id}
+              AND IFNULL(like_count, 0) = #{expected}
+            """)
+    int resetLikeCountIgnoreTenant(@Param("id") Long id, @Param("expected") long expected,
+            @Param("likeCount") long likeCount);
 }
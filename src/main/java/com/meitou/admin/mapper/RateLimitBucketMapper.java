@@ -0,0 +1,76 @@
+package com.meitou.admin.mapper;
+
+import com.baomidou.mybatisplus.annotation.InterceptorIgnore;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+/**
+ * 限流令牌桶状态 Mapper 接口
+ * 桶状态跨站点共享（key 中已包含站点/用户），均忽略多租户插件
+ */
+@Mapper
+public interface RateLimitBucketMapper {
+
+    /**
+     * 按 GCRA 尝试消耗令牌（单条语句，行锁只在语句执行期间持有）
+     * 仅当 max(理论到达时间, 当前时间) + 消耗 - 容量 不晚于当前时间时更新
+     *
+     * @param bucketKey   桶key
+     * @param nowMs       当前时间（毫秒时间戳）
+     * @param costMs      本次消耗（毫秒）
+     * @param toleranceMs 桶容量（毫秒）
+     * @return 影响行数，1 表示允许；0 表示被限流或桶不存在
+     */
+    @Update("UPDATE rate_limit_buckets SET tat_ms = GREATEST(tat_ms, #{nowMs}) + #{costMs}, updated_at = NOW() " +
+            "WHERE bucket_key = #{bucketKey} AND GREATEST(tat_ms, #{nowMs}) + #{costMs} - #{toleranceMs} <= #{nowMs}")
+    @InterceptorIgnore(tenantLine = "true")
+    int tryConsume(@Param("bucketKey") String bucketKey, @Param("nowMs") long nowMs,
+            @Param("costMs") long costMs, @Param("toleranceMs") long toleranceMs);
+
+    /**
+     * 读取桶的理论到达时间（不加锁，用于计算需等待的时间）
+     *
+     * @param bucketKey 桶key
+     * @return 理论到达时间（毫秒时间戳），桶不存在时返回null
+     */
+    @Select("SELECT tat_ms FROM rate_limit_buckets WHERE bucket_key = #{bucketKey}")
+    @InterceptorIgnore(tenantLine = "true")
+    Long selectTat(@Param("bucketKey") String bucketKey);
+
+    /**
+     * 创建桶并消耗首批令牌（已存在时忽略）
+     *
+     * @param bucketKey 桶key
+     * @param tatMs     理论到达时间（毫秒时间戳）
+     * @return 影响行数，0 表示桶已存在
+     */
+    @Insert("INSERT IGNORE INTO rate_limit_buckets (bucket_key, tat_ms, updated_at) VALUES (#{bucketKey}, #{tatMs}, NOW())")
+    @InterceptorIgnore(tenantLine = "true")
+    int insertIgnore(@Param("bucketKey") String bucketKey, @Param("tatMs") long tatMs);
+
+    /**
+     * 退还令牌（准入被其他条件拒绝时）
+     *
+     * @param bucketKey 桶key
+     * @param costMs    退还的消耗（毫秒）
+     * @return 影响行数
+     */
+    @Update("UPDATE rate_limit_buckets SET tat_ms = tat_ms - #{costMs}, updated_at = NOW() WHERE bucket_key = #{bucketKey}")
+    @InterceptorIgnore(tenantLine = "true")
+    int refund(@Param("bucketKey") String bucketKey, @Param("costMs") long costMs);
+
+    /**
+     * 删除桶已满的记录（理论到达时间早于指定时间）
+     *
+     * @param beforeMs 毫秒时间戳
+     * @param limit    单次删除上限
+     * @return 删除行数
+     */
+    @Delete("DELETE FROM rate_limit_buckets WHERE tat_ms < #{beforeMs} LIMIT #{limit}")
+    @InterceptorIgnore(tenantLine = "true")
+    int deleteIdle(@Param("beforeMs") long beforeMs, @Param("limit") int limit);
+}
@@ -42,18 +42,67 @@ public interface UserMapper extends BaseMapper<User> {
     List<User> selectListIgnoreTenant(@Param(Constants.WRAPPER) Wrapper<User> queryWrapper);
 
     /**
-     * 扣减用户余额
+     * 扣减用户余额（不能动用已预留的算力）
      * @param userId 用户ID
      * @param cost 消耗积分
      * @param updatedAt 更新时间（由Java程序生成）
      * @return 更新行数
      */
-    @Update("UPDATE users SET balance = balance - #{cost}, updated_at = #{updatedAt} WHERE id = #{userId} AND balance >= #{cost}")
+    @Update("UPDATE users SET balance = balance - #{cost}, updated_at = #{updatedAt} WHERE id = #{userId} AND balance - held_balance >= #{cost}")
     int deductBalance(@Param("userId") Long userId, @Param("cost") Integer cost, @Param("updatedAt") java.time.LocalDateTime updatedAt);
 
     @Update("UPDATE users SET balance = balance + #{delta}, updated_at = #{updatedAt} WHERE id = #{userId}")
     int incrementBalance(@Param("userId") Long userId, @Param("delta") Integer delta, @Param("updatedAt") java.time.LocalDateTime updatedAt);
 
+    /**
+     * 预留算力（可用余额 = balance - held_balance 不足时不更新）
+     * 单条语句完成校验与预留，行锁只持有到所在事务提交
+     * @param userId 用户ID
+     * @param amount 预留积分
+     * @param updatedAt 更新时间
+     * @return 更新行数，0 表示可用余额不足
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("UPDATE users SET held_balance = held_balance + #{amount}, updated_at = #{updatedAt} " +
+            "WHERE id = #{userId} AND balance - held_balance >= #{amount}")
+    int holdBalance(@Param("userId") Long userId, @Param("amount") Integer amount, @Param("updatedAt") java.time.LocalDateTime updatedAt);
+
+    /**
+     * 释放预留的算力
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("UPDATE users SET held_balance = held_balance - #{amount}, updated_at = #{updatedAt} " +
+            "WHERE id = #{userId} AND held_balance >= #{amount}")
+    int releaseHold(@Param("userId") Long userId, @Param("amount") Integer amount, @Param("updatedAt") java.time.LocalDateTime updatedAt);
+
+    /**
+     * 结算预留：扣减实际消耗并释放对应的预留
+     * @param userId 用户ID
+     * @param settled 实际扣减积分
+     * @param held 释放的预留积分（不小于 settled）
+     * @param updatedAt 更新时间
+     * @return 更新行数
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Update("UPDATE users SET balance = balance - #{settled}, held_balance = held_balance - #{held}, " +
+            "updated_at = #{updatedAt} WHERE id = #{userId} AND held_balance >= #{held}")
+    int settleHold(@Param("userId") Long userId, @Param("settled") Integer settled, @Param("held") Integer held,
+                   @Param("updatedAt") java.time.LocalDateTime updatedAt);
+
+    /**
+     * 批量查询用户余额（跨站点结算使用，忽略多租户插件）
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Select("""
+            <script>
+            SELECT id, balance, held_balance FROM users WHERE id IN
+            <foreach collection="ids" item="id" open="(" separator="," close=")">
+                #{id}
+            </foreach>
+            </script>
+            """)
+    List<User> selectBalancesIgnoreTenant(@Param("ids") java.util.Collection<Long> ids);
+
     /**
      * 根据手机号查询用户（包含已删除的）
      * @param phone 手机号
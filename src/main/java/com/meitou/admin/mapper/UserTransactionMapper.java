@@ -5,6 +5,7 @@ import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.baomidou.mybatisplus.core.toolkit.Constants;
 import com.meitou.admin.entity.UserTransaction;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -24,4 +25,22 @@ public interface UserTransactionMapper extends BaseMapper<UserTransaction> {
     @Select("SELECT ${ew.sqlSelect} FROM user_transactions ${ew.customSqlSegment}")
     @InterceptorIgnore(tenantLine = "true")
     List<Map<String, Object>> selectMapsIgnoreTenant(@Param(Constants.WRAPPER) Wrapper<UserTransaction> queryWrapper);
+
+    /**
+     * 批量插入流水（一条 INSERT 语句）
+     * 流水自带 siteId，忽略租户拦截；自定义 SQL 不经过自动填充，创建时间直接取数据库时间
+     */
+    @InterceptorIgnore(tenantLine = "true")
+    @Insert("""
+            <script>
+            INSERT INTO user_transactions
+                (user_id, type, amount, balance_after, reference_id, description, site_id, created_at)
+            VALUES
+            <foreach collection="transactions" item="t" separator=",">
+                (#{t.userId}, #{t.type}, #{t.amount}, #{t.balanceAfter}, #{t.referenceId}, #{t.description},
+                 #{t.siteId}, NOW())
+            </foreach>
+            </script>
+            """)
+    int insertBatch(@Param("transactions") List<UserTransaction> transactions);
 }
@@ -2,19 +2,28 @@ package com.meitou.admin.service.admin;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.meitou.admin.common.SiteContext;
 import com.meitou.admin.config.MybatisPlusConfig;
 import com.meitou.admin.entity.ApiInterface;
 import com.meitou.admin.entity.ApiPlatform;
+import com.meitou.admin.entity.GenerationRecord;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
 import com.meitou.admin.mapper.ApiInterfaceMapper;
 import com.meitou.admin.mapper.ApiPlatformMapper;
+import com.meitou.admin.service.common.ApiPlatformRegistry;
+import com.meitou.admin.service.common.PlatformHealthRouter;
+import com.meitou.admin.service.common.PlatformRequestPlan;
+import com.meitou.admin.service.common.PlatformRequestPlanCache;
 import com.meitou.admin.util.AesEncryptUtil;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -23,10 +32,18 @@ import java.util.List;
 @Service
 @RequiredArgsConstructor
 public class ApiPlatformService extends ServiceImpl<ApiPlatformMapper, ApiPlatform> {
+
+    /**
+     * 生成参数中保存提交平台ID的字段名
+     */
+    public static final String TASK_PLATFORM_ID_PARAM = "platformId";
     
     private final ApiPlatformMapper platformMapper; // 平台Mapper
     private final ApiInterfaceMapper interfaceMapper; // 接口Mapper
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final PlatformRequestPlanCache platformRequestPlanCache; // 平台请求计划缓存
+    private final ApiPlatformRegistry apiPlatformRegistry; // 平台注册表
+    private final PlatformHealthRouter platformHealthRouter; // 平台健康路由
+    private final ObjectMapper objectMapper;
     
     /**
      * 获取平台列表（按站点ID）
@@ -68,42 +85,51 @@ public class ApiPlatformService extends ServiceImpl<ApiPlatformMapper, ApiPlatfo
     
     /**
      * 根据类型获取平台列表（解密apiKey版本，用于内部服务调用）
+     * 从平台注册表读取，apiKey 已在加载时解密，不再查库
      * 
      * @param type API类型：image_analysis, video_analysis, txt2img, img2img, txt2video, img2video, voice_clone, prompt_optimize
      * @param siteId 站点ID（可选）
-     * @return 平台列表（apiKey已解密，已启用）
+     * @return 平台列表（apiKey已解密，已启用，只读）
      */
     public List<ApiPlatform> getPlatformsByTypeWithDecryptedKey(String type, Long siteId) {
-        LambdaQueryWrapper<ApiPlatform> wrapper = new LambdaQueryWrapper<>();
-        if (type != null && !type.isEmpty()) {
-            wrapper.eq(ApiPlatform::getType, type);
-        }
-        if (siteId != null) {
-            wrapper.eq(ApiPlatform::getSiteId, siteId);
+        Long currentSiteId = resolveRegistrySiteId(siteId);
+        if (currentSiteId == null) {
+            return Collections.emptyList();
         }
-        wrapper.eq(ApiPlatform::getIsEnabled, true); // 只获取已启用的平台
-        wrapper.eq(ApiPlatform::getDeleted, 0);
-        wrapper.orderByDesc(ApiPlatform::getCreatedAt);
-        
-        List<ApiPlatform> platforms = platformMapper.selectList(wrapper);
-        // 解密apiKey
-        platforms.forEach(platform -> {
-            if (platform.getApiKey() != null && !platform.getApiKey().isEmpty()) {
-                String decryptedKey = AesEncryptUtil.decrypt(platform.getApiKey());
-                platform.setApiKey(decryptedKey);
+        List<ApiPlatform> platforms = new ArrayList<>();
+        for (ApiPlatform platform : apiPlatformRegistry.getPlatformsBySite(currentSiteId)) {
+            if (!Boolean.TRUE.equals(platform.getIsEnabled())) {
+                continue; // 只获取已启用的平台
             }
-        });
+            if (type != null && !type.isEmpty() && !type.equals(platform.getType())) {
+                continue;
+            }
+            platforms.add(platform);
+        }
         return platforms;
     }
 
+    /**
+     * 根据类型获取当前站点已启用的平台列表（用于展示模型列表）
+     * 直接读取平台注册表，调用方只应使用平台名称、模型配置等展示字段
+     *
+     * @param type API类型
+     * @return 平台列表（只读）
+     */
+    public List<ApiPlatform> getEnabledPlatformsByType(String type) {
+        return getPlatformsByTypeWithDecryptedKey(type, null);
+    }
+
     /**
      * 根据类型和模型获取平台（解密apiKey版本）
-     * 优先匹配支持该模型的平台，其次返回未配置模型限制的平台
+     * 优先在明确支持该模型的平台中选择，其次在未配置模型限制的平台中选择；
+     * 同一层有多个平台时由 {@link PlatformHealthRouter} 跳过熔断中的平台并按健康度加权选择
      *
      * @param type API类型
      * @param model 模型名称
      * @param siteId 站点ID（可选）
      * @return 匹配的平台，未找到返回null
+     * @throws BusinessException 有匹配的平台但全部处于熔断中
      */
     public ApiPlatform getPlatformByTypeAndModel(String type, String model, Long siteId) {
         List<ApiPlatform> platforms = getPlatformsByTypeWithDecryptedKey(type, siteId);
@@ -112,73 +138,79 @@ public class ApiPlatformService extends ServiceImpl<ApiPlatformMapper, ApiPlatfo
             return null;
         }
 
-        // 1. 优先查找明确支持该模型的平台
+        List<ApiPlatform> modelPlatforms = new ArrayList<>();
+        List<ApiPlatform> genericPlatforms = new ArrayList<>();
+        collectCandidates(platforms, model, null, modelPlatforms, genericPlatforms);
+
+        // 1. 优先在明确支持该模型的平台中选择
+        ApiPlatform chosen = platformHealthRouter.choose(modelPlatforms);
+        // 2. 没有明确支持的（或全部熔断），在未配置模型限制的平台（通用平台）中选择
+        if (chosen == null) {
+            chosen = platformHealthRouter.choose(genericPlatforms);
+        }
+        if (chosen == null && (!modelPlatforms.isEmpty() || !genericPlatforms.isEmpty())) {
+            throw new BusinessException(ErrorCode.PLATFORM_UNAVAILABLE);
+        }
+        // 3. 都没有时返回null，让上层决定是否报错
+        return chosen;
+    }
+
+    /**
+     * 获取除指定平台外的另一个可用平台（用于对冲请求），选择规则与 {@link #getPlatformByTypeAndModel} 一致，
+     * 但只在未熔断的平台中选择，不占用半开探测名额
+     *
+     * @param type API类型
+     * @param model 模型名称
+     * @param siteId 站点ID（可选）
+     * @param excludePlatformId 排除的平台ID（主请求所用平台）
+     * @return 另一个可用平台，没有时返回null
+     */
+    public ApiPlatform getAlternatePlatform(String type, String model, Long siteId, Long excludePlatformId) {
+        List<ApiPlatform> modelPlatforms = new ArrayList<>();
+        List<ApiPlatform> genericPlatforms = new ArrayList<>();
+        collectCandidates(getPlatformsByTypeWithDecryptedKey(type, siteId), model, excludePlatformId,
+                modelPlatforms, genericPlatforms);
+        if (modelPlatforms.isEmpty() && genericPlatforms.isEmpty()) {
+            return null;
+        }
+        ApiPlatform chosen = platformHealthRouter.chooseAvailable(modelPlatforms);
+        return chosen != null ? chosen : platformHealthRouter.chooseAvailable(genericPlatforms);
+    }
+
+    /**
+     * 获取生成记录提交时使用的平台（用于查询任务状态，不参与路由）
+     * 优先使用记录中保存的平台ID；旧记录未保存时，按类型和模型取第一个匹配的平台
+     *
+     * @param record 生成记录
+     * @return 平台，未找到返回null
+     */
+    public ApiPlatform getTaskPlatform(GenerationRecord record) {
+        Long platformId = readTaskPlatformId(record.getGenerationParams());
+        if (platformId != null) {
+            ApiPlatform platform = apiPlatformRegistry.getPlatform(platformId);
+            if (platform != null && Boolean.TRUE.equals(platform.getIsEnabled())
+                    && platform.getSiteId() != null && platform.getSiteId().equals(record.getSiteId())) {
+                return platform;
+            }
+        }
+
+        List<ApiPlatform> platforms = getPlatformsByTypeWithDecryptedKey(record.getType(), record.getSiteId());
+        String model = record.getModel();
         if (model != null && !model.isEmpty()) {
             for (ApiPlatform platform : platforms) {
-                String supportedModels = platform.getSupportedModels();
-                if (supportedModels != null && !supportedModels.isEmpty()) {
-                    try {
-                        if (supportedModels.trim().startsWith("[")) {
-                            // 尝试解析JSON (新格式)
-                            JsonNode modelsNode = objectMapper.readTree(supportedModels);
-                            for (JsonNode m : modelsNode) {
-                                // 处理字符串数组 ["flux-1.0", "flux-2.0"]
-                                if (m.isTextual()) {
-                                    if (m.asText().equals(model)) {
-                                        return platform;
-                                    }
-                                } 
-                                // 处理对象数组 [{"name": "flux-1.0", "label": "Flux 1.0"}]
-                                else if (m.isObject()) {
-                                    // 优先匹配 name 字段（对应前端 ModelInfo.id）
-                                    if (m.has("name") && m.get("name").asText().equals(model)) {
-                                        return platform;
-                                    }
-                                    // 兼容 id 字段
-                                    if (m.has("id") && m.get("id").asText().equals(model)) {
-                                        return platform;
-                                    }
-                                    // 兼容 value 字段
-                                    if (m.has("value") && m.get("value").asText().equals(model)) {
-                                        return platform;
-                                    }
-                                }
-                            }
-                        } else {
-                            // 旧格式兼容：#号分割
-                            String[] models = supportedModels.split("#");
-                            for (String m : models) {
-                                if (m.trim().equals(model)) {
-                                    return platform;
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        // 解析JSON失败，尝试旧的#分割方式
-                        String[] models = supportedModels.split("#");
-                        for (String m : models) {
-                            if (m.trim().equals(model)) {
-                                return platform;
-                            }
-                        }
-                    }
+                if (platformRequestPlanCache.getPlan(platform).supportsModel(model)) {
+                    return platform;
                 }
             }
         }
-
-        // 2. 如果没有明确支持的，查找未配置模型限制的平台（通用平台）
         for (ApiPlatform platform : platforms) {
-            String supportedModels = platform.getSupportedModels();
-            if (supportedModels == null || supportedModels.trim().isEmpty() || "[]".equals(supportedModels.trim())) {
+            if (platformRequestPlanCache.getPlan(platform).isGeneric()) {
                 return platform;
             }
         }
-
-        // 3. 如果还是没找到，且列表不为空，是否默认返回第一个？
-        // 为了严格匹配，建议返回null，让上层决定是否报错
         return null;
     }
-    
+
     /**
      * 创建平台（包含接口）
      * 
@@ -212,6 +244,7 @@ public class ApiPlatformService extends ServiceImpl<ApiPlatformMapper, ApiPlatfo
                 interfaceMapper.insert(apiInterface);
             }
         }
+        apiPlatformRegistry.refreshAfterCommit();
         
         return platform;
     }
@@ -264,6 +297,8 @@ public class ApiPlatformService extends ServiceImpl<ApiPlatformMapper, ApiPlatfo
         }
         
         platformMapper.updateById(existing);
+        platformRequestPlanCache.invalidate(id);
+        apiPlatformRegistry.refreshAfterCommit();
         
         // 删除旧接口
         LambdaQueryWrapper<ApiInterface> wrapper = new LambdaQueryWrapper<>();
@@ -330,7 +365,7 @@ public class ApiPlatformService extends ServiceImpl<ApiPlatformMapper, ApiPlatfo
     }
     
     /**
-     * 获取平台的接口列表
+     * 获取平台的接口列表（管理端，直接查库）
      * 
      * @param platformId 平台ID
      * @return 接口列表
@@ -341,7 +376,28 @@ public class ApiPlatformService extends ServiceImpl<ApiPlatformMapper, ApiPlatfo
         wrapper.eq(ApiInterface::getDeleted, 0);
         return interfaceMapper.selectList(wrapper);
     }
-    
+
+    /**
+     * 获取平台的接口列表（用于内部服务调用）
+     * 从平台注册表读取，只返回当前站点的接口
+     *
+     * @param platformId 平台ID
+     * @return 接口列表（只读）
+     */
+    public List<ApiInterface> getRegisteredInterfaces(Long platformId) {
+        Long currentSiteId = resolveRegistrySiteId(null);
+        if (currentSiteId == null) {
+            return Collections.emptyList();
+        }
+        List<ApiInterface> interfaces = new ArrayList<>();
+        for (ApiInterface apiInterface : apiPlatformRegistry.getInterfaces(platformId)) {
+            if (currentSiteId.equals(apiInterface.getSiteId())) {
+                interfaces.add(apiInterface);
+            }
+        }
+        return interfaces;
+    }
+
     /**
      * 删除平台
      * 
@@ -351,7 +407,60 @@ public class ApiPlatformService extends ServiceImpl<ApiPlatformMapper, ApiPlatfo
     public void deletePlatform(Long id) {
         getPlatformById(id);
         platformMapper.deleteById(id);
+        platformRequestPlanCache.invalidate(id);
+        apiPlatformRegistry.refreshAfterCommit();
         // 接口会通过外键级联删除
     }
+
+    /**
+     * 把平台分为明确支持该模型的平台和未配置模型限制的通用平台
+     */
+    private void collectCandidates(List<ApiPlatform> platforms, String model, Long excludePlatformId,
+                                   List<ApiPlatform> modelPlatforms, List<ApiPlatform> genericPlatforms) {
+        for (ApiPlatform platform : platforms) {
+            if (excludePlatformId != null && excludePlatformId.equals(platform.getId())) {
+                continue;
+            }
+            PlatformRequestPlan plan = platformRequestPlanCache.getPlan(platform);
+            if (model != null && !model.isEmpty() && plan.supportsModel(model)) {
+                modelPlatforms.add(platform);
+            } else if (plan.isGeneric()) {
+                genericPlatforms.add(platform);
+            }
+        }
+    }
+
+    /**
+     * 从生成参数中读取提交任务时的平台ID
+     */
+    private Long readTaskPlatformId(String generationParams) {
+        if (generationParams == null || generationParams.isEmpty()) {
+            return null;
+        }
+        try {
+            JsonNode platformId = objectMapper.readTree(generationParams).get(TASK_PLATFORM_ID_PARAM);
+            return platformId != null && platformId.canConvertToLong() ? platformId.asLong() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析注册表查询使用的站点ID
+     * 与租户拦截器保持一致：只能查询当前站点上下文的数据，指定的站点ID与上下文不一致时无结果
+     *
+     * @param siteId 指定的站点ID（可选）
+     * @return 站点ID，无可查询站点时返回null
+     */
+    private Long resolveRegistrySiteId(Long siteId) {
+        Long currentSiteId = SiteContext.getSiteId();
+        if (currentSiteId == null) {
+            return null;
+        }
+        if (siteId != null && !siteId.equals(currentSiteId)) {
+            return null;
+        }
+        return currentSiteId;
+    }
 }
 
@@ -0,0 +1,307 @@
+package com.meitou.admin.service.admin;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.meitou.admin.entity.DailySiteMetric;
+import com.meitou.admin.entity.DailyUserConsumption;
+import com.meitou.admin.entity.User;
+import com.meitou.admin.entity.UserTransaction;
+import com.meitou.admin.mapper.DashboardRollupMapper;
+import com.meitou.admin.mapper.UserMapper;
+import com.meitou.admin.mapper.UserTransactionMapper;
+import com.meitou.admin.util.HyperLogLog;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据概览按天预聚合服务
+ * 把已结束的自然日按站点汇总为新增用户、消耗、充值、活跃用户草图，并按用户汇总当天消耗；
+ * 汇总进度记录在 metrics_rollup_state，数据概览读取已汇总区间的汇总表，只对未汇总的日期（通常只有今天）实时查询。
+ * 同一天重复汇总结果相同（按主键覆盖写入），多节点同时执行或中途失败重试都是安全的。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DashboardRollupService {
+
+    private static final String ROLLUP_NAME = "dashboard_daily";
+
+    private final DashboardRollupMapper rollupMapper;
+    private final UserMapper userMapper;
+    private final UserTransactionMapper userTransactionMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 首次汇总时回填的天数
+     */
+    @Value("${dashboard.rollup.backfillDays:90}")
+    private int backfillDays;
+
+    /**
+     * 单次执行最多汇总的天数（回填时分多次完成，避免长时间占用数据库）
+     */
+    @Value("${dashboard.rollup.maxDaysPerRun:31}")
+    private int maxDaysPerRun;
+
+    /**
+     * 跨天后等待的分钟数，让前一天末尾的流水全部提交后再汇总
+     */
+    @Value("${dashboard.rollup.settleMinutes:10}")
+    private int settleMinutes;
+
+    /**
+     * 单条 INSERT 写入的最大行数
+     */
+    @Value("${dashboard.rollup.batchSize:500}")
+    private int batchSize;
+
+    private final LongAdder rolledDays = new LongAdder();
+    private final LongAdder rollupFailures = new LongAdder();
+    private volatile LocalDateTime lastRunAt;
+
+    /**
+     * 汇总所有已结束且尚未汇总的日期
+     *
+     * @return 本次汇总的天数
+     */
+    public int catchUp() {
+        lastRunAt = LocalDateTime.now();
+        LocalDate lastCompleteDay = LocalDateTime.now().minusMinutes(settleMinutes).toLocalDate().minusDays(1);
+        RolledWindow window = getRolledWindow();
+        LocalDate rolledFrom = window != null ? window.getFrom() : lastCompleteDay.minusDays(Math.max(1, backfillDays) - 1L);
+        LocalDate next = window != null ? window.getTo().plusDays(1) : rolledFrom;
+
+        int days = 0;
+        while (!next.isAfter(lastCompleteDay) && days < maxDaysPerRun) {
+            try {
+                rollupDay(next);
+            } catch (Exception e) {
+                rollupFailures.increment();
+                log.error("数据概览汇总失败 date={}: {}", next, e.getMessage(), e);
+                break;
+            }
+            rollupMapper.advanceRollupState(ROLLUP_NAME, rolledFrom, next);
+            rolledDays.increment();
+            next = next.plusDays(1);
+            days++;
+        }
+        if (days > 0) {
+            log.info("数据概览汇总完成 {} 天，已汇总至 {}", days, next.minusDays(1));
+        }
+        return days;
+    }
+
+    /**
+     * 汇总某一天的数据（覆盖写入）
+     *
+     * @param date 日期
+     */
+    public void rollupDay(LocalDate date) {
+        LocalDateTime start = date.atStartOfDay();
+        LocalDateTime end = date.plusDays(1).atStartOfDay();
+        Map<Long, DailySiteMetric> metrics = new HashMap<>();
+
+        QueryWrapper<User> userWrapper = new QueryWrapper<>();
+        userWrapper.select("site_id, count(*) as count")
+                .ge("created_at", start)
+                .lt("created_at", end)
+                .groupBy("site_id");
+        for (Map<String, Object> row : userMapper.selectMapsIgnoreTenant(userWrapper)) {
+            if (row == null) {
+                continue;
+            }
+            siteMetric(metrics, row.get("site_id"), date).setNewUsers(toLong(row.get("count")));
+        }
+
+        QueryWrapper<UserTransaction> rechargeWrapper = new QueryWrapper<>();
+        rechargeWrapper.select("site_id, sum(abs(amount)) as total")
+                .eq("type", "RECHARGE")
+                .ge("created_at", start)
+                .lt("created_at", end)
+                .groupBy("site_id");
+        for (Map<String, Object> row : userTransactionMapper.selectMapsIgnoreTenant(rechargeWrapper)) {
+            if (row == null) {
+                continue;
+            }
+            siteMetric(metrics, row.get("site_id"), date).setRecharge(toLong(row.get("total")));
+        }
+
+        QueryWrapper<UserTransaction> consumeWrapper = new QueryWrapper<>();
+        consumeWrapper.select("site_id, user_id, sum(abs(amount)) as total")
+                .eq("type", "CONSUME")
+                .ge("created_at", start)
+                .lt("created_at", end)
+                .groupBy("site_id", "user_id");
+        Map<Long, HyperLogLog> sketches = new HashMap<>();
+        List<DailyUserConsumption> userRows = new ArrayList<>();
+        for (Map<String, Object> row : userTransactionMapper.selectMapsIgnoreTenant(consumeWrapper)) {
+            if (row == null || row.get("user_id") == null) {
+                continue;
+            }
+            DailySiteMetric metric = siteMetric(metrics, row.get("site_id"), date);
+            Long userId = toLong(row.get("user_id"));
+            long total = toLong(row.get("total"));
+            metric.setConsumption(metric.getConsumption() + total);
+            metric.setActiveUsers(metric.getActiveUsers() + 1);
+            sketches.computeIfAbsent(metric.getSiteId(), k -> new HyperLogLog()).add(userId);
+
+            DailyUserConsumption userRow = new DailyUserConsumption();
+            userRow.setSiteId(metric.getSiteId());
+            userRow.setStatDate(date);
+            userRow.setUserId(userId);
+            userRow.setConsumption(total);
+            userRows.add(userRow);
+        }
+        sketches.forEach((siteId, sketch) -> metrics.get(siteId).setActiveUserSketch(sketch.toBytes()));
+
+        if (metrics.isEmpty()) {
+            return;
+        }
+        List<DailySiteMetric> metricList = new ArrayList<>(metrics.values());
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < metricList.size(); i += batchSize) {
+                rollupMapper.upsertSiteMetrics(metricList.subList(i, Math.min(i + batchSize, metricList.size())));
+            }
+            for (int i = 0; i < userRows.size(); i += batchSize) {
+                rollupMapper.upsertUserConsumption(userRows.subList(i, Math.min(i + batchSize, userRows.size())));
+            }
+        });
+    }
+
+    /**
+     * 获取已汇总的日期区间
+     *
+     * @return 区间，尚未汇总过时返回null
+     */
+    public RolledWindow getRolledWindow() {
+        Map<String, Object> state = rollupMapper.selectRollupState(ROLLUP_NAME);
+        if (state == null || state.get("rolled_from") == null || state.get("last_rolled_date") == null) {
+            return null;
+        }
+        return new RolledWindow(LocalDate.parse(state.get("rolled_from").toString()),
+                LocalDate.parse(state.get("last_rolled_date").toString()));
+    }
+
+    /**
+     * 把查询日期范围拆分为可读汇总表的部分和需要实时查询的部分
+     *
+     * @param startDate 开始日期（含）
+     * @param endDate   结束日期（含）
+     * @return 拆分结果
+     */
+    public RangeSplit split(LocalDate startDate, LocalDate endDate) {
+        RolledWindow window = getRolledWindow();
+        List<LocalDateTime[]> liveRanges = new ArrayList<>();
+        if (window == null || endDate.isBefore(window.getFrom()) || startDate.isAfter(window.getTo())) {
+            liveRanges.add(new LocalDateTime[]{startDate.atStartOfDay(), endDate.plusDays(1).atStartOfDay()});
+            return new RangeSplit(null, null, liveRanges);
+        }
+        LocalDate rolledStart = startDate.isBefore(window.getFrom()) ? window.getFrom() : startDate;
+        LocalDate rolledEnd = endDate.isAfter(window.getTo()) ? window.getTo() : endDate;
+        if (startDate.isBefore(rolledStart)) {
+            liveRanges.add(new LocalDateTime[]{startDate.atStartOfDay(), rolledStart.atStartOfDay()});
+        }
+        if (endDate.isAfter(rolledEnd)) {
+            liveRanges.add(new LocalDateTime[]{rolledEnd.plusDays(1).atStartOfDay(), endDate.plusDays(1).atStartOfDay()});
+        }
+        return new RangeSplit(rolledStart, rolledEnd, liveRanges);
+    }
+
+    /**
+     * 获取汇总指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        RolledWindow window = getRolledWindow();
+        stats.put("rolledFrom", window != null ? window.getFrom().toString() : null);
+        stats.put("lastRolledDate", window != null ? window.getTo().toString() : null);
+        stats.put("lastRunAt", lastRunAt != null ? lastRunAt.toString() : null);
+        stats.put("rolledDays", rolledDays.sum());
+        stats.put("rollupFailures", rollupFailures.sum());
+        return stats;
+    }
+
+    private DailySiteMetric siteMetric(Map<Long, DailySiteMetric> metrics, Object siteIdValue, LocalDate date) {
+        // 没有站点的历史数据归入 0
+        Long siteId = siteIdValue != null ? toLong(siteIdValue) : 0L;
+        return metrics.computeIfAbsent(siteId, id -> {
+            DailySiteMetric metric = new DailySiteMetric();
+            metric.setSiteId(id);
+            metric.setStatDate(date);
+            metric.setNewUsers(0L);
+            metric.setConsumption(0L);
+            metric.setRecharge(0L);
+            metric.setActiveUsers(0L);
+            return metric;
+        });
+    }
+
+    static long toLong(Object value) {
+        if (value == null) {
+            return 0L;
+        }
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        return new BigDecimal(value.toString()).longValue();
+    }
+
+    /**
+     * 已汇总的日期区间（含首尾）
+     */
+    @Getter
+    public static class RolledWindow {
+        private final LocalDate from;
+        private final LocalDate to;
+
+        public RolledWindow(LocalDate from, LocalDate to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * 查询日期范围的拆分结果
+     */
+    @Getter
+    public static class RangeSplit {
+
+        /**
+         * 读汇总表的开始日期（含），没有可用汇总时为null
+         */
+        private final LocalDate rolledStart;
+
+        /**
+         * 读汇总表的结束日期（含），没有可用汇总时为null
+         */
+        private final LocalDate rolledEnd;
+
+        /**
+         * 需要实时查询的时间段 [开始, 结束)
+         */
+        private final List<LocalDateTime[]> liveRanges;
+
+        public RangeSplit(LocalDate rolledStart, LocalDate rolledEnd, List<LocalDateTime[]> liveRanges) {
+            this.rolledStart = rolledStart;
+            this.rolledEnd = rolledEnd;
+            this.liveRanges = liveRanges;
+        }
+
+        public boolean hasRolled() {
+            return rolledStart != null;
+        }
+    }
+}
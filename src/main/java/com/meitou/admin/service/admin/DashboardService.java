@@ -3,10 +3,13 @@ package com.meitou.admin.service.admin;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.entity.DailySiteMetric;
 import com.meitou.admin.entity.User;
 import com.meitou.admin.entity.UserTransaction;
+import com.meitou.admin.mapper.DashboardRollupMapper;
 import com.meitou.admin.mapper.UserMapper;
 import com.meitou.admin.mapper.UserTransactionMapper;
+import com.meitou.admin.util.HyperLogLog;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
@@ -20,6 +23,8 @@ import java.util.stream.Collectors;
 
 /**
  * 管理端数据概览服务类
+ * 消耗、充值、新增用户、活跃用户和消耗排名读取按天预聚合的数据（见 {@link DashboardRollupService}），
+ * 只对尚未汇总的日期（通常只有今天）实时查询流水后合并。
  */
 @Service
 @RequiredArgsConstructor
@@ -27,6 +32,18 @@ public class DashboardService {
     
     private final UserMapper userMapper;
     private final UserTransactionMapper userTransactionMapper;
+    private final DashboardRollupMapper dashboardRollupMapper;
+    private final DashboardRollupService dashboardRollupService;
+
+    /**
+     * 消耗排名条数
+     */
+    private static final int RANKING_SIZE = 5;
+
+    /**
+     * 按用户ID批量查询汇总消耗时的单批数量
+     */
+    private static final int USER_BATCH_SIZE = 500;
     
     /**
      * 获取统计数据
@@ -66,40 +83,47 @@ public class DashboardService {
         long totalUsers = userMapper.selectCountIgnoreTenant(userWrapper);
         stats.put("totalUsers", totalUsers);
         
-        // 3. 产生消耗商家数 (Active Users)
-        // Count distinct users who consumed in the time range
-        QueryWrapper<UserTransaction> activeUserWrapper = new QueryWrapper<>();
-        activeUserWrapper.select("count(distinct user_id) as count")
-                .eq("type", "CONSUME")
-                .ge(start != null, "created_at", start)
-                .le(end != null, "created_at", end);
-        if (siteId != null) {
-            activeUserWrapper.eq("site_id", siteId);
+        DashboardRollupService.RangeSplit split = dashboardRollupService.split(start.toLocalDate(), end.toLocalDate());
+        long totalConsumption = 0;
+        long totalRecharge = 0;
+        HyperLogLog activeUserSketch = new HyperLogLog();
+        if (split.hasRolled()) {
+            for (DailySiteMetric metric : dashboardRollupMapper.selectSiteMetrics(split.getRolledStart(), split.getRolledEnd(), siteId)) {
+                totalConsumption += metric.getConsumption() != null ? metric.getConsumption() : 0L;
+                totalRecharge += metric.getRecharge() != null ? metric.getRecharge() : 0L;
+                activeUserSketch.merge(HyperLogLog.fromBytes(metric.getActiveUserSketch()));
+            }
         }
-        List<Map<String, Object>> activeUserList = userTransactionMapper.selectMapsIgnoreTenant(activeUserWrapper);
-        Map<String, Object> activeUserResult = (activeUserList != null && !activeUserList.isEmpty()) ? activeUserList.get(0) : null;
-        long activeUsers = 0;
-        if (activeUserResult != null && activeUserResult.get("count") != null) {
-            activeUsers = Long.parseLong(activeUserResult.get("count").toString());
+        
+        // 3. 产生消耗商家数 (Active Users)
+        // 只有实时部分时精确去重；与汇总数据合并时用草图近似去重
+        long activeUsers;
+        if (!split.hasRolled() && split.getLiveRanges().size() == 1) {
+            LocalDateTime[] range = split.getLiveRanges().get(0);
+            QueryWrapper<UserTransaction> activeUserWrapper = transactionWrapper("count(distinct user_id) as count", "CONSUME", range, siteId);
+            activeUsers = DashboardRollupService.toLong(firstValue(userTransactionMapper.selectMapsIgnoreTenant(activeUserWrapper), "count"));
+        } else {
+            for (LocalDateTime[] range : split.getLiveRanges()) {
+                QueryWrapper<UserTransaction> activeUserWrapper = transactionWrapper("distinct user_id", "CONSUME", range, siteId);
+                for (Map<String, Object> row : userTransactionMapper.selectMapsIgnoreTenant(activeUserWrapper)) {
+                    if (row != null && row.get("user_id") != null) {
+                        activeUserSketch.add(DashboardRollupService.toLong(row.get("user_id")));
+                    }
+                }
+            }
+            activeUsers = activeUserSketch.estimate();
         }
         stats.put("activeUsers", activeUsers);
         
-        // 4. 该类目总消耗 (Total Consumption)
-        QueryWrapper<UserTransaction> consumptionWrapper = new QueryWrapper<>();
-        consumptionWrapper.select("sum(abs(amount)) as total")
-                .eq("type", "CONSUME")
-                .ge(start != null, "created_at", start)
-                .le(end != null, "created_at", end);
-        if (siteId != null) {
-            consumptionWrapper.eq("site_id", siteId);
-        }
-        List<Map<String, Object>> consumptionList = userTransactionMapper.selectMapsIgnoreTenant(consumptionWrapper);
-        Map<String, Object> consumptionResult = (consumptionList != null && !consumptionList.isEmpty()) ? consumptionList.get(0) : null;
-        long totalConsumption = 0;
-        if (consumptionResult != null && consumptionResult.get("total") != null) {
-            totalConsumption = Long.parseLong(consumptionResult.get("total").toString()); // Assuming amount is Integer but sum can be Long
+        // 4. 该类目总消耗 (Total Consumption) 与充值
+        for (LocalDateTime[] range : split.getLiveRanges()) {
+            QueryWrapper<UserTransaction> consumptionWrapper = transactionWrapper("sum(abs(amount)) as total", "CONSUME", range, siteId);
+            totalConsumption += DashboardRollupService.toLong(firstValue(userTransactionMapper.selectMapsIgnoreTenant(consumptionWrapper), "total"));
+            QueryWrapper<UserTransaction> rechargeWrapper = transactionWrapper("sum(abs(amount)) as total", "RECHARGE", range, siteId);
+            totalRecharge += DashboardRollupService.toLong(firstValue(userTransactionMapper.selectMapsIgnoreTenant(rechargeWrapper), "total"));
         }
         stats.put("totalConsumption", totalConsumption);
+        stats.put("totalRecharge", totalRecharge);
         
         return stats;
     }
@@ -134,48 +158,34 @@ public class DashboardService {
             currentDate = currentDate.plusDays(1);
         }
         
-        // Query New Merchants (Users) Group by Date
-        QueryWrapper<User> userWrapper = new QueryWrapper<>();
-        userWrapper.select("DATE_FORMAT(created_at, '%m-%d') as date, count(*) as count")
-                .ge("created_at", start)
-                .le("created_at", end)
-                .groupBy("date");
-        if (siteId != null) {
-            userWrapper.eq("site_id", siteId);
+        Map<String, Long> userTrendMap = new HashMap<>();
+        Map<String, Long> consumeTrendMap = new HashMap<>();
+        DashboardRollupService.RangeSplit split = dashboardRollupService.split(start.toLocalDate(), endDate);
+        if (split.hasRolled()) {
+            for (DailySiteMetric metric : dashboardRollupMapper.selectSiteMetrics(split.getRolledStart(), split.getRolledEnd(), siteId)) {
+                String dateKey = metric.getStatDate().format(formatter);
+                userTrendMap.merge(dateKey, metric.getNewUsers() != null ? metric.getNewUsers() : 0L, Long::sum);
+                consumeTrendMap.merge(dateKey, metric.getConsumption() != null ? metric.getConsumption() : 0L, Long::sum);
+            }
         }
-        List<Map<String, Object>> userTrend = userMapper.selectMapsIgnoreTenant(userWrapper);
-        Map<String, Long> userTrendMap = userTrend.stream()
-                .filter(m -> m != null && m.get("date") != null)
-                .collect(Collectors.toMap(
-                m -> (String) m.get("date"),
-                m -> {
-                    Object count = m.get("count");
-                    return count != null ? Long.parseLong(count.toString()) : 0L;
-                },
-                (v1, v2) -> v1 // Merge function in case of duplicate keys (shouldn't happen with group by)
-        ));
         
-        // Query Consumption Group by Date
-        QueryWrapper<UserTransaction> consumeWrapper = new QueryWrapper<>();
-        consumeWrapper.select("DATE_FORMAT(created_at, '%m-%d') as date, sum(abs(amount)) as total")
-                .eq("type", "CONSUME")
-                .ge("created_at", start)
-                .le("created_at", end)
-                .groupBy("date");
-        if (siteId != null) {
-            consumeWrapper.eq("site_id", siteId);
+        for (LocalDateTime[] range : split.getLiveRanges()) {
+            // Query New Merchants (Users) Group by Date
+            QueryWrapper<User> userWrapper = new QueryWrapper<>();
+            userWrapper.select("DATE_FORMAT(created_at, '%m-%d') as date, count(*) as count")
+                    .ge("created_at", range[0])
+                    .lt("created_at", range[1])
+                    .groupBy("date");
+            if (siteId != null) {
+                userWrapper.eq("site_id", siteId);
+            }
+            mergeDateTotals(userTrendMap, userMapper.selectMapsIgnoreTenant(userWrapper), "count");
+            
+            // Query Consumption Group by Date
+            QueryWrapper<UserTransaction> consumeWrapper = transactionWrapper("DATE_FORMAT(created_at, '%m-%d') as date, sum(abs(amount)) as total", "CONSUME", range, siteId);
+            consumeWrapper.groupBy("date");
+            mergeDateTotals(consumeTrendMap, userTransactionMapper.selectMapsIgnoreTenant(consumeWrapper), "total");
         }
-        List<Map<String, Object>> consumeTrend = userTransactionMapper.selectMapsIgnoreTenant(consumeWrapper);
-        Map<String, Long> consumeTrendMap = consumeTrend.stream()
-                .filter(m -> m != null && m.get("date") != null)
-                .collect(Collectors.toMap(
-                m -> (String) m.get("date"),
-                m -> {
-                    Object total = m.get("total");
-                    return total != null ? Long.parseLong(total.toString()) : 0L;
-                },
-                (v1, v2) -> v1
-        ));
         
         // Combine
         List<Map<String, Object>> trendData = new ArrayList<>();
@@ -210,34 +220,55 @@ public class DashboardService {
         LocalDateTime end = getEndDateTime(timeRange, startDateStr, endDateStr);
         
         // Top 5 users by consumption
-        QueryWrapper<UserTransaction> rankingWrapper = new QueryWrapper<>();
-        rankingWrapper.select("user_id, sum(abs(amount)) as total")
-                .eq("type", "CONSUME")
-                .ge(start != null, "created_at", start)
-                .le(end != null, "created_at", end);
-        if (siteId != null) {
-            rankingWrapper.eq("site_id", siteId);
+        // 实时部分按用户汇总后与汇总表合并：最终排名中的用户要么在汇总区间排名前列，要么在实时区间有消耗
+        DashboardRollupService.RangeSplit split = dashboardRollupService.split(start.toLocalDate(), end.toLocalDate());
+        Map<Long, Long> totals = new HashMap<>();
+        if (!split.hasRolled()) {
+            QueryWrapper<UserTransaction> rankingWrapper = transactionWrapper("user_id, sum(abs(amount)) as total", "CONSUME", split.getLiveRanges().get(0), siteId);
+            rankingWrapper.groupBy("user_id")
+                    .orderByDesc("total")
+                    .orderByAsc("user_id")
+                    .last("LIMIT " + RANKING_SIZE);
+            mergeUserTotals(totals, userTransactionMapper.selectMapsIgnoreTenant(rankingWrapper));
+        } else {
+            Map<Long, Long> liveTotals = new HashMap<>();
+            for (LocalDateTime[] range : split.getLiveRanges()) {
+                QueryWrapper<UserTransaction> liveWrapper = transactionWrapper("user_id, sum(abs(amount)) as total", "CONSUME", range, siteId);
+                liveWrapper.groupBy("user_id");
+                mergeUserTotals(liveTotals, userTransactionMapper.selectMapsIgnoreTenant(liveWrapper));
+            }
+            mergeUserTotals(totals, dashboardRollupMapper.selectTopUserConsumption(
+                    split.getRolledStart(), split.getRolledEnd(), siteId, RANKING_SIZE));
+            List<Long> missingUserIds = liveTotals.keySet().stream()
+                    .filter(userId -> !totals.containsKey(userId))
+                    .collect(Collectors.toList());
+            for (int i = 0; i < missingUserIds.size(); i += USER_BATCH_SIZE) {
+                mergeUserTotals(totals, dashboardRollupMapper.selectUserConsumption(split.getRolledStart(), split.getRolledEnd(),
+                        missingUserIds.subList(i, Math.min(i + USER_BATCH_SIZE, missingUserIds.size()))));
+            }
+            liveTotals.forEach((userId, total) -> totals.merge(userId, total, Long::sum));
         }
-        rankingWrapper.groupBy("user_id")
-                .orderByDesc("total")
-                .last("LIMIT 5");
-        
-        List<Map<String, Object>> rankingList = userTransactionMapper.selectMapsIgnoreTenant(rankingWrapper);
+        // 消耗相同时按用户ID升序，保证汇总表截取的前几名与合并后的排名一致
+        List<Map.Entry<Long, Long>> rankingList = totals.entrySet().stream()
+                .sorted(Map.Entry.<Long, Long>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(RANKING_SIZE)
+                .collect(Collectors.toList());
         
         List<Map<String, Object>> finalRanking = new ArrayList<>();
         if (!rankingList.isEmpty()) {
             List<Long> userIds = rankingList.stream()
-                    .map(m -> Long.parseLong(m.get("user_id").toString()))
+                    .map(Map.Entry::getKey)
                     .collect(Collectors.toList());
             
             List<User> users = userMapper.selectListIgnoreTenant(new QueryWrapper<User>().in("id", userIds));
             Map<Long, String> userNameMap = users.stream().collect(Collectors.toMap(User::getId, u -> u.getUsername() != null ? u.getUsername() : "User " + u.getId()));
             
-            for (Map<String, Object> item : rankingList) {
-                Long userId = Long.parseLong(item.get("user_id").toString());
+            for (Map.Entry<Long, Long> item : rankingList) {
+                Long userId = item.getKey();
                 Map<String, Object> rankItem = new HashMap<>();
                 rankItem.put("name", userNameMap.getOrDefault(userId, "Unknown"));
-                rankItem.put("value", Long.parseLong(item.get("total").toString()));
+                rankItem.put("value", item.getValue());
                 finalRanking.add(rankItem);
             }
         }
@@ -246,6 +277,42 @@ public class DashboardService {
         return result;
     }
     
+    /**
+     * 构建时间段 [开始, 结束) 内某类流水的查询条件
+     */
+    private QueryWrapper<UserTransaction> transactionWrapper(String select, String type, LocalDateTime[] range, Long siteId) {
+        QueryWrapper<UserTransaction> wrapper = new QueryWrapper<>();
+        wrapper.select(select)
+                .eq("type", type)
+                .ge("created_at", range[0])
+                .lt("created_at", range[1]);
+        if (siteId != null) {
+            wrapper.eq("site_id", siteId);
+        }
+        return wrapper;
+    }
+    
+    private Object firstValue(List<Map<String, Object>> rows, String key) {
+        Map<String, Object> row = (rows != null && !rows.isEmpty()) ? rows.get(0) : null;
+        return row != null ? row.get(key) : null;
+    }
+    
+    private void mergeDateTotals(Map<String, Long> target, List<Map<String, Object>> rows, String valueKey) {
+        for (Map<String, Object> row : rows) {
+            if (row != null && row.get("date") != null) {
+                target.merge((String) row.get("date"), DashboardRollupService.toLong(row.get(valueKey)), Long::sum);
+            }
+        }
+    }
+    
+    private void mergeUserTotals(Map<Long, Long> target, List<Map<String, Object>> rows) {
+        for (Map<String, Object> row : rows) {
+            if (row != null && row.get("user_id") != null) {
+                target.merge(DashboardRollupService.toLong(row.get("user_id")), DashboardRollupService.toLong(row.get("total")), Long::sum);
+            }
+        }
+    }
+    
     private LocalDateTime getStartDateTime(String timeRange, String startDateStr, String endDateStr) {
         if ("custom".equals(timeRange) && startDateStr != null && !startDateStr.isEmpty()) {
             return LocalDate.parse(startDateStr).atStartOfDay();
@@ -97,7 +97,10 @@ public class SiteService extends ServiceImpl<SiteMapper, Site> {
         if (site.getStatus() == null) {
             site.setStatus("active");
         }
-        
+        if (site.getScheduleWeight() == null || site.getScheduleWeight() < 1) {
+            site.setScheduleWeight(1);
+        }
+
         siteMapper.insert(site);
         
         // 刷新缓存
@@ -185,6 +188,14 @@ public class SiteService extends ServiceImpl<SiteMapper, Site> {
             existing.setFavicon(site.getFavicon());
         }
 
+        // 更新生成任务调度权重
+        if (site.getScheduleWeight() != null) {
+            if (site.getScheduleWeight() < 1 || site.getScheduleWeight() > 100) {
+                throw new RuntimeException("调度权重必须在1到100之间");
+            }
+            existing.setScheduleWeight(site.getScheduleWeight());
+        }
+
         siteMapper.updateById(existing);
         siteCacheService.refreshCache();
         return existing;
@@ -1,6 +1,7 @@
 package com.meitou.admin.service.admin;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
@@ -8,6 +9,8 @@ import com.meitou.admin.entity.PublishedContent;
 import com.meitou.admin.exception.BusinessException;
 import com.meitou.admin.exception.ErrorCode;
 import com.meitou.admin.mapper.PublishedContentMapper;
+import com.meitou.admin.service.app.CommunityFeedCache;
+import com.meitou.admin.service.app.LikeCountBuffer;
 import com.meitou.admin.storage.FileStorageService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
@@ -19,6 +22,8 @@ import org.springframework.util.StringUtils;
 public class SquareService extends ServiceImpl<PublishedContentMapper, PublishedContent> {
 
     private final FileStorageService fileStorageService;
+    private final LikeCountBuffer likeCountBuffer;
+    private final CommunityFeedCache communityFeedCache;
 
     public IPage<PublishedContent> getPage(Page<PublishedContent> page, Long siteId, String type, String keyword) {
         LambdaQueryWrapper<PublishedContent> wrapper = new LambdaQueryWrapper<>();
@@ -44,6 +49,7 @@ public class SquareService extends ServiceImpl<PublishedContentMapper, Published
         IPage<PublishedContent> result = this.page(page, wrapper);
         
         if (result.getRecords() != null) {
+            likeCountBuffer.applyPendingDeltas(result.getRecords());
             result.getRecords().forEach(item -> {
                 item.setContentUrl(fileStorageService.getFileUrl(item.getContentUrl()));
                 item.setThumbnail(fileStorageService.getFileUrl(item.getThumbnail()));
@@ -64,6 +70,8 @@ public class SquareService extends ServiceImpl<PublishedContentMapper, Published
         String newStatus = "published".equals(content.getStatus()) ? "hidden" : "published";
         content.setStatus(newStatus);
         this.updateById(content);
+        boolean pinned = Boolean.TRUE.equals(content.getIsPinned());
+        communityFeedCache.invalidateAfterCommit(content.getSiteId(), content.getType(), pinned, !pinned);
     }
 
     @Transactional
@@ -76,6 +84,18 @@ public class SquareService extends ServiceImpl<PublishedContentMapper, Published
         boolean currentPin = Boolean.TRUE.equals(content.getIsPinned());
         content.setIsPinned(!currentPin);
         this.updateById(content);
+        communityFeedCache.invalidateAfterCommit(content.getSiteId(), content.getType(), true, true);
+    }
+
+    @Transactional
+    public void deleteContent(Long id) {
+        PublishedContent content = this.getById(id);
+        if (content == null) {
+            return;
+        }
+        this.removeById(id);
+        boolean pinned = Boolean.TRUE.equals(content.getIsPinned());
+        communityFeedCache.invalidateAfterCommit(content.getSiteId(), content.getType(), pinned, !pinned);
     }
 
     @Transactional
@@ -84,7 +104,11 @@ public class SquareService extends ServiceImpl<PublishedContentMapper, Published
         if (content == null) {
             throw new BusinessException(ErrorCode.CONTENT_NOT_FOUND);
         }
-        content.setLikeCount(count);
-        this.updateById(content);
+        // like_count 不随 updateById 写回，单独更新
+        this.update(new LambdaUpdateWrapper<PublishedContent>()
+                .eq(PublishedContent::getId, id)
+                .set(PublishedContent::getLikeCount, count));
+        // 管理员直接设定点赞数，丢弃此前未写回的增量
+        likeCountBuffer.discard(id);
     }
 }
@@ -17,12 +17,11 @@ import com.meitou.admin.mapper.AnalysisRecordMapper;
 import com.meitou.admin.mapper.GenerationRecordMapper;
 import com.meitou.admin.mapper.UserMapper;
 import com.meitou.admin.service.admin.ApiPlatformService;
+import com.meitou.admin.service.common.UpstreamHttpClientProvider;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.*;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.HashMap;
 import java.util.List;
@@ -35,12 +34,17 @@ import java.util.Map;
 @Slf4j
 @Service
 public class AnalysisService {
+
+    /**
+     * 分析接口默认读取超时（秒）
+     */
+    private static final int ANALYSIS_TIMEOUT_SECONDS = 60;
     
     private final ApiPlatformService apiPlatformService;
     private final GenerationRecordMapper generationRecordMapper;
     private final AnalysisRecordMapper analysisRecordMapper;
     private final UserMapper userMapper;
-    private final RestTemplate restTemplate;
+    private final UpstreamHttpClientProvider upstreamHttpClientProvider;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private String resolveUnknownAnalysisError(Exception e) {
@@ -52,22 +56,18 @@ public class AnalysisService {
     }
     
     /**
-     * 构造函数，初始化RestTemplate并配置超时时间
+     * 构造函数
      */
     public AnalysisService(ApiPlatformService apiPlatformService, 
                            GenerationRecordMapper generationRecordMapper,
                            AnalysisRecordMapper analysisRecordMapper,
-                           UserMapper userMapper) {
+                           UserMapper userMapper,
+                           UpstreamHttpClientProvider upstreamHttpClientProvider) {
         this.apiPlatformService = apiPlatformService;
         this.generationRecordMapper = generationRecordMapper;
         this.analysisRecordMapper = analysisRecordMapper;
         this.userMapper = userMapper;
-        
-        // 配置RestTemplate的超时时间
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(10000); // 连接超时：10秒
-        factory.setReadTimeout(60000); // 读取超时：60秒
-        this.restTemplate = new RestTemplate(factory);
+        this.upstreamHttpClientProvider = upstreamHttpClientProvider;
     }
     
     /**
@@ -285,7 +285,7 @@ public class AnalysisService {
      * 查找分析接口
      */
     private ApiInterface findAnalysisInterface(Long platformId) {
-        List<ApiInterface> interfaces = apiPlatformService.getInterfacesByPlatformId(platformId);
+        List<ApiInterface> interfaces = apiPlatformService.getRegisteredInterfaces(platformId);
         // 查找第一个接口（分析接口通常只有一个）
         return interfaces.isEmpty() ? null : interfaces.get(0);
     }
@@ -360,7 +360,9 @@ public class AnalysisService {
             log.info("调用API平台接口: {} {} (平台: {})", apiInterface.getMethod(), apiInterface.getUrl(), platform.getName());
             log.debug("请求参数: {}", requestBody);
             
-            ResponseEntity<String> response = restTemplate.exchange(
+            ResponseEntity<String> response = upstreamHttpClientProvider
+                    .getRestTemplate(apiInterface, ANALYSIS_TIMEOUT_SECONDS)
+                    .exchange(
                     apiInterface.getUrl(),
                     HttpMethod.valueOf(apiInterface.getMethod()),
                     entity,
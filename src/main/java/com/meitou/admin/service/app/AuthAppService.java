@@ -113,7 +113,7 @@ public class AuthAppService {
         response.setUsername(user.getUsername());
         response.setPhone(user.getPhone());
         response.setEmail(user.getEmail());
-        response.setBalance(user.getBalance() != null ? user.getBalance() : 0);
+        response.setBalance(user.getAvailableBalance());
         response.setSiteId(user.getSiteId());
         response.setAvatarUrl(user.getAvatarUrl());
         response.setCompany(user.getCompany());
@@ -162,7 +162,7 @@ public class AuthAppService {
         response.setUsername(user.getUsername());
         response.setPhone(user.getPhone());
         response.setEmail(user.getEmail());
-        response.setBalance(user.getBalance() != null ? user.getBalance() : 0);
+        response.setBalance(user.getAvailableBalance());
         response.setSiteId(user.getSiteId());
         response.setAvatarUrl(user.getAvatarUrl());
         response.setCompany(user.getCompany());
@@ -357,7 +357,7 @@ public class AuthAppService {
         response.setUsername(user.getUsername());
         response.setPhone(user.getPhone());
         response.setEmail(user.getEmail());
-        response.setBalance(user.getBalance() != null ? user.getBalance() : 0);
+        response.setBalance(user.getAvailableBalance());
         response.setSiteId(user.getSiteId()); // 设置站点ID
         response.setAvatarUrl(user.getAvatarUrl());
         response.setCompany(user.getCompany());
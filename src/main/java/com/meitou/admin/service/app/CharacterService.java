@@ -12,6 +12,7 @@ import com.meitou.admin.exception.ErrorCode;
 import com.meitou.admin.mapper.CharacterMapper;
 import com.meitou.admin.mapper.GenerationRecordMapper;
 import com.meitou.admin.service.admin.ApiPlatformService;
+import com.meitou.admin.service.common.UpstreamHttpClientProvider;
 import com.meitou.admin.storage.FileStorageService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -22,7 +23,6 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.HashMap;
 import java.util.List;
@@ -39,10 +39,15 @@ public class CharacterService {
 
     private static final Pattern TIMESTAMPS_PATTERN = Pattern.compile("^\\d+,\\d+$");
 
+    /**
+     * 角色接口默认读取超时（秒）
+     */
+    private static final int CHARACTER_API_TIMEOUT_SECONDS = 60;
+
     private final CharacterMapper characterMapper;
     private final GenerationRecordMapper generationRecordMapper;
     private final ApiPlatformService apiPlatformService;
-    private final RestTemplate restTemplate;
+    private final UpstreamHttpClientProvider upstreamHttpClientProvider;
     private final ObjectMapper objectMapper;
     private final FileStorageService fileStorageService;
 
@@ -121,7 +126,7 @@ public class CharacterService {
         }
 
         // 获取接口配置
-        List<ApiInterface> interfaces = apiPlatformService.getInterfacesByPlatformId(platform.getId());
+        List<ApiInterface> interfaces = apiPlatformService.getRegisteredInterfaces(platform.getId());
         if (interfaces == null || interfaces.isEmpty()) {
             throw new BusinessException(ErrorCode.GENERATION_INTERFACE_NOT_CONFIGURED.getCode(), "API平台未配置接口");
         }
@@ -168,7 +173,9 @@ public class CharacterService {
             HttpEntity<String> httpEntity = new HttpEntity<>(objectMapper.writeValueAsString(requestBody), headers);
             
             log.info("调用保存角色API: {}", apiInterface.getUrl());
-            ResponseEntity<String> response = restTemplate.exchange(
+            ResponseEntity<String> response = upstreamHttpClientProvider
+                    .getRestTemplate(apiInterface, CHARACTER_API_TIMEOUT_SECONDS)
+                    .exchange(
                     apiInterface.getUrl(),
                     HttpMethod.valueOf(apiInterface.getMethod().toUpperCase()),
                     httpEntity,
@@ -0,0 +1,241 @@
+package com.meitou.admin.service.app;
+
+import com.meitou.admin.entity.PublishedContent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 社区广场信息流缓存
+ * 按站点、类型缓存置顶内容和前 N 条普通内容（已补全缩略图并签名URL），分页时把两段合并后切片返回。
+ * 置顶段与普通段分别失效：发布、上下架、删除只影响对应的段和类型，置顶切换同时失效两段；
+ * 其他节点的修改依赖过期时间收敛。缓存对象只读，调用方需复制后再叠加点赞状态等用户相关字段。
+ * 点赞数增量写回数据库时同步计入已缓存的段（见 {@link #applyLikeDeltas}），缓存的点赞数不会在写回后倒退。
+ */
+@Component
+public class CommunityFeedCache {
+
+    /**
+     * 每个站点、类型缓存的普通内容条数上限
+     */
+    @Value("${feed.cache.maxItems:200}")
+    private int maxItems;
+
+    /**
+     * 缓存过期时间（秒），需小于签名URL的有效期
+     */
+    @Value("${feed.cache.ttlSeconds:60}")
+    private long ttlSeconds;
+
+    private static final String PINNED = "p:";
+    private static final String REGULAR = "r:";
+
+    private final Map<String, Segment> pinnedSegments = new ConcurrentHashMap<>();
+    private final Map<String, Segment> regularSegments = new ConcurrentHashMap<>();
+
+    /**
+     * 段key -> 失效代数：加载期间该段发生失效时，丢弃加载结果，避免把旧数据写回缓存（其他段的失效不影响）
+     */
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * 缓存的普通内容条数上限
+     */
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    /**
+     * 获取置顶段
+     *
+     * @param siteId 站点ID
+     * @param type   类型（all/image/video）
+     * @param loader 未命中时的加载函数（total 为置顶内容条数）
+     * @return 置顶段
+     */
+    public Segment getPinned(Long siteId, String type, Supplier<Segment> loader) {
+        return get(pinnedSegments, PINNED, key(siteId, type), loader);
+    }
+
+    /**
+     * 获取普通段
+     *
+     * @param siteId 站点ID
+     * @param type   类型（all/image/video）
+     * @param loader 未命中时的加载函数（total 为普通内容总数）
+     * @return 普通段
+     */
+    public Segment getRegular(Long siteId, String type, Supplier<Segment> loader) {
+        return get(regularSegments, REGULAR, key(siteId, type), loader);
+    }
+
+    /**
+     * 点赞数增量已写回数据库（或写回失败被撤回）时，计入包含该内容的缓存段
+     *
+     * @param deltas 内容ID -> 点赞数增量
+     */
+    public void applyLikeDeltas(Map<Long, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        for (Map<String, Segment> segments : List.of(pinnedSegments, regularSegments)) {
+            for (Segment segment : segments.values()) {
+                deltas.forEach(segment::addLikeDelta);
+            }
+        }
+    }
+
+    /**
+     * 内容变化后失效相关缓存（当前事务提交后执行）
+     *
+     * @param siteId       站点ID
+     * @param contentType  内容类型
+     * @param pinned       是否影响置顶段
+     * @param regular      是否影响普通段
+     */
+    public void invalidateAfterCommit(Long siteId, String contentType, boolean pinned, boolean regular) {
+        if (siteId == null) {
+            return;
+        }
+        Runnable invalidation = () -> invalidate(siteId, contentType, pinned, regular);
+        invalidation.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 提交后再失效一次，防止事务提交前有请求把旧数据重新加载进缓存
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidation.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * 获取缓存指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pinnedSegments", pinnedSegments.size());
+        stats.put("regularSegments", regularSegments.size());
+        stats.put("hits", hitCount.sum());
+        stats.put("misses", missCount.sum());
+        return stats;
+    }
+
+    private void invalidate(Long siteId, String contentType, boolean pinned, boolean regular) {
+        String allKey = key(siteId, "all");
+        String typeKey = contentType != null ? key(siteId, contentType) : null;
+        if (pinned) {
+            invalidate(pinnedSegments, PINNED, allKey);
+            if (typeKey != null) {
+                invalidate(pinnedSegments, PINNED, typeKey);
+            }
+        }
+        if (regular) {
+            invalidate(regularSegments, REGULAR, allKey);
+            if (typeKey != null) {
+                invalidate(regularSegments, REGULAR, typeKey);
+            }
+        }
+    }
+
+    private void invalidate(Map<String, Segment> segments, String kind, String key) {
+        generation(kind, key).incrementAndGet();
+        segments.remove(key);
+    }
+
+    private Segment get(Map<String, Segment> segments, String kind, String key, Supplier<Segment> loader) {
+        Segment segment = segments.get(key);
+        long now = System.currentTimeMillis();
+        if (segment != null && segment.expiresAt > now) {
+            hitCount.increment();
+            return segment;
+        }
+        missCount.increment();
+        AtomicLong generation = generation(kind, key);
+        long loadGeneration = generation.get();
+        Segment loaded = loader.get();
+        loaded.expiresAt = now + ttlSeconds * 1000L;
+        if (generation.get() == loadGeneration) {
+            segments.put(key, loaded);
+        }
+        return loaded;
+    }
+
+    private AtomicLong generation(String kind, String key) {
+        return generations.computeIfAbsent(kind + key, k -> new AtomicLong());
+    }
+
+    private String key(Long siteId, String type) {
+        return siteId + ":" + (type != null ? type : "all");
+    }
+
+    /**
+     * 缓存段：按展示顺序排列的内容及该段的总条数
+     */
+    public static final class Segment {
+        private final List<PublishedContent> items;
+        private final long total;
+        private volatile long expiresAt;
+
+        /**
+         * 内容ID -> 加载后已写回数据库的点赞数增量（段内内容对象只读，点赞数在读取时合并）
+         */
+        private final Map<Long, Long> likeDeltas = new ConcurrentHashMap<>();
+
+        public Segment(List<PublishedContent> items, long total) {
+            this.items = Collections.unmodifiableList(items);
+            this.total = total;
+            for (PublishedContent item : items) {
+                if (item.getId() != null) {
+                    likeDeltas.put(item.getId(), 0L);
+                }
+            }
+        }
+
+        public List<PublishedContent> getItems() {
+            return items;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * 内容的点赞数（加载时的点赞数合并加载后已写回的增量）
+         */
+        public Integer getLikeCount(PublishedContent item) {
+            Long delta = item.getId() != null ? likeDeltas.get(item.getId()) : null;
+            if (delta == null || delta == 0) {
+                return item.getLikeCount();
+            }
+            int base = item.getLikeCount() != null ? item.getLikeCount() : 0;
+            return (int) Math.max(0, base + delta);
+        }
+
+        private void addLikeDelta(Long contentId, Long delta) {
+            // 只记录段内的内容
+            likeDeltas.computeIfPresent(contentId, (id, current) -> current + delta);
+        }
+
+        /**
+         * 该段是否已完整缓存（没有未加载的尾部）
+         */
+        public boolean isComplete() {
+            return items.size() >= total;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.meitou.admin.service.app;
+
+import com.meitou.admin.entity.GenerationRecord;
+import com.meitou.admin.entity.User;
+import com.meitou.admin.entity.UserTransaction;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import com.meitou.admin.mapper.UserMapper;
+import com.meitou.admin.mapper.UserTransactionMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 算力预留账本
+ * 提交生成任务时只在 users.held_balance 上预留（一条带可用余额校验的 UPDATE，放在开启任务事务的最后执行，
+ * 用户行锁只持有到提交），可用余额 = balance - held_balance，不会透支；
+ * 任务成功时把记录标记为待结算（多图任务按实际交付数量部分结算），由定时任务按用户合并后批量扣减 balance、
+ * 释放预留并写入消费流水；任务失败时直接释放预留，不产生退款流水。
+ * 预留状态保存在生成记录的 charge_status 上，节点重启后待结算的记录仍会被结算。
+ * 结算在独立的调度线程上执行，不与其他 @Scheduled 任务共用 Spring 默认的单个调度线程，其他任务阻塞时预留不会堆积。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CreditLedgerService {
+
+    /**
+     * 已预留
+     */
+    public static final String HELD = "HELD";
+
+    /**
+     * 任务成功，待结算
+     */
+    public static final String SETTLING = "SETTLING";
+
+    /**
+     * 已结算
+     */
+    public static final String SETTLED = "SETTLED";
+
+    /**
+     * 任务失败，预留已释放
+     */
+    public static final String RELEASED = "RELEASED";
+
+    /**
+     * 每批结算的记录数
+     */
+    @Value("${credit.settle.batchSize:500}")
+    private int settleBatchSize;
+
+    /**
+     * 结算间隔（毫秒）
+     */
+    @Value("${credit.settle.intervalMs:1000}")
+    private long settleIntervalMs;
+
+    private final UserMapper userMapper;
+    private final UserTransactionMapper userTransactionMapper;
+    private final GenerationRecordMapper generationRecordMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    private ScheduledExecutorService settleScheduler;
+
+    private final LongAdder holdCount = new LongAdder();
+    private final LongAdder holdRejectedCount = new LongAdder();
+    private final LongAdder releaseCount = new LongAdder();
+    private final LongAdder settledRecordCount = new LongAdder();
+    private final LongAdder settleBatchCount = new LongAdder();
+    private final LongAdder settleFailureCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        settleScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "credit-settle");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(100L, settleIntervalMs);
+        settleScheduler.scheduleWithFixedDelay(this::settlePending, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        settleScheduler.shutdown();
+        try {
+            settleScheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 预留算力（在开启任务的事务中、写入记录之后调用）
+     *
+     * @param userId 用户ID
+     * @param amount 预留积分
+     * @return 是否预留成功（可用余额不足时返回false）
+     */
+    public boolean hold(Long userId, int amount) {
+        if (amount <= 0) {
+            return true;
+        }
+        if (userMapper.holdBalance(userId, amount, LocalDateTime.now()) == 0) {
+            holdRejectedCount.increment();
+            return false;
+        }
+        holdCount.increment();
+        return true;
+    }
+
+    /**
+     * 释放预留（在任务失败的事务中调用）
+     *
+     * @param userId 用户ID
+     * @param amount 预留积分
+     */
+    public void release(Long userId, int amount) {
+        if (amount <= 0) {
+            return;
+        }
+        if (userMapper.releaseHold(userId, amount, LocalDateTime.now()) == 0) {
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "释放预留算力失败");
+        }
+        releaseCount.increment();
+    }
+
+    /**
+     * 计算部分交付时的结算金额：按交付数量占请求数量的比例结算，其余预留在结算时一并释放
+     *
+     * @param heldAmount 预留积分
+     * @param delivered  实际交付数量
+     * @param requested  请求数量
+     * @return 结算积分
+     */
+    public static int settleAmount(int heldAmount, int delivered, int requested) {
+        if (requested <= 1 || delivered >= requested) {
+            return heldAmount;
+        }
+        return (int) ((long) heldAmount * Math.max(0, delivered) / requested);
+    }
+
+    /**
+     * 定时批量结算待结算的记录
+     */
+    public void settlePending() {
+        try {
+            int settled;
+            do {
+                settled = settleBatch();
+            } while (settled >= settleBatchSize);
+        } catch (Exception e) {
+            settleFailureCount.increment();
+            log.error("算力结算失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 结算一批记录（单个事务）：同一用户合并为一次更新（按用户ID顺序，避免并发批次间死锁），消费流水一条语句批量写入
+     *
+     * @return 本批结算的记录数
+     */
+    public int settleBatch() {
+        Integer settled = transactionTemplate.execute(status -> {
+            List<GenerationRecord> records = generationRecordMapper.selectSettlingForUpdateIgnoreTenant(settleBatchSize);
+            if (records.isEmpty()) {
+                return 0;
+            }
+
+            Map<Long, List<GenerationRecord>> byUser = new TreeMap<>();
+            for (GenerationRecord record : records) {
+                byUser.computeIfAbsent(record.getUserId(), k -> new ArrayList<>()).add(record);
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            Map<Long, Integer> settledTotals = new TreeMap<>();
+            byUser.forEach((userId, userRecords) -> {
+                int settledTotal = 0;
+                int heldTotal = 0;
+                for (GenerationRecord record : userRecords) {
+                    settledTotal += settledOf(record);
+                    heldTotal += record.getCost() != null ? record.getCost() : 0;
+                }
+                if (userMapper.settleHold(userId, settledTotal, heldTotal, now) == 0) {
+                    throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "算力结算失败: userId=" + userId);
+                }
+                settledTotals.put(userId, settledTotal);
+            });
+
+            Map<Long, Integer> balances = userMapper.selectBalancesIgnoreTenant(byUser.keySet()).stream()
+                    .collect(Collectors.toMap(User::getId, u -> u.getBalance() != null ? u.getBalance() : 0));
+            List<UserTransaction> transactions = new ArrayList<>();
+            byUser.forEach((userId, userRecords) -> {
+                // 按记录顺序还原每笔消费后的余额
+                int balanceAfter = balances.getOrDefault(userId, 0) + settledTotals.get(userId);
+                for (GenerationRecord record : userRecords) {
+                    int amount = settledOf(record);
+                    if (amount <= 0) {
+                        continue;
+                    }
+                    balanceAfter -= amount;
+                    UserTransaction transaction = new UserTransaction();
+                    transaction.setUserId(userId);
+                    transaction.setType("CONSUME");
+                    transaction.setAmount(-amount);
+                    transaction.setBalanceAfter(balanceAfter);
+                    transaction.setReferenceId(record.getId());
+                    transaction.setDescription("AI生成消耗: " + (record.getType() != null ? record.getType() : ""));
+                    transaction.setSiteId(record.getSiteId());
+                    transactions.add(transaction);
+                }
+            });
+            if (!transactions.isEmpty() && userTransactionMapper.insertBatch(transactions) != transactions.size()) {
+                throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "消费流水写入失败");
+            }
+
+            List<Long> ids = records.stream().map(GenerationRecord::getId).collect(Collectors.toList());
+            if (generationRecordMapper.markSettledIgnoreTenant(ids) != ids.size()) {
+                throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "结算状态更新不一致");
+            }
+            return records.size();
+        });
+        int count = settled != null ? settled : 0;
+        if (count > 0) {
+            settledRecordCount.add(count);
+            settleBatchCount.increment();
+            log.debug("算力结算完成: {} 条记录", count);
+        }
+        return count;
+    }
+
+    /**
+     * 获取账本指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("holds", holdCount.sum());
+        stats.put("holdsRejected", holdRejectedCount.sum());
+        stats.put("releases", releaseCount.sum());
+        stats.put("settledRecords", settledRecordCount.sum());
+        stats.put("settleBatches", settleBatchCount.sum());
+        stats.put("settleFailures", settleFailureCount.sum());
+        return stats;
+    }
+
+    private static int settledOf(GenerationRecord record) {
+        if (record.getSettledAmount() != null) {
+            return record.getSettledAmount();
+        }
+        return record.getCost() != null ? record.getCost() : 0;
+    }
+}
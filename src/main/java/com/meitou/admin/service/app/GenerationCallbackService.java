@@ -0,0 +1,60 @@
+package com.meitou.admin.service.app;
+
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.dto.app.ImageGenerationResponse;
+import com.meitou.admin.entity.ApiPlatform;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.service.common.ApiPlatformRegistry;
+import com.meitou.admin.task.GenerationTaskStatusEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+/**
+ * 生成任务回调服务
+ * 接收上游平台的任务完成通知：在平台所属站点下找到对应记录并校验按记录签发的回调令牌后受理，结果转存在生成任务线程池中完成，
+ * 完成后发布任务状态事件，使 SSE 订阅者立即收到结果，无需等待下一次轮询。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GenerationCallbackService {
+
+    private final GenerationService generationService;
+    private final ApiPlatformRegistry apiPlatformRegistry;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 处理上游回调
+     *
+     * @param platformId 平台ID
+     * @param token      回调令牌
+     * @param payload    回调请求体
+     * @return 受理时的任务状态
+     */
+    public ImageGenerationResponse handleCallback(Long platformId, String token, String payload) {
+        ApiPlatform platform = apiPlatformRegistry.getPlatform(platformId);
+        if (platform == null || token == null || token.isEmpty()) {
+            log.warn("生成回调验证失败: platformId={}", platformId);
+            throw new BusinessException(ErrorCode.GENERATION_CALLBACK_VERIFY_FAILED);
+        }
+
+        Long originalSiteId = SiteContext.getSiteId();
+        ImageGenerationResponse response;
+        try {
+            SiteContext.setSiteId(platform.getSiteId());
+            response = generationService.handleTaskCallback(platform, token, payload,
+                    result -> eventPublisher.publishEvent(
+                            new GenerationTaskStatusEvent(result.getGenerationRecordId(), result)));
+        } finally {
+            if (originalSiteId == null) {
+                SiteContext.clear();
+            } else {
+                SiteContext.setSiteId(originalSiteId);
+            }
+        }
+        return response;
+    }
+}
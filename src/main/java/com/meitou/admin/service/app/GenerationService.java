@@ -1,22 +1,31 @@
 package com.meitou.admin.service.app;
 
 import com.meitou.admin.dto.app.PromptOptimizeRequest;
+import com.meitou.admin.util.CursorUtil;
+import com.meitou.admin.util.Deadline;
+import com.meitou.admin.util.SseResultParser;
 import com.meitou.admin.util.TitleUtil;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.Call;
+import okhttp3.OkHttpClient;
 import okhttp3.Callback;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
-import java.util.concurrent.TimeUnit;
 import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.dto.app.CursorPageResponse;
 import com.meitou.admin.dto.app.ImageGenerationResponse;
 import com.meitou.admin.dto.app.ImageToImageRequest;
 import com.meitou.admin.dto.app.TextToImageRequest;
@@ -33,6 +42,17 @@ import com.meitou.admin.entity.User;
 import com.meitou.admin.mapper.AnalysisRecordMapper;
 import com.meitou.admin.mapper.GenerationRecordMapper;
 import com.meitou.admin.service.common.ApiParameterMappingCacheService;
+import com.meitou.admin.service.common.GenerationCallbackSigner;
+import com.meitou.admin.service.common.GenerationJobLeases;
+import com.meitou.admin.service.common.GenerationTaskExecutor;
+import com.meitou.admin.service.common.GenerationResultIngestor;
+import com.meitou.admin.service.common.HedgedRequests;
+import com.meitou.admin.service.common.PlatformHealthRouter;
+import com.meitou.admin.service.common.PlatformRequestPlanCache;
+import com.meitou.admin.service.common.IdempotencyService;
+import com.meitou.admin.service.common.PromptOptimizeCache;
+import com.meitou.admin.service.common.SseStreamRelay;
+import com.meitou.admin.service.common.UpstreamHttpClientProvider;
 import com.meitou.admin.mapper.UserMapper;
 import com.meitou.admin.service.admin.ApiPlatformService;
 import com.meitou.admin.exception.BusinessException;
@@ -41,16 +61,21 @@ import com.meitou.admin.entity.UserTransaction;
 import com.meitou.admin.mapper.UserTransactionMapper;
 import com.meitou.admin.storage.FileStorageService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileCopyUtils;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.ResourceAccessException;
 import java.net.SocketTimeoutException;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -61,6 +86,31 @@ import java.util.stream.Collectors;
 @Service
 public class GenerationService {
 
+    /**
+     * 生成接口默认读取超时（秒）
+     */
+    private static final int GENERATION_TIMEOUT_SECONDS = 300;
+
+    /**
+     * 任务状态查询读取超时（秒）
+     */
+    private static final int TASK_QUERY_TIMEOUT_SECONDS = 30;
+
+    /**
+     * 任务状态查询的对冲耗时统计key前缀（按平台统计）
+     */
+    private static final String TASK_STATUS_HEDGE_KEY_PREFIX = "status:";
+
+    /**
+     * 提示词优化默认读取超时（秒）
+     */
+    private static final int PROMPT_OPTIMIZE_TIMEOUT_SECONDS = 60;
+
+    /**
+     * 识别 SSE 响应时预读的字符数
+     */
+    private static final int SSE_SNIFF_CHARS = 64;
+
     private final ApiPlatformService apiPlatformService;
     private final GenerationRecordMapper generationRecordMapper;
     private final AnalysisRecordMapper analysisRecordMapper;
@@ -69,18 +119,42 @@ public class GenerationService {
     private final UserTransactionMapper userTransactionMapper;
     private final com.meitou.admin.service.common.AliyunOssService aliyunOssService;
     private final FileStorageService fileStorageService;
-
-    private final OkHttpClient okHttpClient = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(60, TimeUnit.SECONDS)
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .build();
-    private final RestTemplate restTemplate;
+    private final GenerationTaskExecutor generationTaskExecutor;
+
+    private final UpstreamHttpClientProvider upstreamHttpClientProvider;
+    private final PlatformRequestPlanCache platformRequestPlanCache;
+    private final GenerationResultIngestor generationResultIngestor;
+    private final GenerationCallbackSigner generationCallbackSigner;
+    private final SseStreamRelay sseStreamRelay;
+    private final PlatformHealthRouter platformHealthRouter;
+    private final HedgedRequests hedgedRequests;
+    private final CreditLedgerService creditLedgerService;
+    private final GenerationJobLeases generationJobLeases;
+    private final PromptOptimizeCache promptOptimizeCache;
+    private final IdempotencyService idempotencyService;
     private final TransactionTemplate transactionTemplate;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     /**
-     * 构造函数，初始化RestTemplate并配置超时时间
+     * 图片生成默认端到端时间预算（秒），接口未配置 budgetSeconds 时使用
+     */
+    @Value("${generation.budget.imageSeconds:360}")
+    private int imageBudgetSeconds;
+
+    /**
+     * 视频生成默认端到端时间预算（秒），接口未配置 budgetSeconds 时使用
+     */
+    @Value("${generation.budget.videoSeconds:900}")
+    private int videoBudgetSeconds;
+
+    /**
+     * 提示词优化默认端到端时间预算（秒），接口未配置 budgetSeconds 时使用
+     */
+    @Value("${generation.budget.promptOptimizeSeconds:60}")
+    private int promptOptimizeBudgetSeconds;
+
+    /**
+     * 构造函数
      */
     public GenerationService(ApiPlatformService apiPlatformService,
             GenerationRecordMapper generationRecordMapper,
@@ -90,7 +164,19 @@ public class GenerationService {
             UserTransactionMapper userTransactionMapper,
             com.meitou.admin.service.common.AliyunOssService aliyunOssService,
             TransactionTemplate transactionTemplate,
-            FileStorageService fileStorageService) {
+            FileStorageService fileStorageService,
+            GenerationTaskExecutor generationTaskExecutor,
+            UpstreamHttpClientProvider upstreamHttpClientProvider,
+            PlatformRequestPlanCache platformRequestPlanCache,
+            GenerationResultIngestor generationResultIngestor,
+            GenerationCallbackSigner generationCallbackSigner,
+            SseStreamRelay sseStreamRelay,
+            PlatformHealthRouter platformHealthRouter,
+            HedgedRequests hedgedRequests,
+            CreditLedgerService creditLedgerService,
+            GenerationJobLeases generationJobLeases,
+            PromptOptimizeCache promptOptimizeCache,
+            IdempotencyService idempotencyService) {
         this.apiPlatformService = apiPlatformService;
         this.generationRecordMapper = generationRecordMapper;
         this.analysisRecordMapper = analysisRecordMapper;
@@ -100,12 +186,18 @@ public class GenerationService {
         this.aliyunOssService = aliyunOssService;
         this.transactionTemplate = transactionTemplate;
         this.fileStorageService = fileStorageService;
-
-        // 配置RestTemplate的超时时间
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(30000); // 连接超时：30秒
-        factory.setReadTimeout(300000); // 读取超时：300秒
-        this.restTemplate = new RestTemplate(factory);
+        this.generationTaskExecutor = generationTaskExecutor;
+        this.upstreamHttpClientProvider = upstreamHttpClientProvider;
+        this.platformRequestPlanCache = platformRequestPlanCache;
+        this.generationResultIngestor = generationResultIngestor;
+        this.generationCallbackSigner = generationCallbackSigner;
+        this.sseStreamRelay = sseStreamRelay;
+        this.platformHealthRouter = platformHealthRouter;
+        this.hedgedRequests = hedgedRequests;
+        this.creditLedgerService = creditLedgerService;
+        this.generationJobLeases = generationJobLeases;
+        this.promptOptimizeCache = promptOptimizeCache;
+        this.idempotencyService = idempotencyService;
     }
 
     /**
@@ -148,16 +240,36 @@ public class GenerationService {
         GenerationRecord record = startGenerationTask(userId, user.getUsername(), "txt2img", "image",
                 request.getModel(), request.getPrompt(), cost, request);
 
+        // 阶段二：调用API+上传OSS（提交到生成任务线程池异步执行，无事务）
+        dispatchGenerationTask(record, platform,
+                () -> executeTextToImage(record, request, platform, txt2imgInterface));
+
+        ImageGenerationResponse response = new ImageGenerationResponse();
+        response.setGenerationRecordId(record.getId());
+        response.setStatus("processing");
+        return response;
+    }
+
+    /**
+     * 文生图阶段二、三：调用API、上传OSS并完成任务（在生成任务线程池中执行）
+     */
+    private void executeTextToImage(GenerationRecord record, TextToImageRequest request, ApiPlatform platform,
+            ApiInterface txt2imgInterface) {
+        // 端到端截止时间从请求进入（记录创建）开始计算，排队时间也计入预算
+        Deadline deadline = resolveDeadline(record, txt2imgInterface, imageBudgetSeconds);
         try {
-            // 阶段二：调用API+上传OSS（无事务）
             // 构建请求参数
             Map<String, Object> apiRequest = buildTextToImageRequest(request, platform);
 
             // 应用参数映射（如果接口配置了参数映射）
-            apiRequest = applyParameterMapping(apiRequest, txt2imgInterface);
+            apiRequest = applyParameterMapping(apiRequest, platform, txt2imgInterface);
+            applyCallbackWebHook(apiRequest, platform, txt2imgInterface, request.getModel(), record.getId());
 
             // 调用API
-            String responseJson = callApi(txt2imgInterface, platform, apiRequest);
+            if (leaseLost(record)) {
+                return;
+            }
+            String responseJson = callApi(txt2imgInterface, platform, apiRequest, deadline);
 
             // 检查是否为异步任务（webHook="-1"）
             if ("-1".equals(request.getWebHook())) {
@@ -196,18 +308,15 @@ public class GenerationService {
                             params = objectMapper.readValue(record.getGenerationParams(), Map.class);
                         }
                         params.put("externalTaskId", taskId);
+                        params.put(ApiPlatformService.TASK_PLATFORM_ID_PARAM, platform.getId());
                         record.setGenerationParams(objectMapper.writeValueAsString(params));
                         record.setTaskId(taskId);
-                        generationRecordMapper.updateById(record);
+                        saveTaskIdUnderLease(record);
                     } catch (Exception e) {
                         log.warn("保存taskId失败: {}", e.getMessage());
                     }
 
-                    ImageGenerationResponse response = new ImageGenerationResponse();
-                    response.setGenerationRecordId(record.getId());
-                    response.setTaskId(taskId);
-                    response.setStatus("processing");
-                    return response;
+                    return;
                 } else {
                     log.warn("文生图异步请求(webHook=-1)未找到taskId，响应: {}", responseJson);
                 }
@@ -216,45 +325,24 @@ public class GenerationService {
             // 解析响应（传递responseMode以支持不同格式）
             List<String> imageUrls = parseImageUrls(responseJson, txt2imgInterface.getResponseMode());
 
-            // 上传图片到OSS并替换URL
-            List<String> ossUrls = new ArrayList<>();
-            for (String url : imageUrls) {
-                // 如果已经是OSS链接（可能是API直接返回了OSS链接），则不重复上传
-                if (url.contains("aliyuncs.com") || url.contains("myqcloud.com")) {
-                    ossUrls.add(url);
-                } else {
-                    String ossUrl = aliyunOssService.uploadFromUrl(url, "images/");
-                    ossUrls.add(ossUrl);
-                }
+            // 并发转存图片到OSS并替换URL
+            GenerationResultIngestor.IngestionResult ingestion = generationResultIngestor.ingestImages(imageUrls, "images/", deadline);
+            if (!ingestion.isValid()) {
+                failGenerationTask(record, ingestion.getInvalidReason());
+                return;
             }
-            imageUrls = ossUrls;
+            imageUrls = ingestion.getUrls();
 
             // 阶段三：完成任务（更新记录并拆分）
             String thumbnailUrl = !imageUrls.isEmpty() ? generateThumbnailUrl(imageUrls.get(0), "image") : null;
             completeAndSplitGenerationTask(record.getId(), imageUrls, thumbnailUrl);
-
-            // 构建响应
-            ImageGenerationResponse response = new ImageGenerationResponse();
-            // 签名URL
-            List<String> signedUrls = imageUrls.stream()
-                    .map(fileStorageService::getFileUrl)
-                    .collect(Collectors.toList());
-            response.setImageUrls(signedUrls);
-            response.setGenerationRecordId(record.getId());
-            response.setStatus("success");
-
-            return response;
-
         } catch (BusinessException e) {
             log.error("文生图失败：{}", e.getMessage(), e);
             String friendlyMessage = resolveGenerationBusinessErrorMessage(e);
             failGenerationTask(record, friendlyMessage);
-            throw new BusinessException(e.getCode(), friendlyMessage);
         } catch (Exception e) {
             log.error("文生图失败：{}", e.getMessage(), e);
             failGenerationTask(record, e.getMessage());
-            String friendlyMessage = resolveUnknownGenerationError(e);
-            throw new BusinessException(ErrorCode.GENERATION_FAILED.getCode(), friendlyMessage);
         }
     }
 
@@ -311,16 +399,36 @@ public class GenerationService {
         GenerationRecord record = startGenerationTask(userId, user.getUsername(), "img2img", "image",
                 request.getModel(), request.getPrompt(), cost, request);
 
+        // 阶段二：调用API+上传OSS（提交到生成任务线程池异步执行，无事务）
+        dispatchGenerationTask(record, platform,
+                () -> executeImageToImage(record, request, platform, img2imgInterface));
+
+        ImageGenerationResponse response = new ImageGenerationResponse();
+        response.setGenerationRecordId(record.getId());
+        response.setStatus("processing");
+        return response;
+    }
+
+    /**
+     * 图生图阶段二、三：调用API、上传OSS并完成任务（在生成任务线程池中执行）
+     */
+    private void executeImageToImage(GenerationRecord record, ImageToImageRequest request, ApiPlatform platform,
+            ApiInterface img2imgInterface) {
+        // 端到端截止时间从请求进入（记录创建）开始计算，排队时间也计入预算
+        Deadline deadline = resolveDeadline(record, img2imgInterface, imageBudgetSeconds);
         try {
-            // 阶段二：调用API+上传OSS（无事务）
             // 构建请求参数
             Map<String, Object> apiRequest = buildImageToImageRequest(request, platform);
 
             // 应用参数映射（如果接口配置了参数映射）
-            apiRequest = applyParameterMapping(apiRequest, img2imgInterface);
+            apiRequest = applyParameterMapping(apiRequest, platform, img2imgInterface);
+            applyCallbackWebHook(apiRequest, platform, img2imgInterface, request.getModel(), record.getId());
 
             // 调用API
-            String responseJson = callApi(img2imgInterface, platform, apiRequest);
+            if (leaseLost(record)) {
+                return;
+            }
+            String responseJson = callApi(img2imgInterface, platform, apiRequest, deadline);
 
             // 检查是否为异步任务（webHook="-1"）
             if ("-1".equals(request.getWebHook())) {
@@ -359,18 +467,15 @@ public class GenerationService {
                             params = objectMapper.readValue(record.getGenerationParams(), Map.class);
                         }
                         params.put("externalTaskId", taskId);
+                        params.put(ApiPlatformService.TASK_PLATFORM_ID_PARAM, platform.getId());
                         record.setGenerationParams(objectMapper.writeValueAsString(params));
                         record.setTaskId(taskId);
-                        generationRecordMapper.updateById(record);
+                        saveTaskIdUnderLease(record);
                     } catch (Exception e) {
                         log.warn("保存taskId失败: {}", e.getMessage());
                     }
 
-                    ImageGenerationResponse response = new ImageGenerationResponse();
-                    response.setGenerationRecordId(record.getId());
-                    response.setTaskId(taskId);
-                    response.setStatus("processing");
-                    return response;
+                    return;
                 } else {
                     log.warn("图生图异步请求(webHook=-1)未找到taskId，响应: {}", responseJson);
                 }
@@ -379,43 +484,24 @@ public class GenerationService {
             // 解析响应（传递responseMode以支持不同格式）
             List<String> imageUrls = parseImageUrls(responseJson, img2imgInterface.getResponseMode());
 
-            // 上传图片到OSS并替换URL
-            List<String> ossUrls = new ArrayList<>();
-            for (String url : imageUrls) {
-                if (url.contains("aliyuncs.com") || url.contains("myqcloud.com")) {
-                    ossUrls.add(url);
-                } else {
-                    String ossUrl = aliyunOssService.uploadFromUrl(url, "images/");
-                    ossUrls.add(ossUrl);
-                }
+            // 并发转存图片到OSS并替换URL
+            GenerationResultIngestor.IngestionResult ingestion = generationResultIngestor.ingestImages(imageUrls, "images/", deadline);
+            if (!ingestion.isValid()) {
+                failGenerationTask(record, ingestion.getInvalidReason());
+                return;
             }
-            imageUrls = ossUrls;
+            imageUrls = ingestion.getUrls();
 
             // 阶段三：完成任务（更新记录并拆分）
             String thumbnailUrl = !imageUrls.isEmpty() ? imageUrls.get(0) : null;
             completeAndSplitGenerationTask(record.getId(), imageUrls, thumbnailUrl);
-
-            // 构建响应
-            ImageGenerationResponse response = new ImageGenerationResponse();
-            // 签名URL
-            List<String> signedUrls = imageUrls.stream()
-                    .map(fileStorageService::getFileUrl)
-                    .collect(Collectors.toList());
-            response.setImageUrls(signedUrls);
-            response.setGenerationRecordId(record.getId());
-            response.setStatus("success");
-            return response;
-
         } catch (BusinessException e) {
             log.error("图生图失败：{}", e.getMessage(), e);
             String friendlyMessage = resolveGenerationBusinessErrorMessage(e);
             failGenerationTask(record, friendlyMessage);
-            throw new BusinessException(e.getCode(), friendlyMessage);
         } catch (Exception e) {
             log.error("图生图失败：{}", e.getMessage(), e);
             failGenerationTask(record, e.getMessage());
-            String friendlyMessage = resolveUnknownGenerationError(e);
-            throw new BusinessException(ErrorCode.GENERATION_FAILED.getCode(), friendlyMessage);
         }
     }
 
@@ -463,10 +549,30 @@ public class GenerationService {
         GenerationRecord record = startGenerationTask(userId, user.getUsername(), "txt2video", "video",
                 request.getModel(), request.getPrompt(), cost, request);
 
+        // 阶段二：调用API+上传OSS（提交到生成任务线程池异步执行，无事务）
+        dispatchGenerationTask(record, platform,
+                () -> executeTextToVideo(record, request, platform, txt2videoInterface));
+
+        VideoGenerationResponse response = new VideoGenerationResponse();
+        response.setGenerationRecordId(record.getId());
+        response.setStatus("processing");
+        return response;
+    }
+
+    /**
+     * 文生视频阶段二、三：调用API、上传OSS并完成任务（在生成任务线程池中执行）
+     */
+    private void executeTextToVideo(GenerationRecord record, TextToVideoRequest request, ApiPlatform platform,
+            ApiInterface txt2videoInterface) {
+        // 端到端截止时间从请求进入（记录创建）开始计算，排队时间也计入预算
+        Deadline deadline = resolveDeadline(record, txt2videoInterface, videoBudgetSeconds);
         try {
-            // 阶段二：调用API+上传OSS（无事务）
             Map<String, Object> apiRequest = buildTextToVideoRequest(request, platform);
-            String responseJson = callApi(txt2videoInterface, platform, apiRequest);
+            applyCallbackWebHook(apiRequest, platform, null, request.getModel(), record.getId());
+            if (leaseLost(record)) {
+                return;
+            }
+            String responseJson = callApi(txt2videoInterface, platform, apiRequest, deadline);
 
             // 检查是否为异步任务（webHook="-1"）
             if ("-1".equals(request.getWebHook())) {
@@ -499,18 +605,15 @@ public class GenerationService {
                             params = objectMapper.readValue(record.getGenerationParams(), Map.class);
                         }
                         params.put("externalTaskId", taskId);
+                        params.put(ApiPlatformService.TASK_PLATFORM_ID_PARAM, platform.getId());
                         record.setGenerationParams(objectMapper.writeValueAsString(params));
                         record.setTaskId(taskId);
-                        generationRecordMapper.updateById(record);
+                        saveTaskIdUnderLease(record);
                     } catch (Exception e) {
                         log.warn("保存taskId失败: {}", e.getMessage());
                     }
 
-                    VideoGenerationResponse response = new VideoGenerationResponse();
-                    response.setGenerationRecordId(record.getId());
-                    response.setTaskId(taskId);
-                    response.setStatus("processing");
-                    return response;
+                    return;
                 } else {
                     log.warn("文生视频异步请求(webHook=-1)未找到taskId，响应: {}", responseJson);
                 }
@@ -534,32 +637,20 @@ public class GenerationService {
             if (videoUrl.contains("aliyuncs.com") || videoUrl.contains("myqcloud.com")) {
                 ossUrl = videoUrl;
             } else {
-                ossUrl = aliyunOssService.uploadFromUrl(videoUrl, "videos/");
+                ossUrl = aliyunOssService.uploadFromUrl(videoUrl, "videos/", deadline);
             }
 
             // 阶段三：完成任务（更新记录）
             // 假设使用了阿里云OSS，可以直接添加截帧参数作为缩略图
             String thumbnailUrl = generateThumbnailUrl(ossUrl, "video");
             completeGenerationTask(record.getId(), ossUrl, thumbnailUrl, pid, failureReason);
-
-            VideoGenerationResponse response = new VideoGenerationResponse();
-            response.setVideoUrl(fileStorageService.getFileUrl(ossUrl));
-            response.setGenerationRecordId(record.getId());
-            response.setStatus("success");
-            response.setPid(pid);
-            response.setFailureReason(failureReason);
-            return response;
-
         } catch (BusinessException e) {
             log.error("文生视频失败：{}", e.getMessage(), e);
             String friendlyMessage = resolveGenerationBusinessErrorMessage(e);
             failGenerationTask(record, friendlyMessage);
-            throw new BusinessException(e.getCode(), friendlyMessage);
         } catch (Exception e) {
             log.error("文生视频失败：{}", e.getMessage(), e);
             failGenerationTask(record, e.getMessage());
-            String friendlyMessage = resolveUnknownGenerationError(e);
-            throw new BusinessException(ErrorCode.GENERATION_FAILED.getCode(), friendlyMessage);
         }
     }
 
@@ -611,10 +702,30 @@ public class GenerationService {
         GenerationRecord record = startGenerationTask(userId, user.getUsername(), "img2video", "video",
                 request.getModel(), request.getPrompt(), cost, request);
 
+        // 阶段二：调用API+上传OSS（提交到生成任务线程池异步执行，无事务）
+        dispatchGenerationTask(record, platform,
+                () -> executeImageToVideo(record, request, platform, img2videoInterface));
+
+        VideoGenerationResponse response = new VideoGenerationResponse();
+        response.setGenerationRecordId(record.getId());
+        response.setStatus("processing");
+        return response;
+    }
+
+    /**
+     * 图生视频阶段二、三：调用API、上传OSS并完成任务（在生成任务线程池中执行）
+     */
+    private void executeImageToVideo(GenerationRecord record, ImageToVideoRequest request, ApiPlatform platform,
+            ApiInterface img2videoInterface) {
+        // 端到端截止时间从请求进入（记录创建）开始计算，排队时间也计入预算
+        Deadline deadline = resolveDeadline(record, img2videoInterface, videoBudgetSeconds);
         try {
-            // 阶段二：调用API+上传OSS（无事务）
             Map<String, Object> apiRequest = buildImageToVideoRequest(request, platform);
-            String responseJson = callApi(img2videoInterface, platform, apiRequest);
+            applyCallbackWebHook(apiRequest, platform, null, request.getModel(), record.getId());
+            if (leaseLost(record)) {
+                return;
+            }
+            String responseJson = callApi(img2videoInterface, platform, apiRequest, deadline);
 
             // 检查是否为异步任务（webHook="-1"）
             if ("-1".equals(request.getWebHook())) {
@@ -647,18 +758,15 @@ public class GenerationService {
                             params = objectMapper.readValue(record.getGenerationParams(), Map.class);
                         }
                         params.put("externalTaskId", taskId);
+                        params.put(ApiPlatformService.TASK_PLATFORM_ID_PARAM, platform.getId());
                         record.setGenerationParams(objectMapper.writeValueAsString(params));
                         record.setTaskId(taskId);
-                        generationRecordMapper.updateById(record);
+                        saveTaskIdUnderLease(record);
                     } catch (Exception e) {
                         log.warn("保存taskId失败: {}", e.getMessage());
                     }
 
-                    VideoGenerationResponse response = new VideoGenerationResponse();
-                    response.setGenerationRecordId(record.getId());
-                    response.setTaskId(taskId);
-                    response.setStatus("processing");
-                    return response;
+                    return;
                 } else {
                     log.warn("图生视频异步请求(webHook=-1)未找到taskId，响应: {}", responseJson);
                 }
@@ -682,7 +790,7 @@ public class GenerationService {
             if (videoUrl.contains("aliyuncs.com") || videoUrl.contains("myqcloud.com")) {
                 ossUrl = videoUrl;
             } else {
-                ossUrl = aliyunOssService.uploadFromUrl(videoUrl, "videos/");
+                ossUrl = aliyunOssService.uploadFromUrl(videoUrl, "videos/", deadline);
             }
 
             // 阶段三：完成任务（更新记录）
@@ -694,35 +802,14 @@ public class GenerationService {
                 thumbnailUrl = generateThumbnailUrl(ossUrl, "video");
             }
             completeGenerationTask(record.getId(), ossUrl, thumbnailUrl, pid, failureReason);
-
-            VideoGenerationResponse response = new VideoGenerationResponse();
-            response.setVideoUrl(fileStorageService.getFileUrl(ossUrl));
-            response.setGenerationRecordId(record.getId());
-            response.setStatus("success");
-            response.setPid(pid);
-            response.setFailureReason(failureReason);
-            return response;
-
         } catch (BusinessException e) {
             log.error("图生视频失败：{}", e.getMessage());
             String friendlyMessage = resolveGenerationBusinessErrorMessage(e);
             failGenerationTask(record, friendlyMessage);
-            throw new BusinessException(e.getCode(), friendlyMessage);
         } catch (Exception e) {
             log.error("图生视频失败：{}", e.getMessage(), e);
             failGenerationTask(record, e.getMessage());
-            String friendlyMessage = resolveUnknownGenerationError(e);
-            throw new BusinessException(ErrorCode.GENERATION_FAILED.getCode(), friendlyMessage);
-        }
-    }
-
-    private String resolveUnknownGenerationError(Exception e) {
-        String errorMsg = e.getMessage();
-        if (errorMsg != null
-                && (errorMsg.contains("Unrecognized token") || errorMsg.contains("JsonParseException"))) {
-            return "API响应格式错误，请稍后重试";
         }
-        return "系统繁忙，请稍后再试";
     }
 
     private String resolveGenerationBusinessErrorMessage(BusinessException e) {
@@ -781,6 +868,61 @@ public class GenerationService {
         Page<GenerationRecord> pageParam = new Page<>(page, size);
         QueryWrapper<GenerationRecord> queryWrapper = new QueryWrapper<>();
         queryWrapper.eq("user_id", userId);
+        applyRecordTypeFilter(queryWrapper, type);
+        queryWrapper.orderByDesc("created_at");
+        Page<GenerationRecord> result = generationRecordMapper.selectPage(pageParam, queryWrapper);
+
+        // 处理签名URL
+        if (result.getRecords() != null) {
+            prepareRecordUrls(result.getRecords());
+        }
+
+        return result;
+    }
+
+    /**
+     * 按游标获取用户生成记录（按创建时间、ID倒序定位，不查询总数）
+     *
+     * @param userId 用户ID
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @param size   每页数量
+     * @param type   类型筛选 (可选)
+     * @return 记录列表及下一页游标
+     */
+    public CursorPageResponse<GenerationRecord> getUserGenerationRecordsByCursor(Long userId, String cursor, int size,
+            String type) {
+        int limit = Math.max(1, Math.min(size, 100));
+        CursorUtil.Position position = CursorUtil.decode(cursor);
+
+        QueryWrapper<GenerationRecord> queryWrapper = new QueryWrapper<>();
+        queryWrapper.eq("user_id", userId);
+        applyRecordTypeFilter(queryWrapper, type);
+        if (position != null) {
+            queryWrapper.and(w -> w.lt("created_at", position.getTime())
+                    .or(o -> o.eq("created_at", position.getTime()).lt("id", position.getId())));
+        }
+        queryWrapper.orderByDesc("created_at").orderByDesc("id");
+        // 多取一条用于判断是否还有下一页
+        queryWrapper.last("LIMIT " + (limit + 1));
+        List<GenerationRecord> records = new ArrayList<>(generationRecordMapper.selectList(queryWrapper));
+
+        CursorPageResponse<GenerationRecord> response = new CursorPageResponse<>();
+        boolean hasMore = records.size() > limit;
+        if (hasMore) {
+            records = records.subList(0, limit);
+            GenerationRecord last = records.get(records.size() - 1);
+            response.setNextCursor(CursorUtil.encode(last.getCreatedAt(), last.getId()));
+        }
+        prepareRecordUrls(records);
+        response.setRecords(records);
+        response.setHasMore(hasMore);
+        return response;
+    }
+
+    /**
+     * 生成记录类型筛选
+     */
+    private void applyRecordTypeFilter(QueryWrapper<GenerationRecord> queryWrapper, String type) {
         if (type != null && !type.isEmpty() && !"all".equals(type)) {
             // 前端传的是 'image' 或 'video'，数据库里存的是 'txt2img', 'img2img' (image) 或 'txt2video',
             // 'img2video' (video)
@@ -794,36 +936,34 @@ public class GenerationService {
                 queryWrapper.eq("type", type);
             }
         }
-        queryWrapper.orderByDesc("created_at");
-        Page<GenerationRecord> result = generationRecordMapper.selectPage(pageParam, queryWrapper);
+    }
 
-        // 处理签名URL
-        if (result.getRecords() != null) {
-            result.getRecords().forEach(record -> {
-                // 修复缺少缩略图或缩略图与原图相同的问题
-                String fileType = record.getFileType();
-                // 兼容旧数据
-                if (fileType == null) {
-                    if ("txt2video".equals(record.getType()) || "img2video".equals(record.getType()) || "video".equals(record.getType())) {
-                        fileType = "video";
-                    } else {
-                        fileType = "image";
-                    }
+    /**
+     * 补全缩略图并替换为签名URL
+     */
+    private void prepareRecordUrls(List<GenerationRecord> records) {
+        records.forEach(record -> {
+            // 修复缺少缩略图或缩略图与原图相同的问题
+            String fileType = record.getFileType();
+            // 兼容旧数据
+            if (fileType == null) {
+                if ("txt2video".equals(record.getType()) || "img2video".equals(record.getType()) || "video".equals(record.getType())) {
+                    fileType = "video";
+                } else {
+                    fileType = "image";
                 }
+            }
 
-                if (record.getThumbnailUrl() == null || record.getThumbnailUrl().isEmpty() || record.getThumbnailUrl().equals(record.getContentUrl())) {
-                    String newThumb = generateThumbnailUrl(record.getContentUrl(), fileType);
-                    if (newThumb != null && !newThumb.equals(record.getContentUrl())) {
-                        record.setThumbnailUrl(newThumb);
-                    }
+            if (record.getThumbnailUrl() == null || record.getThumbnailUrl().isEmpty() || record.getThumbnailUrl().equals(record.getContentUrl())) {
+                String newThumb = generateThumbnailUrl(record.getContentUrl(), fileType);
+                if (newThumb != null && !newThumb.equals(record.getContentUrl())) {
+                    record.setThumbnailUrl(newThumb);
                 }
+            }
 
-                record.setContentUrl(fileStorageService.getFileUrl(record.getContentUrl()));
-                record.setThumbnailUrl(fileStorageService.getFileUrl(record.getThumbnailUrl()));
-            });
-        }
-
-        return result;
+            record.setContentUrl(fileStorageService.getFileUrl(record.getContentUrl()));
+            record.setThumbnailUrl(fileStorageService.getFileUrl(record.getThumbnailUrl()));
+        });
     }
 
     /**
@@ -982,72 +1122,25 @@ public class GenerationService {
      * 解析视频SSE格式的流式响应
      */
     private String parseVideoSseResponse(String sseResponse) {
-        String videoUrl = null;
-        JsonNode lastDataNode = null;
-        String lastStatus = null;
-
         try {
-            // 按行分割SSE数据
-            String[] lines = sseResponse.split("\n");
-
-            for (String line : lines) {
-                line = line.trim();
-                // 跳过空行
-                if (line.isEmpty()) {
-                    continue;
-                }
-
-                // 检查是否是data行
-                if (line.startsWith("data: ")) {
-                    String jsonData = line.substring(6); // 移除 "data: " 前缀
-
-                    try {
-                        // 解析JSON数据
-                        JsonNode dataNode = objectMapper.readTree(jsonData);
-                        lastDataNode = dataNode;
-
-                        // 检查状态字段
-                        if (dataNode.has("status")) {
-                            lastStatus = dataNode.get("status").asText();
-                        }
-
-                        // 尝试提取视频URL
-                        String url = extractVideoUrlFromNode(dataNode);
-                        if (url != null && !url.isEmpty()) {
-                            videoUrl = url;
-                        }
-
-                    } catch (Exception e) {
-                        // 忽略解析失败的行，继续处理下一行
-                        log.debug("解析SSE数据行失败：{}", e.getMessage());
-                    }
-                }
-            }
-
-            // 如果已经找到URL，直接返回
-            if (videoUrl != null) {
-                return videoUrl;
-            }
+            SseResultParser.Result result = SseResultParser.parse(new StringReader(sseResponse));
+            String lastStatus = result.getLastStatus();
 
-            // 如果没有找到视频URL，但最后一个状态是completed/success/succeeded，尝试从最后一个数据节点提取
-            if (lastDataNode != null &&
-                    ("completed".equals(lastStatus) || "success".equals(lastStatus)
-                            || "succeeded".equals(lastStatus))) {
-                String url = extractVideoUrlFromNode(lastDataNode);
-                if (url != null && !url.isEmpty()) {
-                    return url;
-                }
+            // 取最后一个带视频URL的事件
+            if (result.getLastVideoUrl() != null) {
+                return result.getLastVideoUrl();
             }
 
-            // 如果还是没有找到，检查是否有错误信息
-            if (lastDataNode != null) {
-                if (lastDataNode.has("error") && !lastDataNode.get("error").asText().isEmpty()) {
+            // 如果没有找到，检查最后一个事件是否有错误信息
+            SseResultParser.Event lastEvent = result.getLastEvent();
+            if (lastEvent != null) {
+                if (lastEvent.getError() != null && !lastEvent.getError().isEmpty()) {
                     throw new BusinessException(ErrorCode.API_RESPONSE_ERROR.getCode(),
-                            "API返回错误：" + lastDataNode.get("error").asText());
+                            "API返回错误：" + lastEvent.getError());
                 }
-                if (lastDataNode.has("failure_reason") && !lastDataNode.get("failure_reason").asText().isEmpty()) {
+                if (lastEvent.getFailureReason() != null && !lastEvent.getFailureReason().isEmpty()) {
                     throw new BusinessException(ErrorCode.API_RESPONSE_ERROR.getCode(),
-                            "API返回失败原因：" + lastDataNode.get("failure_reason").asText());
+                            "API返回失败原因：" + lastEvent.getFailureReason());
                 }
                 // 如果状态是running，但没有URL
                 if ("running".equals(lastStatus)) {
@@ -1085,47 +1178,6 @@ public class GenerationService {
         return objectMapper.createObjectNode();
     }
 
-    /**
-     * 从JsonNode中提取视频URL
-     */
-    private String extractVideoUrlFromNode(JsonNode node) {
-        if (node.has("video_url") && !node.get("video_url").asText().isEmpty())
-            return node.get("video_url").asText();
-        if (node.has("url") && !node.get("url").asText().isEmpty())
-            return node.get("url").asText();
-
-        if (node.has("data")) {
-            JsonNode data = node.get("data");
-            if (data.has("url") && !data.get("url").asText().isEmpty())
-                return data.get("url").asText();
-            if (data.has("video_url") && !data.get("video_url").asText().isEmpty())
-                return data.get("video_url").asText();
-
-            if (data.has("results") && data.get("results").isArray()) {
-                JsonNode results = data.get("results");
-                if (results.size() > 0) {
-                    JsonNode first = results.get(0);
-                    if (first.has("url"))
-                        return first.get("url").asText();
-                    if (first.has("video_url"))
-                        return first.get("video_url").asText();
-                }
-            }
-        }
-
-        if (node.has("results") && node.get("results").isArray()) {
-            JsonNode results = node.get("results");
-            if (results.size() > 0) {
-                JsonNode first = results.get(0);
-                if (first.has("url"))
-                    return first.get("url").asText();
-                if (first.has("video_url"))
-                    return first.get("video_url").asText();
-            }
-        }
-        return null;
-    }
-
     /**
      * 从JsonNode中提取PID
      */
@@ -1234,7 +1286,8 @@ public class GenerationService {
     }
 
     /**
-     * 开启生成任务（事务：扣费+记录+流水）
+     * 开启生成任务（事务：记录+预留算力）
+     * 预留放在事务最后执行，用户行锁只持有一条语句到提交的时间；消费流水在任务成功结算时批量写入
      */
     private GenerationRecord startGenerationTask(Long userId, String username, String type, String fileType,
             String model, String prompt, Integer cost, Object requestParams) {
@@ -1250,22 +1303,6 @@ public class GenerationService {
                 throw new BusinessException(ErrorCode.PARAM_ERROR.getCode(), "站点信息缺失");
             }
 
-            if (cost > 0) {
-                int updateRows = userMapper.deductBalance(userId, cost, LocalDateTime.now());
-                if (updateRows == 0) {
-                    throw new BusinessException(ErrorCode.INSUFFICIENT_BALANCE);
-                }
-            }
-
-            User userAfter = userMapper.selectById(userId);
-            if (userAfter == null) {
-                throw new BusinessException(ErrorCode.USER_NOT_FOUND);
-            }
-            int balanceAfter = userAfter.getBalance() != null ? userAfter.getBalance() : 0;
-            if (balanceAfter < 0) {
-                throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "算力余额异常");
-            }
-
             GenerationRecord record = new GenerationRecord();
             record.setUserId(userId);
             record.setUsername(username);
@@ -1276,25 +1313,25 @@ public class GenerationService {
             record.setSiteId(siteId);
             record.setFileType(fileType);
             record.setCost(cost);
+            if (cost > 0) {
+                record.setChargeStatus(CreditLedgerService.HELD);
+            }
+            // 记录即任务：受理节点持有租约，崩溃后租约到期由其他节点接管
+            record.setLeaseOwner(generationJobLeases.getNodeId());
+            record.setLeaseExpiresAt(generationJobLeases.nextExpiry());
+            record.setJobAttempts(1);
             try {
                 record.setGenerationParams(objectMapper.writeValueAsString(requestParams));
             } catch (Exception e) {
                 log.warn("序列化生成参数失败", e);
             }
             generationRecordMapper.insert(record);
+            // 携带幂等键的请求：记录与幂等键的关联同事务提交，之后相同键的重试不会再创建记录
+            idempotencyService.bindGenerationRecord(record.getId());
 
-            // 记录流水
-            UserTransaction transaction = new UserTransaction();
-            transaction.setUserId(userId);
-            transaction.setType("CONSUME");
-            transaction.setAmount(-cost);
-            transaction.setBalanceAfter(balanceAfter);
-            transaction.setReferenceId(record.getId());
-            transaction.setDescription("AI生成消耗: " + type);
-            transaction.setSiteId(siteId);
-            int inserted = userTransactionMapper.insert(transaction);
-            if (inserted <= 0) {
-                throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "交易流水写入失败");
+            // 预留算力（可用余额不足时回滚记录）
+            if (!creditLedgerService.hold(userId, cost)) {
+                throw new BusinessException(ErrorCode.INSUFFICIENT_BALANCE);
             }
 
             return record;
@@ -1328,12 +1365,20 @@ public class GenerationService {
             updateOriginal.set("content_url", contentUrls.get(0));
             updateOriginal.set("thumbnail_url", effectiveThumbnailUrl);
             updateOriginal.set("updated_at", LocalDateTime.now());
+            if (CreditLedgerService.HELD.equals(originalRecord.getChargeStatus())) {
+                // 按实际交付的图片数结算，未交付部分的预留在结算时释放
+                int held = originalRecord.getCost() != null ? originalRecord.getCost() : 0;
+                int requested = readRequestedQuantity(originalRecord.getGenerationParams());
+                updateOriginal.set("settled_amount", CreditLedgerService.settleAmount(held, contentUrls.size(), requested));
+                updateOriginal.set("charge_status", CreditLedgerService.SETTLING);
+            }
 
             int updatedRows = generationRecordMapper.update(null, updateOriginal);
             if (updatedRows == 0) {
                 return null;
             }
 
+            List<GenerationRecord> splitRecords = new ArrayList<>(contentUrls.size() - 1);
             for (int i = 1; i < contentUrls.size(); i++) {
                 String url = contentUrls.get(i);
                 GenerationRecord newRecord = new GenerationRecord();
@@ -1351,8 +1396,10 @@ public class GenerationService {
                 newRecord.setStatus("success");
                 newRecord.setContentUrl(url);
                 newRecord.setThumbnailUrl(generateThumbnailUrl(url, originalRecord.getFileType()));
-
-                generationRecordMapper.insert(newRecord);
+                splitRecords.add(newRecord);
+            }
+            if (!splitRecords.isEmpty()) {
+                generationRecordMapper.insertBatch(splitRecords);
             }
 
             return null;
@@ -1377,6 +1424,9 @@ public class GenerationService {
                 update.set("failure_reason", failureReason);
             }
             update.set("updated_at", LocalDateTime.now());
+            // 已预留的记录转为待结算（MySQL 按从左到右的顺序赋值，settled_amount 先按原状态计算）
+            update.setSql("settled_amount = CASE WHEN charge_status = 'HELD' THEN cost ELSE settled_amount END, "
+                    + "charge_status = CASE WHEN charge_status = 'HELD' THEN 'SETTLING' ELSE charge_status END");
 
             generationRecordMapper.update(null, update);
             return null;
@@ -1384,17 +1434,20 @@ public class GenerationService {
     }
 
     /**
-     * 失败处理（事务：更新记录+退款+流水）
+     * 失败处理（事务：更新记录+释放预留；提交时已直接扣费的旧记录退款并写流水）
+     *
+     * @return 本次是否把记录从 processing 置为失败
      */
-    private void failGenerationTask(GenerationRecord record, String failureReason) {
+    private boolean failGenerationTask(GenerationRecord record, String failureReason) {
         if (record == null || record.getId() == null) {
-            return;
+            return false;
         }
         Long siteId = record.getSiteId();
         if (siteId == null) {
-            return;
+            return false;
         }
         String safeReason = truncate(failureReason, 500);
+        AtomicBoolean failed = new AtomicBoolean();
         runWithSiteContext(siteId, () -> transactionTemplate.execute(status -> {
             UpdateWrapper<GenerationRecord> updateWrapper = new UpdateWrapper<>();
             updateWrapper.eq("id", record.getId());
@@ -1404,10 +1457,15 @@ public class GenerationService {
                 updateWrapper.set("failure_reason", safeReason);
             }
             updateWrapper.set("updated_at", LocalDateTime.now());
+            boolean held = CreditLedgerService.HELD.equals(record.getChargeStatus());
+            if (held) {
+                updateWrapper.set("charge_status", CreditLedgerService.RELEASED);
+            }
             int updatedRows = generationRecordMapper.update(null, updateWrapper);
             if (updatedRows == 0) {
                 return null;
             }
+            failed.set(true);
 
             Integer cost = record.getCost();
             if (cost == null || cost <= 0) {
@@ -1419,6 +1477,12 @@ public class GenerationService {
                 throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "退款用户缺失");
             }
 
+            if (held) {
+                // 预留尚未结算，直接释放，不产生退款流水
+                creditLedgerService.release(userId, cost);
+                return null;
+            }
+
             int balanceUpdated = userMapper.incrementBalance(userId, cost, LocalDateTime.now());
             if (balanceUpdated == 0) {
                 throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "退款失败");
@@ -1441,174 +1505,367 @@ public class GenerationService {
             }
             return null;
         }));
+        return failed.get();
     }
 
-    public void failIfProcessingAndRefund(Long recordId, String failureReason) {
+    /**
+     * 记录仍处于 processing 时置为失败并退款
+     *
+     * @return 本次是否置为失败（记录不存在或已结束时返回false）
+     */
+    public boolean failIfProcessingAndRefund(Long recordId, String failureReason) {
         GenerationRecord record = generationRecordMapper.selectById(recordId);
         if (record == null) {
-            return;
+            return false;
         }
-        failGenerationTask(record, failureReason);
+        return failGenerationTask(record, failureReason);
     }
 
     /**
-     * 提示词优化
+     * 批量将同一站点下处理中的任务置为失败并退款（单个事务）
+     * 先锁定仍处于 processing 的记录再按同样条件批量更新，只有本次转为失败的记录才退款，与逐条处理一样只退一次；
+     * 仅预留未结算的记录按用户合并释放预留；
+     * 同一用户的退款合并为一次加余额（按用户ID顺序更新，避免并发批次间死锁），退款流水一条语句批量写入。
+     *
+     * @param siteId        站点ID
+     * @param recordIds     记录ID
+     * @param failureReason 失败原因
+     * @return 本次置为失败的记录（含 userId、cost）
      */
-    public SseEmitter optimizePrompt(PromptOptimizeRequest request, Long userId) {
-        // 1. 查找平台
-        ApiPlatform platform = findPlatformByType("prompt_optimize", request.getModel(), null);
-        if (platform == null) {
-            throw new BusinessException(ErrorCode.GENERATION_PLATFORM_NOT_CONFIGURED.getCode(), "提示词优化平台未配置");
-        }
-
-        // 2. 查找接口
-        List<ApiInterface> interfaces = apiPlatformService.getInterfacesByPlatformId(platform.getId());
-        ApiInterface apiInterface = interfaces.stream()
-                .findFirst()
-                .orElse(null);
-
-        if (apiInterface == null) {
-            throw new BusinessException(ErrorCode.GENERATION_INTERFACE_NOT_CONFIGURED.getCode(), "提示词优化接口未配置");
+    public List<GenerationRecord> failProcessingBatchAndRefund(Long siteId, List<Long> recordIds, String failureReason) {
+        if (siteId == null || recordIds == null || recordIds.isEmpty()) {
+            return Collections.emptyList();
         }
-
-        // Save Analysis Record (Pending)
-        AnalysisRecord analysisRecord = new AnalysisRecord();
-        analysisRecord.setUserId(userId);
-        analysisRecord.setType("prompt");
-        analysisRecord.setContent(request.getPrompt());
-        analysisRecord.setStatus(0); // Pending
-        analysisRecord.setSiteId(SiteContext.getSiteId());
-        analysisRecordMapper.insert(analysisRecord);
-
-        // 3. 构建请求
-        SseEmitter emitter = new SseEmitter(60000L); // 1 minute timeout
-
-        try {
-            okhttp3.MediaType JSON = okhttp3.MediaType.get("application/json; charset=utf-8");
-            String jsonBody = objectMapper.writeValueAsString(request);
-            RequestBody body = RequestBody.create(jsonBody, JSON);
-
-            Request.Builder requestBuilder = new Request.Builder()
-                    .url(apiInterface.getUrl())
-                    .post(body);
-
-            // Add headers
-            if (apiInterface.getHeaders() != null) {
-                try {
-                    JsonNode headersNode = objectMapper.readTree(apiInterface.getHeaders());
-                    headersNode.fields().forEachRemaining(entry -> {
-                        String key = entry.getKey();
-                        String value = entry.getValue().asText();
-                        if (value.contains("{apiKey}") && platform.getApiKey() != null) {
-                            value = value.replace("{apiKey}", platform.getApiKey());
-                        }
-                        requestBuilder.addHeader(key, value);
-                    });
-                } catch (Exception e) {
-                    log.warn("解析headers失败", e);
+        String safeReason = truncate(failureReason, 500);
+        List<GenerationRecord> failed = new ArrayList<>();
+        runWithSiteContext(siteId, () -> transactionTemplate.executeWithoutResult(status -> {
+            List<GenerationRecord> locked = generationRecordMapper.selectProcessingForUpdateIgnoreTenant(siteId, recordIds);
+            if (locked.isEmpty()) {
+                return;
+            }
+            List<Long> lockedIds = locked.stream().map(GenerationRecord::getId).collect(Collectors.toList());
+            int updatedRows = generationRecordMapper.failProcessingBatchIgnoreTenant(lockedIds, safeReason);
+            if (updatedRows != lockedIds.size()) {
+                throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "批量失败处理状态不一致");
+            }
+
+            Map<Long, List<GenerationRecord>> refundsByUser = new TreeMap<>();
+            Map<Long, Integer> releasesByUser = new TreeMap<>();
+            for (GenerationRecord record : locked) {
+                if (record.getCost() == null || record.getCost() <= 0) {
+                    continue;
+                }
+                if (record.getUserId() == null) {
+                    throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "退款用户缺失");
+                }
+                if (CreditLedgerService.HELD.equals(record.getChargeStatus())) {
+                    releasesByUser.merge(record.getUserId(), record.getCost(), Integer::sum);
+                } else {
+                    refundsByUser.computeIfAbsent(record.getUserId(), k -> new ArrayList<>()).add(record);
                 }
             }
 
-            // Ensure Authorization header if not present
-            if (platform.getApiKey() != null && !platform.getApiKey().isEmpty()) {
-                requestBuilder.header("Authorization", "Bearer " + platform.getApiKey());
-            }
-
-            Request okRequest = requestBuilder.build();
-
-            // 4. Execute
-            okHttpClient.newCall(okRequest).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    // Update Analysis Record (Failed)
-                    analysisRecord.setStatus(2);
-                    String errorMsg = resolveUnknownPromptOptimizeError(e);
-                    analysisRecord.setErrorMsg(errorMsg);
-                    analysisRecordMapper.updateById(analysisRecord);
+            // 未结算的预留按用户合并释放
+            releasesByUser.forEach(creditLedgerService::release);
 
-                    try {
-                        emitter.send(SseEmitter.event().name("error").data(errorMsg));
-                        emitter.complete();
-                    } catch (Exception ex) {
-                        log.error("Error completing emitter", ex);
+            if (!refundsByUser.isEmpty()) {
+                LocalDateTime now = LocalDateTime.now();
+                Map<Long, Integer> refundTotals = new HashMap<>();
+                refundsByUser.forEach((userId, records) -> {
+                    int total = records.stream().mapToInt(GenerationRecord::getCost).sum();
+                    if (userMapper.incrementBalance(userId, total, now) == 0) {
+                        throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "退款失败");
+                    }
+                    refundTotals.put(userId, total);
+                });
+
+                Map<Long, Integer> balances = userMapper.selectBatchIds(refundsByUser.keySet()).stream()
+                        .collect(Collectors.toMap(User::getId, u -> u.getBalance() != null ? u.getBalance() : 0));
+                List<UserTransaction> transactions = new ArrayList<>();
+                refundsByUser.forEach((userId, records) -> {
+                    // 按记录顺序还原每笔退款后的余额
+                    int balanceAfter = balances.getOrDefault(userId, 0) - refundTotals.get(userId);
+                    for (GenerationRecord record : records) {
+                        balanceAfter += record.getCost();
+                        UserTransaction transaction = new UserTransaction();
+                        transaction.setUserId(userId);
+                        transaction.setType("REFUND");
+                        transaction.setAmount(record.getCost());
+                        transaction.setBalanceAfter(balanceAfter);
+                        transaction.setReferenceId(record.getId());
+                        transaction.setDescription("任务失败退款: " + (record.getType() != null ? record.getType() : ""));
+                        transaction.setSiteId(siteId);
+                        transactions.add(transaction);
                     }
+                });
+                if (userTransactionMapper.insertBatch(transactions) != transactions.size()) {
+                    throw new BusinessException(ErrorCode.SYSTEM_ERROR.getCode(), "退款流水写入失败");
                 }
+            }
+            failed.addAll(locked);
+        }));
+        return failed;
+    }
 
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    StringBuilder fullResponse = new StringBuilder();
-                    try (ResponseBody responseBody = response.body()) {
-                        if (!response.isSuccessful()) {
-                            // Update Analysis Record (Failed)
-                            analysisRecord.setStatus(2);
-                            String errorMsg = "系统繁忙，请稍后再试";
-                            analysisRecord.setErrorMsg(errorMsg);
-                            analysisRecordMapper.updateById(analysisRecord);
-
-                            emitter.send(SseEmitter.event().name("error").data(errorMsg));
-                            emitter.complete();
-                            return;
-                        }
+    /**
+     * 将阶段二提交到生成任务线程池
+     * 线程池排队已满时立即失败并退款，再把异常抛给调用方
+     */
+    private void dispatchGenerationTask(GenerationRecord record, ApiPlatform platform, Runnable job) {
+        try {
+            submitLeasedJob(record, platform, job);
+        } catch (BusinessException e) {
+            failGenerationTask(record, e.getMessage());
+            throw e;
+        }
+    }
 
-                        if (responseBody == null) {
-                            // Update Analysis Record (Failed)
-                            analysisRecord.setStatus(2);
-                            String errorMsg = "系统繁忙，请稍后再试";
-                            analysisRecord.setErrorMsg(errorMsg);
-                            analysisRecordMapper.updateById(analysisRecord);
-                            
-                            emitter.send(SseEmitter.event().name("error").data(errorMsg));
-                            emitter.complete();
-                            return;
-                        }
+    /**
+     * 提交任务并在执行期间续约（排队中也续约，排队时间不会导致租约过期被重复接管）
+     * 节点关闭时仍未执行的任务退回租约（立即到期、不计执行次数），由其他节点或重启后立即接管，不会一直占用冻结的算力
+     */
+    private void submitLeasedJob(GenerationRecord record, ApiPlatform platform, Runnable job) {
+        Long recordId = record.getId();
+        generationJobLeases.track(recordId);
+        try {
+            Runnable leasedJob = () -> {
+                try {
+                    job.run();
+                } finally {
+                    generationJobLeases.untrack(recordId);
+                }
+            };
+            generationTaskExecutor.submit(platform.getId(), GenerationTaskExecutor.Lane.of(record.getType()),
+                    record.getUserId(), leasedJob, () -> generationJobLeases.releaseClaim(recordId));
+        } catch (RuntimeException e) {
+            generationJobLeases.untrack(recordId);
+            throw e;
+        }
+    }
 
-                        // Stream the response
-                        okio.BufferedSource source = responseBody.source();
-                        boolean isSuccess = false;
-                        while (!source.exhausted()) {
-                            String line = source.readUtf8Line();
-                            if (line != null && !line.isEmpty()) {
-                                if (line.startsWith("data: ")) {
-                                    String data = line.substring(6);
-                                    if ("[DONE]".equals(data.trim())) {
-                                        // Update Analysis Record (Success)
-                                        analysisRecord.setStatus(1);
-                                        analysisRecord.setResult(fullResponse.toString());
-                                        analysisRecordMapper.updateById(analysisRecord);
-                                        isSuccess = true;
-                                        continue;
-                                    }
-                                    fullResponse.append(data);
-                                    emitter.send(data);
-                                }
-                            }
-                        }
-                        
-                        // If finished without [DONE] but gathered data, mark as success
-                        if (!isSuccess && fullResponse.length() > 0) {
-                             analysisRecord.setStatus(1);
-                             analysisRecord.setResult(fullResponse.toString());
-                             analysisRecordMapper.updateById(analysisRecord);
-                        } else if (!isSuccess) {
-                            // No data received and no [DONE], mark as failed
-                            analysisRecord.setStatus(2);
-                            String errorMsg = "系统繁忙，请稍后再试";
-                            analysisRecord.setErrorMsg(errorMsg);
-                            analysisRecordMapper.updateById(analysisRecord);
-                            emitter.send(SseEmitter.event().name("error").data(errorMsg));
-                        }
+    /**
+     * 租约已被其他节点接管（本节点停顿超过租约时长）时放弃执行，避免同一任务重复提交到上游
+     */
+    private boolean leaseLost(GenerationRecord record) {
+        if (generationJobLeases.isHeld(record.getId())) {
+            return false;
+        }
+        log.warn("生成任务租约已被其他节点接管，本节点放弃执行: recordId={}", record.getId());
+        return true;
+    }
 
-                        emitter.complete();
-                    } catch (Exception e) {
-                        // Update Analysis Record (Failed)
-                        analysisRecord.setStatus(2);
-                        String errorMsg = resolveUnknownPromptOptimizeError(e);
-                        analysisRecord.setErrorMsg(errorMsg);
-                        analysisRecordMapper.updateById(analysisRecord);
-
-                        emitter.send(SseEmitter.event().name("error").data(errorMsg));
-                        emitter.complete();
+    /**
+     * 保存上游 taskId（条件更新：租约已被其他节点接管时不覆盖，由接管节点的结果为准）
+     */
+    private void saveTaskIdUnderLease(GenerationRecord record) {
+        if (!generationJobLeases.saveTaskId(record.getId(), record.getTaskId(), record.getGenerationParams())) {
+            log.warn("生成任务租约已被其他节点接管，不保存本次上游 taskId: recordId={}, taskId={}",
+                    record.getId(), record.getTaskId());
+        }
+    }
+
+    /**
+     * 恢复租约已过期的生成任务（原节点崩溃或重启，调用方已接管租约并设置站点上下文）
+     * 已取得上游 taskId 的任务由轮询器按 taskId 继续跟踪，不会重新提交；尚未取得结果的任务按保存的请求参数重新路由并提交，
+     * 超过最大执行次数后置为失败并释放算力。本节点排队已满或平台暂不可用时退回接管（租约立即到期、执行次数不变），由其他节点或下次扫描接管。
+     *
+     * @param recordId    记录ID
+     * @param maxAttempts 最大执行次数
+     * @return 是否已重新提交
+     */
+    public boolean resumeGenerationJob(Long recordId, int maxAttempts) {
+        GenerationRecord record = generationRecordMapper.selectById(recordId);
+        if (record == null || !"processing".equals(record.getStatus()) || record.getTaskId() != null) {
+            return false;
+        }
+        if (record.getJobAttempts() != null && record.getJobAttempts() > maxAttempts) {
+            log.warn("生成任务多次中断，置为失败: recordId={}, attempts={}", recordId, record.getJobAttempts());
+            failGenerationTask(record, "任务执行中断，系统自动退款");
+            return false;
+        }
+
+        String type = record.getType();
+        ApiPlatform platform;
+        try {
+            platform = findPlatformByType(type, record.getModel(), null);
+        } catch (BusinessException e) {
+            // 平台全部熔断属于暂时不可用，退回接管，不消耗执行次数
+            log.warn("生成任务恢复时平台暂不可用，退回接管: recordId={}", recordId);
+            generationJobLeases.releaseClaim(recordId);
+            return false;
+        }
+        ApiInterface apiInterface = platform != null ? findGenerationInterface(type, platform.getId()) : null;
+        if (apiInterface == null) {
+            failGenerationTask(record, "生成平台不可用，系统自动退款");
+            return false;
+        }
+
+        Runnable job;
+        try {
+            switch (type) {
+                case "txt2img" -> {
+                    TextToImageRequest request = readGenerationParams(record, TextToImageRequest.class);
+                    job = () -> executeTextToImage(record, request, platform, apiInterface);
+                }
+                case "img2img" -> {
+                    ImageToImageRequest request = readGenerationParams(record, ImageToImageRequest.class);
+                    job = () -> executeImageToImage(record, request, platform, apiInterface);
+                }
+                case "txt2video" -> {
+                    TextToVideoRequest request = readGenerationParams(record, TextToVideoRequest.class);
+                    job = () -> executeTextToVideo(record, request, platform, apiInterface);
+                }
+                case "img2video" -> {
+                    ImageToVideoRequest request = readGenerationParams(record, ImageToVideoRequest.class);
+                    job = () -> executeImageToVideo(record, request, platform, apiInterface);
+                }
+                default -> {
+                    failGenerationTask(record, "任务类型不支持恢复，系统自动退款");
+                    return false;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("生成任务参数无法恢复 recordId={}: {}", recordId, e.getMessage());
+            failGenerationTask(record, "任务执行中断，系统自动退款");
+            return false;
+        }
+
+        try {
+            submitLeasedJob(record, platform, job);
+        } catch (BusinessException e) {
+            // 排队已满属于暂时背压，退回接管，不消耗执行次数
+            log.warn("生成任务恢复时排队已满，退回接管: recordId={}", recordId);
+            generationJobLeases.releaseClaim(recordId);
+            return false;
+        }
+        log.info("生成任务已由本节点接管并重新提交: recordId={}, attempts={}", recordId, record.getJobAttempts());
+        return true;
+    }
+
+    private <T> T readGenerationParams(GenerationRecord record, Class<T> type) throws IOException {
+        if (record.getGenerationParams() == null || record.getGenerationParams().isEmpty()) {
+            throw new IOException("生成参数缺失");
+        }
+        return objectMapper.readerFor(type)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+                .readValue(record.getGenerationParams());
+    }
+
+    /**
+     * 提示词优化
+     */
+    public SseEmitter optimizePrompt(PromptOptimizeRequest request, Long userId) {
+        // 1. 查找平台
+        ApiPlatform platform = findPlatformByType("prompt_optimize", request.getModel(), null);
+        if (platform == null) {
+            throw new BusinessException(ErrorCode.GENERATION_PLATFORM_NOT_CONFIGURED.getCode(), "提示词优化平台未配置");
+        }
+
+        // 2. 查找接口
+        List<ApiInterface> interfaces = apiPlatformService.getRegisteredInterfaces(platform.getId());
+        ApiInterface apiInterface = interfaces.stream()
+                .findFirst()
+                .orElse(null);
+
+        if (apiInterface == null) {
+            throw new BusinessException(ErrorCode.GENERATION_INTERFACE_NOT_CONFIGURED.getCode(), "提示词优化接口未配置");
+        }
+
+        // 3. 截止时间同时决定客户端连接的超时
+        int budgetSeconds = apiInterface.getBudgetSeconds() != null && apiInterface.getBudgetSeconds() > 0
+                ? apiInterface.getBudgetSeconds()
+                : promptOptimizeBudgetSeconds;
+        Deadline deadline = Deadline.after(budgetSeconds * 1000L);
+        SseEmitter emitter = new SseEmitter(budgetSeconds * 1000L);
+
+        // 4. 查找缓存：命中时直接重放；相同请求正在进行时加入该请求，不再单独请求上游
+        PromptOptimizeCache.Lookup lookup = promptOptimizeCache.lookup(
+                promptOptimizeCache.key(platform.getId(), request.getModel(), request.getMessages()));
+        if (lookup.cached() != null) {
+            replayPromptOptimize(lookup.cached(), request, userId, emitter);
+            return emitter;
+        }
+
+        // Save Analysis Record (Pending)
+        AnalysisRecord analysisRecord = new AnalysisRecord();
+        analysisRecord.setUserId(userId);
+        analysisRecord.setType("prompt");
+        analysisRecord.setContent(request.getPrompt());
+        analysisRecord.setStatus(0); // Pending
+        analysisRecord.setSiteId(SiteContext.getSiteId());
+
+        PromptOptimizeCache.Flight flight = lookup.flight();
+        if (!lookup.leader()) {
+            analysisRecordMapper.insert(analysisRecord);
+            joinPromptOptimize(flight, analysisRecord, emitter);
+            return emitter;
+        }
+
+        try {
+            analysisRecordMapper.insert(analysisRecord);
+            String jsonBody = objectMapper.writeValueAsString(request);
+            SseStreamRelay.Upstream primary = new SseStreamRelay.Upstream(apiInterface,
+                    buildPromptOptimizeRequest(platform, apiInterface, jsonBody));
+            SseStreamRelay.Upstream hedge = buildPromptOptimizeHedge(platform, apiInterface, request.getModel(), jsonBody);
+
+            // 5. Execute
+            sseStreamRelay.relay(primary, hedge, PROMPT_OPTIMIZE_TIMEOUT_SECONDS, deadline, emitter, new SseStreamRelay.StreamListener() {
+                private final StringBuilder fullResponse = new StringBuilder();
+                private boolean isSuccess = false;
+
+                @Override
+                public boolean onLine(String line, SseStreamRelay.Session session) {
+                    if (line.isEmpty() || !line.startsWith("data: ")) {
+                        return false;
+                    }
+                    String data = line.substring(6);
+                    if ("[DONE]".equals(data.trim())) {
+                        // Update Analysis Record (Success)
+                        persistAnalysisResult(session, analysisRecord, 1, fullResponse.toString(), null);
+                        isSuccess = true;
+                        flight.complete();
+                        return false;
                     }
+                    fullResponse.append(data);
+                    session.send(data);
+                    flight.publish(data);
+                    return false;
+                }
+
+                @Override
+                public void onEnd(SseStreamRelay.Session session) {
+                    // If finished without [DONE] but gathered data, mark as success
+                    if (!isSuccess && fullResponse.length() > 0) {
+                        persistAnalysisResult(session, analysisRecord, 1, fullResponse.toString(), null);
+                        flight.complete();
+                    } else if (!isSuccess) {
+                        // No data received and no [DONE], mark as failed
+                        String errorMsg = "系统繁忙，请稍后再试";
+                        persistAnalysisResult(session, analysisRecord, 2, null, errorMsg);
+                        session.send(SseEmitter.event().name("error").data(errorMsg));
+                        flight.fail(errorMsg);
+                    }
+                    session.complete();
+                }
+
+                @Override
+                public void onHttpError(int code, String body, SseStreamRelay.Session session) {
+                    // Update Analysis Record (Failed)
+                    String errorMsg = "系统繁忙，请稍后再试";
+                    persistAnalysisResult(session, analysisRecord, 2, null, errorMsg);
+                    session.send(SseEmitter.event().name("error").data(errorMsg));
+                    flight.fail(errorMsg);
+                    session.complete();
+                }
+
+                @Override
+                public void onError(Exception e, SseStreamRelay.Session session) {
+                    // Update Analysis Record (Failed)
+                    String errorMsg = resolveUnknownPromptOptimizeError(e);
+                    persistAnalysisResult(session, analysisRecord, 2, null, errorMsg);
+                    session.send(SseEmitter.event().name("error").data(errorMsg));
+                    flight.fail(errorMsg);
+                    session.complete();
                 }
             });
 
@@ -1616,8 +1873,11 @@ public class GenerationService {
             // Update Analysis Record (Failed)
             analysisRecord.setStatus(2);
             String errorMsg = resolveUnknownPromptOptimizeError(e);
+            flight.fail(errorMsg);
             analysisRecord.setErrorMsg(errorMsg);
-            analysisRecordMapper.updateById(analysisRecord);
+            if (analysisRecord.getId() != null) {
+                analysisRecordMapper.updateById(analysisRecord);
+            }
             try {
                 emitter.send(SseEmitter.event().name("error").data(errorMsg));
             } catch (Exception ignored) {
@@ -1628,6 +1888,114 @@ public class GenerationService {
         return emitter;
     }
 
+    /**
+     * 重放缓存的提示词优化结果：按原数据块逐个发送，记录直接保存为成功
+     */
+    private void replayPromptOptimize(PromptOptimizeCache.CachedResult cached, PromptOptimizeRequest request,
+            Long userId, SseEmitter emitter) {
+        AnalysisRecord analysisRecord = new AnalysisRecord();
+        analysisRecord.setUserId(userId);
+        analysisRecord.setType("prompt");
+        analysisRecord.setContent(request.getPrompt());
+        analysisRecord.setStatus(1);
+        analysisRecord.setResult(cached.getFullText());
+        analysisRecord.setSiteId(SiteContext.getSiteId());
+        analysisRecordMapper.insert(analysisRecord);
+
+        SseStreamRelay.Session session = sseStreamRelay.open(emitter, cached.getChunks().size());
+        cached.getChunks().forEach(session::send);
+        session.complete();
+    }
+
+    /**
+     * 加入正在进行的相同提示词优化请求：先收到已返回的数据块，之后与发起方同步收到后续数据块和结果
+     */
+    private void joinPromptOptimize(PromptOptimizeCache.Flight flight, AnalysisRecord analysisRecord, SseEmitter emitter) {
+        SseStreamRelay.Session session = sseStreamRelay.open(emitter, flight.size());
+        flight.subscribe(new PromptOptimizeCache.Subscriber() {
+            @Override
+            public void onChunk(String chunk) {
+                session.send(chunk);
+            }
+
+            @Override
+            public void onComplete(String fullText) {
+                persistAnalysisResult(session, analysisRecord, 1, fullText, null);
+                session.complete();
+            }
+
+            @Override
+            public void onError(String errorMsg) {
+                persistAnalysisResult(session, analysisRecord, 2, null, errorMsg);
+                session.send(SseEmitter.event().name("error").data(errorMsg));
+                session.complete();
+            }
+        });
+    }
+
+    /**
+     * 构建提示词优化上游请求
+     */
+    private Request buildPromptOptimizeRequest(ApiPlatform platform, ApiInterface apiInterface, String jsonBody) {
+        okhttp3.MediaType JSON = okhttp3.MediaType.get("application/json; charset=utf-8");
+        RequestBody body = RequestBody.create(jsonBody, JSON);
+
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(apiInterface.getUrl())
+                .post(body);
+
+        // Add headers
+        platformRequestPlanCache.getPlan(platform).getInterfacePlan(apiInterface).getHeaders()
+                .forEach(requestBuilder::addHeader);
+
+        // Ensure Authorization header if not present
+        if (platform.getApiKey() != null && !platform.getApiKey().isEmpty()) {
+            requestBuilder.header("Authorization", "Bearer " + platform.getApiKey());
+        }
+
+        return requestBuilder.build();
+    }
+
+    /**
+     * 构建提示词优化的对冲请求：发往另一个支持该模型的平台，没有其他可用平台时不对冲
+     * 先确认该接口会发出对冲（已启用且有足够耗时样本），避免每次请求都挑选备用平台
+     */
+    private SseStreamRelay.Upstream buildPromptOptimizeHedge(ApiPlatform primary, ApiInterface primaryInterface,
+            String model, String jsonBody) {
+        if (hedgedRequests.hedgeDelayMillis(SseStreamRelay.latencyKey(primaryInterface)) < 0) {
+            return null;
+        }
+        ApiPlatform alternate = apiPlatformService.getAlternatePlatform("prompt_optimize", model, null, primary.getId());
+        if (alternate == null || alternate.getApiKey() == null || alternate.getApiKey().isEmpty()) {
+            return null;
+        }
+        ApiInterface alternateInterface = apiPlatformService.getRegisteredInterfaces(alternate.getId()).stream()
+                .findFirst()
+                .orElse(null);
+        if (alternateInterface == null) {
+            return null;
+        }
+        return new SseStreamRelay.Upstream(alternateInterface,
+                buildPromptOptimizeRequest(alternate, alternateInterface, jsonBody));
+    }
+
+    /**
+     * 在流转发的持久化线程中更新提示词优化记录（回调线程没有站点上下文，需显式设置）
+     */
+    private void persistAnalysisResult(SseStreamRelay.Session session, AnalysisRecord analysisRecord,
+            int status, String result, String errorMsg) {
+        session.persist(() -> runWithSiteContext(analysisRecord.getSiteId(), () -> {
+            analysisRecord.setStatus(status);
+            if (result != null) {
+                analysisRecord.setResult(result);
+            }
+            if (errorMsg != null) {
+                analysisRecord.setErrorMsg(errorMsg);
+            }
+            analysisRecordMapper.updateById(analysisRecord);
+        }));
+    }
+
     /**
      * 根据类型和模型查找API平台（apiKey已解密）
      * 
@@ -1642,11 +2010,40 @@ public class GenerationService {
         return apiPlatformService.getPlatformByTypeAndModel(type, model, siteId);
     }
 
+    /**
+     * 从生成参数中读取请求的生成数量（用于部分交付时按比例结算）
+     */
+    private int readRequestedQuantity(String generationParams) {
+        if (generationParams == null || generationParams.isEmpty()) {
+            return 1;
+        }
+        try {
+            JsonNode quantity = objectMapper.readTree(generationParams).get("quantity");
+            return quantity != null && quantity.canConvertToInt() ? Math.max(1, quantity.asInt()) : 1;
+        } catch (Exception e) {
+            return 1;
+        }
+    }
+
+    /**
+     * 计算生成任务的端到端截止时间：优先使用接口配置的时间预算，从记录创建时开始计算
+     *
+     * @param record               生成记录
+     * @param apiInterface         接口配置
+     * @param defaultBudgetSeconds 接口未配置时的默认预算（秒）
+     */
+    private Deadline resolveDeadline(GenerationRecord record, ApiInterface apiInterface, int defaultBudgetSeconds) {
+        int budgetSeconds = apiInterface.getBudgetSeconds() != null && apiInterface.getBudgetSeconds() > 0
+                ? apiInterface.getBudgetSeconds()
+                : defaultBudgetSeconds;
+        return Deadline.startingAt(record.getCreatedAt(), budgetSeconds * 1000L);
+    }
+
     /**
      * 查找文生图接口
      */
     private ApiInterface findTextToImageInterface(Long platformId) {
-        List<ApiInterface> interfaces = apiPlatformService.getInterfacesByPlatformId(platformId);
+        List<ApiInterface> interfaces = apiPlatformService.getRegisteredInterfaces(platformId);
         // 查找responseMode为JSON或Stream的接口（非Result类型）
         // 注意：Stream类型也支持，因为API可能返回SSE格式的流式数据
         return interfaces.stream()
@@ -1659,7 +2056,7 @@ public class GenerationService {
      * 查找图生图接口
      */
     private ApiInterface findImageToImageInterface(Long platformId) {
-        List<ApiInterface> interfaces = apiPlatformService.getInterfacesByPlatformId(platformId);
+        List<ApiInterface> interfaces = apiPlatformService.getRegisteredInterfaces(platformId);
         // 查找responseMode为JSON的接口
         return interfaces.stream()
                 .filter(i -> i.getResponseMode() != null && "JSON".equals(i.getResponseMode()))
@@ -1667,6 +2064,18 @@ public class GenerationService {
                 .orElse(interfaces.isEmpty() ? null : interfaces.get(0));
     }
 
+    /**
+     * 按生成类型查找提交任务所用的接口（查询状态、处理回调时据此确定结果解析模式）
+     */
+    private ApiInterface findGenerationInterface(String type, Long platformId) {
+        if ("txt2img".equals(type) || "txt2video".equals(type)) {
+            return findTextToImageInterface(platformId);
+        } else if ("img2img".equals(type) || "img2video".equals(type)) {
+            return findImageToImageInterface(platformId);
+        }
+        return null;
+    }
+
     /**
      * 应用参数映射
      */
@@ -1895,66 +2304,88 @@ public class GenerationService {
      * @param apiInterface API接口配置
      * @return 映射后的参数Map
      */
-    private Map<String, Object> applyParameterMapping(Map<String, Object> params, ApiInterface apiInterface) {
+    private Map<String, Object> applyParameterMapping(Map<String, Object> params, ApiPlatform platform,
+            ApiInterface apiInterface) {
+        // 参数映射配置（JSON格式：{"image": "reference_image", "prompt": "text"}）已在平台请求计划中解析
+        Map<String, String> mappings = platformRequestPlanCache.getPlan(platform).getInterfacePlan(apiInterface)
+                .getParameterMappings();
         // 如果接口没有配置参数映射，直接返回原参数
-        if (apiInterface.getParametersJson() == null || apiInterface.getParametersJson().trim().isEmpty()) {
+        if (mappings.isEmpty()) {
             return params;
         }
 
-        try {
-            // 解析参数映射配置（JSON格式：{"image": "reference_image", "prompt": "text"}）
-            JsonNode mappingNode = objectMapper.readTree(apiInterface.getParametersJson());
-            Map<String, Object> mappedParams = new HashMap<>();
-
-            // 遍历原始参数，应用映射
-            for (Map.Entry<String, Object> entry : params.entrySet()) {
-                String internalKey = entry.getKey();
-                Object value = entry.getValue();
-
-                // 如果配置中有映射，使用映射后的键名；否则使用原键名
-                if (mappingNode.has(internalKey)) {
-                    String mappedKey = mappingNode.get(internalKey).asText();
-                    mappedParams.put(mappedKey, value);
-                    log.debug("参数映射: {} -> {}", internalKey, mappedKey);
-                } else {
-                    // 没有映射配置，保持原键名
-                    mappedParams.put(internalKey, value);
-                }
+        Map<String, Object> mappedParams = new HashMap<>();
+
+        // 遍历原始参数，应用映射
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            String internalKey = entry.getKey();
+            String mappedKey = mappings.get(internalKey);
+
+            // 如果配置中有映射，使用映射后的键名；否则使用原键名
+            if (mappedKey != null) {
+                mappedParams.put(mappedKey, entry.getValue());
+                log.debug("参数映射: {} -> {}", internalKey, mappedKey);
+            } else {
+                mappedParams.put(internalKey, entry.getValue());
             }
+        }
 
-            return mappedParams;
-        } catch (Exception e) {
-            log.warn("解析参数映射失败，使用原始参数：{}", e.getMessage());
-            return params; // 如果解析失败，返回原始参数
+        return mappedParams;
+    }
+
+    /**
+     * 异步任务改为回调模式：把最终请求参数中的 webHook 占位（-1）替换为本记录的回调地址
+     * webHook 可能已被平台参数映射、接口参数映射改名，按两级映射解析出实际使用的参数名
+     *
+     * @param apiRequest   已完成参数映射的请求参数
+     * @param platform     平台
+     * @param apiInterface 应用过接口参数映射的接口（未应用时为null）
+     * @param model        模型名称
+     * @param recordId     生成记录ID
+     */
+    private void applyCallbackWebHook(Map<String, Object> apiRequest, ApiPlatform platform, ApiInterface apiInterface,
+            String model, Long recordId) {
+        if (!generationCallbackSigner.isEnabled()) {
+            return;
         }
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add("webHook");
+        List<ApiParameterMapping> mappings = apiParameterMappingCacheService.getMappings(platform.getId(), model);
+        if (mappings != null) {
+            for (ApiParameterMapping m : mappings) {
+                if ((m.getMappingType() == null || m.getMappingType() != 2) && "webHook".equals(m.getInternalParam())
+                        && m.getTargetParam() != null && !m.getTargetParam().isEmpty()) {
+                    keys.add(m.getTargetParam());
+                }
+            }
+        }
+        if (apiInterface != null) {
+            Map<String, String> interfaceMappings = platformRequestPlanCache.getPlan(platform)
+                    .getInterfacePlan(apiInterface).getParameterMappings();
+            for (String key : new ArrayList<>(keys)) {
+                String mappedKey = interfaceMappings.get(key);
+                if (mappedKey != null) {
+                    keys.add(mappedKey);
+                }
+            }
+        }
+        generationCallbackSigner.applyCallbackWebHook(apiRequest, keys, platform, recordId);
     }
 
     /**
      * 调用API平台接口
      */
-    private String callApi(ApiInterface apiInterface, ApiPlatform platform, Map<String, Object> requestParams) {
+    private String callApi(ApiInterface apiInterface, ApiPlatform platform, Map<String, Object> requestParams,
+            Deadline deadline) {
+        deadline.check("调用生成接口");
         try {
             // 构建请求头
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
 
-            // 添加Authorization头（从接口配置的headers中解析）
-            if (apiInterface.getHeaders() != null && !apiInterface.getHeaders().isEmpty()) {
-                try {
-                    JsonNode headersNode = objectMapper.readTree(apiInterface.getHeaders());
-                    headersNode.fields().forEachRemaining(entry -> {
-                        String key = entry.getKey();
-                        String value = entry.getValue().asText();
-                        // 替换{apiKey}占位符
-                        if (value.contains("{apiKey}") && platform.getApiKey() != null) {
-                            value = value.replace("{apiKey}", platform.getApiKey());
-                        }
-                        headers.set(key, value);
-                    });
-                } catch (Exception e) {
-                    log.warn("解析headers失败，使用默认配置：{}", e.getMessage());
-                }
-            }
+            // 添加接口配置的headers（已在平台请求计划中解析并替换{apiKey}占位符）
+            platformRequestPlanCache.getPlan(platform).getInterfacePlan(apiInterface).getHeaders()
+                    .forEach(headers::set);
 
             // 如果有API Key，默认添加Authorization头
             if (platform.getApiKey() != null && !platform.getApiKey().isEmpty()) {
@@ -1976,22 +2407,42 @@ public class GenerationService {
             log.info("调用API平台接口: {} {} (平台: {})", apiInterface.getMethod(), apiInterface.getUrl(), platform.getName());
             log.debug("请求参数: {}", requestBody);
 
-            ResponseEntity<String> response = restTemplate.exchange(
-                    apiInterface.getUrl(),
-                    HttpMethod.valueOf(apiInterface.getMethod()),
-                    entity,
-                    String.class);
-
-            if (!response.getStatusCode().is2xxSuccessful()) {
-                throw new BusinessException(ErrorCode.API_CALL_FAILED.getCode(),
-                        "API调用失败，状态码：" + response.getStatusCode());
+            // 读取超时取接口配置与剩余预算的较小值
+            RestTemplate restTemplate = upstreamHttpClientProvider
+                    .getRestTemplate(apiInterface, GENERATION_TIMEOUT_SECONDS, deadline);
+            PlatformHealthRouter.Call call = platformHealthRouter.begin(platform.getId());
+            String body;
+            try {
+                body = restTemplate.execute(
+                        apiInterface.getUrl(),
+                        HttpMethod.valueOf(apiInterface.getMethod()),
+                        restTemplate.httpEntityCallback(entity),
+                        this::readApiResponse);
+                call.success();
+            } catch (HttpStatusCodeException e) {
+                // 5xx 与 429 视为平台侧故障，其余 4xx 为请求问题，不计入平台健康度
+                if (e.getStatusCode().is5xxServerError() || e.getStatusCode().value() == 429) {
+                    call.failure("HTTP " + e.getStatusCode().value());
+                } else {
+                    call.release();
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                // 本服务的端到端预算耗尽（读取超时已按剩余预算收紧）不是平台故障，不计入平台健康度
+                if (deadline.isExpired()) {
+                    call.release();
+                } else {
+                    call.failure(e.getClass().getSimpleName());
+                }
+                throw e;
             }
 
-            log.debug("API响应: {}", response.getBody());
-            return response.getBody();
+            log.debug("API响应: {}", body);
+            return body;
 
         } catch (ResourceAccessException e) {
             log.error("调用API平台接口超时或网络错误：{}", e.getMessage(), e);
+            deadline.check("调用生成接口");
             if (e.getCause() instanceof SocketTimeoutException || e.getMessage().contains("timed out")) {
                 throw new BusinessException(ErrorCode.API_CALL_FAILED.getCode(), "生成请求超时，请稍后重试");
             }
@@ -2002,6 +2453,41 @@ public class GenerationService {
         }
     }
 
+    /**
+     * 读取API响应体
+     * SSE 流按行增量读取并压缩为关键事件（首个事件、终态事件、最后的结果/状态事件），
+     * 不缓冲中间的进度事件；其他格式按原样读取。
+     */
+    private String readApiResponse(ClientHttpResponse response) throws IOException {
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            throw new BusinessException(ErrorCode.API_CALL_FAILED.getCode(),
+                    "API调用失败，状态码：" + response.getStatusCode());
+        }
+        MediaType contentType = response.getHeaders().getContentType();
+        Charset charset = contentType != null && contentType.getCharset() != null
+                ? contentType.getCharset()
+                : StandardCharsets.UTF_8;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(response.getBody(), charset));
+
+        boolean sse = contentType != null && MediaType.TEXT_EVENT_STREAM.isCompatibleWith(contentType);
+        if (!sse) {
+            // 部分上游以 text/plain 或 application/json 返回 SSE 文本，按开头内容识别
+            reader.mark(SSE_SNIFF_CHARS);
+            char[] head = new char[SSE_SNIFF_CHARS];
+            int read = 0;
+            int n;
+            while (read < head.length && (n = reader.read(head, read, head.length - read)) != -1) {
+                read += n;
+            }
+            reader.reset();
+            sse = new String(head, 0, read).trim().startsWith("data:");
+        }
+        if (sse) {
+            return SseResultParser.compact(reader);
+        }
+        return FileCopyUtils.copyToString(reader);
+    }
+
     /**
      * 解析图片URL列表
      * 
@@ -2159,98 +2645,33 @@ public class GenerationService {
      */
     private List<String> parseSseResponse(String sseResponse) {
         List<String> imageUrls = new ArrayList<>();
-        JsonNode lastDataNode = null;
         String lastStatus = null;
 
         try {
-            // 按行分割SSE数据
-            String[] lines = sseResponse.split("\n");
-
-            for (String line : lines) {
-                line = line.trim();
-                // 跳过空行
-                if (line.isEmpty()) {
-                    continue;
-                }
-
-                // 检查是否是data行
-                if (line.startsWith("data: ")) {
-                    String jsonData = line.substring(6); // 移除 "data: " 前缀
-
-                    try {
-                        // 解析JSON数据
-                        JsonNode dataNode = objectMapper.readTree(jsonData);
-                        lastDataNode = dataNode;
-
-                        // 检查状态字段
-                        if (dataNode.has("status")) {
-                            lastStatus = dataNode.get("status").asText();
-
-                            // 如果状态是completed、success或succeeded，尝试提取图片URL
-                            if ("completed".equals(lastStatus) || "success".equals(lastStatus)
-                                    || "succeeded".equals(lastStatus)) {
-                                // 尝试从results字段提取图片URL
-                                if (dataNode.has("results") && dataNode.get("results").isArray()) {
-                                    for (JsonNode result : dataNode.get("results")) {
-                                        if (result.has("url")) {
-                                            imageUrls.add(result.get("url").asText());
-                                        } else if (result.isTextual()) {
-                                            imageUrls.add(result.asText());
-                                        }
-                                    }
-                                }
-                                // 或者直接从url字段提取
-                                else if (dataNode.has("url") && !dataNode.get("url").asText().isEmpty()) {
-                                    imageUrls.add(dataNode.get("url").asText());
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        // 忽略解析失败的行，继续处理下一行
-                        log.debug("解析SSE数据行失败：{}", e.getMessage());
-                    }
-                }
-            }
+            // 增量解析：只保留成功终态中的图片URL和最后一个事件
+            SseResultParser.Result result = SseResultParser.parse(new StringReader(sseResponse));
+            SseResultParser.Event lastEvent = result.getLastEvent();
+            lastStatus = result.getLastStatus();
+            imageUrls.addAll(result.getCompletedUrls());
 
-            // 如果没有找到图片URL，但最后一个状态是completed/success/succeeded，尝试从最后一个数据节点提取
-            if (imageUrls.isEmpty() && lastDataNode != null &&
-                    ("completed".equals(lastStatus) || "success".equals(lastStatus)
-                            || "succeeded".equals(lastStatus))) {
-                if (lastDataNode.has("results") && lastDataNode.get("results").isArray()) {
-                    for (JsonNode result : lastDataNode.get("results")) {
-                        if (result.has("url")) {
-                            imageUrls.add(result.get("url").asText());
-                        } else if (result.isTextual()) {
-                            imageUrls.add(result.asText());
-                        }
-                    }
-                } else if (lastDataNode.has("url") && !lastDataNode.get("url").asText().isEmpty()) {
-                    imageUrls.add(lastDataNode.get("url").asText());
-                }
+            // 如果没有找到图片URL，但最后一个状态是completed/success/succeeded，尝试从最后一个事件提取
+            if (imageUrls.isEmpty() && lastEvent != null && SseResultParser.isCompletedStatus(lastStatus)) {
+                imageUrls.addAll(lastEvent.getImageUrls());
             }
 
             // 如果还是没有找到，检查是否有错误信息
-            if (imageUrls.isEmpty() && lastDataNode != null) {
-                if (lastDataNode.has("error") && !lastDataNode.get("error").asText().isEmpty()) {
+            if (imageUrls.isEmpty() && lastEvent != null) {
+                if (lastEvent.getError() != null && !lastEvent.getError().isEmpty()) {
                     throw new BusinessException(ErrorCode.API_RESPONSE_ERROR.getCode(),
-                            "API返回错误：" + lastDataNode.get("error").asText());
+                            "API返回错误：" + lastEvent.getError());
                 }
-                if (lastDataNode.has("failure_reason") && !lastDataNode.get("failure_reason").asText().isEmpty()) {
+                if (lastEvent.getFailureReason() != null && !lastEvent.getFailureReason().isEmpty()) {
                     throw new BusinessException(ErrorCode.API_RESPONSE_ERROR.getCode(),
-                            "API返回失败原因：" + lastDataNode.get("failure_reason").asText());
-                }
-                // 如果状态是running，尝试从当前数据中提取URL（有些API会在running状态时也返回部分结果）
-                if ("running".equals(lastStatus) && lastDataNode != null) {
-                    // 尝试从results字段提取（即使状态是running，也可能有部分结果）
-                    if (lastDataNode.has("results") && lastDataNode.get("results").isArray()) {
-                        for (JsonNode result : lastDataNode.get("results")) {
-                            if (result.has("url") && !result.get("url").asText().isEmpty()) {
-                                imageUrls.add(result.get("url").asText());
-                            } else if (result.isTextual() && !result.asText().isEmpty()) {
-                                imageUrls.add(result.asText());
-                            }
-                        }
-                    }
+                            "API返回失败原因：" + lastEvent.getFailureReason());
+                }
+                // 如果状态是running，尝试从最后一个事件中提取部分结果（有些API会在running状态时也返回部分结果）
+                if ("running".equals(lastStatus)) {
+                    imageUrls.addAll(lastEvent.getPartialImageUrls());
                     // 如果还是没有找到URL，抛出异常
                     if (imageUrls.isEmpty()) {
                         throw new BusinessException(ErrorCode.API_RESPONSE_ERROR.getCode(),
@@ -2351,57 +2772,11 @@ public class GenerationService {
             baseCost = 10; // 默认
         }
 
-        // 尝试从平台配置的模型信息中获取更精确的消耗配置
-        if (platform != null && platform.getSupportedModels() != null && !platform.getSupportedModels().isEmpty()) {
-            try {
-                // 尝试解析为JSON数组
-                if (platform.getSupportedModels().trim().startsWith("[")) {
-                    JsonNode models = objectMapper.readTree(platform.getSupportedModels());
-                    for (JsonNode m : models) {
-                        if (m.has("name") && m.get("name").asText().equals(model)) {
-                            // 找到匹配的模型配置
-
-                            // 1. 检查是否有特殊计费规则 (costRules)
-                            if (m.has("costRules") && m.get("costRules").isArray()) {
-                                for (JsonNode rule : m.get("costRules")) {
-                                    boolean match = true;
-
-                                    // 检查分辨率匹配 (如果规则指定了分辨率)
-                                    if (rule.has("resolution") && !rule.get("resolution").asText().isEmpty()) {
-                                        if (resolution == null || !resolution.equals(rule.get("resolution").asText())) {
-                                            match = false;
-                                        }
-                                    }
-
-                                    // 检查时长匹配 (如果规则指定了时长)
-                                    if (match && rule.has("duration") && rule.get("duration").asInt() > 0) {
-                                        if (duration == null || duration.intValue() != rule.get("duration").asInt()) {
-                                            match = false;
-                                        }
-                                    }
-
-                                    // 如果规则匹配，返回配置的消耗
-                                    if (match && rule.has("cost")) {
-                                        int ruleCost = rule.get("cost").asInt();
-                                        if (ruleCost >= 0) {
-                                            return ruleCost * (quantity != null ? quantity : 1);
-                                        }
-                                    }
-                                }
-                            }
-
-                            // 2. 使用模型默认消耗
-                            if (m.has("defaultCost")) {
-                                int modelDefault = m.get("defaultCost").asInt();
-                                if (modelDefault >= 0) {
-                                    return modelDefault * (quantity != null ? quantity : 1);
-                                }
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                log.warn("解析平台模型配置失败，使用默认计费规则: {}", e.getMessage());
+        // 从平台配置的模型信息中获取更精确的消耗配置（costRules 优先，其次模型 defaultCost）
+        if (platform != null) {
+            Integer unitCost = platformRequestPlanCache.getPlan(platform).resolveUnitCost(model, resolution, duration);
+            if (unitCost != null) {
+                return unitCost * (quantity != null ? quantity : 1);
             }
         }
 
@@ -2465,14 +2840,9 @@ public class GenerationService {
                 if (externalTaskId != null && !externalTaskId.trim().isEmpty()) {
                     response.setTaskId(externalTaskId);
 
-                    ApiPlatform platform = findPlatformByType(record.getType(), record.getModel(), null);
+                    ApiPlatform platform = apiPlatformService.getTaskPlatform(record);
                     if (platform != null) {
-                        ApiInterface apiInterface = null;
-                        if ("txt2img".equals(record.getType()) || "txt2video".equals(record.getType())) {
-                            apiInterface = findTextToImageInterface(platform.getId());
-                        } else if ("img2img".equals(record.getType()) || "img2video".equals(record.getType())) {
-                            apiInterface = findImageToImageInterface(platform.getId());
-                        }
+                        ApiInterface apiInterface = findGenerationInterface(record.getType(), platform.getId());
 
                         if (apiInterface != null) {
                             String submitUrl = apiInterface.getUrl();
@@ -2516,136 +2886,7 @@ public class GenerationService {
                                 statusJson = callGetApi(deducedUrl, platform, apiInterface);
                             }
 
-                            JsonNode root = objectMapper.readTree(statusJson);
-
-                            // 兼容 data 包装层
-                            JsonNode dataNode = root;
-                            if (root.has("data") && root.get("data").isObject()) {
-                                dataNode = root.get("data");
-                            }
-
-                            String status = null;
-                            if (dataNode.has("status"))
-                                status = dataNode.get("status").asText();
-
-                            if (dataNode.has("progress")) {
-                                String p = dataNode.get("progress").asText();
-                                response.setProgress(parseProgress(p));
-                            }
-
-                            if ("SUCCESS".equalsIgnoreCase(status) || "SUCCEEDED".equalsIgnoreCase(status)) {
-                                if (record.getType() != null && record.getType().contains("video")) {
-                                    String videoUrl = parseVideoUrl(statusJson);
-                                    if (videoUrl == null || videoUrl.isEmpty()) {
-                                        failGenerationTask(record, "视频URL为空");
-                                        response.setStatus("failed");
-                                        response.setErrorMessage("视频生成结果无效");
-                                        return response;
-                                    }
-                                    String ossUrl;
-                                    if (videoUrl.contains("aliyuncs.com") || videoUrl.contains("myqcloud.com")) {
-                                        ossUrl = videoUrl;
-                                    } else {
-                                        try {
-                                            if (videoUrl.startsWith("data:")
-                                                    || videoUrl.startsWith("blob:")) {
-                                                throw new RuntimeException("视频URL无效");
-                                            }
-                                            ossUrl = aliyunOssService.uploadFromUrl(videoUrl, "videos/");
-                                        } catch (Exception e) {
-                                            if (videoUrl != null && (videoUrl.startsWith("data:") || videoUrl.startsWith("blob:"))) {
-                                                failGenerationTask(record, "视频上传失败，请重新上传");
-                                                response.setStatus("failed");
-                                                response.setErrorMessage("视频上传失败，请重新上传");
-                                                return response;
-                                            }
-                                            ossUrl = videoUrl;
-                                            log.warn("视频上传OSS失败: {}", e.getMessage());
-                                        }
-                                    }
-
-                                    // 视频缩略图逻辑
-                                    String thumbnailUrl = null;
-                                    if (ossUrl.contains("aliyuncs.com")) {
-                                        thumbnailUrl = ossUrl
-                                                + "?x-oss-process=video/snapshot,t_1000,f_jpg,w_800,h_0,m_fast";
-                                    }
-
-                                    // 尝试提取PID
-                                    String pid = extractPidFromNode(root);
-
-                                    completeGenerationTask(record.getId(), ossUrl, thumbnailUrl, pid, null);
-                                    response.setVideoUrl(fileStorageService.getFileUrl(ossUrl));
-                                    response.setStatus("success");
-                                    response.setPid(pid);
-                                    response.setProgress(100);
-
-                                } else {
-                                    List<String> imageUrls = parseImageUrls(statusJson, apiInterface.getResponseMode());
-                                    if (!imageUrls.isEmpty()) {
-                                        List<String> ossUrls = new ArrayList<>();
-                                        for (String url : imageUrls) {
-                                            if (url != null && (url.contains("aliyuncs.com") || url.contains("myqcloud.com"))) {
-                                                ossUrls.add(url);
-                                            } else {
-                                                try {
-                                                    if (url == null || url.isEmpty() || url.startsWith("blob:")) {
-                                                        throw new RuntimeException("图片URL无效");
-                                                    }
-                                                    if (url.startsWith("data:")) {
-                                                        ossUrls.add(aliyunOssService.uploadBase64(url, "images/"));
-                                                    } else {
-                                                        String ossUrl = aliyunOssService.uploadFromUrl(url, "images/");
-                                                        ossUrls.add(ossUrl);
-                                                    }
-                                                } catch (Exception e) {
-                                                    if (url != null && url.startsWith("data:")) {
-                                                        failGenerationTask(record, "图片上传失败，请重新上传");
-                                                        response.setStatus("failed");
-                                                        response.setErrorMessage("图片上传失败，请重新上传");
-                                                        return response;
-                                                    }
-                                                    if (url == null || url.isEmpty() || url.startsWith("blob:")) {
-                                                        failGenerationTask(record, "图片URL无效");
-                                                        response.setStatus("failed");
-                                                        response.setErrorMessage("图片生成结果无效");
-                                                        return response;
-                                                    }
-                                                    ossUrls.add(url);
-                                                }
-                                            }
-                                        }
-
-                                        String thumbnailUrl = !ossUrls.isEmpty() ? ossUrls.get(0) : null;
-                                        completeAndSplitGenerationTask(record.getId(), ossUrls, thumbnailUrl);
-
-                                        List<String> signedUrls = ossUrls.stream()
-                                                .map(fileStorageService::getFileUrl)
-                                                .collect(Collectors.toList());
-                                        response.setImageUrls(signedUrls);
-                                        response.setStatus("success");
-                                        response.setProgress(100);
-                                    }
-                                }
-                            } else if ("FAILED".equalsIgnoreCase(status) || "FAILURE".equalsIgnoreCase(status)) {
-                                String reason = "Unknown error";
-                                if (dataNode.has("failure_reason")) {
-                                    reason = dataNode.get("failure_reason").asText();
-                                } else if (dataNode.has("fail_reason")) {
-                                    reason = dataNode.get("fail_reason").asText();
-                                }
-
-                                if (dataNode.has("error")) {
-                                    reason += ": " + dataNode.get("error").asText();
-                                }
-
-                                String friendlyReason = resolveGenerationFailureMessage(reason);
-                                failGenerationTask(record, friendlyReason);
-                                response.setStatus("failed");
-                                response.setErrorMessage(friendlyReason);
-                            } else if ("RUNNING".equalsIgnoreCase(status)) {
-                                response.setStatus("processing");
-                            }
+                            applyUpstreamStatus(record, statusJson, apiInterface, response);
                         }
                     }
                 }
@@ -2665,6 +2906,221 @@ public class GenerationService {
         return response;
     }
 
+    /**
+     * 处理上游任务完成回调
+     * 按 taskId 找到该平台站点下的生成记录，用记录重新计算回调令牌并校验记录确实由回调平台提交后，
+     * 把结果解析与转存交给生成任务线程池执行，不占用回调请求线程；转存完成后通过 onApplied 通知调用方。
+     * 记录已结束（轮询先一步完成、重复回调）时不做任何修改，直接返回当前状态。
+     * 调用方需已设置平台所属站点的上下文。
+     *
+     * @param platform  平台
+     * @param token     回调地址中的令牌
+     * @param payload   回调请求体
+     * @param onApplied 回调结果处理完成后的通知（在线程池中执行）
+     * @return 受理时的任务状态
+     */
+    public ImageGenerationResponse handleTaskCallback(ApiPlatform platform, String token, String payload,
+            Consumer<ImageGenerationResponse> onApplied) {
+        String taskId;
+        try {
+            taskId = extractTaskIdFromNode(objectMapper.readTree(payload));
+        } catch (Exception e) {
+            throw new BusinessException(ErrorCode.PARSE_RESPONSE_FAILED);
+        }
+        if (taskId == null || taskId.isEmpty()) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR.getCode(), "回调缺少任务ID");
+        }
+
+        GenerationRecord record = generationRecordMapper.selectByTaskIdIgnoreTenant(platform.getSiteId(), taskId);
+        // 令牌按记录签发，用查到的记录重新计算后比对；记录不存在与令牌无效返回同一错误，不泄露任务是否存在
+        if (record == null || !generationCallbackSigner.verify(platform, record.getId(), token)) {
+            log.warn("生成回调验证失败: platformId={}, taskId={}", platform.getId(), taskId);
+            throw new BusinessException(ErrorCode.GENERATION_CALLBACK_VERIFY_FAILED);
+        }
+        // 同站点下其他平台的回调不能改写该记录
+        ApiPlatform taskPlatform = apiPlatformService.getTaskPlatform(record);
+        if (taskPlatform == null || !platform.getId().equals(taskPlatform.getId())) {
+            log.warn("生成回调平台与任务提交平台不一致: recordId={}, platformId={}", record.getId(), platform.getId());
+            throw new BusinessException(ErrorCode.GENERATION_CALLBACK_VERIFY_FAILED);
+        }
+        if (!"processing".equals(record.getStatus())) {
+            return getTaskStatus(record.getId());
+        }
+
+        ApiInterface apiInterface = findGenerationInterface(record.getType(), platform.getId());
+        if (apiInterface == null) {
+            throw new BusinessException(ErrorCode.GENERATION_INTERFACE_NOT_CONFIGURED);
+        }
+
+        // 排队已满时抛出异常，由上游重试回调或轮询兜底
+        generationTaskExecutor.submit(platform.getId(), GenerationTaskExecutor.Lane.of(record.getType()),
+                record.getUserId(), () -> {
+                    ImageGenerationResponse result = callbackResponse(record, taskId);
+                    try {
+                        applyUpstreamStatus(record, payload, apiInterface, result);
+                    } catch (Exception e) {
+                        log.warn("处理生成回调失败 ID={}: {}", record.getId(), e.getMessage());
+                        return;
+                    }
+                    onApplied.accept(result);
+                }, null);
+        return callbackResponse(record, taskId);
+    }
+
+    private static ImageGenerationResponse callbackResponse(GenerationRecord record, String taskId) {
+        ImageGenerationResponse response = new ImageGenerationResponse();
+        response.setGenerationRecordId(record.getId());
+        response.setStatus(record.getStatus());
+        response.setTaskId(taskId);
+        response.setPid(record.getPid());
+        return response;
+    }
+
+    /**
+     * 从上游响应中提取任务ID（根节点或 data 节点下的 id / task_id）
+     */
+    private String extractTaskIdFromNode(JsonNode root) {
+        if (root == null) {
+            return null;
+        }
+        if (root.hasNonNull("id")) {
+            return root.get("id").asText();
+        } else if (root.hasNonNull("task_id")) {
+            return root.get("task_id").asText();
+        }
+        JsonNode data = root.get("data");
+        if (data != null && data.isObject()) {
+            if (data.hasNonNull("id")) {
+                return data.get("id").asText();
+            } else if (data.hasNonNull("task_id")) {
+                return data.get("task_id").asText();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 根据上游返回的任务状态JSON更新生成记录（查询结果与回调通知共用）
+     * 成功时转存结果并完成任务，失败时退款；记录已不在处理中时，完成/失败更新不会生效
+     *
+     * @param record       生成记录
+     * @param statusJson   上游任务状态JSON
+     * @param apiInterface 生成接口（用于确定结果解析模式）
+     * @param response     待填充的响应
+     */
+    private void applyUpstreamStatus(GenerationRecord record, String statusJson, ApiInterface apiInterface,
+            ImageGenerationResponse response) throws Exception {
+        JsonNode root = objectMapper.readTree(statusJson);
+
+        // 兼容 data 包装层
+        JsonNode dataNode = root;
+        if (root.has("data") && root.get("data").isObject()) {
+            dataNode = root.get("data");
+        }
+
+        String status = null;
+        if (dataNode.has("status"))
+            status = dataNode.get("status").asText();
+
+        if (dataNode.has("progress")) {
+            String p = dataNode.get("progress").asText();
+            response.setProgress(parseProgress(p));
+        }
+
+        if ("SUCCESS".equalsIgnoreCase(status) || "SUCCEEDED".equalsIgnoreCase(status)) {
+            if (record.getType() != null && record.getType().contains("video")) {
+                String videoUrl = parseVideoUrl(statusJson);
+                if (videoUrl == null || videoUrl.isEmpty()) {
+                    failGenerationTask(record, "视频URL为空");
+                    response.setStatus("failed");
+                    response.setErrorMessage("视频生成结果无效");
+                    return;
+                }
+                String ossUrl;
+                if (videoUrl.contains("aliyuncs.com") || videoUrl.contains("myqcloud.com")) {
+                    ossUrl = videoUrl;
+                } else {
+                    try {
+                        if (videoUrl.startsWith("data:")
+                                || videoUrl.startsWith("blob:")) {
+                            throw new RuntimeException("视频URL无效");
+                        }
+                        ossUrl = aliyunOssService.uploadFromUrl(videoUrl, "videos/");
+                    } catch (Exception e) {
+                        if (videoUrl != null && (videoUrl.startsWith("data:") || videoUrl.startsWith("blob:"))) {
+                            failGenerationTask(record, "视频上传失败，请重新上传");
+                            response.setStatus("failed");
+                            response.setErrorMessage("视频上传失败，请重新上传");
+                            return;
+                        }
+                        ossUrl = videoUrl;
+                        log.warn("视频上传OSS失败: {}", e.getMessage());
+                    }
+                }
+
+                // 视频缩略图逻辑
+                String thumbnailUrl = null;
+                if (ossUrl.contains("aliyuncs.com")) {
+                    thumbnailUrl = ossUrl
+                            + "?x-oss-process=video/snapshot,t_1000,f_jpg,w_800,h_0,m_fast";
+                }
+
+                // 尝试提取PID
+                String pid = extractPidFromNode(root);
+
+                completeGenerationTask(record.getId(), ossUrl, thumbnailUrl, pid, null);
+                response.setVideoUrl(fileStorageService.getFileUrl(ossUrl));
+                response.setStatus("success");
+                response.setPid(pid);
+                response.setProgress(100);
+
+            } else {
+                List<String> imageUrls = parseImageUrls(statusJson, apiInterface.getResponseMode());
+                if (!imageUrls.isEmpty()) {
+                    GenerationResultIngestor.IngestionResult ingestion =
+                            generationResultIngestor.ingestImages(imageUrls, "images/");
+                    if (!ingestion.isValid()) {
+                        failGenerationTask(record, ingestion.getInvalidReason());
+                        response.setStatus("failed");
+                        response.setErrorMessage("图片URL无效".equals(ingestion.getInvalidReason())
+                                ? "图片生成结果无效"
+                                : ingestion.getInvalidReason());
+                        return;
+                    }
+                    List<String> ossUrls = ingestion.getUrls();
+
+                    String thumbnailUrl = !ossUrls.isEmpty() ? ossUrls.get(0) : null;
+                    completeAndSplitGenerationTask(record.getId(), ossUrls, thumbnailUrl);
+
+                    List<String> signedUrls = ossUrls.stream()
+                            .map(fileStorageService::getFileUrl)
+                            .collect(Collectors.toList());
+                    response.setImageUrls(signedUrls);
+                    response.setStatus("success");
+                    response.setProgress(100);
+                }
+            }
+        } else if ("FAILED".equalsIgnoreCase(status) || "FAILURE".equalsIgnoreCase(status)) {
+            String reason = "Unknown error";
+            if (dataNode.has("failure_reason")) {
+                reason = dataNode.get("failure_reason").asText();
+            } else if (dataNode.has("fail_reason")) {
+                reason = dataNode.get("fail_reason").asText();
+            }
+
+            if (dataNode.has("error")) {
+                reason += ": " + dataNode.get("error").asText();
+            }
+
+            String friendlyReason = resolveGenerationFailureMessage(reason);
+            failGenerationTask(record, friendlyReason);
+            response.setStatus("failed");
+            response.setErrorMessage(friendlyReason);
+        } else if ("RUNNING".equalsIgnoreCase(status)) {
+            response.setStatus("processing");
+        }
+    }
+
     private String deduceFetchUrl(String submitUrl, String taskId) {
         if (submitUrl.contains("/submit/")) {
             return submitUrl.replaceAll("/submit/.*", "/task/" + taskId + "/fetch");
@@ -2697,23 +3153,42 @@ public class GenerationService {
     }
 
     private String callGetApi(String url, ApiPlatform platform, ApiInterface apiInterface) {
-        HttpHeaders headers = new HttpHeaders();
-        if (apiInterface.getHeaders() != null && !apiInterface.getHeaders().isEmpty()) {
-            try {
-                Map<String, String> headerMap = objectMapper.readValue(apiInterface.getHeaders(), Map.class);
-                headerMap.forEach(headers::set);
-            } catch (Exception e) {
-                log.warn("解析headers失败", e);
-            }
-        }
+        Request.Builder requestBuilder = new Request.Builder().url(url).get();
+        platformRequestPlanCache.getPlan(platform).getInterfacePlan(apiInterface).getHeaders()
+                .forEach(requestBuilder::header);
 
         if (platform.getApiKey() != null && !platform.getApiKey().isEmpty()) {
-            headers.set("Authorization", "Bearer " + platform.getApiKey());
+            requestBuilder.header("Authorization", "Bearer " + platform.getApiKey());
         }
+        return queryTaskStatus(platform, requestBuilder.build());
+    }
 
-        HttpEntity<String> entity = new HttpEntity<>(null, headers);
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-        return response.getBody();
+    /**
+     * 查询任务状态（幂等读请求，可对冲）
+     * 外部任务ID只在受理任务的平台有效，对冲请求发往同一平台；一路先返回时取消另一路的HTTP调用
+     */
+    private String queryTaskStatus(ApiPlatform platform, Request request) {
+        OkHttpClient client = upstreamHttpClientProvider.getClient(TASK_QUERY_TIMEOUT_SECONDS);
+        HedgedRequests.CancellableCall<String> query = onCancel -> {
+            Call call = client.newCall(request);
+            onCancel.accept(call::cancel);
+            try (Response response = call.execute()) {
+                ResponseBody body = response.body();
+                String text = body != null ? body.string() : null;
+                if (!response.isSuccessful()) {
+                    // 与 RestTemplate 一致，异常消息以状态码开头（调用方据此识别404）
+                    throw new IOException(response.code() + " " + response.message() + ": " + text);
+                }
+                return text;
+            }
+        };
+        try {
+            return hedgedRequests.executeCancellable(TASK_STATUS_HEDGE_KEY_PREFIX + platform.getId(), query, query);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("查询任务状态失败: " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -2764,30 +3239,21 @@ public class GenerationService {
     }
 
     private String callPostResultApi(String url, String taskId, ApiPlatform platform, ApiInterface apiInterface) {
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-
-        if (apiInterface.getHeaders() != null && !apiInterface.getHeaders().isEmpty()) {
-            try {
-                Map<String, String> headerMap = objectMapper.readValue(apiInterface.getHeaders(), Map.class);
-                headerMap.forEach(headers::set);
-            } catch (Exception e) {
-                log.warn("解析headers失败", e);
-            }
-        }
-
-        if (platform.getApiKey() != null && !platform.getApiKey().isEmpty()) {
-            headers.set("Authorization", "Bearer " + platform.getApiKey());
-        }
-
         Map<String, String> body = new HashMap<>();
         body.put("id", taskId);
 
         try {
             String jsonBody = objectMapper.writeValueAsString(body);
-            HttpEntity<String> entity = new HttpEntity<>(jsonBody, headers);
-            ResponseEntity<String> response = restTemplate.postForEntity(url, entity, String.class);
-            return response.getBody();
+            Request.Builder requestBuilder = new Request.Builder()
+                    .url(url)
+                    .post(RequestBody.create(jsonBody, okhttp3.MediaType.get("application/json; charset=utf-8")));
+            platformRequestPlanCache.getPlan(platform).getInterfacePlan(apiInterface).getHeaders()
+                    .forEach(requestBuilder::header);
+
+            if (platform.getApiKey() != null && !platform.getApiKey().isEmpty()) {
+                requestBuilder.header("Authorization", "Bearer " + platform.getApiKey());
+            }
+            return queryTaskStatus(platform, requestBuilder.build());
         } catch (Exception e) {
             throw new RuntimeException("构建请求失败: " + e.getMessage());
         }
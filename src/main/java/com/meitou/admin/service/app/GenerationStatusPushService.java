@@ -0,0 +1,303 @@
+package com.meitou.admin.service.app;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.dto.app.ImageGenerationResponse;
+import com.meitou.admin.entity.GenerationRecord;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import com.meitou.admin.task.GenerationTaskPoller;
+import com.meitou.admin.task.GenerationTaskStatusEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 生成任务状态推送服务
+ * 客户端通过 SSE 订阅一个或多个生成记录，服务端按记录只保留一个观察者，结果推送给该记录的所有订阅者，
+ * 避免多个客户端各自轮询 /task/{recordId} 造成重复的数据库与上游请求。
+ * 本服务不查询上游：状态来自 {@link GenerationTaskPoller} 与上游回调发布的任务状态事件；
+ * 轮询器按记录分片到各节点，其他节点完成的任务由定时任务按站点批量读取数据库状态兜底推送。
+ * 任务进入终态（success/failed）后推送最终事件并移除观察；订阅的记录全部结束后关闭连接。
+ */
+@Slf4j
+@Service
+public class GenerationStatusPushService {
+
+    /**
+     * SSE 连接超时（毫秒）
+     */
+    @Value("${generation.status.push.timeoutMs:600000}")
+    private long emitterTimeoutMs;
+
+    /**
+     * 单个连接最多订阅的记录数
+     */
+    @Value("${generation.status.push.maxRecordsPerSubscription:20}")
+    private int maxRecordsPerSubscription;
+
+    /**
+     * 心跳间隔（毫秒），防止代理因长时间无数据断开连接
+     */
+    @Value("${generation.status.push.heartbeatIntervalMs:15000}")
+    private long heartbeatIntervalMs;
+
+    private final GenerationService generationService;
+    private final GenerationRecordMapper generationRecordMapper;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 记录ID -> 观察项
+     */
+    private final Map<Long, Watch> watches = new ConcurrentHashMap<>();
+
+    private volatile long lastHeartbeatAt = System.currentTimeMillis();
+
+    private final LongAdder subscribeCount = new LongAdder();
+    private final LongAdder checkCount = new LongAdder();
+    private final LongAdder pushCount = new LongAdder();
+
+    public GenerationStatusPushService(GenerationService generationService,
+            GenerationRecordMapper generationRecordMapper) {
+        this.generationService = generationService;
+        this.generationRecordMapper = generationRecordMapper;
+    }
+
+    /**
+     * 订阅生成记录状态
+     *
+     * @param userId    当前用户ID
+     * @param recordIds 生成记录ID列表
+     * @return SSE 连接，事件名 status，数据为 ImageGenerationResponse JSON
+     */
+    public SseEmitter subscribe(Long userId, List<Long> recordIds) {
+        if (recordIds == null || recordIds.isEmpty()) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR.getCode(), "请指定要订阅的记录");
+        }
+        Set<Long> ids = new LinkedHashSet<>(recordIds);
+        if (ids.size() > maxRecordsPerSubscription) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR.getCode(), "单次最多订阅" + maxRecordsPerSubscription + "条记录");
+        }
+
+        List<GenerationRecord> records = generationRecordMapper.selectBatchIds(ids);
+        Map<Long, GenerationRecord> ownedRecords = new LinkedHashMap<>();
+        for (GenerationRecord record : records) {
+            if (record.getUserId() != null && record.getUserId().equals(userId)) {
+                ownedRecords.put(record.getId(), record);
+            }
+        }
+        if (ownedRecords.size() != ids.size()) {
+            throw new BusinessException(ErrorCode.RECORD_NOT_FOUND);
+        }
+
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        Subscription subscription = new Subscription(emitter);
+        emitter.onCompletion(() -> unsubscribe(subscription));
+        emitter.onTimeout(() -> unsubscribe(subscription));
+        emitter.onError(e -> unsubscribe(subscription));
+        subscribeCount.increment();
+
+        for (GenerationRecord record : ownedRecords.values()) {
+            if ("processing".equals(record.getStatus())) {
+                subscription.pendingRecordIds.add(record.getId());
+                watches.compute(record.getId(), (id, watch) -> {
+                    Watch target = watch != null ? watch : new Watch(record.getSiteId());
+                    target.subscribers.add(subscription);
+                    return target;
+                });
+                send(subscription, buildProcessingSnapshot(record));
+            } else {
+                // 已结束的任务直接推送最终状态（不会调用上游）
+                send(subscription, generationService.getTaskStatus(record.getId()));
+            }
+        }
+        if (subscription.pendingRecordIds.isEmpty()) {
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /**
+     * 按站点批量读取被订阅记录的数据库状态，推送已结束的任务（不查询上游）
+     */
+    @Scheduled(fixedDelayString = "${generation.status.push.pollIntervalMs:3000}")
+    public void pollWatchedTasks() {
+        if (watches.isEmpty()) {
+            sendHeartbeatIfDue();
+            return;
+        }
+        Map<Long, List<Long>> recordIdsBySite = new HashMap<>();
+        for (Map.Entry<Long, Watch> entry : new ArrayList<>(watches.entrySet())) {
+            Long recordId = entry.getKey();
+            Watch watch = entry.getValue();
+            if (watch.subscribers.isEmpty()) {
+                watches.remove(recordId, watch);
+                continue;
+            }
+            recordIdsBySite.computeIfAbsent(watch.siteId, id -> new ArrayList<>()).add(recordId);
+        }
+        recordIdsBySite.forEach(this::publishFinished);
+        sendHeartbeatIfDue();
+    }
+
+    /**
+     * 后台任务轮询器或上游回调拿到新状态时，推送给订阅者
+     *
+     * @param event 任务状态事件
+     */
+    @EventListener
+    public void onTaskStatus(GenerationTaskStatusEvent event) {
+        publish(event.getRecordId(), event.getResponse());
+    }
+
+    /**
+     * 向某条记录的全部订阅者推送状态
+     *
+     * @param recordId 生成记录ID
+     * @param response 任务状态
+     */
+    public void publish(Long recordId, ImageGenerationResponse response) {
+        Watch watch = watches.get(recordId);
+        if (watch == null) {
+            return;
+        }
+        boolean terminal = isTerminal(response.getStatus());
+        for (Subscription subscription : watch.subscribers) {
+            send(subscription, response);
+            if (terminal) {
+                subscription.pendingRecordIds.remove(recordId);
+                if (subscription.pendingRecordIds.isEmpty()) {
+                    subscription.emitter.complete();
+                }
+            }
+        }
+        if (terminal) {
+            watches.remove(recordId, watch);
+        }
+    }
+
+    /**
+     * 获取推送指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("watchedRecords", watches.size());
+        stats.put("subscriptions", subscribeCount.sum());
+        stats.put("statusChecks", checkCount.sum());
+        stats.put("pushedEvents", pushCount.sum());
+        return stats;
+    }
+
+    private void publishFinished(Long siteId, List<Long> recordIds) {
+        Long originalSiteId = SiteContext.getSiteId();
+        try {
+            SiteContext.setSiteId(siteId);
+            checkCount.increment();
+            for (GenerationRecord record : generationRecordMapper.selectBatchIds(recordIds)) {
+                if (isTerminal(record.getStatus())) {
+                    // 已结束的任务只读取数据库，不会调用上游
+                    publish(record.getId(), generationService.getTaskStatus(record.getId()));
+                }
+            }
+        } catch (Exception e) {
+            log.warn("推送检查任务状态失败 siteId={}: {}", siteId, e.getMessage());
+        } finally {
+            if (originalSiteId == null) {
+                SiteContext.clear();
+            } else {
+                SiteContext.setSiteId(originalSiteId);
+            }
+        }
+    }
+
+    private ImageGenerationResponse buildProcessingSnapshot(GenerationRecord record) {
+        ImageGenerationResponse response = new ImageGenerationResponse();
+        response.setGenerationRecordId(record.getId());
+        response.setStatus(record.getStatus());
+        response.setTaskId(record.getTaskId());
+        response.setPid(record.getPid());
+        return response;
+    }
+
+    private void send(Subscription subscription, ImageGenerationResponse response) {
+        try {
+            subscription.emitter.send(SseEmitter.event()
+                    .name("status")
+                    .data(objectMapper.writeValueAsString(response)));
+            pushCount.increment();
+        } catch (Exception e) {
+            // 客户端已断开
+            unsubscribe(subscription);
+        }
+    }
+
+    private void sendHeartbeatIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastHeartbeatAt < heartbeatIntervalMs) {
+            return;
+        }
+        lastHeartbeatAt = now;
+        Set<Subscription> subscriptions = new LinkedHashSet<>();
+        watches.values().forEach(watch -> subscriptions.addAll(watch.subscribers));
+        for (Subscription subscription : subscriptions) {
+            try {
+                subscription.emitter.send(SseEmitter.event().comment("ping"));
+            } catch (Exception e) {
+                unsubscribe(subscription);
+            }
+        }
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        for (Long recordId : subscription.pendingRecordIds) {
+            watches.computeIfPresent(recordId, (id, watch) -> {
+                watch.subscribers.remove(subscription);
+                return watch.subscribers.isEmpty() ? null : watch;
+            });
+        }
+        subscription.pendingRecordIds.clear();
+    }
+
+    private boolean isTerminal(String status) {
+        return "success".equals(status) || "failed".equals(status);
+    }
+
+    /**
+     * 单条记录的观察项
+     */
+    private static final class Watch {
+        private final Long siteId;
+        private final Set<Subscription> subscribers = new CopyOnWriteArraySet<>();
+
+        private Watch(Long siteId) {
+            this.siteId = siteId;
+        }
+    }
+
+    /**
+     * 单个 SSE 连接的订阅
+     */
+    private static final class Subscription {
+        private final SseEmitter emitter;
+        private final Set<Long> pendingRecordIds = ConcurrentHashMap.newKeySet();
+
+        private Subscription(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+}
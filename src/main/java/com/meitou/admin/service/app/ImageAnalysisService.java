@@ -14,6 +14,7 @@ import com.meitou.admin.mapper.AnalysisRecordMapper;
 import com.meitou.admin.mapper.UserMapper;
 import com.meitou.admin.mapper.UserTransactionMapper;
 import com.meitou.admin.service.admin.ApiPlatformService;
+import com.meitou.admin.service.common.SseStreamRelay;
 import com.meitou.admin.service.common.AliyunOssService;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import lombok.extern.slf4j.Slf4j;
@@ -25,12 +26,16 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
 public class ImageAnalysisService {
 
+    /**
+     * 图片分析接口默认读取超时（秒）
+     */
+    private static final int IMAGE_ANALYSIS_TIMEOUT_SECONDS = 120;
+
     private final ApiPlatformService apiPlatformService;
     private final UserMapper userMapper;
     private final UserTransactionMapper userTransactionMapper;
@@ -39,11 +44,7 @@ public class ImageAnalysisService {
     private final AliyunOssService aliyunOssService;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final OkHttpClient okHttpClient = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(120, TimeUnit.SECONDS) // Longer timeout for analysis
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .build();
+    private final SseStreamRelay sseStreamRelay;
 
     private String truncate(String value, int maxLen) {
         if (value == null) {
@@ -64,6 +65,15 @@ public class ImageAnalysisService {
         }
     }
 
+    private void sendBusinessErrorEvent(SseStreamRelay.Session session, Integer code, String message) {
+        try {
+            session.send(SseEmitter.event()
+                    .name("error")
+                    .data(objectMapper.writeValueAsString(Result.error(code, message))));
+        } catch (Exception ignored) {
+        }
+    }
+
     private String resolveUnknownAnalysisError(Exception e) {
         String message = e != null ? e.getMessage() : null;
         if (message != null && message.contains("timed out")) {
@@ -112,15 +122,16 @@ public class ImageAnalysisService {
             Long recordSiteId,
             int finalCost,
             String finalModel,
-            SseEmitter emitter
+            SseStreamRelay.Session session
     ) {
         if (payload == null || payload.isBlank()) {
             return false;
         }
 
         if ("[DONE]".equals(payload)) {
-            markSuccessIfPending(recordId, recordSiteId, fullResponse.toString());
-            emitter.complete();
+            String result = fullResponse.toString();
+            session.persist(() -> markSuccessIfPending(recordId, recordSiteId, result));
+            session.complete();
             return true;
         }
 
@@ -128,9 +139,9 @@ public class ImageAnalysisService {
             JsonNode node = objectMapper.readTree(payload);
             String upstreamError = extractUpstreamErrorMessage(node);
             if (upstreamError != null) {
-                failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, upstreamError, "图片分析失败退款-" + finalModel);
-                sendBusinessErrorEvent(emitter, ErrorCode.API_RESPONSE_ERROR.getCode(), upstreamError);
-                emitter.complete();
+                session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, upstreamError, "图片分析失败退款-" + finalModel));
+                sendBusinessErrorEvent(session, ErrorCode.API_RESPONSE_ERROR.getCode(), upstreamError);
+                session.complete();
                 return true;
             }
 
@@ -141,9 +152,10 @@ public class ImageAnalysisService {
                     if (msg == null || msg.isBlank()) {
                         msg = "图片分析失败";
                     }
-                    failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, msg, "图片分析失败退款-" + finalModel);
-                    sendBusinessErrorEvent(emitter, code, msg);
-                    emitter.complete();
+                    String errorMsg = msg;
+                    session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "图片分析失败退款-" + finalModel));
+                    sendBusinessErrorEvent(session, code, errorMsg);
+                    session.complete();
                     return true;
                 }
             }
@@ -158,10 +170,7 @@ public class ImageAnalysisService {
         } catch (Exception ignored) {
         }
 
-        try {
-            emitter.send(SseEmitter.event().data(payload));
-        } catch (IOException ignored) {
-        }
+        session.send(SseEmitter.event().data(payload));
         return false;
     }
 
@@ -184,13 +193,15 @@ public class ImageAnalysisService {
                                 UserTransactionMapper userTransactionMapper,
                                 AnalysisRecordMapper analysisRecordMapper,
                                 AliyunOssService aliyunOssService,
-                                TransactionTemplate transactionTemplate) {
+                                TransactionTemplate transactionTemplate,
+                                SseStreamRelay sseStreamRelay) {
         this.apiPlatformService = apiPlatformService;
         this.userMapper = userMapper;
         this.userTransactionMapper = userTransactionMapper;
         this.analysisRecordMapper = analysisRecordMapper;
         this.aliyunOssService = aliyunOssService;
         this.transactionTemplate = transactionTemplate;
+        this.sseStreamRelay = sseStreamRelay;
     }
 
     private void markSuccessIfPending(Long recordId, Long siteId, String result) {
@@ -295,7 +306,7 @@ public class ImageAnalysisService {
         }
 
         // 3. Find Interface
-        List<ApiInterface> interfaces = apiPlatformService.getInterfacesByPlatformId(platform.getId());
+        List<ApiInterface> interfaces = apiPlatformService.getRegisteredInterfaces(platform.getId());
         ApiInterface apiInterface = interfaces.stream()
                 .filter(i -> i.getResponseMode() != null && !"Result".equals(i.getResponseMode()))
                 .findFirst()
@@ -461,101 +472,44 @@ public class ImageAnalysisService {
                     }
                 }
 
-                okHttpClient.newCall(reqBuilder.build()).enqueue(new Callback() {
-                    @Override
-                    public void onFailure(Call call, IOException e) {
-                        String errorMsg = resolveUnknownAnalysisError(e);
-                        failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "图片分析失败退款-" + finalModel);
+                sseStreamRelay.relay(apiInterface, IMAGE_ANALYSIS_TIMEOUT_SECONDS, reqBuilder.build(), emitter, new SseStreamRelay.StreamListener() {
+                    private final StringBuilder fullResponse = new StringBuilder();
 
-                        sendBusinessErrorEvent(emitter, ErrorCode.API_CALL_FAILED.getCode(), errorMsg);
-                        emitter.complete();
+                    @Override
+                    public boolean onLine(String line, SseStreamRelay.Session session) {
+                        String payload = SseStreamRelay.extractPayload(line);
+                        return payload != null
+                                && handleStreamPayload(payload, fullResponse, recordId, userId, recordSiteId, finalCost, finalModel, session);
                     }
 
                     @Override
-                    public void onResponse(Call call, Response response) throws IOException {
-                        StringBuilder fullResponse = new StringBuilder();
-                        try (ResponseBody responseBody = response.body()) {
-                            if (!response.isSuccessful()) {
-                                String errorBody = responseBody != null ? responseBody.string() : "";
-                                log.error("API Error: {} - {}", response.code(), errorBody);
-
-                            String errorMsg = "系统繁忙，请稍后再试";
-                            failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "图片分析失败退款-" + finalModel);
-
-                            sendBusinessErrorEvent(emitter, ErrorCode.API_CALL_FAILED.getCode(), errorMsg);
-                                emitter.complete();
-                                return;
-                            }
+                    public void onEnd(SseStreamRelay.Session session) {
+                        // If stream ended but no [DONE] received, mark as success if we got content
+                        if (fullResponse.length() > 0) {
+                            String result = fullResponse.toString();
+                            session.persist(() -> markSuccessIfPending(recordId, recordSiteId, result));
+                        } else {
+                            session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, "Stream ended without result", "图片分析失败退款-" + finalModel));
+                            sendBusinessErrorEvent(session, ErrorCode.GENERATION_FAILED.getCode(), "Stream ended without result");
+                        }
+                        session.complete();
+                    }
 
-                            if (responseBody == null) {
-                            String errorMsg = "系统繁忙，请稍后再试";
-                            failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "图片分析失败退款-" + finalModel);
-                            sendBusinessErrorEvent(emitter, ErrorCode.GENERATION_FAILED.getCode(), errorMsg);
-                                emitter.complete();
-                                return;
-                            }
+                    @Override
+                    public void onHttpError(int code, String body, SseStreamRelay.Session session) {
+                        log.error("API Error: {} - {}", code, body);
+                        String errorMsg = "系统繁忙，请稍后再试";
+                        session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "图片分析失败退款-" + finalModel));
+                        sendBusinessErrorEvent(session, ErrorCode.API_CALL_FAILED.getCode(), errorMsg);
+                        session.complete();
+                    }
 
-                            // Read stream manually with buffer to prevent blocking on readUtf8Line
-                            okio.BufferedSource source = responseBody.source();
-                            boolean isFinished = false;
-                            
-                            // Buffer for accumulating incomplete lines
-                            StringBuilder lineBuffer = new StringBuilder();
-                            byte[] buffer = new byte[8192];
-                            
-                            while (!source.exhausted()) {
-                                int read = source.read(buffer);
-                                if (read == -1) break;
-                                
-                                String chunk = new String(buffer, 0, read);
-                                lineBuffer.append(chunk);
-                                
-                                // Process lines
-                                int newlineIndex;
-                                while ((newlineIndex = lineBuffer.indexOf("\n")) != -1) {
-                                    String line = lineBuffer.substring(0, newlineIndex).trim();
-                                    lineBuffer.delete(0, newlineIndex + 1);
-
-                                    if (line.isEmpty() || line.startsWith(":") || line.startsWith("event:") || line.startsWith("id:") || line.startsWith("retry:")) {
-                                        continue;
-                                    }
-
-                                    String payload = line.startsWith("data:") ? line.substring(5).trim() : line;
-                                    boolean completed = handleStreamPayload(payload, fullResponse, recordId, userId, recordSiteId, finalCost, finalModel, emitter);
-                                    if (completed) {
-                                        return;
-                                    }
-                                }
-                            }
-                            
-                            // Process remaining buffer if any
-                            if (lineBuffer.length() > 0) {
-                                String line = lineBuffer.toString().trim();
-                                if (!line.isEmpty() && !line.startsWith(":") && !line.startsWith("event:") && !line.startsWith("id:") && !line.startsWith("retry:")) {
-                                    String payload = line.startsWith("data:") ? line.substring(5).trim() : line;
-                                    boolean completed = handleStreamPayload(payload, fullResponse, recordId, userId, recordSiteId, finalCost, finalModel, emitter);
-                                    if (completed) {
-                                        return;
-                                    }
-                                }
-                            }
-                            
-                            // If stream ended but no [DONE] received, mark as success if we got content
-                            if (!isFinished && fullResponse.length() > 0) {
-                                markSuccessIfPending(recordId, recordSiteId, fullResponse.toString());
-                            } else if (!isFinished) {
-                                failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, "Stream ended without result", "图片分析失败退款-" + finalModel);
-                                sendBusinessErrorEvent(emitter, ErrorCode.GENERATION_FAILED.getCode(), "Stream ended without result");
-                            }
-                            
-                            emitter.complete();
-                        } catch (Exception e) {
-                            String errorMsg = resolveUnknownAnalysisError(e);
-                            failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "图片分析失败退款-" + finalModel);
-
-                            sendBusinessErrorEvent(emitter, ErrorCode.GENERATION_FAILED.getCode(), errorMsg);
-                            emitter.complete();
-                        }
+                    @Override
+                    public void onError(Exception e, SseStreamRelay.Session session) {
+                        String errorMsg = resolveUnknownAnalysisError(e);
+                        session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "图片分析失败退款-" + finalModel));
+                        sendBusinessErrorEvent(session, ErrorCode.API_CALL_FAILED.getCode(), errorMsg);
+                        session.complete();
                     }
                 });
 
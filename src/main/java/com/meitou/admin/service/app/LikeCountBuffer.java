@@ -0,0 +1,215 @@
+package com.meitou.admin.service.app;
+
+import com.meitou.admin.entity.PublishedContent;
+import com.meitou.admin.mapper.PublishedContentMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 点赞数写回缓冲
+ * 点赞/取消点赞只在内存中累加增量（ConcurrentHashMap 按桶加锁，热门内容不再争用数据库行锁），
+ * 后台定时把增量批量写回 published_contents.like_count（like_count = like_count + ?）；
+ * 读取点赞数时合并尚未写回的增量，保证用户看到的数值是最新的；增量取出写回时同步计入信息流缓存，缓存中的点赞数不会倒退。
+ * 增量只在内存中，进程崩溃时未写回的部分会丢失，因此另有定时任务按 likes 表逐批校准点赞数。
+ */
+@Slf4j
+@Component
+public class LikeCountBuffer {
+
+    /**
+     * 单次写回的最大内容数
+     */
+    @Value("${like.counter.flushBatchSize:500}")
+    private int flushBatchSize;
+
+    /**
+     * 单次校准的最大内容数
+     */
+    @Value("${like.counter.reconcileBatchSize:500}")
+    private int reconcileBatchSize;
+
+    private final PublishedContentMapper contentMapper;
+    private final CommunityFeedCache communityFeedCache;
+
+    /**
+     * 内容ID -> 未写回的点赞数增量
+     */
+    private final Map<Long, Long> pendingDeltas = new ConcurrentHashMap<>();
+
+    private final LongAdder flushedRows = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder reconciledRows = new LongAdder();
+
+    /**
+     * 校准游标：上一批最后的内容ID，扫描到末尾后从头开始
+     */
+    private long reconcileCursor;
+
+    public LikeCountBuffer(PublishedContentMapper contentMapper, CommunityFeedCache communityFeedCache) {
+        this.contentMapper = contentMapper;
+        this.communityFeedCache = communityFeedCache;
+    }
+
+    /**
+     * 累加点赞数增量
+     *
+     * @param contentId 内容ID
+     * @param delta     增量（+1/-1）
+     */
+    public void add(Long contentId, long delta) {
+        pendingDeltas.merge(contentId, delta, this::sumOrRemove);
+    }
+
+    /**
+     * 丢弃内容未写回的增量（点赞数被直接设定时调用）
+     *
+     * @param contentId 内容ID
+     */
+    public void discard(Long contentId) {
+        pendingDeltas.remove(contentId);
+    }
+
+    /**
+     * 获取未写回的增量
+     *
+     * @param contentId 内容ID
+     * @return 增量
+     */
+    public long getPendingDelta(Long contentId) {
+        Long delta = pendingDeltas.get(contentId);
+        return delta != null ? delta : 0L;
+    }
+
+    /**
+     * 把未写回的增量合并到内容的点赞数上（仅影响返回给前端的对象）
+     *
+     * @param contents 内容列表
+     */
+    public void applyPendingDeltas(Collection<PublishedContent> contents) {
+        if (contents == null || pendingDeltas.isEmpty()) {
+            return;
+        }
+        for (PublishedContent content : contents) {
+            applyPendingDelta(content);
+        }
+    }
+
+    /**
+     * 把未写回的增量合并到内容的点赞数上（仅影响返回给前端的对象）
+     *
+     * @param content 内容
+     */
+    public void applyPendingDelta(PublishedContent content) {
+        if (content == null || content.getId() == null) {
+            return;
+        }
+        long delta = getPendingDelta(content.getId());
+        if (delta != 0) {
+            int base = content.getLikeCount() != null ? content.getLikeCount() : 0;
+            content.setLikeCount((int) Math.max(0, base + delta));
+        }
+    }
+
+    /**
+     * 定时把增量批量写回数据库
+     */
+    @Scheduled(fixedDelayString = "${like.counter.flushIntervalMs:2000}")
+    public synchronized void flush() {
+        if (pendingDeltas.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> batch = new LinkedHashMap<>();
+        for (Long contentId : new ArrayList<>(pendingDeltas.keySet())) {
+            // 原子地取走增量，之后的点赞会重新累积到新的条目
+            Long delta = pendingDeltas.remove(contentId);
+            if (delta != null && delta != 0) {
+                batch.put(contentId, delta);
+            }
+            if (batch.size() >= flushBatchSize) {
+                write(batch);
+                batch = new LinkedHashMap<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * 定时按 likes 表校准一批内容的点赞数，修正崩溃或部署时丢失的增量
+     * 与写回互斥；有未写回增量的内容（likes 表已计入、数据库尚未计入）本轮跳过
+     */
+    @Scheduled(fixedDelayString = "${like.counter.reconcileIntervalMs:60000}",
+            initialDelayString = "${like.counter.reconcileIntervalMs:60000}")
+    public synchronized void reconcile() {
+        List<Map<String, Object>> rows = contentMapper.selectLikeCountsAfterIgnoreTenant(reconcileCursor,
+                reconcileBatchSize);
+        Map<Long, Long> corrections = new LinkedHashMap<>();
+        for (Map<String, Object> row : rows) {
+            Long contentId = ((Number) row.get("id")).longValue();
+            long likeCount = ((Number) row.get("likeCount")).longValue();
+            long actualCount = ((Number) row.get("actualCount")).longValue();
+            if (likeCount != actualCount && !pendingDeltas.containsKey(contentId)
+                    && contentMapper.resetLikeCountIgnoreTenant(contentId, likeCount, actualCount) > 0) {
+                corrections.put(contentId, actualCount - likeCount);
+            }
+        }
+        reconcileCursor = rows.size() < reconcileBatchSize ? 0L
+                : ((Number) rows.get(rows.size() - 1).get("id")).longValue();
+
+        if (!corrections.isEmpty()) {
+            communityFeedCache.applyLikeDeltas(corrections);
+            reconciledRows.add(corrections.size());
+            log.info("点赞数校准完成，修正 {} 条内容", corrections.size());
+        }
+    }
+
+    /**
+     * 获取缓冲指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingContents", pendingDeltas.size());
+        stats.put("flushedRows", flushedRows.sum());
+        stats.put("flushFailures", flushFailures.sum());
+        stats.put("reconciledRows", reconciledRows.sum());
+        return stats;
+    }
+
+    private void write(Map<Long, Long> batch) {
+        // 增量已从缓冲取出，立即计入信息流缓存，读取时不会短暂丢失这部分点赞数
+        communityFeedCache.applyLikeDeltas(batch);
+        try {
+            flushedRows.add(contentMapper.incrementLikeCounts(batch));
+        } catch (Exception e) {
+            // 写回失败时把增量放回，下次重试
+            flushFailures.increment();
+            log.warn("点赞数写回失败，{} 条增量待重试: {}", batch.size(), e.getMessage());
+            Map<Long, Long> reverted = new LinkedHashMap<>();
+            batch.forEach((contentId, delta) -> reverted.put(contentId, -delta));
+            communityFeedCache.applyLikeDeltas(reverted);
+            batch.forEach(this::add);
+        }
+    }
+
+    private Long sumOrRemove(Long current, Long delta) {
+        long sum = current + delta;
+        return sum != 0 ? sum : null;
+    }
+}
@@ -7,8 +7,8 @@ import com.meitou.admin.entity.PublishedContent;
 import com.meitou.admin.mapper.LikeMapper;
 import com.meitou.admin.mapper.PublishedContentMapper;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collections;
 import java.util.List;
@@ -25,46 +25,41 @@ public class LikeService extends ServiceImpl<LikeMapper, Like> {
     
     private final LikeMapper likeMapper;
     private final PublishedContentMapper contentMapper;
+    private final LikeCountBuffer likeCountBuffer;
     
     /**
      * 切换点赞状态（点赞/取消点赞）
+     * 点赞记录依赖 (user_id, content_id) 唯一索引去重；点赞数只记录增量，由 {@link LikeCountBuffer} 批量写回
      * 
      * @param userId 用户ID
      * @param contentId 发布内容ID
      * @return 是否已点赞（true-已点赞，false-已取消）
      */
-    @Transactional
     public boolean toggleLike(Long userId, Long contentId) {
         // 验证发布内容是否存在
-        PublishedContent content = contentMapper.selectById(contentId);
-        if (content == null) {
+        LambdaQueryWrapper<PublishedContent> contentWrapper = new LambdaQueryWrapper<>();
+        contentWrapper.eq(PublishedContent::getId, contentId);
+        if (contentMapper.selectCount(contentWrapper) == 0) {
             throw new RuntimeException("发布内容不存在");
         }
         
-        // 查询是否已点赞
-        LambdaQueryWrapper<Like> wrapper = new LambdaQueryWrapper<>();
-        wrapper.eq(Like::getUserId, userId);
-        wrapper.eq(Like::getContentId, contentId);
-        Like existingLike = likeMapper.selectOne(wrapper);
-        
-        if (existingLike != null) {
-            // 已点赞，取消点赞
-            likeMapper.deleteById(existingLike.getId());
-            // 更新点赞数
-            content.setLikeCount(Math.max(0, content.getLikeCount() - 1));
-            contentMapper.updateById(content);
+        // 已点赞则取消点赞
+        if (likeMapper.deleteByUserAndContent(userId, contentId) > 0) {
+            likeCountBuffer.add(contentId, -1);
             return false;
-        } else {
-            // 未点赞，添加点赞
+        }
+        
+        // 未点赞，添加点赞
+        try {
             Like like = new Like();
             like.setUserId(userId);
             like.setContentId(contentId);
             likeMapper.insert(like);
-            // 更新点赞数
-            content.setLikeCount(content.getLikeCount() + 1);
-            contentMapper.updateById(content);
-            return true;
+            likeCountBuffer.add(contentId, 1);
+        } catch (DuplicateKeyException e) {
+            // 并发重复点赞，已由另一请求计数
         }
+        return true;
     }
     
     /**
@@ -3,6 +3,7 @@ package com.meitou.admin.service.app;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.dto.app.CursorPageResponse;
 import com.meitou.admin.entity.GenerationRecord;
 import com.meitou.admin.entity.PublishedContent;
 import com.meitou.admin.entity.User;
@@ -12,7 +13,9 @@ import com.meitou.admin.mapper.GenerationRecordMapper;
 import com.meitou.admin.mapper.PublishedContentMapper;
 import com.meitou.admin.mapper.UserMapper;
 import com.meitou.admin.storage.FileStorageService;
+import com.meitou.admin.util.CursorUtil;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.BeanUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
@@ -21,6 +24,8 @@ import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -36,6 +41,8 @@ public class PublishedContentService extends ServiceImpl<PublishedContentMapper,
     private final PublishedContentMapper contentMapper;
     private final UserMapper userMapper;
     private final LikeService likeService;
+    private final LikeCountBuffer likeCountBuffer;
+    private final CommunityFeedCache communityFeedCache;
     private final FileStorageService fileStorageService;
     private final GenerationRecordMapper generationRecordMapper;
     
@@ -143,6 +150,7 @@ public class PublishedContentService extends ServiceImpl<PublishedContentMapper,
         
         // 保存到数据库
         contentMapper.insert(content);
+        communityFeedCache.invalidateAfterCommit(siteId, type, false, true);
 
         if (record.getIsPublish() == null || !"1".equals(record.getIsPublish())) {
             record.setIsPublish("1");
@@ -169,6 +177,16 @@ public class PublishedContentService extends ServiceImpl<PublishedContentMapper,
      * @return 分页发布内容列表
      */
     public IPage<PublishedContent> getPublishedContents(Page<PublishedContent> page, String type, Long userId) {
+        // 优先从信息流缓存读取，只叠加当前用户的点赞状态
+        Long siteId = SiteContext.getSiteId();
+        if (siteId != null) {
+            IPage<PublishedContent> cached = getCachedFeedPage(siteId, StringUtils.hasText(type) ? type : "all", page);
+            if (cached != null) {
+                applyViewerState(cached.getRecords(), userId);
+                return cached;
+            }
+        }
+
         LambdaQueryWrapper<PublishedContent> wrapper = new LambdaQueryWrapper<>();
         
         // 只查询已发布的内容
@@ -184,55 +202,198 @@ public class PublishedContentService extends ServiceImpl<PublishedContentMapper,
         wrapper.orderByDesc(PublishedContent::getPublishedAt);
         
         IPage<PublishedContent> result = contentMapper.selectPage(page, wrapper);
-        
-        // 如果有用户ID且结果不为空，批量获取点赞状态
-        if (userId != null && !result.getRecords().isEmpty()) {
-            List<Long> contentIds = result.getRecords().stream()
-                    .map(PublishedContent::getId)
-                    .collect(Collectors.toList());
-            
-            Set<Long> likedIds = likeService.getLikedContentIds(userId, contentIds);
-            
-            // 设置isLiked状态
-            result.getRecords().parallelStream().forEach(item -> {
-                item.setIsLiked(likedIds.contains(item.getId()));
-                
-                // 修复缺少缩略图或缩略图与原图相同的问题
-                if (item.getThumbnail() == null || item.getThumbnail().isEmpty() || item.getThumbnail().equals(item.getContentUrl())) {
-                    String newThumb = generateThumbnailUrl(item.getContentUrl(), item.getType());
-                    if (newThumb != null && !newThumb.equals(item.getContentUrl())) {
-                        item.setThumbnail(newThumb);
-                    }
-                }
+        prepareFeedItems(result.getRecords(), userId);
+        return result;
+    }
 
-                // 处理签名URL
-                item.setContentUrl(fileStorageService.getFileUrl(item.getContentUrl()));
-                item.setThumbnail(fileStorageService.getFileUrl(item.getThumbnail()));
-                item.setUserAvatarUrl(fileStorageService.getFileUrl(item.getUserAvatarUrl()));
-            });
-        } else if (!result.getRecords().isEmpty()) {
-             // 没登录，但要处理签名URL
-             result.getRecords().parallelStream().forEach(item -> {
-                 item.setIsLiked(false);
-                 
-                 // 修复缺少缩略图或缩略图与原图相同的问题
-                 if (item.getThumbnail() == null || item.getThumbnail().isEmpty() || item.getThumbnail().equals(item.getContentUrl())) {
-                     String newThumb = generateThumbnailUrl(item.getContentUrl(), item.getType());
-                     if (newThumb != null && !newThumb.equals(item.getContentUrl())) {
-                         item.setThumbnail(newThumb);
-                     }
-                 }
+    /**
+     * 从缓存的置顶段和普通段拼出分页结果
+     *
+     * @return 分页结果，请求的页超出缓存范围时返回null
+     */
+    private IPage<PublishedContent> getCachedFeedPage(Long siteId, String type, Page<PublishedContent> page) {
+        long offset = (page.getCurrent() - 1) * page.getSize();
+        long end = offset + page.getSize();
+        if (offset < 0 || page.getSize() <= 0) {
+            return null;
+        }
 
-                 // 处理签名URL
-                 item.setContentUrl(fileStorageService.getFileUrl(item.getContentUrl()));
-                 item.setThumbnail(fileStorageService.getFileUrl(item.getThumbnail()));
-                 item.setUserAvatarUrl(fileStorageService.getFileUrl(item.getUserAvatarUrl()));
-             });
+        CommunityFeedCache.Segment pinned = communityFeedCache.getPinned(siteId, type, () -> loadFeedSegment(type, true));
+        if (!pinned.isComplete()) {
+            return null;
         }
-        
+        CommunityFeedCache.Segment regular = communityFeedCache.getRegular(siteId, type, () -> loadFeedSegment(type, false));
+        List<PublishedContent> pinnedItems = pinned.getItems();
+        List<PublishedContent> regularItems = regular.getItems();
+        long cachedSize = pinnedItems.size() + regularItems.size();
+        if (end > cachedSize && !regular.isComplete()) {
+            return null;
+        }
+
+        List<PublishedContent> records = new ArrayList<>();
+        for (long i = offset; i < Math.min(end, cachedSize); i++) {
+            CommunityFeedCache.Segment segment = i < pinnedItems.size() ? pinned : regular;
+            PublishedContent item = i < pinnedItems.size()
+                    ? pinnedItems.get((int) i)
+                    : regularItems.get((int) (i - pinnedItems.size()));
+            // 缓存对象共享，复制后再叠加已写回的点赞数增量和用户相关字段
+            PublishedContent copy = new PublishedContent();
+            BeanUtils.copyProperties(item, copy);
+            copy.setLikeCount(segment.getLikeCount(item));
+            records.add(copy);
+        }
+        Page<PublishedContent> result = new Page<>(page.getCurrent(), page.getSize(), pinned.getTotal() + regular.getTotal());
+        result.setRecords(records);
         return result;
     }
 
+    /**
+     * 加载信息流缓存段（置顶或普通内容，按发布时间倒序，已补全缩略图并签名URL）
+     */
+    private CommunityFeedCache.Segment loadFeedSegment(String type, boolean pinned) {
+        int limit = communityFeedCache.getMaxItems();
+        LambdaQueryWrapper<PublishedContent> wrapper = feedSegmentWrapper(type, pinned);
+        wrapper.orderByDesc(PublishedContent::getPublishedAt);
+        wrapper.orderByDesc(PublishedContent::getId);
+        wrapper.last("LIMIT " + limit);
+        List<PublishedContent> items = contentMapper.selectList(wrapper);
+        long total = items.size() < limit ? items.size() : contentMapper.selectCount(feedSegmentWrapper(type, pinned));
+        items.forEach(this::precomputeFeedItem);
+        return new CommunityFeedCache.Segment(items, total);
+    }
+
+    private LambdaQueryWrapper<PublishedContent> feedSegmentWrapper(String type, boolean pinned) {
+        LambdaQueryWrapper<PublishedContent> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(PublishedContent::getStatus, "published");
+        if (StringUtils.hasText(type) && !"all".equals(type)) {
+            wrapper.eq(PublishedContent::getType, type);
+        }
+        return pinnedEq(wrapper, pinned);
+    }
+
+    /**
+     * 置顶条件：is_pinned 为空按未置顶处理（与排序时 NULL 排在最后一致）
+     */
+    private static LambdaQueryWrapper<PublishedContent> pinnedEq(LambdaQueryWrapper<PublishedContent> wrapper,
+            boolean pinned) {
+        if (pinned) {
+            return wrapper.eq(PublishedContent::getIsPinned, true);
+        }
+        return wrapper.and(w -> w.eq(PublishedContent::getIsPinned, false).or().isNull(PublishedContent::getIsPinned));
+    }
+
+    /**
+     * 按游标获取发布内容列表（置顶优先，再按发布时间、ID倒序定位，不查询总数）
+     *
+     * @param cursor   上一页返回的游标，为空表示第一页
+     * @param pageSize 每页数量
+     * @param type     类型筛选
+     * @param userId   当前用户ID（可选，用于检查点赞状态）
+     * @return 发布内容列表及下一页游标
+     */
+    public CursorPageResponse<PublishedContent> getPublishedContentsByCursor(String cursor, int pageSize, String type,
+            Long userId) {
+        int limit = Math.max(1, Math.min(pageSize, 100));
+        CursorUtil.Position position = CursorUtil.decode(cursor);
+
+        LambdaQueryWrapper<PublishedContent> wrapper = new LambdaQueryWrapper<>();
+        wrapper.eq(PublishedContent::getStatus, "published");
+        if (StringUtils.hasText(type) && !"all".equals(type)) {
+            wrapper.eq(PublishedContent::getType, type);
+        }
+        if (position != null) {
+            // 排序键 (is_pinned, published_at, id) 整体小于游标位置；is_pinned 为空的旧数据按未置顶处理，
+            // published_at 为空的旧数据在倒序排序中排在同组最后（游标中记为 CursorUtil.NULL_TIME）
+            boolean pinned = position.getRank() > 0;
+            LocalDateTime time = position.getTime();
+            Long id = position.getId();
+            wrapper.and(w -> {
+                if (pinned) {
+                    w.nested(n -> pinnedEq(n, false)).or();
+                }
+                if (position.isNullTime()) {
+                    w.nested(n -> pinnedEq(n, pinned).isNull(PublishedContent::getPublishedAt)
+                            .lt(PublishedContent::getId, id));
+                } else {
+                    w.nested(n -> pinnedEq(n, pinned).lt(PublishedContent::getPublishedAt, time))
+                            .or(n -> pinnedEq(n, pinned).eq(PublishedContent::getPublishedAt, time)
+                                    .lt(PublishedContent::getId, id))
+                            .or(n -> pinnedEq(n, pinned).isNull(PublishedContent::getPublishedAt));
+                }
+            });
+        }
+        wrapper.orderByDesc(PublishedContent::getIsPinned);
+        wrapper.orderByDesc(PublishedContent::getPublishedAt);
+        wrapper.orderByDesc(PublishedContent::getId);
+        // 多取一条用于判断是否还有下一页
+        wrapper.last("LIMIT " + (limit + 1));
+        List<PublishedContent> items = new ArrayList<>(contentMapper.selectList(wrapper));
+
+        CursorPageResponse<PublishedContent> response = new CursorPageResponse<>();
+        boolean hasMore = items.size() > limit;
+        if (hasMore) {
+            items = items.subList(0, limit);
+            PublishedContent last = items.get(items.size() - 1);
+            response.setNextCursor(CursorUtil.encode(Boolean.TRUE.equals(last.getIsPinned()) ? 1 : 0,
+                    last.getPublishedAt(), last.getId()));
+        }
+        prepareFeedItems(items, userId);
+        response.setRecords(items);
+        response.setHasMore(hasMore);
+        return response;
+    }
+
+    /**
+     * 填充点赞状态、补全缩略图并替换为签名URL
+     */
+    private void prepareFeedItems(List<PublishedContent> items, Long userId) {
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        items.forEach(this::precomputeFeedItem);
+        applyViewerState(items, userId);
+    }
+
+    /**
+     * 补全缩略图并替换为签名URL（与用户无关，可缓存）
+     */
+    private void precomputeFeedItem(PublishedContent item) {
+        // 修复缺少缩略图或缩略图与原图相同的问题
+        if (item.getThumbnail() == null || item.getThumbnail().isEmpty() || item.getThumbnail().equals(item.getContentUrl())) {
+            String newThumb = generateThumbnailUrl(item.getContentUrl(), item.getType());
+            if (newThumb != null && !newThumb.equals(item.getContentUrl())) {
+                item.setThumbnail(newThumb);
+            }
+        }
+
+        // 处理签名URL
+        item.setContentUrl(fileStorageService.getFileUrl(item.getContentUrl()));
+        item.setThumbnail(fileStorageService.getFileUrl(item.getThumbnail()));
+        item.setUserAvatarUrl(fileStorageService.getFileUrl(item.getUserAvatarUrl()));
+    }
+
+    /**
+     * 叠加用户相关字段：当前用户的点赞状态、尚未写回数据库的点赞数增量
+     */
+    private void applyViewerState(List<PublishedContent> items, Long userId) {
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        likeCountBuffer.applyPendingDeltas(items);
+
+        Set<Long> likedIds;
+        if (userId != null) {
+            List<Long> contentIds = items.stream()
+                    .map(PublishedContent::getId)
+                    .collect(Collectors.toList());
+            likedIds = likeService.getLikedContentIds(userId, contentIds);
+        } else {
+            // 没登录，不查询点赞记录
+            likedIds = Collections.emptySet();
+        }
+        items.forEach(item -> item.setIsLiked(likedIds.contains(item.getId())));
+    }
+
     /**
      * 获取发布内容列表（旧方法，保留兼容性，建议使用分页版）
      * 
@@ -258,6 +419,7 @@ public class PublishedContentService extends ServiceImpl<PublishedContentMapper,
         if (!"published".equals(content.getStatus())) {
             throw new RuntimeException("发布内容不存在或已下架");
         }
+        likeCountBuffer.applyPendingDelta(content);
         
         // 处理签名URL
         content.setContentUrl(fileStorageService.getFileUrl(content.getContentUrl()));
@@ -288,6 +450,8 @@ public class PublishedContentService extends ServiceImpl<PublishedContentMapper,
         }
         
         contentMapper.updateById(content);
+        boolean pinned = Boolean.TRUE.equals(content.getIsPinned());
+        communityFeedCache.invalidateAfterCommit(content.getSiteId(), content.getType(), pinned, !pinned);
         return content;
     }
     
@@ -305,9 +469,10 @@ public class PublishedContentService extends ServiceImpl<PublishedContentMapper,
         }
         
         // 切换置顶状态
-        content.setIsPinned(!content.getIsPinned());
+        content.setIsPinned(!Boolean.TRUE.equals(content.getIsPinned()));
         
         contentMapper.updateById(content);
+        communityFeedCache.invalidateAfterCommit(content.getSiteId(), content.getType(), true, true);
         return content;
     }
     
@@ -329,5 +494,7 @@ public class PublishedContentService extends ServiceImpl<PublishedContentMapper,
         
         // 逻辑删除
         contentMapper.deleteById(contentId);
+        boolean pinned = Boolean.TRUE.equals(content.getIsPinned());
+        communityFeedCache.invalidateAfterCommit(content.getSiteId(), content.getType(), pinned, !pinned);
     }
 }
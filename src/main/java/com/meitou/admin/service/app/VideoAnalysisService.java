@@ -14,6 +14,7 @@ import com.meitou.admin.mapper.AnalysisRecordMapper;
 import com.meitou.admin.mapper.UserMapper;
 import com.meitou.admin.mapper.UserTransactionMapper;
 import com.meitou.admin.service.admin.ApiPlatformService;
+import com.meitou.admin.service.common.SseStreamRelay;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
@@ -24,12 +25,16 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
 public class VideoAnalysisService {
 
+    /**
+     * 视频分析接口默认读取超时（秒）
+     */
+    private static final int VIDEO_ANALYSIS_TIMEOUT_SECONDS = 180;
+
     private final ApiPlatformService apiPlatformService;
     private final UserMapper userMapper;
     private final UserTransactionMapper userTransactionMapper;
@@ -37,11 +42,7 @@ public class VideoAnalysisService {
     private final TransactionTemplate transactionTemplate;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final OkHttpClient okHttpClient = new OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(180, TimeUnit.SECONDS)
-            .writeTimeout(60, TimeUnit.SECONDS)
-            .build();
+    private final SseStreamRelay sseStreamRelay;
 
     private String truncate(String value, int maxLen) {
         if (value == null) {
@@ -62,6 +63,15 @@ public class VideoAnalysisService {
         }
     }
 
+    private void sendBusinessErrorEvent(SseStreamRelay.Session session, Integer code, String message) {
+        try {
+            session.send(SseEmitter.event()
+                    .name("error")
+                    .data(objectMapper.writeValueAsString(Result.error(code, message))));
+        } catch (Exception ignored) {
+        }
+    }
+
     private String resolveUnknownAnalysisError(Exception e) {
         String message = e != null ? e.getMessage() : null;
         if (message != null && message.contains("timed out")) {
@@ -110,15 +120,16 @@ public class VideoAnalysisService {
             Long recordSiteId,
             int finalCost,
             String finalModel,
-            SseEmitter emitter
+            SseStreamRelay.Session session
     ) {
         if (payload == null || payload.isBlank()) {
             return false;
         }
 
         if ("[DONE]".equals(payload)) {
-            markSuccessIfPending(recordId, recordSiteId, fullResponse.toString());
-            emitter.complete();
+            String result = fullResponse.toString();
+            session.persist(() -> markSuccessIfPending(recordId, recordSiteId, result));
+            session.complete();
             return true;
         }
 
@@ -126,9 +137,9 @@ public class VideoAnalysisService {
             JsonNode node = objectMapper.readTree(payload);
             String upstreamError = extractUpstreamErrorMessage(node);
             if (upstreamError != null) {
-                failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, upstreamError, "视频分析失败退款-" + finalModel);
-                sendBusinessErrorEvent(emitter, ErrorCode.API_RESPONSE_ERROR.getCode(), upstreamError);
-                emitter.complete();
+                session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, upstreamError, "视频分析失败退款-" + finalModel));
+                sendBusinessErrorEvent(session, ErrorCode.API_RESPONSE_ERROR.getCode(), upstreamError);
+                session.complete();
                 return true;
             }
 
@@ -139,9 +150,10 @@ public class VideoAnalysisService {
                     if (msg == null || msg.isBlank()) {
                         msg = "视频分析失败";
                     }
-                    failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, msg, "视频分析失败退款-" + finalModel);
-                    sendBusinessErrorEvent(emitter, code, msg);
-                    emitter.complete();
+                    String errorMsg = msg;
+                    session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "视频分析失败退款-" + finalModel));
+                    sendBusinessErrorEvent(session, code, errorMsg);
+                    session.complete();
                     return true;
                 }
             }
@@ -156,10 +168,7 @@ public class VideoAnalysisService {
         } catch (Exception ignored) {
         }
 
-        try {
-            emitter.send(SseEmitter.event().data(payload));
-        } catch (IOException ignored) {
-        }
+        session.send(SseEmitter.event().data(payload));
         return false;
     }
 
@@ -181,12 +190,14 @@ public class VideoAnalysisService {
                                 UserMapper userMapper,
                                 UserTransactionMapper userTransactionMapper,
                                 AnalysisRecordMapper analysisRecordMapper,
-                                TransactionTemplate transactionTemplate) {
+                                TransactionTemplate transactionTemplate,
+                                SseStreamRelay sseStreamRelay) {
         this.apiPlatformService = apiPlatformService;
         this.userMapper = userMapper;
         this.userTransactionMapper = userTransactionMapper;
         this.analysisRecordMapper = analysisRecordMapper;
         this.transactionTemplate = transactionTemplate;
+        this.sseStreamRelay = sseStreamRelay;
     }
 
     private void markSuccessIfPending(Long recordId, Long siteId, String result) {
@@ -284,7 +295,7 @@ public class VideoAnalysisService {
         }
 
         // 3. Find Interface
-        List<ApiInterface> interfaces = apiPlatformService.getInterfacesByPlatformId(platform.getId());
+        List<ApiInterface> interfaces = apiPlatformService.getRegisteredInterfaces(platform.getId());
         ApiInterface apiInterface = interfaces.stream()
                 .filter(i -> i.getResponseMode() != null && !"Result".equals(i.getResponseMode()))
                 .findFirst()
@@ -451,95 +462,44 @@ public class VideoAnalysisService {
                 }
             }
 
-            okHttpClient.newCall(reqBuilder.build()).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    String errorMsg = resolveUnknownAnalysisError(e);
-                    failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "视频分析失败退款-" + finalModel);
+            sseStreamRelay.relay(apiInterface, VIDEO_ANALYSIS_TIMEOUT_SECONDS, reqBuilder.build(), emitter, new SseStreamRelay.StreamListener() {
+                private final StringBuilder fullResponse = new StringBuilder();
 
-                    sendBusinessErrorEvent(emitter, ErrorCode.API_CALL_FAILED.getCode(), errorMsg);
-                    emitter.complete();
+                @Override
+                public boolean onLine(String line, SseStreamRelay.Session session) {
+                    String payload = SseStreamRelay.extractPayload(line);
+                    return payload != null
+                            && handleStreamPayload(payload, fullResponse, recordId, userId, recordSiteId, finalCost, finalModel, session);
                 }
 
                 @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    StringBuilder fullResponse = new StringBuilder();
-                    try (ResponseBody responseBody = response.body()) {
-                        if (!response.isSuccessful()) {
-                            String errorBody = responseBody != null ? responseBody.string() : "";
-                            log.error("API Error: {} - {}", response.code(), errorBody);
-
-                            String errorMsg = "系统繁忙，请稍后再试";
-                            failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "视频分析失败退款-" + finalModel);
-
-                            sendBusinessErrorEvent(emitter, ErrorCode.API_CALL_FAILED.getCode(), errorMsg);
-                            emitter.complete();
-                            return;
-                        }
-
-                        if (responseBody == null) {
-                            String errorMsg = "系统繁忙，请稍后再试";
-                            failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "视频分析失败退款-" + finalModel);
-                            sendBusinessErrorEvent(emitter, ErrorCode.GENERATION_FAILED.getCode(), errorMsg);
-                            emitter.complete();
-                            return;
-                        }
-
-                        okio.BufferedSource source = responseBody.source();
-                        boolean isFinished = false;
-                        StringBuilder lineBuffer = new StringBuilder();
-                        byte[] buffer = new byte[8192];
-
-                        while (!source.exhausted()) {
-                            int read = source.read(buffer);
-                            if (read == -1) break;
-
-                            String chunk = new String(buffer, 0, read);
-                            lineBuffer.append(chunk);
-
-                            int newlineIndex;
-                            while ((newlineIndex = lineBuffer.indexOf("\n")) != -1) {
-                                String line = lineBuffer.substring(0, newlineIndex).trim();
-                                lineBuffer.delete(0, newlineIndex + 1);
-
-                                if (line.isEmpty() || line.startsWith(":") || line.startsWith("event:") || line.startsWith("id:") || line.startsWith("retry:")) {
-                                    continue;
-                                }
-
-                                String payload = line.startsWith("data:") ? line.substring(5).trim() : line;
-                                boolean completed = handleStreamPayload(payload, fullResponse, recordId, userId, recordSiteId, finalCost, finalModel, emitter);
-                                if (completed) {
-                                    return;
-                                }
-                            }
-                        }
-
-                        if (lineBuffer.length() > 0) {
-                             String line = lineBuffer.toString().trim();
-                             if (!line.isEmpty() && !line.startsWith(":") && !line.startsWith("event:") && !line.startsWith("id:") && !line.startsWith("retry:")) {
-                                 String payload = line.startsWith("data:") ? line.substring(5).trim() : line;
-                                 boolean completed = handleStreamPayload(payload, fullResponse, recordId, userId, recordSiteId, finalCost, finalModel, emitter);
-                                 if (completed) {
-                                     return;
-                                 }
-                             }
-                        }
-
-                        if (!isFinished && fullResponse.length() > 0) {
-                            markSuccessIfPending(recordId, recordSiteId, fullResponse.toString());
-                        } else if (!isFinished) {
-                            failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, "Stream ended without result", "视频分析失败退款-" + finalModel);
-                            sendBusinessErrorEvent(emitter, ErrorCode.GENERATION_FAILED.getCode(), "Stream ended without result");
-                        }
+                public void onEnd(SseStreamRelay.Session session) {
+                    // If stream ended but no [DONE] received, mark as success if we got content
+                    if (fullResponse.length() > 0) {
+                        String result = fullResponse.toString();
+                        session.persist(() -> markSuccessIfPending(recordId, recordSiteId, result));
+                    } else {
+                        session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, "Stream ended without result", "视频分析失败退款-" + finalModel));
+                        sendBusinessErrorEvent(session, ErrorCode.GENERATION_FAILED.getCode(), "Stream ended without result");
+                    }
+                    session.complete();
+                }
 
-                        emitter.complete();
-                    } catch (Exception e) {
-                        String errorMsg = resolveUnknownAnalysisError(e);
-                        failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "视频分析失败退款-" + finalModel);
+                @Override
+                public void onHttpError(int code, String body, SseStreamRelay.Session session) {
+                    log.error("API Error: {} - {}", code, body);
+                    String errorMsg = "系统繁忙，请稍后再试";
+                    session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "视频分析失败退款-" + finalModel));
+                    sendBusinessErrorEvent(session, ErrorCode.API_CALL_FAILED.getCode(), errorMsg);
+                    session.complete();
+                }
 
-                        sendBusinessErrorEvent(emitter, ErrorCode.GENERATION_FAILED.getCode(), errorMsg);
-                        emitter.complete();
-                    }
+                @Override
+                public void onError(Exception e, SseStreamRelay.Session session) {
+                    String errorMsg = resolveUnknownAnalysisError(e);
+                    session.persist(() -> failAndRefundIfPending(recordId, userId, recordSiteId, finalCost, errorMsg, "视频分析失败退款-" + finalModel));
+                    sendBusinessErrorEvent(session, ErrorCode.API_CALL_FAILED.getCode(), errorMsg);
+                    session.complete();
                 }
             });
 
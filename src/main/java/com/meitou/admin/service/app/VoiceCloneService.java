@@ -16,12 +16,11 @@ import com.meitou.admin.mapper.GenerationRecordMapper;
 import com.meitou.admin.mapper.UserMapper;
 import com.meitou.admin.mapper.UserTransactionMapper;
 import com.meitou.admin.service.admin.ApiPlatformService;
+import com.meitou.admin.service.common.UpstreamHttpClientProvider;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.*;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
@@ -35,31 +34,32 @@ import java.util.Map;
 @Slf4j
 @Service
 public class VoiceCloneService {
+
+    /**
+     * 声音克隆接口默认读取超时（秒）
+     */
+    private static final int VOICE_CLONE_TIMEOUT_SECONDS = 120;
     
     private final ApiPlatformService apiPlatformService;
     private final GenerationRecordMapper generationRecordMapper;
     private final UserMapper userMapper;
     private final UserTransactionMapper userTransactionMapper;
-    private final RestTemplate restTemplate;
+    private final UpstreamHttpClientProvider upstreamHttpClientProvider;
     private final ObjectMapper objectMapper = new ObjectMapper();
     
     /**
-     * 构造函数，初始化RestTemplate并配置超时时间
+     * 构造函数
      */
     public VoiceCloneService(ApiPlatformService apiPlatformService, 
                             GenerationRecordMapper generationRecordMapper,
                             UserMapper userMapper,
-                            UserTransactionMapper userTransactionMapper) {
+                            UserTransactionMapper userTransactionMapper,
+                            UpstreamHttpClientProvider upstreamHttpClientProvider) {
         this.apiPlatformService = apiPlatformService;
         this.generationRecordMapper = generationRecordMapper;
         this.userMapper = userMapper;
         this.userTransactionMapper = userTransactionMapper;
-        
-        // 配置RestTemplate的超时时间
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(10000); // 连接超时：10秒
-        factory.setReadTimeout(120000); // 读取超时：120秒
-        this.restTemplate = new RestTemplate(factory);
+        this.upstreamHttpClientProvider = upstreamHttpClientProvider;
     }
     
     /**
@@ -178,7 +178,7 @@ public class VoiceCloneService {
      * 查找声音克隆接口
      */
     private ApiInterface findVoiceCloneInterface(Long platformId) {
-        List<ApiInterface> interfaces = apiPlatformService.getInterfacesByPlatformId(platformId);
+        List<ApiInterface> interfaces = apiPlatformService.getRegisteredInterfaces(platformId);
         // 查找第一个接口
         return interfaces.isEmpty() ? null : interfaces.get(0);
     }
@@ -239,7 +239,9 @@ public class VoiceCloneService {
             log.info("调用API平台接口: {} {} (平台: {})", apiInterface.getMethod(), apiInterface.getUrl(), platform.getName());
             log.debug("请求参数: {}", requestBody);
             
-            ResponseEntity<String> response = restTemplate.exchange(
+            ResponseEntity<String> response = upstreamHttpClientProvider
+                    .getRestTemplate(apiInterface, VOICE_CLONE_TIMEOUT_SECONDS)
+                    .exchange(
                     apiInterface.getUrl(),
                     HttpMethod.valueOf(apiInterface.getMethod()),
                     entity,
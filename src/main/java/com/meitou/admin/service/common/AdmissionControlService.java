@@ -0,0 +1,427 @@
+package com.meitou.admin.service.common;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.meitou.admin.annotation.AdmissionControl;
+import com.meitou.admin.entity.AnalysisRecord;
+import com.meitou.admin.entity.GenerationRecord;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.mapper.AnalysisRecordMapper;
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import com.meitou.admin.util.RateLimiter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 准入控制服务
+ * 按策略对用户、站点两级做 GCRA 令牌桶限流（本地内存或数据库共享两种后端），
+ * 并按进行中的任务数（处理中的生成记录 / 未完成的分析记录）检查用户、站点两级并发配额。
+ * 任务数以数据库为准，天然在集群内共享；已准入但尚未落库的请求在本节点内计入，避免同一用户并发提交绕过配额。
+ * 站点任务数按站点短时缓存，不在每个请求上执行 COUNT；因后续条件被拒绝的请求退还已消耗的令牌。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdmissionControlService {
+
+    private static final String BACKEND_DATABASE = "database";
+
+    /**
+     * 是否启用准入控制
+     */
+    @Value("${admission.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 限流后端：local（单节点内存）或 database（集群共享）
+     */
+    @Value("${admission.backend:local}")
+    private String backend;
+
+    /**
+     * 未完成分析记录的统计窗口（分钟），超过该时间仍未结束的记录不再占用配额
+     */
+    @Value("${admission.analysisPendingMinutes:10}")
+    private int analysisPendingMinutes;
+
+    /**
+     * 站点进行中任务数的缓存时长（毫秒）
+     */
+    @Value("${admission.siteJobsCacheMillis:2000}")
+    private long siteJobsCacheMillis;
+
+    private final Environment environment;
+    private final RateLimiter rateLimiter;
+    private final DatabaseRateLimiter databaseRateLimiter;
+    private final GenerationRecordMapper generationRecordMapper;
+    private final AnalysisRecordMapper analysisRecordMapper;
+
+    /**
+     * 策略名 -> 策略配置
+     */
+    private final Map<String, Policy> policies = new ConcurrentHashMap<>();
+
+    /**
+     * 配额key -> 已准入但方法尚未返回的请求数
+     */
+    private final Map<String, AtomicInteger> pendingAdmissions = new ConcurrentHashMap<>();
+
+    /**
+     * 策略名 -> 指标
+     */
+    private final Map<String, PolicyStats> policyStats = new ConcurrentHashMap<>();
+
+    /**
+     * 任务类型:s:站点ID -> 进行中任务数（短时缓存）
+     */
+    private final Map<String, CachedCount> siteJobCounts = new ConcurrentHashMap<>();
+
+    private final LongAdder refundedPermits = new LongAdder();
+
+    /**
+     * 准入检查，超限时抛出业务异常
+     *
+     * @param policyName 策略名
+     * @param userId     用户ID，可为空
+     * @param siteId     站点ID，可为空
+     * @param permits    消耗的令牌数
+     * @param jobs       并发配额统计的任务类型
+     * @return 准入凭证，方法执行结束后需调用 {@link Admission#release()}
+     */
+    public Admission admit(String policyName, Long userId, Long siteId, int permits, AdmissionControl.Jobs jobs) {
+        if (!enabled) {
+            return Admission.NONE;
+        }
+        Policy policy = policies.computeIfAbsent(policyName, this::loadPolicy);
+        PolicyStats stats = policyStats.computeIfAbsent(policyName, k -> new PolicyStats());
+
+        String userBucket = userId != null ? policyName + ":u:" + userId : null;
+        String siteBucket = siteId != null ? policyName + ":s:" + siteId : null;
+        boolean userAcquired = false;
+        if (userBucket != null) {
+            long waitMillis = acquire(userBucket, policy.userPermitsPerMinute, policy.userBurst, permits, false);
+            if (waitMillis > 0) {
+                stats.userRateLimited.increment();
+                log.warn("用户请求频率超限：策略={}, 用户ID={}, 需等待{}ms", policyName, userId, waitMillis);
+                throw new BusinessException(ErrorCode.TOO_MANY_REQUESTS.getCode(),
+                        "操作过于频繁，请" + toSeconds(waitMillis) + "秒后再试");
+            }
+            userAcquired = policy.userPermitsPerMinute > 0;
+        }
+        if (siteBucket != null) {
+            long waitMillis = acquire(siteBucket, policy.sitePermitsPerMinute, policy.siteBurst, permits, true);
+            if (waitMillis > 0) {
+                stats.siteRateLimited.increment();
+                if (userAcquired) {
+                    refund(userBucket, policy.userPermitsPerMinute, permits, false);
+                }
+                log.warn("站点请求频率超限：策略={}, 站点ID={}, 需等待{}ms", policyName, siteId, waitMillis);
+                throw new BusinessException(ErrorCode.TOO_MANY_REQUESTS.getCode(), "当前使用人数较多，请稍后再试");
+            }
+        }
+
+        if (jobs == null || jobs == AdmissionControl.Jobs.NONE) {
+            stats.admitted.increment();
+            return Admission.NONE;
+        }
+
+        String userKey = userId != null ? jobs.name() + ":u:" + userId : null;
+        String siteKey = siteId != null ? jobs.name() + ":s:" + siteId : null;
+        AtomicInteger userPending = userKey != null ? pending(userKey) : null;
+        AtomicInteger sitePending = siteKey != null ? pending(siteKey) : null;
+        // 先占位再统计，两个并发请求至少有一个能看到对方
+        int userInFlight = userPending != null ? userPending.incrementAndGet() - 1 : 0;
+        int siteInFlight = sitePending != null ? sitePending.incrementAndGet() - 1 : 0;
+        Admission admission = new Admission(this, userKey, userPending, siteKey, sitePending);
+        try {
+            if (userId != null && policy.userMaxConcurrentJobs > 0
+                    && countUserJobs(jobs, userId) + userInFlight >= policy.userMaxConcurrentJobs) {
+                stats.userQuotaRejected.increment();
+                log.warn("用户进行中任务数超限：策略={}, 用户ID={}, 上限={}", policyName, userId, policy.userMaxConcurrentJobs);
+                throw new BusinessException(ErrorCode.CONCURRENT_JOBS_EXCEEDED.getCode(),
+                        "进行中的任务已达上限（" + policy.userMaxConcurrentJobs + "个），请等待当前任务完成后再试");
+            }
+            if (siteId != null && policy.siteMaxConcurrentJobs > 0
+                    && countSiteJobs(jobs, siteId) + siteInFlight >= policy.siteMaxConcurrentJobs) {
+                stats.siteQuotaRejected.increment();
+                log.warn("站点进行中任务数超限：策略={}, 站点ID={}, 上限={}", policyName, siteId, policy.siteMaxConcurrentJobs);
+                throw new BusinessException(ErrorCode.CONCURRENT_JOBS_EXCEEDED.getCode(), "当前生成任务较多，请稍后再试");
+            }
+        } catch (RuntimeException e) {
+            admission.release();
+            // 并发配额不足时本次请求未执行，退还令牌，不占用后续请求的频率额度
+            if (userAcquired) {
+                refund(userBucket, policy.userPermitsPerMinute, permits, false);
+            }
+            if (siteBucket != null) {
+                refund(siteBucket, policy.sitePermitsPerMinute, permits, true);
+            }
+            throw e;
+        }
+        stats.admitted.increment();
+        admission.admitted = true;
+        return admission;
+    }
+
+    /**
+     * 清理本地与数据库限流桶中已满的记录、过期的站点任务数缓存
+     */
+    @Scheduled(fixedDelayString = "${admission.database.evictIntervalMs:60000}")
+    public void evictIdleBuckets() {
+        rateLimiter.evictIdle();
+        long now = System.currentTimeMillis();
+        siteJobCounts.values().removeIf(cached -> cached.expiresAt < now);
+        if (enabled && BACKEND_DATABASE.equals(backend)) {
+            try {
+                databaseRateLimiter.evictIdle();
+            } catch (Exception e) {
+                log.warn("清理数据库限流桶失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 获取准入控制指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("backend", backend);
+        stats.put("localLimiter", rateLimiter.getStats());
+        stats.put("databaseLimiter", databaseRateLimiter.getStats());
+        stats.put("refundedPermits", refundedPermits.sum());
+        stats.put("cachedSiteJobCounts", siteJobCounts.size());
+        stats.put("pendingAdmissionKeys", pendingAdmissions.size());
+
+        Map<String, Object> byPolicy = new TreeMap<>();
+        policyStats.forEach((name, ps) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("admitted", ps.admitted.sum());
+            item.put("userRateLimited", ps.userRateLimited.sum());
+            item.put("siteRateLimited", ps.siteRateLimited.sum());
+            item.put("userQuotaRejected", ps.userQuotaRejected.sum());
+            item.put("siteQuotaRejected", ps.siteQuotaRejected.sum());
+            byPolicy.put(name, item);
+        });
+        stats.put("policies", byPolicy);
+        return stats;
+    }
+
+    /**
+     * 获取令牌
+     *
+     * @param shared 是否为所有请求共用的热点key（站点级），数据库后端按批预取
+     */
+    private long acquire(String key, double permitsPerMinute, int burst, int permits, boolean shared) {
+        if (permitsPerMinute <= 0) {
+            return 0L;
+        }
+        double permitsPerSecond = permitsPerMinute / 60.0;
+        if (BACKEND_DATABASE.equals(backend)) {
+            return shared
+                    ? databaseRateLimiter.acquireShared(key, permitsPerSecond, burst, permits)
+                    : databaseRateLimiter.acquire(key, permitsPerSecond, burst, permits);
+        }
+        return rateLimiter.acquire(key, permitsPerSecond, burst, permits);
+    }
+
+    private void refund(String key, double permitsPerMinute, int permits, boolean shared) {
+        if (permitsPerMinute <= 0) {
+            return;
+        }
+        refundedPermits.add(Math.max(1, permits));
+        double permitsPerSecond = permitsPerMinute / 60.0;
+        try {
+            if (!BACKEND_DATABASE.equals(backend)) {
+                rateLimiter.refund(key, permitsPerSecond, permits);
+            } else if (shared) {
+                databaseRateLimiter.refundShared(key, permitsPerSecond, permits);
+            } else {
+                databaseRateLimiter.refund(key, permitsPerSecond, permits);
+            }
+        } catch (Exception e) {
+            log.warn("退还令牌失败 key={}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * 统计用户进行中的任务数（站点条件由多租户插件追加）
+     */
+    private long countUserJobs(AdmissionControl.Jobs jobs, Long userId) {
+        if (jobs == AdmissionControl.Jobs.GENERATION) {
+            return generationRecordMapper.selectCount(new LambdaQueryWrapper<GenerationRecord>()
+                    .eq(GenerationRecord::getUserId, userId)
+                    .eq(GenerationRecord::getStatus, "processing"));
+        }
+        return analysisRecordMapper.selectCount(new LambdaQueryWrapper<AnalysisRecord>()
+                .eq(AnalysisRecord::getUserId, userId)
+                .eq(AnalysisRecord::getStatus, 0)
+                .ge(AnalysisRecord::getCreatedAt, LocalDateTime.now().minusMinutes(analysisPendingMinutes)));
+    }
+
+    /**
+     * 统计当前站点进行中的任务数（短时缓存；本节点已准入未落库的请求由调用方另行计入）
+     */
+    private long countSiteJobs(AdmissionControl.Jobs jobs, Long siteId) {
+        String key = jobs.name() + ":s:" + siteId;
+        long now = System.currentTimeMillis();
+        CachedCount cached = siteJobCounts.get(key);
+        if (cached != null && cached.expiresAt > now) {
+            return cached.count.get();
+        }
+        long count = querySiteJobs(jobs);
+        siteJobCounts.put(key, new CachedCount(count, now + siteJobsCacheMillis));
+        return count;
+    }
+
+    /**
+     * 已准入的请求执行完毕（任务已落库）：缓存期内计入站点任务数，直到下次重新统计
+     */
+    private void countAdmittedSiteJob(String siteKey) {
+        CachedCount cached = siteJobCounts.get(siteKey);
+        if (cached != null) {
+            cached.count.incrementAndGet();
+        }
+    }
+
+    /**
+     * 查询当前站点进行中的任务数（站点条件由多租户插件追加）
+     */
+    private long querySiteJobs(AdmissionControl.Jobs jobs) {
+        if (jobs == AdmissionControl.Jobs.GENERATION) {
+            return generationRecordMapper.selectCount(new LambdaQueryWrapper<GenerationRecord>()
+                    .eq(GenerationRecord::getStatus, "processing"));
+        }
+        return analysisRecordMapper.selectCount(new LambdaQueryWrapper<AnalysisRecord>()
+                .eq(AnalysisRecord::getStatus, 0)
+                .ge(AnalysisRecord::getCreatedAt, LocalDateTime.now().minusMinutes(analysisPendingMinutes)));
+    }
+
+    private AtomicInteger pending(String key) {
+        AtomicInteger count = pendingAdmissions.get(key);
+        return count != null ? count : pendingAdmissions.computeIfAbsent(key, k -> new AtomicInteger());
+    }
+
+    private void releasePending(String key, AtomicInteger count) {
+        if (count.decrementAndGet() <= 0) {
+            pendingAdmissions.remove(key, count);
+        }
+    }
+
+    private Policy loadPolicy(String name) {
+        Policy policy = new Policy();
+        policy.userPermitsPerMinute = property(name, "user.permitsPerMinute", Double.class, 20.0);
+        policy.userBurst = property(name, "user.burst", Integer.class, 5);
+        policy.userMaxConcurrentJobs = property(name, "user.maxConcurrentJobs", Integer.class, 5);
+        policy.sitePermitsPerMinute = property(name, "site.permitsPerMinute", Double.class, 1200.0);
+        policy.siteBurst = property(name, "site.burst", Integer.class, 200);
+        policy.siteMaxConcurrentJobs = property(name, "site.maxConcurrentJobs", Integer.class, 500);
+        log.info("准入策略已加载: {}, 用户 {}/分钟(突发{}, 并发{}), 站点 {}/分钟(突发{}, 并发{})", name,
+                policy.userPermitsPerMinute, policy.userBurst, policy.userMaxConcurrentJobs,
+                policy.sitePermitsPerMinute, policy.siteBurst, policy.siteMaxConcurrentJobs);
+        return policy;
+    }
+
+    /**
+     * 读取策略配置：admission.{策略}.{key}，未配置时取 admission.default.{key}
+     */
+    private <T> T property(String policyName, String key, Class<T> type, T defaultValue) {
+        T fallback = environment.getProperty("admission.default." + key, type, defaultValue);
+        return environment.getProperty("admission." + policyName + "." + key, type, fallback);
+    }
+
+    private static long toSeconds(long millis) {
+        return Math.max(1L, (millis + 999) / 1000);
+    }
+
+    /**
+     * 准入策略
+     */
+    private static class Policy {
+        private double userPermitsPerMinute;
+        private int userBurst;
+        private int userMaxConcurrentJobs;
+        private double sitePermitsPerMinute;
+        private int siteBurst;
+        private int siteMaxConcurrentJobs;
+    }
+
+    /**
+     * 缓存的任务数
+     */
+    private static final class CachedCount {
+        private final AtomicLong count;
+        private final long expiresAt;
+
+        private CachedCount(long count, long expiresAt) {
+            this.count = new AtomicLong(count);
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class PolicyStats {
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder userRateLimited = new LongAdder();
+        private final LongAdder siteRateLimited = new LongAdder();
+        private final LongAdder userQuotaRejected = new LongAdder();
+        private final LongAdder siteQuotaRejected = new LongAdder();
+    }
+
+    /**
+     * 准入凭证
+     * 持有期间计入本节点的进行中任务数，方法返回后（任务已落库）释放，并计入缓存的站点任务数
+     */
+    public static final class Admission {
+
+        static final Admission NONE = new Admission(null, null, null, null, null);
+
+        private final AdmissionControlService owner;
+        private final String userKey;
+        private final AtomicInteger userPending;
+        private final String siteKey;
+        private final AtomicInteger sitePending;
+        private boolean admitted;
+        private boolean released;
+
+        private Admission(AdmissionControlService owner, String userKey, AtomicInteger userPending,
+                          String siteKey, AtomicInteger sitePending) {
+            this.owner = owner;
+            this.userKey = userKey;
+            this.userPending = userPending;
+            this.siteKey = siteKey;
+            this.sitePending = sitePending;
+        }
+
+        /**
+         * 释放凭证（重复调用无副作用）
+         */
+        public synchronized void release() {
+            if (released || owner == null) {
+                return;
+            }
+            released = true;
+            if (userPending != null) {
+                owner.releasePending(userKey, userPending);
+            }
+            if (sitePending != null) {
+                owner.releasePending(siteKey, sitePending);
+                if (admitted) {
+                    owner.countAdmittedSiteJob(siteKey);
+                }
+            }
+        }
+    }
+}
@@ -3,25 +3,42 @@ package com.meitou.admin.service.common;
 import com.aliyun.oss.OSS;
 import com.aliyun.oss.OSSClientBuilder;
 import com.aliyun.oss.HttpMethod;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
 import com.aliyun.oss.model.GeneratePresignedUrlRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
 import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
 import com.aliyun.oss.model.PutObjectRequest;
+import com.aliyun.oss.model.UploadPartRequest;
 import com.meitou.admin.config.FileStorageConfig;
+import com.meitou.admin.storage.SignedUrlCache;
+import com.meitou.admin.util.Deadline;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 阿里云OSS服务
@@ -31,8 +48,72 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class AliyunOssService {
 
+    /**
+     * 下载上游生成文件的读取超时（秒）
+     */
+    private static final int DOWNLOAD_TIMEOUT_SECONDS = 300;
+
+    /**
+     * OSS 分片最小大小（字节，最后一片除外）
+     */
+    private static final int MIN_PART_SIZE_BYTES = 100 * 1024;
+
     private final FileStorageConfig fileStorageConfig;
-    private final RestTemplate restTemplate;
+    private final UpstreamHttpClientProvider upstreamHttpClientProvider;
+
+    /**
+     * 超过该大小（或长度未知）时使用分片上传（字节）
+     */
+    @Value("${file.storage.upload.multipart-threshold-bytes:16777216}")
+    private long multipartThresholdBytes;
+
+    /**
+     * 分片大小（字节），OSS 要求除最后一片外不小于100KB
+     */
+    @Value("${file.storage.upload.part-size-bytes:5242880}")
+    private int multipartPartSizeBytes;
+
+    /**
+     * 签名URL有效期（秒）
+     */
+    @Value("${file.storage.signed-url.expire-seconds:3600}")
+    private int signedUrlExpireSeconds;
+
+    /**
+     * 签名URL剩余有效期不足该值（秒）时重新签名
+     */
+    @Value("${file.storage.signed-url.refresh-before-seconds:600}")
+    private int signedUrlRefreshBeforeSeconds;
+
+    /**
+     * 签名URL缓存最大条数
+     */
+    @Value("${file.storage.signed-url.cache-size:10000}")
+    private int signedUrlCacheSize;
+
+    /**
+     * 共享的OSS客户端（上传和签名共用，应用关闭时释放）
+     */
+    private volatile OSS ossClient;
+
+    /**
+     * 创建共享客户端时的配置（endpoint|accessKeyId|accessKeySecret）
+     */
+    private volatile String ossClientKey;
+
+    /**
+     * 签名URL缓存
+     */
+    private SignedUrlCache signedUrlCache = new SignedUrlCache();
+
+    @PostConstruct
+    public void init() {
+        signedUrlCache = new SignedUrlCache(signedUrlCacheSize, signedUrlExpireSeconds, signedUrlRefreshBeforeSeconds);
+        if (multipartPartSizeBytes < MIN_PART_SIZE_BYTES) {
+            log.warn("分片大小 {} 小于OSS最小限制，使用 {}", multipartPartSizeBytes, MIN_PART_SIZE_BYTES);
+            multipartPartSizeBytes = MIN_PART_SIZE_BYTES;
+        }
+    }
 
     /**
      * 上传Base64图片
@@ -86,44 +167,146 @@ public class AliyunOssService {
      * @return OSS访问URL
      */
     public String uploadFromUrl(String url, String directory) {
-        try {
-            // 下载文件
-            byte[] fileBytes = restTemplate.getForObject(url, byte[].class);
-            if (fileBytes == null || fileBytes.length == 0) {
-                throw new RuntimeException("下载文件失败: " + url);
-            }
+        return uploadFromUrl(url, directory, Deadline.none());
+    }
 
-            // 获取文件扩展名
-            String extension = getExtensionFromUrl(url);
-            if (extension == null || extension.isEmpty()) {
-                extension = "png"; // 默认扩展名
-            }
+    /**
+     * 上传网络图片/视频到OSS，下载整体耗时不超过截止时间
+     *
+     * @param url 网络文件URL
+     * @param directory 目录前缀 (e.g., "images/", "videos/")
+     * @param deadline 截止时间
+     * @return OSS访问URL
+     */
+    public String uploadFromUrl(String url, String directory, Deadline deadline) {
+        deadline.check("转存文件");
 
-            // 生成文件名
-            String fileName = directory + generateFileName(extension);
+        // 获取文件扩展名
+        String extension = getExtensionFromUrl(url);
+        if (extension == null || extension.isEmpty()) {
+            extension = "png"; // 默认扩展名
+        }
 
-            // 上传到OSS
-            return uploadBytes(fileBytes, fileName);
+        // 生成文件名
+        String fileName = directory + generateFileName(extension);
 
+        Request request = new Request.Builder().url(url).get().build();
+        Call call = upstreamHttpClientProvider.getClient(deadline.timeoutSeconds(DOWNLOAD_TIMEOUT_SECONDS)).newCall(request);
+        if (deadline.isBounded()) {
+            // 整个下载（含读取响应体，边下边传）受剩余时间约束
+            call.timeout().timeout(Math.max(1L, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+        }
+        try (Response response = call.execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new RuntimeException("下载文件失败: " + url + "，HTTP状态码: " + response.code());
+            }
+
+            FileStorageConfig.AliyunConfig config = fileStorageConfig.getAliyun();
+            long contentLength = body.contentLength();
+            String contentType = body.contentType() != null ? body.contentType().toString() : null;
+            try (InputStream inputStream = body.byteStream()) {
+                // 边下载边上传：长度已知且不大时直接流式 PUT，否则按固定大小分片上传
+                if (contentLength > 0 && contentLength <= multipartThresholdBytes) {
+                    putStream(config, fileName, inputStream, contentLength, contentType);
+                } else {
+                    multipartUpload(config, fileName, inputStream, contentType);
+                }
+            }
+            return buildObjectUrl(config, fileName);
         } catch (Exception e) {
             log.error("上传文件失败: {}", e.getMessage(), e);
             throw new RuntimeException("上传文件失败: " + e.getMessage());
         }
     }
 
+    /**
+     * 流式上传（内容长度已知）
+     */
+    private void putStream(FileStorageConfig.AliyunConfig config, String fileName, InputStream inputStream,
+                           long contentLength, String contentType) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(contentLength);
+        if (contentType != null) {
+            metadata.setContentType(contentType);
+        }
+        PutObjectRequest putObjectRequest = new PutObjectRequest(config.getBucketName(), fileName, inputStream, metadata);
+        getOssClient(config).putObject(putObjectRequest);
+    }
+
+    /**
+     * 分片上传（内容长度未知或超过阈值）
+     * 每次只在固定大小的缓冲区中保留一个分片，内存占用与文件大小无关；失败时中止分片上传，避免残留碎片
+     */
+    private void multipartUpload(FileStorageConfig.AliyunConfig config, String fileName, InputStream inputStream,
+                                 String contentType) throws IOException {
+        OSS client = getOssClient(config);
+        String bucketName = config.getBucketName();
+
+        InitiateMultipartUploadRequest initRequest = new InitiateMultipartUploadRequest(bucketName, fileName);
+        if (contentType != null) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentType(contentType);
+            initRequest.setObjectMetadata(metadata);
+        }
+        String uploadId = client.initiateMultipartUpload(initRequest).getUploadId();
+
+        try {
+            List<PartETag> partETags = new ArrayList<>();
+            byte[] buffer = new byte[multipartPartSizeBytes];
+            int partNumber = 1;
+            int filled;
+            while ((filled = readFully(inputStream, buffer)) > 0) {
+                UploadPartRequest partRequest = new UploadPartRequest();
+                partRequest.setBucketName(bucketName);
+                partRequest.setKey(fileName);
+                partRequest.setUploadId(uploadId);
+                partRequest.setPartNumber(partNumber++);
+                partRequest.setInputStream(new ByteArrayInputStream(buffer, 0, filled));
+                partRequest.setPartSize(filled);
+                partETags.add(client.uploadPart(partRequest).getPartETag());
+                if (filled < buffer.length) {
+                    break;
+                }
+            }
+            if (partETags.isEmpty()) {
+                throw new IOException("下载文件内容为空");
+            }
+            client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, fileName, uploadId, partETags));
+        } catch (Exception e) {
+            try {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, fileName, uploadId));
+            } catch (Exception abortException) {
+                log.warn("中止分片上传失败: {}", abortException.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 读满缓冲区（流结束时可能不满）
+     *
+     * @return 实际读取的字节数，流已结束返回0
+     */
+    private int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = inputStream.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
     /**
      * 上传字节数组到OSS
      */
     public String uploadBytes(byte[] bytes, String fileName) {
-        OSS ossClient = null;
         try {
             FileStorageConfig.AliyunConfig config = fileStorageConfig.getAliyun();
-            
-            // 创建OSSClient实例
-            ossClient = new OSSClientBuilder().build(
-                    config.getEndpoint(),
-                    config.getAccessKeyId(),
-                    config.getAccessKeySecret());
+            OSS client = getOssClient(config);
 
             // 创建上传请求
             InputStream inputStream = new ByteArrayInputStream(bytes);
@@ -135,45 +318,47 @@ public class AliyunOssService {
             putObjectRequest.setMetadata(metadata);
 
             // 上传
-            ossClient.putObject(putObjectRequest);
-
-            // 构建返回URL
-            String domain = config.getDomain();
-            if (domain == null || domain.isEmpty()) {
-                String cleanEndpoint = config.getEndpoint();
-                if (cleanEndpoint != null) {
-                    if (cleanEndpoint.startsWith("http://")) {
-                        cleanEndpoint = cleanEndpoint.substring(7);
-                    } else if (cleanEndpoint.startsWith("https://")) {
-                        cleanEndpoint = cleanEndpoint.substring(8);
-                    }
-                    if (cleanEndpoint.endsWith("/")) {
-                        cleanEndpoint = cleanEndpoint.substring(0, cleanEndpoint.length() - 1);
-                    }
-                }
-                domain = "https://" + config.getBucketName() + "." + cleanEndpoint;
-            }
-            
-            // 确保域名以http/https开头
-            if (!domain.startsWith("http")) {
-                domain = "https://" + domain;
-            }
-            
-            // 确保域名末尾有斜杠
-            if (!domain.endsWith("/")) {
-                domain = domain + "/";
-            }
+            client.putObject(putObjectRequest);
 
-            return domain + fileName;
+            return buildObjectUrl(config, fileName);
 
         } catch (Exception e) {
             log.error("OSS上传失败: {}", e.getMessage(), e);
             throw new RuntimeException("OSS上传失败: " + e.getMessage());
-        } finally {
-            if (ossClient != null) {
-                ossClient.shutdown();
+        }
+    }
+
+    /**
+     * 构建对象访问URL（优先使用自定义域名）
+     */
+    private String buildObjectUrl(FileStorageConfig.AliyunConfig config, String fileName) {
+        String domain = config.getDomain();
+        if (domain == null || domain.isEmpty()) {
+            String cleanEndpoint = config.getEndpoint();
+            if (cleanEndpoint != null) {
+                if (cleanEndpoint.startsWith("http://")) {
+                    cleanEndpoint = cleanEndpoint.substring(7);
+                } else if (cleanEndpoint.startsWith("https://")) {
+                    cleanEndpoint = cleanEndpoint.substring(8);
+                }
+                if (cleanEndpoint.endsWith("/")) {
+                    cleanEndpoint = cleanEndpoint.substring(0, cleanEndpoint.length() - 1);
+                }
             }
+            domain = "https://" + config.getBucketName() + "." + cleanEndpoint;
+        }
+        
+        // 确保域名以http/https开头
+        if (!domain.startsWith("http")) {
+            domain = "https://" + domain;
         }
+        
+        // 确保域名末尾有斜杠
+        if (!domain.endsWith("/")) {
+            domain = domain + "/";
+        }
+
+        return domain + fileName;
     }
 
     /**
@@ -280,38 +465,81 @@ public class AliyunOssService {
             objectKey = keyOrUrl;
         }
 
-        OSS ossClient = null;
-        try {
-            String endpointWithProtocol = config.getEndpoint();
-            if (endpointWithProtocol == null) {
-                return keyOrUrl;
+        if (config.getEndpoint() == null) {
+            return keyOrUrl;
+        }
+
+        Map<String, String> extraQueryParameters = new LinkedHashMap<>();
+        parseQueryParameters(rawQuery).forEach((key, value) -> {
+            if (!isSignatureRelatedParameter(key)) {
+                extraQueryParameters.put(key, value);
             }
-            if (!endpointWithProtocol.startsWith("http://") && !endpointWithProtocol.startsWith("https://")) {
-                endpointWithProtocol = "https://" + endpointWithProtocol;
+        });
+
+        String signingBucket = bucketNameForSigning;
+        String signingKey = objectKey;
+        String cacheKey = SignedUrlCache.buildKey(signingBucket, signingKey, extraQueryParameters);
+        String signedUrl = signedUrlCache.get(cacheKey, expiresAtMillis -> {
+            try {
+                GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(signingBucket, signingKey, HttpMethod.GET);
+                request.setExpiration(new Date(expiresAtMillis));
+                extraQueryParameters.forEach(request::addQueryParameter);
+
+                URL url = getOssClient(config).generatePresignedUrl(request);
+                return url.toString();
+            } catch (Exception e) {
+                log.error("生成OSS签名URL失败: {}", keyOrUrl, e);
+                return null;
             }
+        });
+        return signedUrl != null ? signedUrl : keyOrUrl;
+    }
 
-            ossClient = new OSSClientBuilder().build(endpointWithProtocol, config.getAccessKeyId(), config.getAccessKeySecret());
-
-            Date expiration = new Date(System.currentTimeMillis() + 3600 * 1000);
-            GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(bucketNameForSigning, objectKey, HttpMethod.GET);
-            request.setExpiration(expiration);
+    /**
+     * 获取签名URL缓存指标
+     */
+    public Map<String, Object> getSignedUrlCacheStats() {
+        return signedUrlCache.getStats();
+    }
 
-            Map<String, String> extraQueryParameters = parseQueryParameters(rawQuery);
-            for (Map.Entry<String, String> entry : extraQueryParameters.entrySet()) {
-                if (!isSignatureRelatedParameter(entry.getKey())) {
-                    request.addQueryParameter(entry.getKey(), entry.getValue());
-                }
+    /**
+     * 获取共享的OSS客户端（首次使用时创建，配置变化时重建）
+     */
+    private OSS getOssClient(FileStorageConfig.AliyunConfig config) {
+        String endpointWithProtocol = config.getEndpoint();
+        if (endpointWithProtocol != null && !endpointWithProtocol.startsWith("http://") && !endpointWithProtocol.startsWith("https://")) {
+            endpointWithProtocol = "https://" + endpointWithProtocol;
+        }
+        String clientKey = endpointWithProtocol + "|" + config.getAccessKeyId() + "|" + config.getAccessKeySecret();
+        OSS client = ossClient;
+        if (client != null && clientKey.equals(ossClientKey)) {
+            return client;
+        }
+        synchronized (this) {
+            if (ossClient != null && clientKey.equals(ossClientKey)) {
+                return ossClient;
             }
-
-            URL url = ossClient.generatePresignedUrl(request);
-            return url.toString();
-        } catch (Exception e) {
-            log.error("生成OSS签名URL失败: {}", keyOrUrl, e);
-            return keyOrUrl;
-        } finally {
-            if (ossClient != null) {
-                ossClient.shutdown();
+            OSS previous = ossClient;
+            OSS created = new OSSClientBuilder().build(endpointWithProtocol, config.getAccessKeyId(), config.getAccessKeySecret());
+            ossClient = created;
+            ossClientKey = clientKey;
+            if (previous != null) {
+                // 配置变化后旧客户端不再使用
+                previous.shutdown();
+                signedUrlCache.clear();
             }
+            log.info("阿里云OSS共享客户端已创建，Endpoint：{}", endpointWithProtocol);
+            return created;
+        }
+    }
+
+    /**
+     * 关闭共享的OSS客户端
+     */
+    @PreDestroy
+    public void destroy() {
+        if (ossClient != null) {
+            ossClient.shutdown();
         }
     }
 
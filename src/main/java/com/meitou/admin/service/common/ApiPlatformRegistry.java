@@ -0,0 +1,215 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.entity.ApiInterface;
+import com.meitou.admin.entity.ApiPlatform;
+import com.meitou.admin.mapper.ApiInterfaceMapper;
+import com.meitou.admin.mapper.ApiPlatformMapper;
+import com.meitou.admin.util.AesEncryptUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * API平台注册表（内存快照）
+ * 启动时加载全部站点的平台与接口，apiKey 只在加载时解密一次；运行时按站点/平台ID直接从内存读取，不再查库。
+ * 管理端增删改平台提交后立即重建快照；其他节点通过定时比对数据库版本签名（数量、最大ID、最大更新时间）发现变化并重建，
+ * 从而在检查周期内收敛到同一版本。
+ * 注意：返回的平台/接口对象为共享只读实例，调用方不得修改。
+ */
+@Slf4j
+@Service
+public class ApiPlatformRegistry implements CommandLineRunner {
+
+    private final ApiPlatformMapper platformMapper;
+    private final ApiInterfaceMapper interfaceMapper;
+    private final PlatformRequestPlanCache platformRequestPlanCache;
+
+    /**
+     * 当前快照（整体替换，读取无锁）
+     */
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * 本地快照版本号（每次重建 +1）
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    public ApiPlatformRegistry(ApiPlatformMapper platformMapper, ApiInterfaceMapper interfaceMapper,
+            PlatformRequestPlanCache platformRequestPlanCache) {
+        this.platformMapper = platformMapper;
+        this.interfaceMapper = interfaceMapper;
+        this.platformRequestPlanCache = platformRequestPlanCache;
+    }
+
+    @Override
+    public void run(String... args) {
+        refresh();
+    }
+
+    /**
+     * 刷新注册表
+     */
+    public synchronized void refresh() {
+        log.info("开始刷新API平台注册表...");
+        try {
+            // 先取签名再取数据：加载期间发生的变更会使签名不一致，下次检查时再次刷新
+            String signature = loadSignature();
+            List<ApiPlatform> platforms = platformMapper.selectAllIgnoreTenant();
+            List<ApiInterface> interfaces = interfaceMapper.selectAllIgnoreTenant();
+
+            Map<Long, ApiPlatform> platformsById = new HashMap<>();
+            Map<Long, List<ApiPlatform>> platformsBySite = new HashMap<>();
+            if (platforms != null) {
+                // 查询已按 created_at 倒序排列
+                for (ApiPlatform platform : platforms) {
+                    if (platform.getApiKey() != null && !platform.getApiKey().isEmpty()) {
+                        // 如果解密失败（返回null），说明可能是旧密钥加密的数据，设置为null
+                        platform.setApiKey(AesEncryptUtil.decrypt(platform.getApiKey()));
+                    }
+                    platformsById.put(platform.getId(), platform);
+                    platformsBySite.computeIfAbsent(platform.getSiteId(), k -> new ArrayList<>()).add(platform);
+                }
+            }
+
+            Map<Long, List<ApiInterface>> interfacesByPlatform = new HashMap<>();
+            if (interfaces != null) {
+                for (ApiInterface apiInterface : interfaces) {
+                    interfacesByPlatform.computeIfAbsent(apiInterface.getPlatformId(), k -> new ArrayList<>())
+                            .add(apiInterface);
+                }
+            }
+
+            platformsBySite.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            interfacesByPlatform.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            this.snapshot = new Snapshot(version.incrementAndGet(), signature, platformsById, platformsBySite,
+                    interfacesByPlatform);
+            // 平台配置可能已变化，请求计划随注册表一起重建
+            platformRequestPlanCache.invalidateAll();
+            log.info("API平台注册表刷新完成，版本 {}，共加载 {} 个平台、{} 个接口",
+                    snapshot.version, platformsById.size(), interfaces != null ? interfaces.size() : 0);
+        } catch (Exception e) {
+            log.error("刷新API平台注册表失败", e);
+        }
+    }
+
+    /**
+     * 在当前事务提交后刷新注册表（无事务时立即刷新）
+     * 供管理端增删改平台后调用，保证快照读到已提交的数据
+     */
+    public void refreshAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    refresh();
+                }
+            });
+        } else {
+            refresh();
+        }
+    }
+
+    /**
+     * 定时比对数据库版本签名，其他节点修改了平台配置时刷新本地快照
+     */
+    @Scheduled(initialDelayString = "${api.platform.registry.checkIntervalMs:30000}",
+            fixedDelayString = "${api.platform.registry.checkIntervalMs:30000}")
+    public void checkForChanges() {
+        try {
+            String signature = loadSignature();
+            if (!Objects.equals(signature, snapshot.signature)) {
+                log.info("检测到API平台配置变化，刷新注册表");
+                refresh();
+            }
+        } catch (Exception e) {
+            log.warn("检查API平台配置版本失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 获取站点下的全部平台（已解密apiKey，按创建时间倒序）
+     *
+     * @param siteId 站点ID
+     * @return 平台列表（只读）
+     */
+    public List<ApiPlatform> getPlatformsBySite(Long siteId) {
+        List<ApiPlatform> platforms = snapshot.platformsBySite.get(siteId);
+        return platforms != null ? platforms : Collections.emptyList();
+    }
+
+    /**
+     * 根据ID获取平台（已解密apiKey）
+     *
+     * @param platformId 平台ID
+     * @return 平台，不存在返回null
+     */
+    public ApiPlatform getPlatform(Long platformId) {
+        return platformId != null ? snapshot.platformsById.get(platformId) : null;
+    }
+
+    /**
+     * 获取平台的接口列表
+     *
+     * @param platformId 平台ID
+     * @return 接口列表（只读）
+     */
+    public List<ApiInterface> getInterfaces(Long platformId) {
+        List<ApiInterface> interfaces = platformId != null ? snapshot.interfacesByPlatform.get(platformId) : null;
+        return interfaces != null ? interfaces : Collections.emptyList();
+    }
+
+    /**
+     * 获取注册表状态
+     */
+    public Map<String, Object> getStats() {
+        Snapshot current = snapshot;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("version", current.version);
+        stats.put("signature", current.signature);
+        stats.put("platformCount", current.platformsById.size());
+        stats.put("siteCount", current.platformsBySite.size());
+        stats.put("interfaceCount", current.interfacesByPlatform.values().stream().mapToInt(List::size).sum());
+        return stats;
+    }
+
+    private String loadSignature() {
+        return platformMapper.selectVersionSignatureIgnoreTenant() + "|"
+                + interfaceMapper.selectVersionSignatureIgnoreTenant();
+    }
+
+    /**
+     * 注册表快照（不可变）
+     */
+    private static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(0L, null, Collections.emptyMap(),
+                Collections.emptyMap(), Collections.emptyMap());
+
+        private final long version;
+        private final String signature;
+        private final Map<Long, ApiPlatform> platformsById;
+        private final Map<Long, List<ApiPlatform>> platformsBySite;
+        private final Map<Long, List<ApiInterface>> interfacesByPlatform;
+
+        private Snapshot(long version, String signature, Map<Long, ApiPlatform> platformsById,
+                Map<Long, List<ApiPlatform>> platformsBySite, Map<Long, List<ApiInterface>> interfacesByPlatform) {
+            this.version = version;
+            this.signature = signature;
+            this.platformsById = platformsById;
+            this.platformsBySite = platformsBySite;
+            this.interfacesByPlatform = interfacesByPlatform;
+        }
+    }
+}
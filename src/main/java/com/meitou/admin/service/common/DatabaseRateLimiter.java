@@ -0,0 +1,210 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.mapper.RateLimitBucketMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于数据库的频率限制器（GCRA 令牌桶，集群共享）
+ * 每个key一行，保存理论到达时间（毫秒时间戳），用一条条件 UPDATE 完成判断和消耗，行锁只持有一条语句；
+ * 多实例部署时各节点共享同一限额。依赖各节点时钟基本同步。
+ * 站点级等所有请求共用的热点key通过 {@link #acquireShared} 每次从数据库预取一批令牌在本节点内分发，
+ * 热点行的写入频率降为原来的 1/预取数；预取的令牌在租期内未用完时退还。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DatabaseRateLimiter {
+
+    private static final int EVICT_BATCH_SIZE = 1000;
+
+    /**
+     * 并发更新同一个桶导致条件更新未命中时的最多重试次数
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * 热点key每次预取的令牌数（不超过桶容量）
+     */
+    @Value("${admission.database.prefetchPermits:10}")
+    private int prefetchPermits;
+
+    /**
+     * 预取令牌的租期（毫秒），超过后未用完的令牌退还
+     */
+    @Value("${admission.database.leaseMillis:1000}")
+    private long leaseMillis;
+
+    private final RateLimitBucketMapper rateLimitBucketMapper;
+
+    /**
+     * 热点key -> 本节点持有的预取令牌
+     */
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    private final LongAdder databaseAcquires = new LongAdder();
+    private final LongAdder leasedAcquires = new LongAdder();
+    private final LongAdder refunds = new LongAdder();
+
+    /**
+     * 按 GCRA 算法尝试获取令牌
+     *
+     * @param key              限流key
+     * @param permitsPerSecond 令牌生成速率（个/秒）
+     * @param burst            桶容量（允许的突发数）
+     * @param permits          本次消耗的令牌数
+     * @return 0 表示允许；否则为需要等待的毫秒数
+     */
+    public long acquire(String key, double permitsPerSecond, int burst, int permits) {
+        databaseAcquires.increment();
+        long interval = interval(permitsPerSecond);
+        long cost = interval * Math.max(1, permits);
+        long tolerance = Math.max(interval * Math.max(1, burst), cost);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long now = System.currentTimeMillis();
+            if (rateLimitBucketMapper.tryConsume(key, now, cost, tolerance) > 0) {
+                return 0L;
+            }
+            Long current = rateLimitBucketMapper.selectTat(key);
+            if (current == null) {
+                // 桶不存在即桶满，创建时直接消耗本次令牌；并发创建失败时重新尝试更新
+                if (rateLimitBucketMapper.insertIgnore(key, now + cost) > 0) {
+                    return 0L;
+                }
+                continue;
+            }
+            long allowAt = Math.max(current, now) + cost - tolerance;
+            if (allowAt > now) {
+                return Math.max(1L, allowAt - now);
+            }
+            // 读取前其他请求已更新了桶，按新状态重试
+        }
+        return 1L;
+    }
+
+    /**
+     * 获取热点key的令牌：优先使用本节点预取的令牌，用完后再从数据库预取一批
+     *
+     * @param key              限流key
+     * @param permitsPerSecond 令牌生成速率（个/秒）
+     * @param burst            桶容量（允许的突发数）
+     * @param permits          本次消耗的令牌数
+     * @return 0 表示允许；否则为需要等待的毫秒数
+     */
+    public long acquireShared(String key, double permitsPerSecond, int burst, int permits) {
+        int need = Math.max(1, permits);
+        int batch = Math.min(Math.max(1, prefetchPermits), Math.max(1, burst));
+        if (batch <= need) {
+            return acquire(key, permitsPerSecond, burst, need);
+        }
+        Lease lease = leases.computeIfAbsent(key, k -> new Lease());
+        synchronized (lease) {
+            long now = System.currentTimeMillis();
+            if (lease.expiresAt > now && lease.remaining >= need) {
+                lease.remaining -= need;
+                leasedAcquires.increment();
+                return 0L;
+            }
+            returnUnused(key, permitsPerSecond, lease);
+            if (acquire(key, permitsPerSecond, burst, batch) == 0L) {
+                lease.remaining = batch - need;
+                lease.expiresAt = now + leaseMillis;
+                return 0L;
+            }
+            // 不足一批时只取本次所需
+            return acquire(key, permitsPerSecond, burst, need);
+        }
+    }
+
+    /**
+     * 退还令牌（已获取令牌但准入被其他条件拒绝时调用）
+     *
+     * @param key              限流key
+     * @param permitsPerSecond 令牌生成速率（个/秒）
+     * @param permits          退还的令牌数
+     */
+    public void refund(String key, double permitsPerSecond, int permits) {
+        refunds.increment();
+        rateLimitBucketMapper.refund(key, interval(permitsPerSecond) * Math.max(1, permits));
+    }
+
+    /**
+     * 退还通过 {@link #acquireShared} 获取的令牌：租期内放回本节点，否则退还到数据库
+     *
+     * @param key              限流key
+     * @param permitsPerSecond 令牌生成速率（个/秒）
+     * @param permits          退还的令牌数
+     */
+    public void refundShared(String key, double permitsPerSecond, int permits) {
+        Lease lease = leases.get(key);
+        if (lease != null) {
+            synchronized (lease) {
+                if (lease.expiresAt > System.currentTimeMillis()) {
+                    lease.remaining += Math.max(1, permits);
+                    refunds.increment();
+                    return;
+                }
+            }
+        }
+        refund(key, permitsPerSecond, permits);
+    }
+
+    /**
+     * 清理桶已满的记录
+     *
+     * @return 删除行数
+     */
+    public int evictIdle() {
+        int deleted = rateLimitBucketMapper.deleteIdle(System.currentTimeMillis(), EVICT_BATCH_SIZE);
+        if (deleted > 0) {
+            log.debug("数据库限流桶清理完成：清除 {} 条", deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * 获取数据库限流指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("prefetchPermits", prefetchPermits);
+        stats.put("databaseAcquires", databaseAcquires.sum());
+        stats.put("leasedAcquires", leasedAcquires.sum());
+        stats.put("refunds", refunds.sum());
+        stats.put("leasedKeys", leases.size());
+        return stats;
+    }
+
+    private void returnUnused(String key, double permitsPerSecond, Lease lease) {
+        if (lease.remaining <= 0) {
+            return;
+        }
+        int unused = lease.remaining;
+        lease.remaining = 0;
+        try {
+            refund(key, permitsPerSecond, unused);
+        } catch (Exception e) {
+            log.warn("退还预取令牌失败 key={}: {}", key, e.getMessage());
+        }
+    }
+
+    private static long interval(double permitsPerSecond) {
+        return Math.max(1L, (long) (1000 / permitsPerSecond));
+    }
+
+    /**
+     * 本节点持有的预取令牌
+     */
+    private static final class Lease {
+        private int remaining;
+        private long expiresAt;
+    }
+}
@@ -0,0 +1,115 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.entity.ApiPlatform;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 生成回调地址签名器
+ * 为每条生成记录生成带令牌的回调地址：令牌 = HMAC-SHA256(平台apiKey, 平台ID + 记录ID)，上游只需原样回调该地址，
+ * 不知道平台密钥的一方无法伪造；令牌只对这一条记录有效，看到某个回调地址的一方不能借此提交其他任务的结果；
+ * 平台更换密钥后旧地址自动失效。
+ * 未配置回调基础地址时不启用回调，保持原有的轮询方式。
+ */
+@Component
+public class GenerationCallbackSigner {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * 外网可访问的服务基础地址，例如 https://api.example.com
+     */
+    @Value("${generation.callback.baseUrl:}")
+    private String callbackBaseUrl;
+
+    /**
+     * 是否启用上游回调
+     */
+    public boolean isEnabled() {
+        return StringUtils.hasText(callbackBaseUrl);
+    }
+
+    /**
+     * 构建生成记录的回调地址
+     *
+     * @param platform 平台（apiKey 需已解密）
+     * @param recordId 生成记录ID
+     * @return 回调地址，未启用或平台缺少密钥时返回null
+     */
+    public String buildCallbackUrl(ApiPlatform platform, Long recordId) {
+        if (!isEnabled() || platform == null || platform.getId() == null || recordId == null
+                || !StringUtils.hasText(platform.getApiKey())) {
+            return null;
+        }
+        String baseUrl = callbackBaseUrl.endsWith("/")
+                ? callbackBaseUrl.substring(0, callbackBaseUrl.length() - 1)
+                : callbackBaseUrl;
+        return baseUrl + "/api/app/generation/callback/" + platform.getId() + "?token=" + sign(platform, recordId);
+    }
+
+    /**
+     * 异步任务（webHook="-1"）改为回调模式：把请求参数中的 webHook 替换为记录的回调地址
+     * 上游仍立即返回任务ID，任务结束后主动通知，轮询只作为兜底
+     *
+     * @param apiRequest  上游请求参数（已完成参数映射）
+     * @param webHookKeys webHook 参数经映射后可能使用的参数名
+     * @param platform    平台
+     * @param recordId    生成记录ID
+     */
+    public void applyCallbackWebHook(Map<String, Object> apiRequest, Collection<String> webHookKeys,
+            ApiPlatform platform, Long recordId) {
+        if (apiRequest == null) {
+            return;
+        }
+        String callbackUrl = null;
+        for (String key : webHookKeys) {
+            if (!"-1".equals(String.valueOf(apiRequest.get(key)))) {
+                continue;
+            }
+            if (callbackUrl == null) {
+                callbackUrl = buildCallbackUrl(platform, recordId);
+                if (callbackUrl == null) {
+                    return;
+                }
+            }
+            apiRequest.put(key, callbackUrl);
+        }
+    }
+
+    /**
+     * 校验回调令牌
+     *
+     * @param platform 平台（apiKey 需已解密）
+     * @param recordId 回调对应的生成记录ID
+     * @param token    回调地址中的令牌
+     * @return 是否有效
+     */
+    public boolean verify(ApiPlatform platform, Long recordId, String token) {
+        if (platform == null || platform.getId() == null || recordId == null
+                || !StringUtils.hasText(platform.getApiKey()) || !StringUtils.hasText(token)) {
+            return false;
+        }
+        byte[] expected = sign(platform, recordId).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(expected, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String sign(ApiPlatform platform, Long recordId) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(platform.getApiKey().getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+            byte[] digest = mac.doFinal(("generation-callback:" + platform.getId() + ":" + recordId).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (Exception e) {
+            throw new IllegalStateException("生成回调签名失败", e);
+        }
+    }
+}
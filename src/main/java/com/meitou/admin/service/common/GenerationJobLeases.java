@@ -0,0 +1,243 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 生成任务租约
+ * 生成记录即任务：提交时由受理节点写入租约（节点ID + 到期时间），执行期间本节点按心跳批量续约；
+ * 节点崩溃或重启后租约不再续约，到期后由任意节点接管（见 GenerationJobRecoveryTask）。
+ * 租约时间按应用服务器时钟计算，租约时长需远大于节点间的时钟偏差。
+ * 心跳在独立的调度线程上执行，不与其他 @Scheduled 任务共用 Spring 默认的单个调度线程，其他任务阻塞不会导致租约过期；
+ * 执行中的任务在调用上游和保存 taskId 前校验租约仍由本节点持有（fencing），被接管后放弃本次执行。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GenerationJobLeases {
+
+    /**
+     * 每条续约语句包含的记录数
+     */
+    private static final int RENEW_CHUNK_SIZE = 500;
+
+    /**
+     * 节点ID（为空时使用 进程号@主机名 加随机后缀，重启后视为新节点）
+     */
+    @Value("${generation.job.nodeId:}")
+    private String configuredNodeId;
+
+    /**
+     * 租约时长（秒）
+     */
+    @Value("${generation.job.lease.seconds:60}")
+    private int leaseSeconds;
+
+    /**
+     * 心跳间隔（毫秒）
+     */
+    @Value("${generation.job.lease.heartbeatMs:20000}")
+    private long heartbeatMs;
+
+    private final GenerationRecordMapper generationRecordMapper;
+
+    private String nodeId;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 本节点正在执行的记录ID
+     */
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder renewedCount = new LongAdder();
+    private final LongAdder renewFailureCount = new LongAdder();
+    private final LongAdder claimedCount = new LongAdder();
+    private final LongAdder fencedCount = new LongAdder();
+    private final LongAdder releasedCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        String base = configuredNodeId != null && !configuredNodeId.isBlank()
+                ? configuredNodeId.trim()
+                : ManagementFactory.getRuntimeMXBean().getName();
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        String id = base + "-" + suffix;
+        nodeId = id.length() > 64 ? id.substring(id.length() - 64) : id;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "generation-job-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1000L, heartbeatMs);
+        scheduler.scheduleWithFixedDelay(this::heartbeatQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("生成任务租约已初始化: nodeId={}, leaseSeconds={}, heartbeatMs={}", nodeId, leaseSeconds, interval);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 当前节点ID
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 从现在开始计算的租约到期时间
+     */
+    public LocalDateTime nextExpiry() {
+        return LocalDateTime.now().plusSeconds(leaseSeconds);
+    }
+
+    /**
+     * 开始在本节点执行任务（此后由心跳续约）
+     */
+    public void track(Long recordId) {
+        if (recordId != null) {
+            running.add(recordId);
+        }
+    }
+
+    /**
+     * 任务在本节点执行结束（成功、失败或已取得上游 taskId）
+     */
+    public void untrack(Long recordId) {
+        if (recordId != null) {
+            running.remove(recordId);
+        }
+    }
+
+    /**
+     * 租约是否仍由本节点持有（调用上游前校验；查询失败时按仍持有处理，由保存 taskId 时的条件更新兜底）
+     *
+     * @param recordId 记录ID
+     * @return 是否仍持有
+     */
+    public boolean isHeld(Long recordId) {
+        try {
+            if (generationRecordMapper.countLeaseHeldIgnoreTenant(recordId, nodeId) > 0) {
+                return true;
+            }
+        } catch (Exception e) {
+            log.warn("校验生成任务租约失败 recordId={}: {}", recordId, e.getMessage());
+            return true;
+        }
+        fencedCount.increment();
+        return false;
+    }
+
+    /**
+     * 保存上游 taskId（租约仍由本节点持有时才写入）
+     *
+     * @param recordId         记录ID
+     * @param taskId           上游任务ID
+     * @param generationParams 生成参数（含 externalTaskId）
+     * @return 是否已保存，租约已被接管时返回false
+     */
+    public boolean saveTaskId(Long recordId, String taskId, String generationParams) {
+        if (generationRecordMapper.updateTaskIdUnderLeaseIgnoreTenant(recordId, nodeId, taskId, generationParams) > 0) {
+            return true;
+        }
+        fencedCount.increment();
+        return false;
+    }
+
+    /**
+     * 接管租约已过期的任务
+     *
+     * @param recordId 记录ID
+     * @return 是否接管成功（其他节点已接管或任务已结束时返回false）
+     */
+    public boolean claim(Long recordId) {
+        LocalDateTime now = LocalDateTime.now();
+        if (generationRecordMapper.claimExpiredLeaseIgnoreTenant(recordId, nodeId, now, now.plusSeconds(leaseSeconds)) == 0) {
+            return false;
+        }
+        claimedCount.increment();
+        return true;
+    }
+
+    /**
+     * 退回已接管但暂时无法执行的任务（如本节点排队已满），不计入执行次数
+     *
+     * @param recordId 记录ID
+     */
+    public void releaseClaim(Long recordId) {
+        untrack(recordId);
+        try {
+            if (generationRecordMapper.releaseClaimIgnoreTenant(recordId, nodeId, LocalDateTime.now()) > 0) {
+                releasedCount.increment();
+            }
+        } catch (Exception e) {
+            log.warn("退回生成任务租约失败 recordId={}: {}", recordId, e.getMessage());
+        }
+    }
+
+    /**
+     * 心跳：批量续约本节点正在执行的任务
+     */
+    public void heartbeat() {
+        if (running.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(running);
+        LocalDateTime expiresAt = nextExpiry();
+        for (int i = 0; i < ids.size(); i += RENEW_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(i, Math.min(i + RENEW_CHUNK_SIZE, ids.size()));
+            try {
+                renewedCount.add(generationRecordMapper.renewLeasesIgnoreTenant(nodeId, chunk, expiresAt));
+            } catch (Exception e) {
+                renewFailureCount.increment();
+                log.warn("生成任务续约失败: 数量={}, {}", chunk.size(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 获取租约指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("nodeId", nodeId);
+        stats.put("leaseSeconds", leaseSeconds);
+        stats.put("running", running.size());
+        stats.put("renewed", renewedCount.sum());
+        stats.put("renewFailures", renewFailureCount.sum());
+        stats.put("claimed", claimedCount.sum());
+        stats.put("fenced", fencedCount.sum());
+        stats.put("released", releasedCount.sum());
+        return stats;
+    }
+
+    private void heartbeatQuietly() {
+        try {
+            heartbeat();
+        } catch (Exception e) {
+            renewFailureCount.increment();
+            log.error("生成任务心跳失败: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.util.Deadline;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 生成结果转存器
+ * 一次生成多张图片时，并发把上游结果转存到OSS，总耗时接近单张最慢的一次而不是 N 次之和。
+ * 单个任务最多占用 perJobConcurrency 路并发（调用线程本身算一路），所有任务共享一个有界线程池；
+ * 线程池饱和时由调用线程自己执行，起到背压作用。
+ * 部分失败语义与轮询任务状态时的处理一致：网络图片转存失败时保留上游原始链接，
+ * 无效链接（空、blob:）或 Base64 上传失败时整个任务失败。
+ */
+@Slf4j
+@Component
+public class GenerationResultIngestor {
+
+    /**
+     * 全局转存线程数
+     */
+    @Value("${generation.ingestion.poolSize:8}")
+    private int poolSize;
+
+    /**
+     * 全局最大排队转存数
+     */
+    @Value("${generation.ingestion.queueCapacity:200}")
+    private int queueCapacity;
+
+    /**
+     * 单个任务最大并发转存数
+     */
+    @Value("${generation.ingestion.perJobConcurrency:4}")
+    private int perJobConcurrency;
+
+    private final AliyunOssService aliyunOssService;
+
+    private ThreadPoolExecutor executor;
+
+    private final LongAdder transferredCount = new LongAdder();
+    private final LongAdder fallbackCount = new LongAdder();
+    private final LongAdder invalidCount = new LongAdder();
+    private final LongAdder totalTransferMillis = new LongAdder();
+
+    public GenerationResultIngestor(AliyunOssService aliyunOssService) {
+        this.aliyunOssService = aliyunOssService;
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "generation-ingest-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        log.info("生成结果转存器已启动: poolSize={}, perJobConcurrency={}", poolSize, perJobConcurrency);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 并发转存图片结果到OSS
+     *
+     * @param urls      上游返回的图片地址（保持顺序）
+     * @param directory OSS目录前缀
+     * @return 转存结果，地址顺序与入参一致
+     */
+    public IngestionResult ingestImages(List<String> urls, String directory) {
+        return ingestImages(urls, directory, Deadline.none());
+    }
+
+    /**
+     * 并发转存图片结果到OSS，网络图片的下载受截止时间约束（超时的图片保留原始链接）
+     *
+     * @param urls      上游返回的图片地址（保持顺序）
+     * @param directory OSS目录前缀
+     * @param deadline  截止时间
+     * @return 转存结果，地址顺序与入参一致
+     */
+    public IngestionResult ingestImages(List<String> urls, String directory, Deadline deadline) {
+        if (urls == null || urls.isEmpty()) {
+            return new IngestionResult(Collections.emptyList(), 0, null);
+        }
+
+        int size = urls.size();
+        ItemResult[] results = new ItemResult[size];
+        AtomicInteger nextIndex = new AtomicInteger();
+        Runnable worker = () -> {
+            int index;
+            while ((index = nextIndex.getAndIncrement()) < size) {
+                results[index] = ingestOne(urls.get(index), directory, deadline);
+            }
+        };
+
+        int workers = Math.min(Math.max(perJobConcurrency, 1), size);
+        List<Future<?>> futures = new ArrayList<>(workers - 1);
+        for (int i = 1; i < workers; i++) {
+            futures.add(executor.submit(worker));
+        }
+        // 调用线程也参与转存
+        worker.run();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("图片转存被中断", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("图片转存失败: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        List<String> ingestedUrls = new ArrayList<>(size);
+        int fallbacks = 0;
+        String invalidReason = null;
+        for (ItemResult result : results) {
+            if (result.invalidReason != null) {
+                if (invalidReason == null) {
+                    invalidReason = result.invalidReason;
+                }
+                continue;
+            }
+            if (result.fallback) {
+                fallbacks++;
+            }
+            ingestedUrls.add(result.url);
+        }
+        return new IngestionResult(Collections.unmodifiableList(ingestedUrls), fallbacks, invalidReason);
+    }
+
+    /**
+     * 获取转存指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long transferred = transferredCount.sum();
+        stats.put("poolSize", poolSize);
+        stats.put("perJobConcurrency", perJobConcurrency);
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("transferred", transferred);
+        stats.put("fallback", fallbackCount.sum());
+        stats.put("invalid", invalidCount.sum());
+        stats.put("avgTransferMillis", transferred > 0 ? totalTransferMillis.sum() / transferred : 0);
+        return stats;
+    }
+
+    private ItemResult ingestOne(String url, String directory, Deadline deadline) {
+        // 已经是OSS链接（可能是API直接返回了OSS链接），不重复上传
+        if (url != null && (url.contains("aliyuncs.com") || url.contains("myqcloud.com"))) {
+            return ItemResult.success(url);
+        }
+        if (url == null || url.isEmpty() || url.startsWith("blob:")) {
+            invalidCount.increment();
+            return ItemResult.invalid("图片URL无效");
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            String ossUrl = url.startsWith("data:")
+                    ? aliyunOssService.uploadBase64(url, directory)
+                    : aliyunOssService.uploadFromUrl(url, directory, deadline);
+            transferredCount.increment();
+            totalTransferMillis.add(System.currentTimeMillis() - start);
+            return ItemResult.success(ossUrl);
+        } catch (Exception e) {
+            if (url.startsWith("data:")) {
+                invalidCount.increment();
+                return ItemResult.invalid("图片上传失败，请重新上传");
+            }
+            log.warn("图片转存OSS失败，保留原始链接: {}, 原因: {}", url, e.getMessage());
+            fallbackCount.increment();
+            return ItemResult.fallback(url);
+        }
+    }
+
+    /**
+     * 转存结果
+     */
+    public static final class IngestionResult {
+
+        private final List<String> urls;
+        private final int fallbackCount;
+        private final String invalidReason;
+
+        private IngestionResult(List<String> urls, int fallbackCount, String invalidReason) {
+            this.urls = urls;
+            this.fallbackCount = fallbackCount;
+            this.invalidReason = invalidReason;
+        }
+
+        /**
+         * 可用的图片地址（OSS地址或转存失败时的原始地址，顺序与入参一致）
+         */
+        public List<String> getUrls() {
+            return urls;
+        }
+
+        /**
+         * 转存失败、保留原始链接的数量
+         */
+        public int getFallbackCount() {
+            return fallbackCount;
+        }
+
+        /**
+         * 存在无效结果时的失败原因，全部有效时为null
+         */
+        public String getInvalidReason() {
+            return invalidReason;
+        }
+
+        public boolean isValid() {
+            return invalidReason == null;
+        }
+    }
+
+    private static final class ItemResult {
+
+        private final String url;
+        private final boolean fallback;
+        private final String invalidReason;
+
+        private ItemResult(String url, boolean fallback, String invalidReason) {
+            this.url = url;
+            this.fallback = fallback;
+            this.invalidReason = invalidReason;
+        }
+
+        static ItemResult success(String url) {
+            return new ItemResult(url, false, null);
+        }
+
+        static ItemResult fallback(String url) {
+            return new ItemResult(url, true, null);
+        }
+
+        static ItemResult invalid(String reason) {
+            return new ItemResult(null, false, reason);
+        }
+    }
+}
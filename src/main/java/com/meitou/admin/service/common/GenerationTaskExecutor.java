@@ -0,0 +1,614 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.entity.Site;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.service.SiteCacheService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 生成任务执行器
+ * 扣费落库后，将调用上游、解析结果、转存OSS等耗时步骤放到有界线程池中异步执行，避免长时间占用请求线程。
+ * 每个平台单独排队并限制并发数，全局等待数量超过上限时直接拒绝，防止任务无限堆积。
+ * 平台队列内按加权公平调度派发：先在图片/视频两条优先级通道间按通道权重选择（视频任务最多占用平台并发的一部分，
+ * 平台并发数不小于2时耗时短的图片任务总有空位），再在通道内按站点权重（sites.schedule_weight）选择站点，最后在站点内的用户间轮转，
+ * 单个站点或用户大量提交时只会拉长自己的排队时间。
+ * 关闭时不再接收新任务，排队和执行中的任务在关闭时限内继续执行（工作线程为守护线程，不等待就会随进程退出而丢失），
+ * 到时仍未派发的任务交给提交方的放弃回调处理。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GenerationTaskExecutor {
+
+    /**
+     * 工作线程数
+     */
+    @Value("${generation.executor.poolSize:16}")
+    private int poolSize;
+
+    /**
+     * 全局最大等待任务数
+     */
+    @Value("${generation.executor.queueCapacity:500}")
+    private int queueCapacity;
+
+    /**
+     * 单个平台最大并发数
+     */
+    @Value("${generation.executor.platformConcurrency:8}")
+    private int platformConcurrency;
+
+    /**
+     * 图片通道权重
+     */
+    @Value("${generation.executor.imageLaneWeight:3}")
+    private int imageLaneWeight;
+
+    /**
+     * 视频通道权重
+     */
+    @Value("${generation.executor.videoLaneWeight:1}")
+    private int videoLaneWeight;
+
+    /**
+     * 视频任务最多占用单个平台并发数的比例
+     * 平台并发数不小于2时至少为图片任务保留1个并发；平台并发数为1时无法保留，图片与视频共用唯一的并发，只按通道权重轮流派发
+     */
+    @Value("${generation.executor.videoMaxShare:0.75}")
+    private double videoMaxShare;
+
+    /**
+     * 关闭时等待排队和执行中任务完成的时限（秒）
+     */
+    @Value("${generation.executor.shutdownTimeoutSeconds:30}")
+    private int shutdownTimeoutSeconds;
+
+    private final SiteCacheService siteCacheService;
+
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 单个平台同时执行的视频任务上限
+     */
+    private int videoConcurrency;
+
+    /**
+     * 平台ID -> 平台队列
+     */
+    private final Map<Long, PlatformLane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * 在平台队列中等待派发的任务数
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * 已派发到线程池、尚未执行结束的任务数
+     */
+    private final AtomicInteger runningJobs = new AtomicInteger();
+
+    /**
+     * 是否正在关闭（不再接收新任务）
+     */
+    private volatile boolean shuttingDown;
+
+    /**
+     * 优先级通道 -> 通道指标
+     */
+    private final Map<Lane, LaneMetrics> laneMetrics = new EnumMap<>(Lane.class);
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+
+    /**
+     * 优先级通道：耗时短的图片任务与耗时长的视频任务分开排队
+     */
+    public enum Lane {
+        IMAGE, VIDEO;
+
+        /**
+         * 按生成类型（txt2img、img2video 等）确定通道
+         */
+        public static Lane of(String generationType) {
+            return generationType != null && generationType.contains("video") ? VIDEO : IMAGE;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "generation-worker-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        videoConcurrency = videoConcurrency(platformConcurrency, videoMaxShare);
+        if (platformConcurrency < 2) {
+            log.warn("生成任务平台并发数为{}，无法为图片任务保留并发，视频任务执行期间图片任务需排队", platformConcurrency);
+        }
+        for (Lane lane : Lane.values()) {
+            laneMetrics.put(lane, new LaneMetrics());
+        }
+        log.info("生成任务执行器已启动: poolSize={}, queueCapacity={}, platformConcurrency={}, videoConcurrency={}, laneWeights={}:{}",
+                poolSize, queueCapacity, platformConcurrency, videoConcurrency, imageLaneWeight, videoLaneWeight);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        shuttingDown = true;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        try {
+            // 线程池保持开启，执行结束的任务继续派发排队中的任务
+            while ((waiting.get() > 0 || runningJobs.get() > 0) && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdown();
+        dropQueued();
+        try {
+            if (!executor.awaitTermination(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                log.warn("生成任务执行器关闭超时，仍有{}个任务未完成", runningJobs.get());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 提交生成任务
+     * 任务会在提交时的站点上下文中执行，并按提交时的站点、用户参与公平调度；等待队列已满或执行器正在关闭时抛出业务异常，由调用方负责退款。
+     * 已接收的任务因执行器关闭而未能执行时调用放弃回调（同样在提交时的站点上下文中），由提交方释放任务。
+     *
+     * @param platformId 平台ID（用于平台级并发限制）
+     * @param lane       优先级通道
+     * @param userId     提交任务的用户ID
+     * @param task       任务
+     * @param onDropped  放弃回调，可为空
+     */
+    public void submit(Long platformId, Lane lane, Long userId, Runnable task, Runnable onDropped) {
+        if (shuttingDown) {
+            rejectedCount.increment();
+            log.warn("生成任务执行器正在关闭，拒绝新任务: platformId={}", platformId);
+            throw new BusinessException(ErrorCode.GENERATION_QUEUE_FULL);
+        }
+        if (waiting.incrementAndGet() > queueCapacity) {
+            waiting.decrementAndGet();
+            rejectedCount.increment();
+            log.warn("生成任务等待队列已满，拒绝新任务: platformId={}, waiting={}", platformId, waiting.get());
+            throw new BusinessException(ErrorCode.GENERATION_QUEUE_FULL);
+        }
+        submittedCount.increment();
+
+        Lane effectiveLane = lane != null ? lane : Lane.IMAGE;
+        LaneMetrics metrics = laneMetrics.get(effectiveLane);
+        metrics.waiting.incrementAndGet();
+        Long siteId = SiteContext.getSiteId();
+        long enqueuedAt = System.currentTimeMillis();
+        Runnable wrapped = () -> {
+            long waitMillis = System.currentTimeMillis() - enqueuedAt;
+            totalWaitMillis.add(waitMillis);
+            metrics.recordWait(waitMillis);
+            try {
+                runInSite(siteId, task);
+                completedCount.increment();
+            } catch (Throwable t) {
+                failedCount.increment();
+                log.error("生成任务执行异常: platformId={}", platformId, t);
+            }
+        };
+        Runnable dropped = () -> {
+            droppedCount.increment();
+            log.warn("执行器关闭，放弃未执行的生成任务: platformId={}", platformId);
+            if (onDropped == null) {
+                return;
+            }
+            try {
+                runInSite(siteId, onDropped);
+            } catch (Throwable t) {
+                log.error("生成任务放弃回调异常: platformId={}", platformId, t);
+            }
+        };
+
+        PlatformLane platformLane = lanes.computeIfAbsent(platformId != null ? platformId : 0L, PlatformLane::new);
+        synchronized (platformLane) {
+            platformLane.enqueue(effectiveLane, siteId != null ? siteId : 0L, siteWeight(siteId),
+                    userId != null ? userId : 0L, new Job(wrapped, dropped));
+        }
+        drain(platformLane);
+    }
+
+    /**
+     * 在指定站点上下文中执行，结束后恢复原站点上下文
+     */
+    private static void runInSite(Long siteId, Runnable action) {
+        Long originalSiteId = SiteContext.getSiteId();
+        try {
+            if (siteId != null) {
+                SiteContext.setSiteId(siteId);
+            }
+            action.run();
+        } finally {
+            if (originalSiteId != null) {
+                SiteContext.setSiteId(originalSiteId);
+            } else {
+                SiteContext.clear();
+            }
+        }
+    }
+
+    /**
+     * 在平台并发额度内，按公平调度顺序把排队任务派发到线程池
+     * 线程池已关闭而未能派发的任务在释放平台锁后再调用放弃回调，回调中的数据库操作不阻塞同平台的提交与派发
+     */
+    private void drain(PlatformLane platformLane) {
+        List<Job> rejected = new ArrayList<>();
+        synchronized (platformLane) {
+            while (platformLane.running < platformConcurrency) {
+                Lane lane = platformLane.nextLane(videoConcurrency);
+                if (lane == null) {
+                    break;
+                }
+                Job job = platformLane.queues.get(lane).poll();
+                platformLane.running++;
+                platformLane.runningByLane.merge(lane, 1, Integer::sum);
+                waiting.decrementAndGet();
+                laneMetrics.get(lane).waiting.decrementAndGet();
+                runningJobs.incrementAndGet();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            job.task.run();
+                        } finally {
+                            finish(platformLane, lane);
+                            drain(platformLane);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // 线程池已关闭：任务不会执行，交给提交方释放
+                    finish(platformLane, lane);
+                    rejected.add(job);
+                }
+            }
+        }
+        rejected.forEach(job -> job.onDropped.run());
+    }
+
+    private void finish(PlatformLane platformLane, Lane lane) {
+        synchronized (platformLane) {
+            platformLane.running--;
+            platformLane.runningByLane.merge(lane, -1, Integer::sum);
+        }
+        runningJobs.decrementAndGet();
+    }
+
+    /**
+     * 关闭时限已到：取出所有仍在排队的任务，调用放弃回调
+     */
+    private void dropQueued() {
+        List<Job> dropped = new ArrayList<>();
+        for (PlatformLane platformLane : lanes.values()) {
+            synchronized (platformLane) {
+                for (Map.Entry<Lane, FairQueue> entry : platformLane.queues.entrySet()) {
+                    Job job;
+                    while ((job = entry.getValue().poll()) != null) {
+                        waiting.decrementAndGet();
+                        laneMetrics.get(entry.getKey()).waiting.decrementAndGet();
+                        dropped.add(job);
+                    }
+                }
+            }
+        }
+        if (!dropped.isEmpty()) {
+            log.warn("生成任务执行器关闭时限已到，放弃{}个排队中的任务", dropped.size());
+        }
+        dropped.forEach(job -> job.onDropped.run());
+    }
+
+    /**
+     * 单个平台同时执行的视频任务上限：按比例计算，至少1个，且至少为图片任务保留1个并发（平台并发数为1时除外）
+     */
+    static int videoConcurrency(int platformConcurrency, double videoMaxShare) {
+        int byShare = Math.max(1, (int) Math.floor(platformConcurrency * videoMaxShare));
+        return Math.min(byShare, Math.max(1, platformConcurrency - 1));
+    }
+
+    /**
+     * 站点调度权重（未配置时为1）
+     */
+    private double siteWeight(Long siteId) {
+        Site site = siteId != null ? siteCacheService.getSiteById(siteId) : null;
+        Integer weight = site != null ? site.getScheduleWeight() : null;
+        return weight != null && weight > 0 ? weight : 1;
+    }
+
+    /**
+     * 获取执行器运行指标
+     *
+     * @return 指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("poolSize", executor.getPoolSize());
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("queueDepth", waiting.get() + executor.getQueue().size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("submitted", submittedCount.sum());
+        stats.put("completed", completedCount.sum());
+        stats.put("failed", failedCount.sum());
+        stats.put("rejected", rejectedCount.sum());
+        stats.put("dropped", droppedCount.sum());
+        long started = completedCount.sum() + failedCount.sum();
+        stats.put("avgWaitMillis", started > 0 ? totalWaitMillis.sum() / started : 0);
+
+        Map<String, Object> laneStats = new LinkedHashMap<>();
+        laneMetrics.forEach((lane, metrics) -> laneStats.put(lane.name().toLowerCase(), metrics.snapshot()));
+        stats.put("lanes", laneStats);
+
+        Map<Long, Map<String, Object>> platforms = new HashMap<>();
+        lanes.forEach((platformId, platformLane) -> {
+            Map<String, Object> platformStats = new LinkedHashMap<>();
+            synchronized (platformLane) {
+                platformStats.put("running", platformLane.running);
+                platformStats.put("waiting", platformLane.size());
+                Map<String, Integer> runningByLane = new LinkedHashMap<>();
+                platformLane.runningByLane.forEach((lane, count) -> runningByLane.put(lane.name().toLowerCase(), count));
+                platformStats.put("runningByLane", runningByLane);
+                platformStats.put("waitingSites", platformLane.waitingSites());
+            }
+            platforms.put(platformId, platformStats);
+        });
+        stats.put("platforms", platforms);
+        return stats;
+    }
+
+    /**
+     * 排队中的任务及其放弃回调
+     */
+    private record Job(Runnable task, Runnable onDropped) {
+    }
+
+    /**
+     * 单个平台的任务队列，所有字段在持有该对象锁时访问
+     * 通道间按通道权重做步幅调度（每派发一个任务，该通道的 pass 增加 1/权重，总是选 pass 最小的非空通道）
+     */
+    private class PlatformLane {
+        private final Long platformId;
+        private final Map<Lane, FairQueue> queues = new EnumMap<>(Lane.class);
+        private final Map<Lane, Double> passes = new EnumMap<>(Lane.class);
+        private final Map<Lane, Integer> runningByLane = new EnumMap<>(Lane.class);
+        private double virtualTime;
+        private int running;
+
+        private PlatformLane(Long platformId) {
+            this.platformId = platformId;
+            for (Lane lane : Lane.values()) {
+                queues.put(lane, new FairQueue());
+                passes.put(lane, 0D);
+                runningByLane.put(lane, 0);
+            }
+        }
+
+        private void enqueue(Lane lane, Long siteId, double siteWeight, Long userId, Job job) {
+            FairQueue queue = queues.get(lane);
+            if (queue.isEmpty()) {
+                // 通道从空闲变为有任务：不累积空闲期间的额度
+                passes.put(lane, Math.max(passes.get(lane), virtualTime));
+            }
+            queue.add(siteId, siteWeight, userId, job);
+        }
+
+        /**
+         * 选择下一个派发的通道；视频通道已达并发上限时只派发图片任务
+         */
+        private Lane nextLane(int videoLimit) {
+            Lane chosen = null;
+            for (Lane lane : Lane.values()) {
+                if (queues.get(lane).isEmpty()) {
+                    continue;
+                }
+                if (lane == Lane.VIDEO && runningByLane.get(lane) >= videoLimit) {
+                    continue;
+                }
+                if (chosen == null || passes.get(lane) < passes.get(chosen)) {
+                    chosen = lane;
+                }
+            }
+            if (chosen != null) {
+                virtualTime = passes.get(chosen);
+                int weight = chosen == Lane.VIDEO ? videoLaneWeight : imageLaneWeight;
+                passes.put(chosen, virtualTime + 1D / Math.max(1, weight));
+            }
+            return chosen;
+        }
+
+        private int size() {
+            int size = 0;
+            for (FairQueue queue : queues.values()) {
+                size += queue.size;
+            }
+            return size;
+        }
+
+        private Map<Long, Integer> waitingSites() {
+            Map<Long, Integer> sites = new HashMap<>();
+            for (FairQueue queue : queues.values()) {
+                queue.sites.forEach((siteId, flow) -> sites.merge(siteId, flow.size, Integer::sum));
+            }
+            return sites;
+        }
+    }
+
+    /**
+     * 两级加权公平队列：站点间按站点权重、站点内用户间等权，均为步幅调度，同一用户的任务先进先出。
+     * 站点或用户的队列排空后即移除，重新有任务时从当前虚拟时间开始计算，不累积空闲额度。
+     */
+    private static final class FairQueue {
+
+        private static final Comparator<Flow> BY_PASS =
+                Comparator.comparingDouble((Flow flow) -> flow.pass).thenComparingLong(flow -> flow.seq);
+
+        private final Map<Long, SiteFlow> sites = new HashMap<>();
+        private final PriorityQueue<Flow> activeSites = new PriorityQueue<>(BY_PASS);
+        private double virtualTime;
+        private long seq;
+        private int size;
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void add(Long siteId, double siteWeight, Long userId, Job job) {
+            SiteFlow site = sites.get(siteId);
+            if (site == null) {
+                site = new SiteFlow(siteId);
+                site.pass = virtualTime;
+                site.seq = seq++;
+                sites.put(siteId, site);
+                activeSites.add(site);
+            }
+            site.weight = siteWeight;
+
+            UserFlow user = site.users.get(userId);
+            if (user == null) {
+                user = new UserFlow(userId);
+                user.pass = site.virtualTime;
+                user.seq = seq++;
+                site.users.put(userId, user);
+                site.activeUsers.add(user);
+            }
+            user.jobs.add(job);
+            user.size++;
+            site.size++;
+            size++;
+        }
+
+        private Job poll() {
+            SiteFlow site = (SiteFlow) activeSites.poll();
+            if (site == null) {
+                return null;
+            }
+            virtualTime = site.pass;
+            UserFlow user = (UserFlow) site.activeUsers.poll();
+            site.virtualTime = user.pass;
+            Job job = user.jobs.poll();
+            user.size--;
+            site.size--;
+            size--;
+
+            if (user.size > 0) {
+                user.pass += 1D;
+                user.seq = seq++;
+                site.activeUsers.add(user);
+            } else {
+                site.users.remove(user.key);
+            }
+            if (site.size > 0) {
+                site.pass += 1D / site.weight;
+                site.seq = seq++;
+                activeSites.add(site);
+            } else {
+                sites.remove(site.key);
+            }
+            return job;
+        }
+
+        private abstract static class Flow {
+            final Long key;
+            double pass;
+            long seq;
+            int size;
+
+            private Flow(Long key) {
+                this.key = key;
+            }
+        }
+
+        private static final class SiteFlow extends Flow {
+            private double weight = 1D;
+            private double virtualTime;
+            private final Map<Long, UserFlow> users = new HashMap<>();
+            private final PriorityQueue<Flow> activeUsers = new PriorityQueue<>(BY_PASS);
+
+            private SiteFlow(Long siteId) {
+                super(siteId);
+            }
+        }
+
+        private static final class UserFlow extends Flow {
+            private final ArrayDeque<Job> jobs = new ArrayDeque<>();
+
+            private UserFlow(Long userId) {
+                super(userId);
+            }
+        }
+    }
+
+    /**
+     * 单个优先级通道的排队指标
+     */
+    private static final class LaneMetrics {
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final LongAdder started = new LongAdder();
+        private final LongAdder totalWaitMillis = new LongAdder();
+        private final LongAccumulator maxWaitMillis = new LongAccumulator(Long::max, 0L);
+        private volatile double recentWaitMillis = -1;
+
+        private void recordWait(long waitMillis) {
+            started.increment();
+            totalWaitMillis.add(waitMillis);
+            maxWaitMillis.accumulate(waitMillis);
+            double recent = recentWaitMillis;
+            recentWaitMillis = recent < 0 ? waitMillis : recent * 0.9 + waitMillis * 0.1;
+        }
+
+        private Map<String, Object> snapshot() {
+            Map<String, Object> item = new LinkedHashMap<>();
+            long count = started.sum();
+            item.put("waiting", waiting.get());
+            item.put("started", count);
+            item.put("avgWaitMillis", count > 0 ? totalWaitMillis.sum() / count : 0);
+            item.put("recentWaitMillis", recentWaitMillis >= 0 ? Math.round(recentWaitMillis) : null);
+            item.put("maxWaitMillis", maxWaitMillis.get());
+            return item;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.meitou.admin.service.common;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 对冲请求
+ * 幂等的上游调用（任务状态查询、提示词优化）先发出主请求，超过该操作最近耗时的 P95 仍未返回时再发出一次对冲请求，
+ * 取先成功返回的结果并取消另一路，用少量额外请求（约5%）削减长尾耗时。
+ * 耗时按操作key（如 status:平台ID）分别统计；同时进行中的对冲请求数有上限，线程池饱和时退化为直接调用。
+ */
+@Slf4j
+@Component
+public class HedgedRequests {
+
+    /**
+     * 每个操作保留的耗时样本数
+     */
+    private static final int WINDOW_SIZE = 256;
+
+    /**
+     * 每新增多少个样本重新计算一次P95
+     */
+    private static final int RECOMPUTE_EVERY = 16;
+
+    /**
+     * 是否启用对冲请求
+     */
+    @Value("${hedging.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 开始对冲前至少需要的耗时样本数
+     */
+    @Value("${hedging.minSamples:20}")
+    private int minSamples;
+
+    /**
+     * 对冲延迟下限（毫秒），避免对很快的调用也发出对冲
+     */
+    @Value("${hedging.minDelayMs:100}")
+    private long minDelayMs;
+
+    /**
+     * 同时进行中的对冲请求上限
+     */
+    @Value("${hedging.maxInFlight:32}")
+    private int maxInFlight;
+
+    /**
+     * 执行同步对冲调用的线程数
+     */
+    @Value("${hedging.poolSize:32}")
+    private int poolSize;
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService timer;
+    private Semaphore hedgePermits;
+
+    /**
+     * 操作key -> 耗时窗口
+     */
+    private final Map<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+
+    private final LongAdder callCount = new LongAdder();
+    private final LongAdder hedgeCount = new LongAdder();
+    private final LongAdder hedgeWinCount = new LongAdder();
+    private final LongAdder hedgeRejectedCount = new LongAdder();
+    private final LongAdder cancelledCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(0, Math.max(2, poolSize), 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "upstream-hedge-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "upstream-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        timer = scheduler;
+        hedgePermits = new Semaphore(Math.max(1, maxInFlight));
+        log.info("对冲请求已初始化: enabled={}, maxInFlight={}, poolSize={}", enabled, maxInFlight, poolSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * 执行可对冲的同步调用
+     *
+     * @param key     操作key，按key统计耗时
+     * @param primary 主请求
+     * @param hedge   对冲请求（为空时不对冲）
+     * @return 先成功返回的结果
+     * @throws Exception 所有请求均失败时抛出主请求的异常
+     */
+    public <T> T execute(String key, Callable<T> primary, Callable<T> hedge) throws Exception {
+        return executeCancellable(key, onCancel -> primary.call(), hedge != null ? onCancel -> hedge.call() : null);
+    }
+
+    /**
+     * 执行可对冲的同步调用，一路先成功返回时取消另一路（执行其登记的取消动作并中断其线程）
+     *
+     * @param key     操作key，按key统计耗时
+     * @param primary 主请求
+     * @param hedge   对冲请求（为空时不对冲）
+     * @return 先成功返回的结果
+     * @throws Exception 所有请求均失败时抛出主请求的异常
+     */
+    public <T> T executeCancellable(String key, CancellableCall<T> primary, CancellableCall<T> hedge)
+            throws Exception {
+        callCount.increment();
+        long delay = hedge != null ? hedgeDelayMillis(key) : -1L;
+        if (delay < 0) {
+            return timed(key, primary, null);
+        }
+
+        BlockingQueue<Outcome<T>> outcomes = new LinkedBlockingQueue<>();
+        Attempt primaryAttempt = new Attempt();
+        try {
+            primaryAttempt.future = executor.submit(() -> {
+                outcomes.offer(attempt(key, primary, primaryAttempt, false));
+            });
+        } catch (RejectedExecutionException e) {
+            // 线程池饱和，退化为直接调用
+            return timed(key, primary, null);
+        }
+
+        int pending = 1;
+        Attempt hedgeAttempt = null;
+        Outcome<T> outcome = outcomes.poll(delay, TimeUnit.MILLISECONDS);
+        if (outcome == null && tryAcquireHedge()) {
+            Attempt hedged = new Attempt();
+            try {
+                hedged.future = executor.submit(() -> {
+                    try {
+                        outcomes.offer(attempt(key, hedge, hedged, true));
+                    } finally {
+                        releaseHedge();
+                    }
+                });
+                hedgeAttempt = hedged;
+                pending++;
+            } catch (RejectedExecutionException e) {
+                releaseHedge();
+                hedgeCount.decrement();
+                hedgeRejectedCount.increment();
+            }
+        }
+
+        Exception primaryError = null;
+        while (true) {
+            if (outcome == null) {
+                outcome = outcomes.take();
+            }
+            pending--;
+            if (outcome.error == null) {
+                if (outcome.hedge) {
+                    hedgeWinCount.increment();
+                }
+                Attempt loser = outcome.hedge ? primaryAttempt : hedgeAttempt;
+                if (pending > 0 && loser != null) {
+                    loser.cancel();
+                    cancelledCount.increment();
+                }
+                return outcome.value;
+            }
+            if (primaryError == null || !outcome.hedge) {
+                primaryError = outcome.error;
+            }
+            if (pending == 0) {
+                throw primaryError;
+            }
+            outcome = null;
+        }
+    }
+
+    /**
+     * 获取对冲延迟（该操作最近耗时的P95）
+     *
+     * @param key 操作key
+     * @return 延迟毫秒数；未启用或样本不足时返回 -1
+     */
+    public long hedgeDelayMillis(String key) {
+        if (!enabled) {
+            return -1L;
+        }
+        LatencyWindow window = windows.get(key);
+        long p95 = window != null ? window.p95(minSamples) : -1L;
+        return p95 < 0 ? -1L : Math.max(minDelayMs, p95);
+    }
+
+    /**
+     * 记录一次成功调用的耗时
+     *
+     * @param key    操作key
+     * @param millis 耗时（毫秒）
+     */
+    public void recordLatency(String key, long millis) {
+        windows.computeIfAbsent(key, k -> new LatencyWindow()).add(millis);
+    }
+
+    /**
+     * 占用一个对冲名额（流式请求由调用方自行发出对冲时使用）
+     *
+     * @return 是否占用成功
+     */
+    public boolean tryAcquireHedge() {
+        if (hedgePermits.tryAcquire()) {
+            hedgeCount.increment();
+            return true;
+        }
+        hedgeRejectedCount.increment();
+        return false;
+    }
+
+    /**
+     * 释放对冲名额
+     */
+    public void releaseHedge() {
+        hedgePermits.release();
+    }
+
+    /**
+     * 记录一次对冲请求胜出（流式请求使用）
+     */
+    public void recordHedgeWin() {
+        hedgeWinCount.increment();
+    }
+
+    /**
+     * 延迟执行任务（流式请求的对冲定时）
+     *
+     * @param task        任务
+     * @param delayMillis 延迟毫秒数
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 获取对冲请求指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("calls", callCount.sum());
+        stats.put("hedges", hedgeCount.sum());
+        stats.put("hedgeWins", hedgeWinCount.sum());
+        stats.put("hedgeRejected", hedgeRejectedCount.sum());
+        stats.put("cancelled", cancelledCount.sum());
+        stats.put("hedgesInFlight", Math.max(1, maxInFlight) - hedgePermits.availablePermits());
+        Map<String, Object> operations = new TreeMap<>();
+        windows.forEach((key, window) -> operations.put(key, window.snapshot(minSamples)));
+        stats.put("operations", operations);
+        return stats;
+    }
+
+    private <T> Outcome<T> attempt(String key, CancellableCall<T> call, Attempt attempt, boolean hedge) {
+        try {
+            return new Outcome<>(timed(key, call, attempt), null, hedge);
+        } catch (Exception e) {
+            return new Outcome<>(null, e, hedge);
+        }
+    }
+
+    /**
+     * 执行并记录耗时（attempt 为空表示直接调用，不会被取消）
+     */
+    private <T> T timed(String key, CancellableCall<T> call, Attempt attempt) throws Exception {
+        Consumer<Runnable> onCancel = attempt != null ? attempt::onCancel : action -> { };
+        long start = System.currentTimeMillis();
+        T value = call.call(onCancel);
+        recordLatency(key, System.currentTimeMillis() - start);
+        return value;
+    }
+
+    /**
+     * 可取消的调用：开始时通过 onCancel 登记取消动作（如 okhttp3.Call::cancel），另一路先成功返回时执行
+     */
+    @FunctionalInterface
+    public interface CancellableCall<T> {
+        T call(Consumer<Runnable> onCancel) throws Exception;
+    }
+
+    /**
+     * 一路调用的取消句柄
+     */
+    private static final class Attempt {
+
+        private volatile Future<?> future;
+        private Runnable cancelAction;
+        private boolean cancelled;
+
+        private void onCancel(Runnable action) {
+            synchronized (this) {
+                if (!cancelled) {
+                    cancelAction = action;
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        private void cancel() {
+            Runnable action;
+            synchronized (this) {
+                cancelled = true;
+                action = cancelAction;
+                cancelAction = null;
+            }
+            if (action != null) {
+                action.run();
+            }
+            Future<?> running = future;
+            if (running != null) {
+                running.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 单次调用结果
+     */
+    private static final class Outcome<T> {
+
+        private final T value;
+        private final Exception error;
+        private final boolean hedge;
+
+        private Outcome(T value, Exception error, boolean hedge) {
+            this.value = value;
+            this.error = error;
+            this.hedge = hedge;
+        }
+    }
+
+    /**
+     * 最近耗时样本（环形缓冲），P95按批重新计算
+     */
+    private static final class LatencyWindow {
+
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int count;
+        private int next;
+        private int sinceRecompute;
+        private long p95 = -1L;
+
+        private synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % WINDOW_SIZE;
+            if (count < WINDOW_SIZE) {
+                count++;
+            }
+            sinceRecompute++;
+        }
+
+        private synchronized long p95(int minSamples) {
+            if (count < minSamples) {
+                return -1L;
+            }
+            if (p95 < 0 || sinceRecompute >= RECOMPUTE_EVERY) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                p95 = sorted[Math.min(count - 1, (int) Math.ceil(count * 0.95) - 1)];
+                sinceRecompute = 0;
+            }
+            return p95;
+        }
+
+        private synchronized Map<String, Object> snapshot(int minSamples) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("samples", count);
+            long value = p95(minSamples);
+            item.put("p95Millis", value >= 0 ? value : null);
+            return item;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.meitou.admin.service.common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.common.Result;
+import com.meitou.admin.entity.IdempotencyKey;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.mapper.IdempotencyKeyMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 幂等提交服务
+ * 两级存储：本节点内存中保留最近的幂等键（有界LRU），同一节点上的并发重复请求直接等待首次请求的结果；
+ * 数据库 idempotency_keys 表以幂等键为主键（INSERT IGNORE 占用），跨节点的重复请求读取已保存的响应，
+ * 首次请求仍在其他节点处理时短暂轮询等待。处理中的键超过一定时间未完成视为原节点已崩溃，允许重新占用；
+ * 首次请求创建生成记录时在同一事务中把记录ID写入幂等键（{@link #bindGenerationRecord}），
+ * 已关联记录的键即使响应保存失败也不会被重新占用，不会重复创建记录和预留算力。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IdempotencyService {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z0-9_\\-:.]{1,64}");
+
+    private static final String DONE = "DONE";
+
+    private static final int EVICT_BATCH_SIZE = 1000;
+
+    /**
+     * 数据库中处理中的键的轮询间隔（毫秒）
+     */
+    private static final long POLL_INTERVAL_MS = 200L;
+
+    /**
+     * 保存响应的最多尝试次数
+     */
+    private static final int COMPLETE_ATTEMPTS = 3;
+
+    /**
+     * 当前线程正在执行的首次请求的幂等键
+     */
+    private static final ThreadLocal<String> CURRENT_KEY = new ThreadLocal<>();
+
+    /**
+     * 幂等键保留时长（小时）
+     */
+    @Value("${idempotency.ttlHours:24}")
+    private int ttlHours;
+
+    /**
+     * 内存中最多保留的幂等键数
+     */
+    @Value("${idempotency.maxEntries:10000}")
+    private int maxEntries;
+
+    /**
+     * 重复请求等待首次请求完成的最长时间（秒）
+     */
+    @Value("${idempotency.waitSeconds:10}")
+    private int waitSeconds;
+
+    /**
+     * 处理中的键超过该时间（秒）未完成时允许重新占用
+     */
+    @Value("${idempotency.pendingTimeoutSeconds:120}")
+    private int pendingTimeoutSeconds;
+
+    private final IdempotencyKeyMapper idempotencyKeyMapper;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * 幂等键 -> 内存条目（访问顺序，超过上限时淘汰最久未访问的条目；所有访问在持有该对象锁时进行）
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > Math.max(1, maxEntries);
+        }
+    };
+
+    private final LongAdder executedCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder replayedCount = new LongAdder();
+    private final LongAdder conflictCount = new LongAdder();
+    private final LongAdder completeFailureCount = new LongAdder();
+
+    /**
+     * 幂等执行
+     *
+     * @param scope       接口名
+     * @param siteId      站点ID
+     * @param userId      用户ID
+     * @param key         客户端提交的幂等键
+     * @param requestBody 请求体（用于校验同一个键没有用于不同请求）
+     * @param returnType  方法返回类型（从数据库读取已保存的响应时反序列化用）
+     * @param action      首次请求执行的方法
+     * @return 首次请求的响应
+     */
+    public Object execute(String scope, Long siteId, Long userId, String key, Object requestBody, Type returnType,
+            Action action) throws Throwable {
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR.getCode(), "Idempotency-Key 格式错误（1-64位字母、数字或 _-:.）");
+        }
+        String idemKey = siteId + ":" + userId + ":" + scope + ":" + key;
+        String requestHash = hash(requestBody);
+
+        Entry mine = new Entry(requestHash);
+        Entry existing;
+        synchronized (entries) {
+            existing = entries.get(idemKey);
+            if (existing != null && existing.isExpired()) {
+                entries.remove(idemKey);
+                existing = null;
+            }
+            if (existing == null) {
+                entries.put(idemKey, mine);
+            }
+        }
+        if (existing != null) {
+            checkSameRequest(existing.requestHash, requestHash);
+            coalescedCount.increment();
+            return await(existing.result);
+        }
+
+        try {
+            Object result = executeOnce(idemKey, requestHash, returnType, action);
+            if (isSuccess(result)) {
+                mine.expiresAt = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(ttlHours);
+            } else {
+                forget(idemKey, mine);
+            }
+            mine.result.complete(result);
+            return result;
+        } catch (Throwable t) {
+            forget(idemKey, mine);
+            mine.result.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    /**
+     * 通过数据库保证跨节点只执行一次
+     */
+    private Object executeOnce(String idemKey, String requestHash, Type returnType, Action action) throws Throwable {
+        long waitUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(waitSeconds);
+        while (true) {
+            LocalDateTime expiresAt = LocalDateTime.now().plusHours(ttlHours);
+            if (idempotencyKeyMapper.insertPending(idemKey, requestHash, expiresAt) > 0) {
+                return executeAndSave(idemKey, action);
+            }
+
+            IdempotencyKey saved = idempotencyKeyMapper.selectByKey(idemKey);
+            if (saved == null) {
+                // 首次请求失败后释放了该键，重新占用
+                continue;
+            }
+            checkSameRequest(saved.getRequestHash(), requestHash);
+            if (DONE.equals(saved.getStatus())) {
+                replayedCount.increment();
+                JavaType type = objectMapper.getTypeFactory().constructType(returnType);
+                return objectMapper.readValue(saved.getResponse(), type);
+            }
+            LocalDateTime staleBefore = LocalDateTime.now().minusSeconds(pendingTimeoutSeconds);
+            boolean stale = saved.getCreatedAt() != null && saved.getCreatedAt().isBefore(staleBefore);
+            if (stale && saved.getGenerationRecordId() != null) {
+                // 首次请求已创建生成记录，只是响应未保存：不再重新执行
+                throw new BusinessException(ErrorCode.REQUEST_IN_PROGRESS.getCode(),
+                        "相同请求已受理（记录ID " + saved.getGenerationRecordId() + "），请在生成记录中查看");
+            }
+            if (stale) {
+                log.warn("幂等键长时间未完成，允许重新占用: {}", idemKey);
+                idempotencyKeyMapper.deleteStalePending(idemKey, staleBefore);
+                continue;
+            }
+            if (System.currentTimeMillis() >= waitUntil) {
+                throw new BusinessException(ErrorCode.REQUEST_IN_PROGRESS);
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+        }
+    }
+
+    private Object executeAndSave(String idemKey, Action action) throws Throwable {
+        executedCount.increment();
+        Object result;
+        String previousKey = CURRENT_KEY.get();
+        CURRENT_KEY.set(idemKey);
+        try {
+            result = action.proceed();
+        } catch (Throwable t) {
+            releaseQuietly(idemKey);
+            throw t;
+        } finally {
+            if (previousKey == null) {
+                CURRENT_KEY.remove();
+            } else {
+                CURRENT_KEY.set(previousKey);
+            }
+        }
+        if (!isSuccess(result)) {
+            releaseQuietly(idemKey);
+            return result;
+        }
+        saveResponse(idemKey, result);
+        return result;
+    }
+
+    /**
+     * 保存首次请求的响应（失败时重试；仍失败时键保持处理中，已关联生成记录的键不会被重新占用）
+     */
+    private void saveResponse(String idemKey, Object result) {
+        String response;
+        try {
+            response = objectMapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            completeFailureCount.increment();
+            log.warn("序列化幂等响应失败 {}: {}", idemKey, e.getMessage());
+            return;
+        }
+        for (int attempt = 1; attempt <= COMPLETE_ATTEMPTS; attempt++) {
+            try {
+                idempotencyKeyMapper.complete(idemKey, response);
+                return;
+            } catch (Exception e) {
+                log.warn("保存幂等响应失败 {}（第{}次）: {}", idemKey, attempt, e.getMessage());
+            }
+            if (attempt == COMPLETE_ATTEMPTS) {
+                break;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        completeFailureCount.increment();
+    }
+
+    /**
+     * 把当前首次请求创建的生成记录关联到幂等键（在创建记录的事务中调用；未携带幂等键的请求不做处理）
+     *
+     * @param generationRecordId 生成记录ID
+     */
+    public void bindGenerationRecord(Long generationRecordId) {
+        String idemKey = CURRENT_KEY.get();
+        if (idemKey == null || generationRecordId == null) {
+            return;
+        }
+        idempotencyKeyMapper.bindGenerationRecord(idemKey, generationRecordId);
+    }
+
+    /**
+     * 清理已过期的幂等键
+     */
+    @Scheduled(fixedDelayString = "${idempotency.evictIntervalMs:600000}")
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            entries.values().removeIf(entry -> entry.expiresAt < now);
+        }
+        int deleted;
+        int total = 0;
+        do {
+            deleted = idempotencyKeyMapper.deleteExpired(LocalDateTime.now(), EVICT_BATCH_SIZE);
+            total += deleted;
+        } while (deleted >= EVICT_BATCH_SIZE);
+        if (total > 0) {
+            log.debug("幂等键清理完成：清除 {} 条", total);
+        }
+    }
+
+    /**
+     * 获取幂等指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("executed", executedCount.sum());
+        stats.put("coalesced", coalescedCount.sum());
+        stats.put("replayed", replayedCount.sum());
+        stats.put("conflicts", conflictCount.sum());
+        stats.put("completeFailures", completeFailureCount.sum());
+        return stats;
+    }
+
+    private Object await(CompletableFuture<Object> result) throws Throwable {
+        try {
+            return result.get(waitSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new BusinessException(ErrorCode.REQUEST_IN_PROGRESS);
+        } catch (ExecutionException e) {
+            throw e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    private void checkSameRequest(String expected, String actual) {
+        if (expected != null && !expected.equals(actual)) {
+            conflictCount.increment();
+            throw new BusinessException(ErrorCode.PARAM_ERROR.getCode(), "Idempotency-Key 已用于其他请求");
+        }
+    }
+
+    private void forget(String idemKey, Entry entry) {
+        synchronized (entries) {
+            entries.remove(idemKey, entry);
+        }
+    }
+
+    private void releaseQuietly(String idemKey) {
+        try {
+            idempotencyKeyMapper.deletePending(idemKey);
+        } catch (Exception e) {
+            log.warn("释放幂等键失败 {}: {}", idemKey, e.getMessage());
+        }
+    }
+
+    private boolean isSuccess(Object result) {
+        return result instanceof Result<?> r && Integer.valueOf(200).equals(r.getCode());
+    }
+
+    private String hash(Object requestBody) {
+        try {
+            byte[] body = requestBody != null ? objectMapper.writeValueAsBytes(requestBody) : new byte[0];
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("计算请求摘要失败", e);
+        }
+    }
+
+    /**
+     * 被保护的方法调用
+     */
+    @FunctionalInterface
+    public interface Action {
+        Object proceed() throws Throwable;
+    }
+
+    /**
+     * 内存条目：首次请求的结果，完成前重复请求在此等待
+     */
+    private static final class Entry {
+        private final String requestHash;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        private Entry(String requestHash) {
+            this.requestHash = requestHash;
+        }
+
+        private boolean isExpired() {
+            return expiresAt < System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.entity.ApiPlatform;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 上游平台健康路由
+ * 按平台统计调用耗时（指数加权平均）、错误率和进行中的调用数，并为每个平台维护熔断器：
+ * 连续失败或错误率超过阈值时熔断，熔断期间不再路由到该平台；熔断时间到后放行一次探测调用（半开），
+ * 探测成功则恢复，失败则继续熔断并按指数退避延长熔断时间；探测调用未得到结论（release）时立即交还探测名额。
+ * 同一模型有多个可用平台时，按健康度（成功率、耗时、进行中调用数）加权随机选择。
+ */
+@Slf4j
+@Component
+public class PlatformHealthRouter {
+
+    private static final double EWMA_ALPHA = 0.2;
+
+    /**
+     * 连续失败多少次后熔断
+     */
+    @Value("${routing.breaker.failureThreshold:5}")
+    private int failureThreshold;
+
+    /**
+     * 错误率熔断阈值
+     */
+    @Value("${routing.breaker.errorRateThreshold:0.5}")
+    private double errorRateThreshold;
+
+    /**
+     * 按错误率熔断前至少需要的调用数
+     */
+    @Value("${routing.breaker.minSamples:20}")
+    private int minSamples;
+
+    /**
+     * 首次熔断时长（秒），再次熔断时翻倍
+     */
+    @Value("${routing.breaker.openSeconds:30}")
+    private int openSeconds;
+
+    /**
+     * 最长熔断时长（秒）
+     */
+    @Value("${routing.breaker.maxOpenSeconds:300}")
+    private int maxOpenSeconds;
+
+    /**
+     * 探测调用超过该时间（秒）未返回结果时，允许再次探测
+     */
+    @Value("${routing.breaker.probeTimeoutSeconds:120}")
+    private int probeTimeoutSeconds;
+
+    /**
+     * 尚无耗时样本的平台按该耗时（毫秒）参与加权
+     */
+    @Value("${routing.latency.initialMs:5000}")
+    private long initialLatencyMs;
+
+    /**
+     * 平台ID -> 健康状态
+     */
+    private final Map<Long, PlatformHealth> healthByPlatform = new ConcurrentHashMap<>();
+
+    private final LongAdder routedCount = new LongAdder();
+    private final LongAdder probeCount = new LongAdder();
+    private final LongAdder unavailableCount = new LongAdder();
+    private final LongAdder probeReleasedCount = new LongAdder();
+
+    /**
+     * 从候选平台中选择一个：优先放行到期的半开探测，其余按健康度加权随机
+     *
+     * @param candidates 候选平台
+     * @return 选中的平台；全部熔断时返回null
+     */
+    public ApiPlatform choose(List<ApiPlatform> candidates) {
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        List<ApiPlatform> available = new ArrayList<>(candidates.size());
+        List<PlatformHealth> healths = new ArrayList<>(candidates.size());
+        for (ApiPlatform platform : candidates) {
+            PlatformHealth health = health(platform.getId());
+            health.name = platform.getName();
+            if (health.tryAcquireProbe(now)) {
+                probeCount.increment();
+                routedCount.increment();
+                log.info("平台熔断到期，放行探测调用: {}({})", platform.getName(), platform.getId());
+                return platform;
+            }
+            if (health.isClosed()) {
+                available.add(platform);
+                healths.add(health);
+            }
+        }
+        ApiPlatform chosen = chooseWeighted(available, healths);
+        if (chosen == null) {
+            unavailableCount.increment();
+        } else {
+            routedCount.increment();
+        }
+        return chosen;
+    }
+
+    /**
+     * 只在未熔断的候选平台中按健康度加权随机选择，不占用半开探测名额
+     * 用于可选的附加调用（如对冲请求）：探测名额应留给主调用，附加调用不一定发出，占用后会让平台一直处于半开
+     *
+     * @param candidates 候选平台
+     * @return 选中的平台；没有未熔断的平台时返回null
+     */
+    public ApiPlatform chooseAvailable(List<ApiPlatform> candidates) {
+        if (candidates == null || candidates.isEmpty()) {
+            return null;
+        }
+        List<ApiPlatform> available = new ArrayList<>(candidates.size());
+        List<PlatformHealth> healths = new ArrayList<>(candidates.size());
+        for (ApiPlatform platform : candidates) {
+            PlatformHealth health = health(platform.getId());
+            health.name = platform.getName();
+            if (health.isClosed()) {
+                available.add(platform);
+                healths.add(health);
+            }
+        }
+        return chooseWeighted(available, healths);
+    }
+
+    private ApiPlatform chooseWeighted(List<ApiPlatform> available, List<PlatformHealth> healths) {
+        if (available.isEmpty()) {
+            return null;
+        }
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+
+        double[] weights = new double[available.size()];
+        double total = 0;
+        for (int i = 0; i < available.size(); i++) {
+            weights[i] = healths.get(i).score();
+            total += weights[i];
+        }
+        double point = ThreadLocalRandom.current().nextDouble() * total;
+        for (int i = 0; i < weights.length; i++) {
+            point -= weights[i];
+            if (point <= 0) {
+                return available.get(i);
+            }
+        }
+        return available.get(available.size() - 1);
+    }
+
+    /**
+     * 平台当前是否可路由（未熔断）
+     */
+    public boolean isAvailable(Long platformId) {
+        PlatformHealth health = platformId != null ? healthByPlatform.get(platformId) : null;
+        return health == null || health.isClosed();
+    }
+
+    /**
+     * 开始一次上游调用
+     *
+     * @param platformId 平台ID
+     * @return 调用句柄，结束时必须调用 success/failure/release 之一
+     */
+    public Call begin(Long platformId) {
+        if (platformId == null) {
+            return Call.NOOP;
+        }
+        PlatformHealth health = health(platformId);
+        health.inFlight.incrementAndGet();
+        health.requests.increment();
+        return new Call(health, System.currentTimeMillis());
+    }
+
+    /**
+     * 获取路由与熔断指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("routed", routedCount.sum());
+        stats.put("probes", probeCount.sum());
+        stats.put("unavailable", unavailableCount.sum());
+        stats.put("probesReleased", probeReleasedCount.sum());
+        Map<Long, Object> platforms = new TreeMap<>();
+        healthByPlatform.forEach((platformId, health) -> platforms.put(platformId, health.snapshot()));
+        stats.put("platforms", platforms);
+        return stats;
+    }
+
+    private PlatformHealth health(Long platformId) {
+        PlatformHealth health = healthByPlatform.get(platformId);
+        return health != null ? health : healthByPlatform.computeIfAbsent(platformId, id -> new PlatformHealth(id));
+    }
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 单个平台的健康状态
+     */
+    private final class PlatformHealth {
+
+        private final Long platformId;
+        private volatile String name;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder opens = new LongAdder();
+
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private long samples;
+        private double errorRate;
+        private double latencyMs = -1;
+        private long openedAt;
+        private long openMillis;
+        private long probeStartedAt;
+        private String lastFailure;
+
+        private PlatformHealth(Long platformId) {
+            this.platformId = platformId;
+        }
+
+        private synchronized boolean isClosed() {
+            return state == State.CLOSED;
+        }
+
+        /**
+         * 熔断到期（或上次探测超时）时占用探测名额
+         */
+        private synchronized boolean tryAcquireProbe(long now) {
+            if (state == State.OPEN && now - openedAt >= openMillis) {
+                state = State.HALF_OPEN;
+                probeStartedAt = now;
+                return true;
+            }
+            if (state == State.HALF_OPEN && now - probeStartedAt >= probeTimeoutSeconds * 1000L) {
+                probeStartedAt = now;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 健康度权重：成功率的平方 / (平均耗时 × (1 + 进行中调用数))
+         */
+        private synchronized double score() {
+            double availability = Math.max(0.05, 1.0 - errorRate);
+            double latency = Math.max(1.0, latencyMs >= 0 ? latencyMs : initialLatencyMs);
+            return availability * availability / (latency * (1 + inFlight.get()));
+        }
+
+        private synchronized void onSuccess(long elapsedMs) {
+            latencyMs = latencyMs < 0 ? elapsedMs : latencyMs + EWMA_ALPHA * (elapsedMs - latencyMs);
+            errorRate = errorRate * (1 - EWMA_ALPHA);
+            consecutiveFailures = 0;
+            samples++;
+            if (state == State.HALF_OPEN) {
+                state = State.CLOSED;
+                samples = 0;
+                errorRate = 0;
+                openMillis = 0;
+                log.info("平台探测成功，熔断恢复: {}({})", name, platformId);
+            }
+        }
+
+        /**
+         * 调用结束但不计入健康统计：半开期间在探测开始之后发起的调用即探测调用，交还探测名额，下次路由立即重新探测
+         */
+        private synchronized void onRelease(long callStartedAt) {
+            if (state == State.HALF_OPEN && callStartedAt >= probeStartedAt) {
+                probeStartedAt = 0L;
+                probeReleasedCount.increment();
+            }
+        }
+
+        private synchronized void onFailure(String reason) {
+            failures.increment();
+            lastFailure = reason;
+            errorRate = errorRate + EWMA_ALPHA * (1 - errorRate);
+            consecutiveFailures++;
+            samples++;
+            if (state == State.HALF_OPEN) {
+                open(Math.min(openMillis * 2, maxOpenSeconds * 1000L), reason);
+            } else if (state == State.CLOSED && (consecutiveFailures >= failureThreshold
+                    || (samples >= minSamples && errorRate >= errorRateThreshold))) {
+                open(openSeconds * 1000L, reason);
+            }
+        }
+
+        private void open(long duration, String reason) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            openMillis = Math.max(1000L, duration);
+            opens.increment();
+            log.warn("平台熔断: {}({}), 连续失败 {} 次, 错误率 {}, 熔断 {} 秒, 原因: {}", name, platformId,
+                    consecutiveFailures, String.format("%.2f", errorRate), openMillis / 1000, reason);
+        }
+
+        private synchronized Map<String, Object> snapshot() {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("name", name);
+            item.put("state", state.name());
+            item.put("inFlight", inFlight.get());
+            item.put("requests", requests.sum());
+            item.put("failures", failures.sum());
+            item.put("errorRate", Math.round(errorRate * 1000) / 1000.0);
+            item.put("avgLatencyMillis", latencyMs >= 0 ? Math.round(latencyMs) : null);
+            item.put("consecutiveFailures", consecutiveFailures);
+            item.put("opens", opens.sum());
+            item.put("openRemainingSeconds", state == State.OPEN
+                    ? Math.max(0, (openedAt + openMillis - System.currentTimeMillis()) / 1000) : 0);
+            item.put("lastFailure", lastFailure);
+            return item;
+        }
+    }
+
+    /**
+     * 一次上游调用
+     */
+    public static final class Call {
+
+        private static final Call NOOP = new Call(null, 0L);
+
+        private final PlatformHealth health;
+        private final long startedAt;
+        private boolean finished;
+
+        private Call(PlatformHealth health, long startedAt) {
+            this.health = health;
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * 调用成功（平台正常响应）
+         */
+        public void success() {
+            if (finish()) {
+                health.onSuccess(System.currentTimeMillis() - startedAt);
+            }
+        }
+
+        /**
+         * 调用失败（超时、网络错误、5xx、限流等平台侧问题）
+         */
+        public void failure(String reason) {
+            if (finish()) {
+                health.onFailure(reason);
+            }
+        }
+
+        /**
+         * 结束调用，不计入健康统计（如请求参数错误等调用方问题）；探测调用会立即交还探测名额
+         */
+        public void release() {
+            if (finish()) {
+                health.onRelease(startedAt);
+            }
+        }
+
+        private synchronized boolean finish() {
+            if (finished || health == null) {
+                return false;
+            }
+            finished = true;
+            health.inFlight.decrementAndGet();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.meitou.admin.service.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.entity.ApiInterface;
+import com.meitou.admin.entity.ApiPlatform;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 平台请求计划（编译后的平台配置）
+ * 把 ApiPlatform / ApiInterface 中以 JSON 保存的配置一次性解析为查找表：
+ * 已替换 {apiKey} 的请求头、参数映射表、模型 -> 计费规则索引、支持的模型集合。
+ * 平台级数据不可变，配置变更时整体替换；接口级数据按接口ID首次使用时编译并随计划缓存。
+ */
+@Slf4j
+public final class PlatformRequestPlan {
+
+    private final Long platformId;
+    private final String apiKey;
+
+    /**
+     * 编译时的原始配置，用于判断计划是否过期
+     */
+    private final LocalDateTime sourceUpdatedAt;
+    private final String sourceSupportedModels;
+
+    /**
+     * 明确支持的模型名称（name/id/value 或 # 分割的旧格式）
+     */
+    private final Set<String> modelNames;
+
+    /**
+     * 是否为未配置模型限制的通用平台
+     */
+    private final boolean generic;
+
+    /**
+     * 模型名称 -> 计费配置（同名模型按配置顺序排列）
+     */
+    private final Map<String, List<ModelCost>> modelCosts;
+
+    /**
+     * 接口ID -> 接口计划
+     */
+    private final Map<Long, InterfacePlan> interfacePlans = new ConcurrentHashMap<>();
+
+    private final ObjectMapper objectMapper;
+
+    private PlatformRequestPlan(ApiPlatform platform, Set<String> modelNames, boolean generic,
+            Map<String, List<ModelCost>> modelCosts, ObjectMapper objectMapper) {
+        this.platformId = platform.getId();
+        this.apiKey = platform.getApiKey();
+        this.sourceUpdatedAt = platform.getUpdatedAt();
+        this.sourceSupportedModels = platform.getSupportedModels();
+        this.modelNames = modelNames;
+        this.generic = generic;
+        this.modelCosts = modelCosts;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 编译平台配置
+     *
+     * @param platform     平台（apiKey 需已解密）
+     * @param objectMapper JSON 解析器
+     * @return 平台请求计划
+     */
+    public static PlatformRequestPlan compile(ApiPlatform platform, ObjectMapper objectMapper) {
+        String supportedModels = platform.getSupportedModels();
+        Set<String> modelNames = new LinkedHashSet<>();
+        Map<String, List<ModelCost>> modelCosts = new HashMap<>();
+        boolean generic = supportedModels == null || supportedModels.trim().isEmpty()
+                || "[]".equals(supportedModels.trim());
+
+        if (!generic) {
+            boolean parsed = false;
+            if (supportedModels.trim().startsWith("[")) {
+                try {
+                    JsonNode modelsNode = objectMapper.readTree(supportedModels);
+                    for (JsonNode m : modelsNode) {
+                        if (m.isTextual()) {
+                            modelNames.add(m.asText());
+                        } else if (m.isObject()) {
+                            // 优先 name 字段（对应前端 ModelInfo.id），兼容 id / value 字段
+                            for (String field : new String[] { "name", "id", "value" }) {
+                                if (m.has(field)) {
+                                    modelNames.add(m.get(field).asText());
+                                }
+                            }
+                            if (m.has("name")) {
+                                modelCosts.computeIfAbsent(m.get("name").asText(), k -> new ArrayList<>())
+                                        .add(ModelCost.parse(m));
+                            }
+                        }
+                    }
+                    parsed = true;
+                } catch (Exception e) {
+                    log.warn("解析平台[{}]的模型配置JSON失败，按#分割处理: {}", platform.getName(), e.getMessage());
+                }
+            }
+            if (!parsed) {
+                // 旧格式兼容：#号分割
+                for (String m : supportedModels.split("#")) {
+                    modelNames.add(m.trim());
+                }
+            }
+        }
+
+        modelCosts.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        return new PlatformRequestPlan(platform, Collections.unmodifiableSet(modelNames), generic,
+                Collections.unmodifiableMap(modelCosts), objectMapper);
+    }
+
+    /**
+     * 判断计划是否仍与平台当前配置一致
+     */
+    public boolean matches(ApiPlatform platform) {
+        return platform != null
+                && Objects.equals(platformId, platform.getId())
+                && Objects.equals(sourceUpdatedAt, platform.getUpdatedAt())
+                && Objects.equals(apiKey, platform.getApiKey())
+                && Objects.equals(sourceSupportedModels, platform.getSupportedModels());
+    }
+
+    public Long getPlatformId() {
+        return platformId;
+    }
+
+    /**
+     * 是否明确支持该模型
+     */
+    public boolean supportsModel(String model) {
+        return model != null && modelNames.contains(model);
+    }
+
+    /**
+     * 是否为未配置模型限制的通用平台
+     */
+    public boolean isGeneric() {
+        return generic;
+    }
+
+    /**
+     * 按模型计费配置计算单次消耗
+     * 规则：先匹配 costRules（分辨率、时长），再使用模型 defaultCost
+     *
+     * @return 单次消耗，未配置时返回 null
+     */
+    public Integer resolveUnitCost(String model, String resolution, Integer duration) {
+        if (model == null) {
+            return null;
+        }
+        List<ModelCost> costs = modelCosts.get(model);
+        if (costs == null) {
+            return null;
+        }
+        for (ModelCost cost : costs) {
+            Integer unitCost = cost.resolve(resolution, duration);
+            if (unitCost != null) {
+                return unitCost;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取接口计划（首次使用或接口配置变化时编译）
+     */
+    public InterfacePlan getInterfacePlan(ApiInterface apiInterface) {
+        Long interfaceId = apiInterface.getId();
+        if (interfaceId == null) {
+            return InterfacePlan.compile(apiInterface, apiKey, objectMapper);
+        }
+        InterfacePlan plan = interfacePlans.get(interfaceId);
+        if (plan == null || !plan.matches(apiInterface)) {
+            plan = InterfacePlan.compile(apiInterface, apiKey, objectMapper);
+            interfacePlans.put(interfaceId, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * 接口计划：已解析的请求头与参数映射
+     */
+    public static final class InterfacePlan {
+
+        private final String sourceHeaders;
+        private final String sourceParametersJson;
+
+        /**
+         * 请求头（已替换 {apiKey} 占位符，保持配置顺序）
+         */
+        private final Map<String, String> headers;
+
+        /**
+         * 参数映射：内部参数名 -> 平台参数名
+         */
+        private final Map<String, String> parameterMappings;
+
+        private InterfacePlan(ApiInterface apiInterface, Map<String, String> headers,
+                Map<String, String> parameterMappings) {
+            this.sourceHeaders = apiInterface.getHeaders();
+            this.sourceParametersJson = apiInterface.getParametersJson();
+            this.headers = headers;
+            this.parameterMappings = parameterMappings;
+        }
+
+        static InterfacePlan compile(ApiInterface apiInterface, String apiKey, ObjectMapper objectMapper) {
+            Map<String, String> headers = new LinkedHashMap<>();
+            String rawHeaders = apiInterface.getHeaders();
+            if (rawHeaders != null && !rawHeaders.trim().isEmpty()) {
+                try {
+                    // 格式：{"X-Api-Key": "{apiKey}"}，其他格式不添加请求头
+                    JsonNode headersNode = objectMapper.readTree(rawHeaders);
+                    headersNode.fields().forEachRemaining(entry ->
+                            headers.put(entry.getKey(), substituteApiKey(entry.getValue().asText(), apiKey)));
+                } catch (Exception e) {
+                    log.warn("解析接口[{}]的headers失败，使用默认配置：{}", apiInterface.getId(), e.getMessage());
+                }
+            }
+
+            Map<String, String> parameterMappings = new HashMap<>();
+            String rawMappings = apiInterface.getParametersJson();
+            if (rawMappings != null && !rawMappings.trim().isEmpty()) {
+                try {
+                    // 格式：{"image": "reference_image", "prompt": "text"}
+                    JsonNode mappingNode = objectMapper.readTree(rawMappings);
+                    if (mappingNode.isObject()) {
+                        mappingNode.fields().forEachRemaining(entry ->
+                                parameterMappings.put(entry.getKey(), entry.getValue().asText()));
+                    }
+                } catch (Exception e) {
+                    log.warn("解析接口[{}]的参数映射失败，使用原始参数：{}", apiInterface.getId(), e.getMessage());
+                }
+            }
+
+            return new InterfacePlan(apiInterface, Collections.unmodifiableMap(headers),
+                    Collections.unmodifiableMap(parameterMappings));
+        }
+
+        private static String substituteApiKey(String value, String apiKey) {
+            if (value.contains("{apiKey}") && apiKey != null) {
+                return value.replace("{apiKey}", apiKey);
+            }
+            return value;
+        }
+
+        boolean matches(ApiInterface apiInterface) {
+            return Objects.equals(sourceHeaders, apiInterface.getHeaders())
+                    && Objects.equals(sourceParametersJson, apiInterface.getParametersJson());
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public Map<String, String> getParameterMappings() {
+            return parameterMappings;
+        }
+    }
+
+    /**
+     * 单个模型的计费配置
+     */
+    private static final class ModelCost {
+
+        private final List<CostRule> rules;
+        private final Integer defaultCost;
+
+        private ModelCost(List<CostRule> rules, Integer defaultCost) {
+            this.rules = rules;
+            this.defaultCost = defaultCost;
+        }
+
+        static ModelCost parse(JsonNode m) {
+            List<CostRule> rules = new ArrayList<>();
+            if (m.has("costRules") && m.get("costRules").isArray()) {
+                for (JsonNode rule : m.get("costRules")) {
+                    String resolution = rule.has("resolution") && !rule.get("resolution").asText().isEmpty()
+                            ? rule.get("resolution").asText()
+                            : null;
+                    int duration = rule.has("duration") ? rule.get("duration").asInt() : 0;
+                    Integer cost = rule.has("cost") ? rule.get("cost").asInt() : null;
+                    rules.add(new CostRule(resolution, duration, cost));
+                }
+            }
+            Integer defaultCost = m.has("defaultCost") ? m.get("defaultCost").asInt() : null;
+            return new ModelCost(Collections.unmodifiableList(rules), defaultCost);
+        }
+
+        Integer resolve(String resolution, Integer duration) {
+            for (CostRule rule : rules) {
+                if (rule.matches(resolution, duration) && rule.cost != null && rule.cost >= 0) {
+                    return rule.cost;
+                }
+            }
+            if (defaultCost != null && defaultCost >= 0) {
+                return defaultCost;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 特殊计费规则（分辨率、时长为空或0时表示不限制）
+     */
+    private static final class CostRule {
+
+        private final String resolution;
+        private final int duration;
+        private final Integer cost;
+
+        private CostRule(String resolution, int duration, Integer cost) {
+            this.resolution = resolution;
+            this.duration = duration;
+            this.cost = cost;
+        }
+
+        boolean matches(String requestResolution, Integer requestDuration) {
+            if (resolution != null && !resolution.equals(requestResolution)) {
+                return false;
+            }
+            return duration <= 0 || (requestDuration != null && requestDuration == duration);
+        }
+    }
+}
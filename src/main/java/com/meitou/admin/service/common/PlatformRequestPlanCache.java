@@ -0,0 +1,62 @@
+package com.meitou.admin.service.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.entity.ApiPlatform;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 平台请求计划缓存服务
+ * 按平台ID缓存编译后的 PlatformRequestPlan；平台配置（更新时间、密钥、模型配置）变化时自动重新编译，
+ * 管理端增删改平台时主动失效。
+ */
+@Slf4j
+@Service
+public class PlatformRequestPlanCache {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 缓存: PlatformId -> PlatformRequestPlan
+    private final Map<Long, PlatformRequestPlan> plans = new ConcurrentHashMap<>();
+
+    /**
+     * 获取平台请求计划
+     *
+     * @param platform 平台（apiKey 需已解密）
+     * @return 平台请求计划
+     */
+    public PlatformRequestPlan getPlan(ApiPlatform platform) {
+        Long platformId = platform.getId();
+        PlatformRequestPlan plan = platformId != null ? plans.get(platformId) : null;
+        if (plan != null && plan.matches(platform)) {
+            return plan;
+        }
+        PlatformRequestPlan compiled = PlatformRequestPlan.compile(platform, objectMapper);
+        if (platformId != null) {
+            plans.put(platformId, compiled);
+            log.debug("平台[{}]请求计划已编译", platformId);
+        }
+        return compiled;
+    }
+
+    /**
+     * 使指定平台的请求计划失效
+     *
+     * @param platformId 平台ID
+     */
+    public void invalidate(Long platformId) {
+        if (platformId != null) {
+            plans.remove(platformId);
+        }
+    }
+
+    /**
+     * 清空全部请求计划
+     */
+    public void invalidateAll() {
+        plans.clear();
+    }
+}
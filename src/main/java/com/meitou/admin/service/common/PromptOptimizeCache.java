@@ -0,0 +1,307 @@
+package com.meitou.admin.service.common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.common.SiteContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 提示词优化结果缓存
+ * 按 站点 + 平台 + 模型 + 规范化后的消息内容 缓存上游流式返回的数据块（有界LRU + TTL），命中时按原顺序重放给客户端；
+ * 同一个键的请求正在进行时，后到的请求加入该请求（single-flight），先重放已收到的数据块再接收后续数据块，
+ * 只有一个上游流。只缓存成功的结果，失败时所有加入的请求收到同一个错误。
+ */
+@Component
+public class PromptOptimizeCache {
+
+    /**
+     * 最多缓存的结果数
+     */
+    @Value("${prompt.optimize.cache.maxEntries:2000}")
+    private int maxEntries;
+
+    /**
+     * 结果缓存时长（秒）
+     */
+    @Value("${prompt.optimize.cache.ttlSeconds:3600}")
+    private int ttlSeconds;
+
+    /**
+     * 单条结果最大字符数，超过则不缓存
+     */
+    @Value("${prompt.optimize.cache.maxResultChars:20000}")
+    private int maxResultChars;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 缓存键 -> 结果（访问顺序，超过上限时淘汰最久未访问的结果；entries 与 flights 的访问都在持有 entries 锁时进行）
+     */
+    private final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            if (size() > Math.max(1, maxEntries)) {
+                evictedCount.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * 缓存键 -> 正在进行的上游请求
+     */
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder joinedCount = new LongAdder();
+    private final LongAdder storedCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder failedFlightCount = new LongAdder();
+
+    /**
+     * 计算缓存键：按当前站点隔离，消息中的文本只去掉首尾空白后参与摘要（保留换行和缩进，格式不同的提示词优化结果不同）
+     *
+     * @param platformId 平台ID
+     * @param model      模型名称
+     * @param messages   消息列表
+     * @return 缓存键
+     */
+    public String key(Long platformId, String model, List<Map<String, Object>> messages) {
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(normalize(messages));
+            String digest = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+            Long siteId = SiteContext.getSiteId();
+            return (siteId != null ? siteId : 0L) + ":" + platformId + ":" + (model != null ? model.trim() : "") + ":" + digest;
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("计算提示词缓存键失败", e);
+        }
+    }
+
+    /**
+     * 查找缓存结果，未命中时加入或发起上游请求
+     *
+     * @param key 缓存键
+     * @return 命中的结果、已加入的进行中请求，或需要由调用方执行的新请求
+     */
+    public Lookup lookup(String key) {
+        synchronized (entries) {
+            CachedResult cached = entries.get(key);
+            if (cached != null && cached.expiresAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                cached = null;
+            }
+            if (cached != null) {
+                hitCount.increment();
+                return new Lookup(cached, null, false);
+            }
+            Flight flight = flights.get(key);
+            if (flight != null) {
+                joinedCount.increment();
+                return new Lookup(null, flight, false);
+            }
+            missCount.increment();
+            flight = new Flight(key);
+            flights.put(key, flight);
+            return new Lookup(null, flight, true);
+        }
+    }
+
+    /**
+     * 获取缓存指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("inFlight", flights.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hitCount.sum());
+        stats.put("misses", missCount.sum());
+        stats.put("joined", joinedCount.sum());
+        stats.put("stored", storedCount.sum());
+        stats.put("evicted", evictedCount.sum());
+        stats.put("failedFlights", failedFlightCount.sum());
+        return stats;
+    }
+
+    private Object normalize(Object value) {
+        if (value instanceof String text) {
+            return text.trim();
+        }
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> normalized = new TreeMap<>();
+            map.forEach((k, v) -> normalized.put(String.valueOf(k), normalize(v)));
+            return normalized;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> normalized = new ArrayList<>(list.size());
+            list.forEach(item -> normalized.add(normalize(item)));
+            return normalized;
+        }
+        return value;
+    }
+
+    private void finishFlight(Flight flight, CachedResult result) {
+        synchronized (entries) {
+            flights.remove(flight.key, flight);
+            if (result != null) {
+                entries.put(flight.key, result);
+                storedCount.increment();
+            }
+        }
+    }
+
+    /**
+     * 查找结果
+     *
+     * @param cached 命中的缓存结果（未命中为null）
+     * @param flight 进行中的上游请求（命中时为null）
+     * @param leader 是否由调用方发起上游请求并通过 {@link Flight} 发布结果
+     */
+    public record Lookup(CachedResult cached, Flight flight, boolean leader) {
+    }
+
+    /**
+     * 缓存的结果：上游返回的数据块（按顺序）及拼接后的完整文本
+     */
+    public static final class CachedResult {
+
+        private final List<String> chunks;
+        private final String fullText;
+        private final long expiresAt;
+
+        private CachedResult(List<String> chunks, String fullText, long expiresAt) {
+            this.chunks = chunks;
+            this.fullText = fullText;
+            this.expiresAt = expiresAt;
+        }
+
+        public List<String> getChunks() {
+            return chunks;
+        }
+
+        public String getFullText() {
+            return fullText;
+        }
+    }
+
+    /**
+     * 加入进行中请求的订阅方
+     * 回调在上游读取线程中执行，不应阻塞（通过 SseStreamRelay.Session 提交发送与持久化）
+     */
+    public interface Subscriber {
+
+        void onChunk(String chunk);
+
+        void onComplete(String fullText);
+
+        void onError(String errorMsg);
+    }
+
+    /**
+     * 进行中的上游请求：发起方发布数据块，订阅方按顺序收到全部数据块
+     */
+    public final class Flight {
+
+        private final String key;
+        private final List<String> chunks = new ArrayList<>();
+        private final StringBuilder fullText = new StringBuilder();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private boolean finished;
+        private boolean succeeded;
+        private String errorMsg;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * 已收到的数据块数
+         */
+        public synchronized int size() {
+            return chunks.size();
+        }
+
+        /**
+         * 订阅：先重放已收到的数据块；请求已结束时直接收到结束通知
+         */
+        public synchronized void subscribe(Subscriber subscriber) {
+            chunks.forEach(subscriber::onChunk);
+            if (!finished) {
+                subscribers.add(subscriber);
+            } else if (succeeded) {
+                subscriber.onComplete(fullText.toString());
+            } else {
+                subscriber.onError(errorMsg);
+            }
+        }
+
+        /**
+         * 发布一个数据块（发起方调用）
+         */
+        public synchronized void publish(String chunk) {
+            if (finished) {
+                return;
+            }
+            chunks.add(chunk);
+            fullText.append(chunk);
+            subscribers.forEach(subscriber -> subscriber.onChunk(chunk));
+        }
+
+        /**
+         * 上游成功结束（发起方调用），结果写入缓存
+         */
+        public void complete() {
+            String text;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                succeeded = true;
+                text = fullText.toString();
+                subscribers.forEach(subscriber -> subscriber.onComplete(text));
+                subscribers.clear();
+            }
+            CachedResult result = null;
+            if (!chunks.isEmpty() && text.length() <= maxResultChars) {
+                long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds);
+                result = new CachedResult(List.copyOf(chunks), text, expiresAt);
+            }
+            finishFlight(this, result);
+        }
+
+        /**
+         * 上游失败（发起方调用），不缓存，订阅方收到同一个错误
+         */
+        public void fail(String message) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                errorMsg = message;
+                subscribers.forEach(subscriber -> subscriber.onError(message));
+                subscribers.clear();
+            }
+            failedFlightCount.increment();
+            finishFlight(this, null);
+        }
+    }
+}
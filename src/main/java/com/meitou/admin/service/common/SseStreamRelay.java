@@ -0,0 +1,613 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.entity.ApiInterface;
+import com.meitou.admin.util.Deadline;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 上游 SSE 流转发器
+ * 上游流在独立调度器的线程上读取（按字节切分行后再解码 UTF-8，多字节字符不会被截断），
+ * 发给浏览器的事件先进入每个连接的有界队列，由发送线程池异步写出，慢客户端不会阻塞上游读取；
+ * 队列写满时断开该客户端，但继续读完上游以保存结果；单次写出超过发送超时（客户端不读取、TCP 窗口写满）时
+ * 由巡检线程断开该客户端并中断发送线程，避免个别连接长期占住发送线程。上游单行超过长度上限时按读取失败处理。
+ * 数据库写入在持久化线程池中按会话顺序执行，全部写入完成后才结束 SSE 连接。
+ */
+@Slf4j
+@Component
+public class SseStreamRelay {
+
+    private static final int READ_CHUNK_BYTES = 8192;
+
+    /**
+     * 每个连接待发送事件的队列容量
+     */
+    @Value("${sse.relay.bufferEvents:256}")
+    private int bufferEvents;
+
+    /**
+     * 发送线程数
+     */
+    @Value("${sse.relay.senderThreads:16}")
+    private int senderThreads;
+
+    /**
+     * 持久化线程数
+     */
+    @Value("${sse.relay.persistThreads:4}")
+    private int persistThreads;
+
+    /**
+     * 单次向客户端写出事件的超时（毫秒），超过后断开该客户端
+     */
+    @Value("${sse.relay.sendTimeoutMs:10000}")
+    private long sendTimeoutMs;
+
+    /**
+     * 上游单行最大字节数，超过时中止读取
+     */
+    @Value("${sse.relay.maxLineBytes:1048576}")
+    private long maxLineBytes;
+
+    private final UpstreamHttpClientProvider upstreamHttpClientProvider;
+    private final PlatformHealthRouter platformHealthRouter;
+    private final HedgedRequests hedgedRequests;
+
+    private ExecutorService senderExecutor;
+    private ExecutorService persistExecutor;
+    private ScheduledExecutorService watchdog;
+
+    /**
+     * 未结束的会话（巡检发送超时）
+     */
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final LongAdder totalSessions = new LongAdder();
+    private final LongAdder sentEvents = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder slowConsumerCloses = new LongAdder();
+    private final LongAdder clientDisconnects = new LongAdder();
+    private final LongAdder persistTasks = new LongAdder();
+    private final LongAdder persistFailures = new LongAdder();
+    private final LongAdder stalledSendCloses = new LongAdder();
+    private final LongAdder oversizedLines = new LongAdder();
+
+    public SseStreamRelay(UpstreamHttpClientProvider upstreamHttpClientProvider,
+                          PlatformHealthRouter platformHealthRouter,
+                          HedgedRequests hedgedRequests) {
+        this.upstreamHttpClientProvider = upstreamHttpClientProvider;
+        this.platformHealthRouter = platformHealthRouter;
+        this.hedgedRequests = hedgedRequests;
+    }
+
+    @PostConstruct
+    public void init() {
+        senderExecutor = Executors.newFixedThreadPool(Math.max(1, senderThreads), namedThreadFactory("sse-relay-sender-"));
+        persistExecutor = Executors.newFixedThreadPool(Math.max(1, persistThreads), namedThreadFactory("sse-relay-persist-"));
+        watchdog = Executors.newSingleThreadScheduledExecutor(namedThreadFactory("sse-relay-watchdog-"));
+        long interval = Math.max(200L, Math.min(1000L, sendTimeoutMs / 2));
+        watchdog.scheduleWithFixedDelay(this::closeStalledSessions, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        senderExecutor.shutdown();
+        persistExecutor.shutdown();
+        try {
+            persistExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 发起上游流式请求并把结果转发给客户端
+     *
+     * @param apiInterface          接口配置（决定读取超时）
+     * @param defaultTimeoutSeconds 接口未配置超时时使用的读取超时（秒）
+     * @param request               上游请求
+     * @param emitter               客户端 SSE 连接
+     * @param listener              流事件处理
+     */
+    public void relay(ApiInterface apiInterface, int defaultTimeoutSeconds, Request request,
+                      SseEmitter emitter, StreamListener listener) {
+        relay(new Upstream(apiInterface, request), null, defaultTimeoutSeconds, Deadline.none(), emitter, listener);
+    }
+
+    /**
+     * 发起上游流式请求（可对冲）并把结果转发给客户端
+     * 指定了对冲目标时，主请求超过该接口响应头耗时的 P95 仍未返回，则向对冲目标再发一次请求，
+     * 先返回成功响应的一路被转发，另一路取消。整个上游调用（含读取流）不超过截止时间。
+     *
+     * @param primary               主请求
+     * @param hedge                 对冲请求（为空时不对冲）
+     * @param defaultTimeoutSeconds 接口未配置超时时使用的读取超时（秒）
+     * @param deadline              截止时间
+     * @param emitter               客户端 SSE 连接
+     * @param listener              流事件处理
+     */
+    public void relay(Upstream primary, Upstream hedge, int defaultTimeoutSeconds, Deadline deadline,
+                      SseEmitter emitter, StreamListener listener) {
+        Attempts attempts = new Attempts(new Session(emitter, bufferEvents), listener, defaultTimeoutSeconds, deadline);
+        attempts.start(primary, false);
+        if (hedge == null) {
+            return;
+        }
+        long delay = hedgedRequests.hedgeDelayMillis(latencyKey(primary.apiInterface));
+        if (delay < 0 || delay >= deadline.remainingMillis()) {
+            return;
+        }
+        hedgedRequests.schedule(() -> {
+            if (!attempts.decided.get() && hedgedRequests.tryAcquireHedge()) {
+                log.debug("流式请求超过P95({}ms)未响应，发出对冲请求: {}", delay, hedge.request.url());
+                attempts.start(hedge, true);
+            }
+        }, delay);
+    }
+
+    /**
+     * 为不直接读取上游的客户端连接创建发送会话（如重放缓存结果、加入其他请求的上游流）
+     * 会话创建后会立即放入已有的数据块，队列容量需额外容纳这些事件，避免被当作慢客户端断开
+     *
+     * @param emitter       客户端 SSE 连接
+     * @param backlogEvents 创建后立即发送的事件数
+     * @return 会话
+     */
+    public Session open(SseEmitter emitter, int backlogEvents) {
+        return new Session(emitter, bufferEvents + Math.max(0, backlogEvents));
+    }
+
+    /**
+     * 提取 SSE 行中的数据负载（忽略注释、event/id/retry 字段，去掉 data: 前缀）
+     *
+     * @param line 行
+     * @return 负载，无需处理的行返回null
+     */
+    public static String extractPayload(String line) {
+        if (line == null) {
+            return null;
+        }
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith(":") || trimmed.startsWith("event:")
+                || trimmed.startsWith("id:") || trimmed.startsWith("retry:")) {
+            return null;
+        }
+        return trimmed.startsWith("data:") ? trimmed.substring(5).trim() : trimmed;
+    }
+
+    /**
+     * 获取转发指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activeSessions", activeSessions.get());
+        stats.put("totalSessions", totalSessions.sum());
+        stats.put("sentEvents", sentEvents.sum());
+        stats.put("droppedEvents", droppedEvents.sum());
+        stats.put("slowConsumerCloses", slowConsumerCloses.sum());
+        stats.put("clientDisconnects", clientDisconnects.sum());
+        stats.put("persistTasks", persistTasks.sum());
+        stats.put("persistFailures", persistFailures.sum());
+        stats.put("stalledSendCloses", stalledSendCloses.sum());
+        stats.put("oversizedLines", oversizedLines.sum());
+        return stats;
+    }
+
+    /**
+     * 断开写出超时的客户端（巡检线程执行）
+     */
+    private void closeStalledSessions() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Session session : sessions) {
+                session.closeIfStalled(now);
+            }
+        } catch (Exception e) {
+            log.warn("SSE 发送超时巡检失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 按行读取上游流：在字节层面按换行切分（换行符不会出现在 UTF-8 多字节序列中），完整的行再解码
+     *
+     * @return 处理方是否已结束流
+     * @throws IOException 读取失败，或单行超过长度上限
+     */
+    private boolean readLines(BufferedSource source, StreamListener listener, Session session) throws IOException {
+        Buffer pending = new Buffer();
+        while (source.read(pending, READ_CHUNK_BYTES) != -1) {
+            long newline;
+            while ((newline = pending.indexOf((byte) '\n')) != -1) {
+                String line = pending.readUtf8(newline);
+                pending.skip(1);
+                if (listener.onLine(stripCarriageReturn(line), session)) {
+                    return true;
+                }
+            }
+            if (pending.size() > maxLineBytes) {
+                oversizedLines.increment();
+                pending.clear();
+                throw new IOException("上游 SSE 单行超过 " + maxLineBytes + " 字节");
+            }
+        }
+        if (pending.size() > 0) {
+            return listener.onLine(stripCarriageReturn(pending.readUtf8()), session);
+        }
+        return false;
+    }
+
+    private String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 流式接口的耗时统计key（决定该接口是否对冲及对冲延迟）
+     *
+     * @param apiInterface 接口配置
+     * @return 对冲请求的操作key
+     */
+    public static String latencyKey(ApiInterface apiInterface) {
+        return "stream:" + apiInterface.getId();
+    }
+
+    /**
+     * 上游请求（接口配置 + 已构建的请求）
+     */
+    public static final class Upstream {
+
+        private final ApiInterface apiInterface;
+        private final Request request;
+
+        public Upstream(ApiInterface apiInterface, Request request) {
+            this.apiInterface = apiInterface;
+            this.request = request;
+        }
+    }
+
+    /**
+     * 一次转发中的各路上游请求（主请求与对冲请求），只有先成功响应的一路被转发
+     */
+    private final class Attempts {
+
+        private final Session session;
+        private final StreamListener listener;
+        private final int defaultTimeoutSeconds;
+        private final Deadline deadline;
+        private final AtomicBoolean decided = new AtomicBoolean();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Queue<Call> calls = new ConcurrentLinkedQueue<>();
+
+        private Attempts(Session session, StreamListener listener, int defaultTimeoutSeconds, Deadline deadline) {
+            this.session = session;
+            this.listener = listener;
+            this.defaultTimeoutSeconds = defaultTimeoutSeconds;
+            this.deadline = deadline;
+        }
+
+        private void start(Upstream upstream, boolean hedge) {
+            pending.incrementAndGet();
+            PlatformHealthRouter.Call health = platformHealthRouter.begin(upstream.apiInterface.getPlatformId());
+            Call call = upstreamHttpClientProvider.getStreamingClient(upstream.apiInterface, defaultTimeoutSeconds)
+                    .newCall(upstream.request);
+            if (deadline.isBounded()) {
+                call.timeout().timeout(Math.max(1L, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+            }
+            calls.add(call);
+            if (decided.get()) {
+                call.cancel();
+            }
+            long startedAt = System.currentTimeMillis();
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Call c, IOException e) {
+                    if (hedge) {
+                        hedgedRequests.releaseHedge();
+                    }
+                    // 取消或端到端预算耗尽（调用超时按剩余预算设置）不是平台故障
+                    if (c.isCanceled() || deadline.isExpired()) {
+                        health.release();
+                    } else {
+                        health.failure(e.getClass().getSimpleName());
+                    }
+                    if (pending.decrementAndGet() == 0 && decided.compareAndSet(false, true)) {
+                        listener.onError(e, session);
+                    }
+                }
+
+                @Override
+                public void onResponse(Call c, Response response) {
+                    if (hedge) {
+                        hedgedRequests.releaseHedge();
+                    }
+                    // 平台健康度按首字节耗时统计：5xx、429 计为平台故障，其余 4xx 不计入
+                    if (response.isSuccessful()) {
+                        health.success();
+                        hedgedRequests.recordLatency(latencyKey(upstream.apiInterface),
+                                System.currentTimeMillis() - startedAt);
+                    } else if (response.code() >= 500 || response.code() == 429) {
+                        health.failure("HTTP " + response.code());
+                    } else {
+                        health.release();
+                    }
+                    if (!response.isSuccessful() && pending.decrementAndGet() > 0) {
+                        // 另一路仍在进行，由它决定结果
+                        response.close();
+                        return;
+                    }
+                    if (!decided.compareAndSet(false, true)) {
+                        response.close();
+                        return;
+                    }
+                    if (hedge) {
+                        hedgedRequests.recordHedgeWin();
+                    }
+                    for (Call other : calls) {
+                        if (other != c) {
+                            other.cancel();
+                        }
+                    }
+                    forward(response);
+                }
+            });
+        }
+
+        private void forward(Response response) {
+            try (ResponseBody body = response.body()) {
+                if (!response.isSuccessful() || body == null) {
+                    String errorBody = body != null ? body.string() : "";
+                    listener.onHttpError(response.code(), errorBody, session);
+                    return;
+                }
+                if (readLines(body.source(), listener, session)) {
+                    return;
+                }
+                listener.onEnd(session);
+            } catch (Exception e) {
+                listener.onError(e, session);
+            }
+        }
+    }
+
+    /**
+     * 上游流事件处理
+     * 回调在上游读取线程中执行，不应直接阻塞写客户端或数据库，需通过 {@link Session} 的 send/persist 提交
+     */
+    public interface StreamListener {
+
+        /**
+         * 处理一行数据
+         *
+         * @return true 表示已结束，停止读取上游
+         */
+        boolean onLine(String line, Session session);
+
+        /**
+         * 上游流正常结束（处理方未提前结束）
+         */
+        void onEnd(Session session);
+
+        /**
+         * 上游返回非成功状态码
+         */
+        void onHttpError(int code, String body, Session session);
+
+        /**
+         * 请求或读取失败
+         */
+        void onError(Exception e, Session session);
+    }
+
+    /**
+     * 单个客户端连接的转发会话
+     */
+    public final class Session {
+
+        private final SseEmitter emitter;
+        private final int capacity;
+        private final Queue<SseEmitter.SseEventBuilder> queue;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean clientClosed;
+        private volatile boolean completeRequested;
+        private final Object sendLock = new Object();
+        private Thread sendingThread;
+        private long sendingSince;
+        private CompletableFuture<Void> persistChain = CompletableFuture.completedFuture(null);
+
+        private Session(SseEmitter emitter, int capacity) {
+            this.emitter = emitter;
+            this.capacity = Math.max(1, capacity);
+            this.queue = new ArrayBlockingQueue<>(this.capacity);
+            activeSessions.incrementAndGet();
+            totalSessions.increment();
+            sessions.add(this);
+            emitter.onCompletion(this::markClientClosed);
+            emitter.onTimeout(this::markClientClosed);
+            emitter.onError(e -> markClientClosed());
+        }
+
+        /**
+         * 发送事件（非阻塞）；队列已满说明客户端消费过慢，断开该客户端
+         */
+        public void send(SseEmitter.SseEventBuilder event) {
+            if (clientClosed) {
+                droppedEvents.increment();
+                return;
+            }
+            if (!queue.offer(event)) {
+                droppedEvents.increment();
+                slowConsumerCloses.increment();
+                log.warn("SSE 客户端消费过慢，断开连接（队列容量 {}）", capacity);
+                clientClosed = true;
+            }
+            scheduleDrain();
+        }
+
+        /**
+         * 发送数据事件（非阻塞）
+         */
+        public void send(Object data) {
+            send(SseEmitter.event().data(data));
+        }
+
+        /**
+         * 在持久化线程池中执行数据库写入，同一会话内按提交顺序执行
+         */
+        public synchronized void persist(Runnable task) {
+            persistTasks.increment();
+            persistChain = persistChain.thenRunAsync(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    persistFailures.increment();
+                    log.error("SSE 会话结果保存失败: {}", e.getMessage(), e);
+                }
+            }, persistExecutor);
+        }
+
+        /**
+         * 结束会话：已提交的数据库写入完成、排队事件发送完后关闭客户端连接
+         */
+        public synchronized void complete() {
+            persistChain.whenComplete((r, e) -> {
+                completeRequested = true;
+                scheduleDrain();
+            });
+        }
+
+        /**
+         * 客户端是否已断开
+         */
+        public boolean isClientClosed() {
+            return clientClosed;
+        }
+
+        /**
+         * 当前写出已超过发送超时：断开客户端并中断发送线程（drain 随后丢弃剩余事件并结束会话）
+         */
+        private void closeIfStalled(long now) {
+            synchronized (sendLock) {
+                if (sendingThread == null || clientClosed || now - sendingSince < sendTimeoutMs) {
+                    return;
+                }
+                stalledSendCloses.increment();
+                log.warn("SSE 客户端写出超过 {} ms 未完成，断开连接", sendTimeoutMs);
+                markClientClosed();
+                sendingThread.interrupt();
+            }
+        }
+
+        private void markClientClosed() {
+            if (!clientClosed && !finished.get()) {
+                clientDisconnects.increment();
+            }
+            clientClosed = true;
+        }
+
+        private void scheduleDrain() {
+            if (finished.get()) {
+                return;
+            }
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    senderExecutor.execute(this::drain);
+                } catch (Exception e) {
+                    draining.set(false);
+                    finish();
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                while (!finished.get()) {
+                    if (clientClosed) {
+                        droppedEvents.add(queue.size());
+                        queue.clear();
+                        finish();
+                        break;
+                    }
+                    SseEmitter.SseEventBuilder event = queue.poll();
+                    if (event == null) {
+                        if (completeRequested) {
+                            finish();
+                        }
+                        break;
+                    }
+                    synchronized (sendLock) {
+                        sendingThread = Thread.currentThread();
+                        sendingSince = System.currentTimeMillis();
+                    }
+                    try {
+                        emitter.send(event);
+                        sentEvents.increment();
+                    } catch (Exception e) {
+                        markClientClosed();
+                    } finally {
+                        synchronized (sendLock) {
+                            sendingThread = null;
+                            // 巡检线程的中断只在本次写出期间发出，不带到线程池的下一个任务
+                            Thread.interrupted();
+                        }
+                    }
+                }
+            } finally {
+                draining.set(false);
+                if (!finished.get() && (!queue.isEmpty() || completeRequested || clientClosed)) {
+                    scheduleDrain();
+                }
+            }
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(false, true)) {
+                activeSessions.decrementAndGet();
+                sessions.remove(this);
+                try {
+                    emitter.complete();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+}
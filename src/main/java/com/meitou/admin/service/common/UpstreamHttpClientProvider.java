@@ -0,0 +1,317 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.entity.ApiInterface;
+import com.meitou.admin.util.Deadline;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 上游HTTP客户端提供者
+ * 全局共享一个 OkHttpClient（连接池 + 调度器），按目标主机复用连接，支持 HTTP/2。
+ * 不同读取超时的客户端通过 newBuilder() 派生，共享同一连接池；RestTemplate 按超时时间缓存复用。
+ * 流式（SSE）请求使用独立调度器，长时间占用的流不会挤占普通请求的并发名额。
+ */
+@Slf4j
+@Component
+public class UpstreamHttpClientProvider {
+
+    /**
+     * 连接超时（秒）
+     */
+    @Value("${http.client.connectTimeoutSeconds:30}")
+    private int connectTimeoutSeconds;
+
+    /**
+     * 默认读取超时（秒），接口未单独配置超时时使用
+     */
+    @Value("${http.client.readTimeoutSeconds:300}")
+    private int readTimeoutSeconds;
+
+    /**
+     * 写入超时（秒）
+     */
+    @Value("${http.client.writeTimeoutSeconds:60}")
+    private int writeTimeoutSeconds;
+
+    /**
+     * 连接池最大空闲连接数
+     */
+    @Value("${http.client.maxIdleConnections:64}")
+    private int maxIdleConnections;
+
+    /**
+     * 空闲连接保活时间（秒）
+     */
+    @Value("${http.client.keepAliveSeconds:300}")
+    private int keepAliveSeconds;
+
+    /**
+     * 异步请求最大并发数
+     */
+    @Value("${http.client.maxRequests:256}")
+    private int maxRequests;
+
+    /**
+     * 单个主机异步请求最大并发数
+     */
+    @Value("${http.client.maxRequestsPerHost:64}")
+    private int maxRequestsPerHost;
+
+    /**
+     * 流式请求最大并发数
+     */
+    @Value("${http.client.streaming.maxRequests:256}")
+    private int streamingMaxRequests;
+
+    /**
+     * 单个主机流式请求最大并发数
+     */
+    @Value("${http.client.streaming.maxRequestsPerHost:128}")
+    private int streamingMaxRequestsPerHost;
+
+    /**
+     * 是否启用 HTTP/2（上游支持 ALPN 协商时生效）
+     */
+    @Value("${http.client.http2Enabled:true}")
+    private boolean http2Enabled;
+
+    private OkHttpClient sharedClient;
+
+    private OkHttpClient streamingClient;
+
+    /**
+     * 读取超时（秒） -> 客户端
+     */
+    private final Map<Integer, OkHttpClient> clientsByTimeout = new ConcurrentHashMap<>();
+
+    /**
+     * 读取超时（秒） -> 流式客户端
+     */
+    private final Map<Integer, OkHttpClient> streamingClientsByTimeout = new ConcurrentHashMap<>();
+
+    /**
+     * 读取超时（秒） -> RestTemplate
+     */
+    private final Map<Integer, RestTemplate> restTemplatesByTimeout = new ConcurrentHashMap<>();
+
+    /**
+     * 主机 -> 请求指标
+     */
+    private final Map<String, HostStats> hostStats = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(writeTimeoutSeconds, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .addInterceptor(this::recordMetrics);
+        if (http2Enabled) {
+            builder.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        } else {
+            builder.protocols(Arrays.asList(Protocol.HTTP_1_1));
+        }
+        sharedClient = builder.build();
+        clientsByTimeout.put(readTimeoutSeconds, sharedClient);
+
+        Dispatcher streamingDispatcher = new Dispatcher();
+        streamingDispatcher.setMaxRequests(streamingMaxRequests);
+        streamingDispatcher.setMaxRequestsPerHost(streamingMaxRequestsPerHost);
+        streamingClient = sharedClient.newBuilder()
+                .dispatcher(streamingDispatcher)
+                .build();
+        streamingClientsByTimeout.put(readTimeoutSeconds, streamingClient);
+        log.info("上游HTTP客户端已初始化: maxIdle={}, maxRequestsPerHost={}, http2={}",
+                maxIdleConnections, maxRequestsPerHost, http2Enabled);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sharedClient == null) {
+            return;
+        }
+        sharedClient.dispatcher().executorService().shutdown();
+        if (streamingClient != null) {
+            streamingClient.dispatcher().executorService().shutdown();
+        }
+        sharedClient.connectionPool().evictAll();
+    }
+
+    /**
+     * 获取默认超时的共享客户端
+     */
+    public OkHttpClient getClient() {
+        return sharedClient;
+    }
+
+    /**
+     * 获取指定读取超时的客户端（与共享客户端共用连接池和调度器）
+     *
+     * @param readTimeoutSeconds 读取超时（秒），为空或非正数时使用默认值
+     */
+    public OkHttpClient getClient(Integer readTimeoutSeconds) {
+        int timeout = resolveTimeout(readTimeoutSeconds);
+        return clientsByTimeout.computeIfAbsent(timeout, t -> sharedClient.newBuilder()
+                .readTimeout(t, TimeUnit.SECONDS)
+                .build());
+    }
+
+    /**
+     * 获取默认超时的 RestTemplate
+     */
+    public RestTemplate getRestTemplate() {
+        return getRestTemplate(readTimeoutSeconds);
+    }
+
+    /**
+     * 获取指定读取超时的 RestTemplate
+     *
+     * @param readTimeoutSeconds 读取超时（秒），为空或非正数时使用默认值
+     */
+    @SuppressWarnings("removal")
+    public RestTemplate getRestTemplate(Integer readTimeoutSeconds) {
+        int timeout = resolveTimeout(readTimeoutSeconds);
+        return restTemplatesByTimeout.computeIfAbsent(timeout,
+                t -> new RestTemplate(new OkHttp3ClientHttpRequestFactory(getClient(t))));
+    }
+
+    /**
+     * 获取接口配置对应超时的 RestTemplate
+     *
+     * @param apiInterface          接口配置
+     * @param defaultTimeoutSeconds 接口未配置超时时使用的读取超时（秒）
+     */
+    public RestTemplate getRestTemplate(ApiInterface apiInterface, int defaultTimeoutSeconds) {
+        return getRestTemplate(resolveInterfaceTimeout(apiInterface, defaultTimeoutSeconds));
+    }
+
+    /**
+     * 获取接口配置对应超时的 RestTemplate，读取超时不超过截止时间的剩余时间
+     *
+     * @param apiInterface          接口配置
+     * @param defaultTimeoutSeconds 接口未配置超时时使用的读取超时（秒）
+     * @param deadline              截止时间
+     */
+    public RestTemplate getRestTemplate(ApiInterface apiInterface, int defaultTimeoutSeconds, Deadline deadline) {
+        int timeout = resolveTimeout(resolveInterfaceTimeout(apiInterface, defaultTimeoutSeconds));
+        return getRestTemplate(deadline.timeoutSeconds(timeout));
+    }
+
+    /**
+     * 获取接口配置对应超时的客户端
+     *
+     * @param apiInterface          接口配置
+     * @param defaultTimeoutSeconds 接口未配置超时时使用的读取超时（秒）
+     */
+    public OkHttpClient getClient(ApiInterface apiInterface, int defaultTimeoutSeconds) {
+        return getClient(resolveInterfaceTimeout(apiInterface, defaultTimeoutSeconds));
+    }
+
+    /**
+     * 获取接口配置对应超时的流式客户端（独立调度器，与共享客户端共用连接池）
+     *
+     * @param apiInterface          接口配置
+     * @param defaultTimeoutSeconds 接口未配置超时时使用的读取超时（秒）
+     */
+    public OkHttpClient getStreamingClient(ApiInterface apiInterface, int defaultTimeoutSeconds) {
+        int timeout = resolveTimeout(resolveInterfaceTimeout(apiInterface, defaultTimeoutSeconds));
+        return streamingClientsByTimeout.computeIfAbsent(timeout, t -> streamingClient.newBuilder()
+                .readTimeout(t, TimeUnit.SECONDS)
+                .build());
+    }
+
+    /**
+     * 获取连接池及各主机请求指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connectionCount", sharedClient.connectionPool().connectionCount());
+        stats.put("idleConnectionCount", sharedClient.connectionPool().idleConnectionCount());
+        stats.put("runningCalls", sharedClient.dispatcher().runningCallsCount());
+        stats.put("queuedCalls", sharedClient.dispatcher().queuedCallsCount());
+        stats.put("streamingRunningCalls", streamingClient.dispatcher().runningCallsCount());
+        stats.put("streamingQueuedCalls", streamingClient.dispatcher().queuedCallsCount());
+
+        Map<String, Object> hosts = new TreeMap<>();
+        hostStats.forEach((host, hs) -> {
+            long count = hs.requests.sum();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("requests", count);
+            item.put("errors", hs.errors.sum());
+            item.put("avgLatencyMillis", count > 0 ? hs.totalLatencyMillis.sum() / count : 0);
+            item.put("maxLatencyMillis", hs.maxLatencyMillis.get());
+            hosts.put(host, item);
+        });
+        stats.put("hosts", hosts);
+        return stats;
+    }
+
+    private int resolveInterfaceTimeout(ApiInterface apiInterface, int defaultTimeoutSeconds) {
+        if (apiInterface != null && apiInterface.getTimeoutSeconds() != null && apiInterface.getTimeoutSeconds() > 0) {
+            return apiInterface.getTimeoutSeconds();
+        }
+        return defaultTimeoutSeconds;
+    }
+
+    private int resolveTimeout(Integer timeoutSeconds) {
+        return timeoutSeconds != null && timeoutSeconds > 0 ? timeoutSeconds : readTimeoutSeconds;
+    }
+
+    /**
+     * 记录请求耗时（到响应头返回为止）与错误数
+     */
+    private Response recordMetrics(okhttp3.Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        HostStats stats = hostStats.computeIfAbsent(request.url().host(), h -> new HostStats());
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Response response = chain.proceed(request);
+            success = response.isSuccessful();
+            return response;
+        } finally {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            stats.requests.increment();
+            stats.totalLatencyMillis.add(elapsed);
+            stats.maxLatencyMillis.accumulate(elapsed);
+            if (!success) {
+                stats.errors.increment();
+            }
+        }
+    }
+
+    private static class HostStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalLatencyMillis = new LongAdder();
+        private final LongAccumulator maxLatencyMillis = new LongAccumulator(Long::max, 0L);
+    }
+}
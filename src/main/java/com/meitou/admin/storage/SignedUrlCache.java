@@ -0,0 +1,143 @@
+package com.meitou.admin.storage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 签名URL缓存
+ * 以「Bucket + 对象Key + 处理参数」为键缓存预签名URL，同一对象在有效期内复用同一个签名结果。
+ * 距离过期不足 refreshBeforeMillis 时视为失效并重新签名，保证返回给前端的URL至少还有该时长可用；
+ * 按最近访问顺序淘汰，最多保留 maxSize 条。
+ */
+public class SignedUrlCache {
+
+    /**
+     * 默认最大缓存条数
+     */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /**
+     * 默认签名有效期（秒）
+     */
+    public static final int DEFAULT_EXPIRE_SECONDS = 3600;
+
+    /**
+     * 默认提前重新签名时间（秒）
+     */
+    public static final int DEFAULT_REFRESH_BEFORE_SECONDS = 600;
+
+    private final int maxSize;
+    private final long expireMillis;
+    private final long refreshBeforeMillis;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SignedUrlCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_EXPIRE_SECONDS, DEFAULT_REFRESH_BEFORE_SECONDS);
+    }
+
+    /**
+     * @param maxSize              最大缓存条数，非正数时使用默认值
+     * @param expireSeconds        签名有效期（秒），非正数时使用默认值
+     * @param refreshBeforeSeconds 提前重新签名时间（秒），需小于有效期，否则取有效期的一半
+     */
+    public SignedUrlCache(int maxSize, int expireSeconds, int refreshBeforeSeconds) {
+        this.maxSize = maxSize > 0 ? maxSize : DEFAULT_MAX_SIZE;
+        int expire = expireSeconds > 0 ? expireSeconds : DEFAULT_EXPIRE_SECONDS;
+        int refreshBefore = refreshBeforeSeconds >= 0 && refreshBeforeSeconds < expire ? refreshBeforeSeconds : expire / 2;
+        this.expireMillis = expire * 1000L;
+        this.refreshBeforeMillis = refreshBefore * 1000L;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SignedUrlCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * 构建缓存键
+     *
+     * @param bucketName  Bucket名称
+     * @param objectKey   对象Key
+     * @param queryParams 参与签名的处理参数（如 x-oss-process）
+     * @return 缓存键
+     */
+    public static String buildKey(String bucketName, String objectKey, Map<String, String> queryParams) {
+        StringBuilder key = new StringBuilder(bucketName).append('/').append(objectKey);
+        if (queryParams != null && !queryParams.isEmpty()) {
+            char separator = '?';
+            for (Map.Entry<String, String> entry : queryParams.entrySet()) {
+                key.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * 获取签名URL，缓存未命中或即将过期时调用 signer 重新签名
+     * 签名在锁外执行；signer 返回 null 时不缓存
+     *
+     * @param key    缓存键
+     * @param signer 签名函数，参数为本次签名的过期时间戳（毫秒）
+     * @return 签名URL
+     */
+    public String get(String key, Function<Long, String> signer) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && now < entry.expiresAtMillis - refreshBeforeMillis) {
+                hits.increment();
+                return entry.url;
+            }
+        }
+        misses.increment();
+        long expiresAtMillis = now + expireMillis;
+        String url = signer.apply(expiresAtMillis);
+        if (url != null) {
+            synchronized (entries) {
+                entries.put(key, new Entry(url, expiresAtMillis));
+            }
+        }
+        return url;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * 获取缓存指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        return stats;
+    }
+
+    private static final class Entry {
+        private final String url;
+        private final long expiresAtMillis;
+
+        private Entry(String url, long expiresAtMillis) {
+            this.url = url;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
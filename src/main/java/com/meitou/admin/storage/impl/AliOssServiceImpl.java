@@ -8,6 +8,7 @@ import com.aliyun.oss.model.GeneratePresignedUrlRequest;
 import com.aliyun.oss.model.ObjectMetadata;
 import com.aliyun.oss.model.PutObjectRequest;
 import com.meitou.admin.storage.FileStorageService;
+import com.meitou.admin.storage.SignedUrlCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -64,10 +65,33 @@ public class AliOssServiceImpl implements FileStorageService {
     @Value("${file.storage.aliyun.domain:}")
     private String domain;
     
+    /**
+     * 签名URL有效期（秒）
+     */
+    @Value("${file.storage.signed-url.expire-seconds:3600}")
+    private int signedUrlExpireSeconds;
+
+    /**
+     * 签名URL剩余有效期不足该值（秒）时重新签名
+     */
+    @Value("${file.storage.signed-url.refresh-before-seconds:600}")
+    private int signedUrlRefreshBeforeSeconds;
+
+    /**
+     * 签名URL缓存最大条数
+     */
+    @Value("${file.storage.signed-url.cache-size:10000}")
+    private int signedUrlCacheSize;
+    
     /**
      * OSS客户端
      */
     private OSS ossClient;
+
+    /**
+     * 签名URL缓存（init 时按配置重建）
+     */
+    private SignedUrlCache signedUrlCache = new SignedUrlCache();
     
     /**
      * 初始化OSS客户端
@@ -94,6 +118,7 @@ public class AliOssServiceImpl implements FileStorageService {
                 endpointWithProtocol = "https://" + endpointWithProtocol;
             }
             ossClient = new OSSClientBuilder().build(endpointWithProtocol, accessKeyId, accessKeySecret);
+            signedUrlCache = new SignedUrlCache(signedUrlCacheSize, signedUrlExpireSeconds, signedUrlRefreshBeforeSeconds);
             
             log.info("阿里云OSS客户端初始化成功，Endpoint：{}，Bucket：{}", endpoint, bucketName);
         } catch (Exception e) {
@@ -276,25 +301,37 @@ public class AliOssServiceImpl implements FileStorageService {
             objectKey = keyOrUrl;
         }
 
-        try {
-            // 设置过期时间为1小时
-            Date expiration = new Date(System.currentTimeMillis() + 3600 * 1000);
-            GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(bucketNameForSigning, objectKey, HttpMethod.GET);
-            request.setExpiration(expiration);
-
-            Map<String, String> extraQueryParameters = parseQueryParameters(rawQuery);
-            for (Map.Entry<String, String> entry : extraQueryParameters.entrySet()) {
-                if (!isSignatureRelatedParameter(entry.getKey())) {
-                    request.addQueryParameter(entry.getKey(), entry.getValue());
-                }
+        Map<String, String> extraQueryParameters = new LinkedHashMap<>();
+        parseQueryParameters(rawQuery).forEach((key, value) -> {
+            if (!isSignatureRelatedParameter(key)) {
+                extraQueryParameters.put(key, value);
             }
+        });
 
-            URL url = ossClient.generatePresignedUrl(request);
-            return url.toString();
-        } catch (Exception e) {
-            log.error("生成OSS签名URL失败: {}", keyOrUrl, e);
-            return keyOrUrl;
-        }
+        String signingBucket = bucketNameForSigning;
+        String signingKey = objectKey;
+        String cacheKey = SignedUrlCache.buildKey(signingBucket, signingKey, extraQueryParameters);
+        String signedUrl = signedUrlCache.get(cacheKey, expiresAtMillis -> {
+            try {
+                GeneratePresignedUrlRequest request = new GeneratePresignedUrlRequest(signingBucket, signingKey, HttpMethod.GET);
+                request.setExpiration(new Date(expiresAtMillis));
+                extraQueryParameters.forEach(request::addQueryParameter);
+
+                URL url = ossClient.generatePresignedUrl(request);
+                return url.toString();
+            } catch (Exception e) {
+                log.error("生成OSS签名URL失败: {}", keyOrUrl, e);
+                return null;
+            }
+        });
+        return signedUrl != null ? signedUrl : keyOrUrl;
+    }
+
+    /**
+     * 获取签名URL缓存指标
+     */
+    public Map<String, Object> getSignedUrlCacheStats() {
+        return signedUrlCache.getStats();
     }
 
     private Map<String, String> parseQueryParameters(String rawQuery) {
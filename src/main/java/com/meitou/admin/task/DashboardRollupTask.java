@@ -0,0 +1,64 @@
+package com.meitou.admin.task;
+
+import com.meitou.admin.service.admin.DashboardRollupService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据概览汇总定时任务
+ * 定期补齐已结束日期的按天汇总（跨天后汇总前一天，首次运行时分批回填历史数据）。
+ * 回填可能连续汇总多天，在独立的调度线程上执行，不阻塞租约续约、算力结算等共用调度线程的定时任务。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DashboardRollupTask {
+
+    private final DashboardRollupService dashboardRollupService;
+
+    /**
+     * 首次执行延迟（毫秒）
+     */
+    @Value("${dashboard.rollup.initialDelayMs:60000}")
+    private long initialDelayMs;
+
+    /**
+     * 执行间隔（毫秒）
+     */
+    @Value("${dashboard.rollup.fixedDelayMs:600000}")
+    private long fixedDelayMs;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dashboard-rollup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::rollup, Math.max(0L, initialDelayMs),
+                Math.max(1000L, fixedDelayMs), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public void rollup() {
+        try {
+            dashboardRollupService.catchUp();
+        } catch (Exception e) {
+            log.error("数据概览汇总任务执行失败: {}", e.getMessage(), e);
+        }
+    }
+}
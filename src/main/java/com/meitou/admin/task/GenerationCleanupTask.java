@@ -4,6 +4,8 @@ import com.meitou.admin.common.SiteContext;
 import com.meitou.admin.entity.GenerationRecord;
 import com.meitou.admin.mapper.GenerationRecordMapper;
 import com.meitou.admin.service.app.GenerationService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,93 +13,305 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * 生成任务清理定时任务
- * 处理长时间卡在 processing 状态的任务
+ * 处理长时间卡在 processing 状态的任务（处理中任务的状态同步由 {@link GenerationTaskPoller} 负责）：
+ * 按ID游标批量扫描超时记录，按站点分块后并行处理；已提交到上游（有 task_id）的记录：
+ * 本节点轮询器仍在跟踪的，宽限期内交给轮询器继续查询，本轮跳过；其余在独立线程池中并发向上游同步一次状态（每次查询限时），
+ * 上游已完成的任务按正常结果处理，其余每块在一个事务中批量置为失败并合并退款；
+ * 某一块失败时回退为逐条处理，隔离个别异常记录。
  */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class GenerationCleanupTask {
 
+    private static final String TIMEOUT_REASON = "任务执行超时，系统自动退款";
+
     private final GenerationRecordMapper generationRecordMapper;
     private final GenerationService generationService;
-
-    @Value("${generation.task.sync.batchSize:50}")
-    private int syncBatchSize;
+    private final GenerationTaskPoller generationTaskPoller;
 
     @Value("${generation.task.timeout.minutes:60}")
     private int timeoutMinutes;
 
-    @Value("${generation.task.timeout.batchSize:50}")
+    /**
+     * 单次扫描的记录数
+     */
+    @Value("${generation.task.timeout.batchSize:1000}")
     private int timeoutBatchSize;
 
-    @Scheduled(fixedRateString = "${generation.task.sync.fixedRateMs:60000}")
-    public void syncProcessingTasks() {
-        List<GenerationRecord> processingRecords = generationRecordMapper.selectProcessingIgnoreTenant(syncBatchSize);
-        if (processingRecords.isEmpty()) {
-            return;
-        }
+    /**
+     * 每个事务处理的记录数
+     */
+    @Value("${generation.task.timeout.chunkSize:200}")
+    private int chunkSize;
 
-        for (GenerationRecord record : processingRecords) {
-            if (record.getSiteId() == null) {
-                continue;
+    /**
+     * 并行处理的块数
+     */
+    @Value("${generation.task.timeout.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 单次执行最多扫描的记录数
+     */
+    @Value("${generation.task.timeout.maxPerRun:50000}")
+    private int maxPerRun;
+
+    /**
+     * 同步上游状态的并发数
+     */
+    @Value("${generation.task.timeout.statusCheckParallelism:8}")
+    private int statusCheckParallelism;
+
+    /**
+     * 单次同步上游状态的超时（秒），超时按同步失败处理
+     */
+    @Value("${generation.task.timeout.statusCheckTimeoutSeconds:10}")
+    private int statusCheckTimeoutSeconds;
+
+    /**
+     * 轮询器仍在跟踪的任务在超时后额外等待的分钟数，超过后不再等待轮询器
+     */
+    @Value("${generation.task.timeout.pollerGraceMinutes:60}")
+    private int pollerGraceMinutes;
+
+    private ExecutorService sweepExecutor;
+    private ExecutorService statusCheckExecutor;
+
+    private final LongAdder sweptRecords = new LongAdder();
+    private final LongAdder refundedAmount = new LongAdder();
+    private final LongAdder chunkCount = new LongAdder();
+    private final LongAdder chunkFailures = new LongAdder();
+    private final LongAdder fallbackRecords = new LongAdder();
+    private final LongAdder upstreamChecks = new LongAdder();
+    private final LongAdder upstreamCheckFailures = new LongAdder();
+    private final LongAdder deferredToPoller = new LongAdder();
+    private volatile long lastRunRecords;
+    private volatile long lastRunMillis;
+    private volatile LocalDateTime lastRunAt;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        sweepExecutor = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread thread = new Thread(r, "generation-timeout-sweep-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger checkThreadIndex = new AtomicInteger();
+        statusCheckExecutor = Executors.newFixedThreadPool(Math.max(1, statusCheckParallelism), r -> {
+            Thread thread = new Thread(r, "generation-timeout-check-" + checkThreadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        statusCheckExecutor.shutdownNow();
+        sweepExecutor.shutdown();
+        try {
+            if (!sweepExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                sweepExecutor.shutdownNow();
             }
-            runWithSiteContext(record.getSiteId(), () -> {
-                try {
-                    generationService.getTaskStatus(record.getId());
-                } catch (Exception e) {
-                    log.warn("同步任务状态失败 ID={}: {}", record.getId(), e.getMessage());
-                }
-            });
+        } catch (InterruptedException e) {
+            sweepExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
     }
 
     @Scheduled(fixedRateString = "${generation.task.timeout.fixedRateMs:300000}")
     public void cleanupStuckTasks() {
+        long startedAt = System.currentTimeMillis();
         LocalDateTime threshold = LocalDateTime.now().minusMinutes(timeoutMinutes);
-        
-        List<GenerationRecord> stuckRecords = generationRecordMapper.selectProcessingBeforeIgnoreTenant(threshold, timeoutBatchSize);
-        
-        if (stuckRecords.isEmpty()) {
-            return;
+        LocalDateTime graceThreshold = threshold.minusMinutes(Math.max(0, pollerGraceMinutes));
+        long afterId = 0L;
+        int scanned = 0;
+        int swept = 0;
+
+        while (scanned < maxPerRun) {
+            List<GenerationRecord> expired = generationRecordMapper.selectExpiredProcessingIgnoreTenant(threshold, afterId, timeoutBatchSize);
+            if (expired.isEmpty()) {
+                break;
+            }
+            afterId = expired.get(expired.size() - 1).getId();
+            scanned += expired.size();
+            swept += sweep(expired, graceThreshold);
+            if (expired.size() < timeoutBatchSize) {
+                break;
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - startedAt;
+        lastRunAt = LocalDateTime.now();
+        lastRunRecords = swept;
+        lastRunMillis = elapsed;
+        if (scanned > 0) {
+            log.info("超时任务清理完成：扫描 {} 条，置为失败并退款 {} 条，耗时 {} ms", scanned, swept, elapsed);
+        }
+    }
+
+    /**
+     * 获取超时清理指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sweptRecords", sweptRecords.sum());
+        stats.put("refundedAmount", refundedAmount.sum());
+        stats.put("chunks", chunkCount.sum());
+        stats.put("chunkFailures", chunkFailures.sum());
+        stats.put("fallbackRecords", fallbackRecords.sum());
+        stats.put("upstreamChecks", upstreamChecks.sum());
+        stats.put("upstreamCheckFailures", upstreamCheckFailures.sum());
+        stats.put("deferredToPoller", deferredToPoller.sum());
+        stats.put("lastRunAt", lastRunAt != null ? lastRunAt.toString() : null);
+        stats.put("lastRunRecords", lastRunRecords);
+        stats.put("lastRunMillis", lastRunMillis);
+        stats.put("lastRunRecordsPerSecond", lastRunMillis > 0 ? lastRunRecords * 1000 / lastRunMillis : lastRunRecords);
+        return stats;
+    }
+
+    /**
+     * 按站点分块并行处理一批超时记录
+     *
+     * @return 置为失败的记录数
+     */
+    private int sweep(List<GenerationRecord> expired, LocalDateTime graceThreshold) {
+        Map<Long, List<GenerationRecord>> recordsBySite = new LinkedHashMap<>();
+        for (GenerationRecord record : expired) {
+            if (record.getSiteId() == null) {
+                continue;
+            }
+            if (deferToPoller(record, graceThreshold)) {
+                deferredToPoller.increment();
+                continue;
+            }
+            recordsBySite.computeIfAbsent(record.getSiteId(), k -> new ArrayList<>()).add(record);
         }
-        
-        log.info("发现 {} 个卡死的生成任务，开始处理...", stuckRecords.size());
-        
-        for (GenerationRecord record : stuckRecords) {
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        recordsBySite.forEach((siteId, records) -> {
+            for (int i = 0; i < records.size(); i += chunkSize) {
+                List<GenerationRecord> chunk = records.subList(i, Math.min(i + chunkSize, records.size()));
+                futures.add(sweepExecutor.submit(() -> sweepChunk(siteId, chunk)));
+            }
+        });
+
+        int swept = 0;
+        for (Future<Integer> future : futures) {
             try {
-                if (record.getSiteId() == null) {
-                    continue;
-                }
-                runWithSiteContext(record.getSiteId(), () -> processStuckRecord(record));
+                swept += future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             } catch (Exception e) {
-                log.error("处理卡死任务失败 ID={}: {}", record.getId(), e.getMessage());
+                log.error("超时任务清理分块执行失败: {}", e.getMessage());
             }
         }
+        return swept;
+    }
+
+    /**
+     * 已提交到上游、本节点轮询器仍在跟踪且未超过宽限期的任务交给轮询器，避免重复查询上游
+     */
+    private boolean deferToPoller(GenerationRecord record, LocalDateTime graceThreshold) {
+        return record.getTaskId() != null && !record.getTaskId().isEmpty()
+                && generationTaskPoller.isTracking(record.getId())
+                && (record.getCreatedAt() == null || record.getCreatedAt().isAfter(graceThreshold));
     }
 
-    private void processStuckRecord(GenerationRecord record) {
+    private int sweepChunk(Long siteId, List<GenerationRecord> records) {
+        chunkCount.increment();
+        // 已提交到上游的任务先同步一次状态：上游已完成的按结果处理，不再误判为超时退款
+        syncUpstreamStatus(siteId, records);
+
+        List<Long> ids = new ArrayList<>(records.size());
+        records.forEach(record -> ids.add(record.getId()));
         try {
-            generationService.getTaskStatus(record.getId());
+            List<GenerationRecord> failed = generationService.failProcessingBatchAndRefund(siteId, ids, TIMEOUT_REASON);
+            sweptRecords.add(failed.size());
+            for (GenerationRecord record : failed) {
+                if (record.getCost() != null && record.getCost() > 0) {
+                    refundedAmount.add(record.getCost());
+                }
+            }
+            return failed.size();
         } catch (Exception e) {
-            log.warn("处理超时任务前同步状态失败 ID={}: {}", record.getId(), e.getMessage());
+            chunkFailures.increment();
+            log.warn("超时任务批量处理失败，改为逐条处理 siteId={}, 数量={}: {}", siteId, ids.size(), e.getMessage());
         }
 
-        GenerationRecord r = generationRecordMapper.selectById(record.getId());
-        if (r != null && "processing".equals(r.getStatus())) {
-            log.info("任务超时自动失败退款 ID={}, Cost={}", r.getId(), r.getCost());
-            generationService.failIfProcessingAndRefund(r.getId(), "任务执行超时，系统自动退款");
+        int processed = 0;
+        for (Long id : ids) {
+            try {
+                // 只统计本次确实置为失败的记录（已被其他路径完成的记录不计入）
+                if (callWithSiteContext(siteId, () -> generationService.failIfProcessingAndRefund(id, TIMEOUT_REASON))) {
+                    sweptRecords.increment();
+                    fallbackRecords.increment();
+                    processed++;
+                }
+            } catch (Exception e) {
+                log.error("处理卡死任务失败 ID={}: {}", id, e.getMessage());
+            }
         }
+        return processed;
+    }
+
+    /**
+     * 在独立线程池中并发同步上游状态，每条限时；超时或失败的记录按原逻辑继续超时处理
+     */
+    private void syncUpstreamStatus(Long siteId, List<GenerationRecord> records) {
+        Map<Long, Future<?>> checks = new LinkedHashMap<>();
+        for (GenerationRecord record : records) {
+            if (record.getTaskId() == null || record.getTaskId().isEmpty()) {
+                continue;
+            }
+            upstreamChecks.increment();
+            Long recordId = record.getId();
+            try {
+                checks.put(recordId, statusCheckExecutor.submit(
+                        () -> callWithSiteContext(siteId, () -> generationService.getTaskStatus(recordId))));
+            } catch (RejectedExecutionException e) {
+                upstreamCheckFailures.increment();
+            }
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Math.max(1, statusCheckTimeoutSeconds));
+        checks.forEach((recordId, check) -> {
+            try {
+                check.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                check.cancel(true);
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                check.cancel(true);
+                upstreamCheckFailures.increment();
+                log.warn("处理超时任务前同步状态失败 ID={}: {}", recordId,
+                        e instanceof TimeoutException ? "查询超时" : e.getMessage());
+            }
+        });
     }
 
-    private void runWithSiteContext(Long siteId, Runnable runnable) {
+    private <T> T callWithSiteContext(Long siteId, Supplier<T> supplier) {
         Long originalSiteId = SiteContext.getSiteId();
         try {
             SiteContext.setSiteId(siteId);
-            runnable.run();
+            return supplier.get();
         } finally {
             if (originalSiteId == null) {
                 SiteContext.clear();
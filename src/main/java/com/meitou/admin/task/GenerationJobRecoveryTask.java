@@ -0,0 +1,139 @@
+package com.meitou.admin.task;
+
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.entity.GenerationRecord;
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import com.meitou.admin.service.app.GenerationService;
+import com.meitou.admin.service.common.GenerationJobLeases;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 生成任务接管定时任务
+ * 每个节点都运行：扫描租约已过期、尚未取得上游 taskId 的处理中任务，逐条条件更新抢占租约，
+ * 抢到的任务在本节点按保存的请求参数重新提交（已取得 taskId 的任务由 {@link GenerationTaskPoller} 按 taskId 继续跟踪）。
+ * 不依赖单独的调度节点，增加节点即可分担接管与执行。扫描在独立的调度线程上执行，不受其他定时任务阻塞影响。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GenerationJobRecoveryTask {
+
+    private final GenerationRecordMapper generationRecordMapper;
+    private final GenerationService generationService;
+    private final GenerationJobLeases generationJobLeases;
+
+    /**
+     * 单次扫描的记录数
+     */
+    @Value("${generation.job.recovery.batchSize:50}")
+    private int batchSize;
+
+    /**
+     * 最大执行次数（含首次执行），超过后置为失败并释放算力
+     */
+    @Value("${generation.job.maxAttempts:3}")
+    private int maxAttempts;
+
+    /**
+     * 扫描间隔（毫秒）
+     */
+    @Value("${generation.job.recovery.intervalMs:15000}")
+    private long intervalMs;
+
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder resumedCount = new LongAdder();
+    private final LongAdder lostRaceCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "generation-job-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1000L, intervalMs);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                recoverExpiredJobs();
+            } catch (Exception e) {
+                errorCount.increment();
+                log.error("生成任务接管扫描失败: {}", e.getMessage(), e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public void recoverExpiredJobs() {
+        List<GenerationRecord> expired;
+        try {
+            expired = generationRecordMapper.selectExpiredLeasesIgnoreTenant(LocalDateTime.now(), batchSize);
+        } catch (Exception e) {
+            errorCount.increment();
+            log.error("扫描租约过期的生成任务失败: {}", e.getMessage());
+            return;
+        }
+        for (GenerationRecord record : expired) {
+            if (record.getSiteId() == null) {
+                continue;
+            }
+            try {
+                if (!generationJobLeases.claim(record.getId())) {
+                    lostRaceCount.increment();
+                    continue;
+                }
+                if (runWithSiteContext(record.getSiteId(), record.getId())) {
+                    resumedCount.increment();
+                }
+            } catch (Exception e) {
+                errorCount.increment();
+                log.error("接管生成任务失败 ID={}: {}", record.getId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 获取接管指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("resumed", resumedCount.sum());
+        stats.put("lostRaces", lostRaceCount.sum());
+        stats.put("errors", errorCount.sum());
+        stats.put("maxAttempts", maxAttempts);
+        return stats;
+    }
+
+    private boolean runWithSiteContext(Long siteId, Long recordId) {
+        Long originalSiteId = SiteContext.getSiteId();
+        try {
+            SiteContext.setSiteId(siteId);
+            return generationService.resumeGenerationJob(recordId, maxAttempts);
+        } finally {
+            if (originalSiteId == null) {
+                SiteContext.clear();
+            } else {
+                SiteContext.setSiteId(originalSiteId);
+            }
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package com.meitou.admin.task;
+
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.dto.app.ImageGenerationResponse;
+import com.meitou.admin.entity.ApiPlatform;
+import com.meitou.admin.entity.GenerationRecord;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import com.meitou.admin.service.admin.ApiPlatformService;
+import com.meitou.admin.service.app.GenerationService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 生成任务状态轮询器
+ * 替代原先每分钟串行同步 50 条的做法：处理中的任务按下次检查时间放入延迟队列，到期后在独立线程池中并发查询上游，
+ * 每个平台单独限制并发数，某个平台响应慢不会拖住其他平台。
+ * 检查间隔按平台自适应：根据该平台近期任务的平均完成耗时和上游返回的进度估算剩余时间，临近完成时加密检查，超时后指数退避。
+ * 多节点部署时按记录ID取模分片，每个节点只轮询属于自己分片的任务。
+ */
+@Slf4j
+@Component
+public class GenerationTaskPoller {
+
+    /**
+     * 当前节点分片序号（从0开始）
+     */
+    @Value("${generation.task.poller.shardIndex:0}")
+    private int shardIndex;
+
+    /**
+     * 分片总数（节点数）
+     */
+    @Value("${generation.task.poller.shardTotal:1}")
+    private int shardTotal;
+
+    /**
+     * 每次扫描数据库的分页大小
+     */
+    @Value("${generation.task.poller.scanBatchSize:200}")
+    private int scanBatchSize;
+
+    /**
+     * 单节点最多跟踪的任务数
+     */
+    @Value("${generation.task.poller.maxTracked:5000}")
+    private int maxTracked;
+
+    /**
+     * 查询上游的工作线程数
+     */
+    @Value("${generation.task.poller.poolSize:8}")
+    private int poolSize;
+
+    /**
+     * 单个平台同时进行的状态查询数
+     */
+    @Value("${generation.task.poller.platformConcurrency:4}")
+    private int platformConcurrency;
+
+    /**
+     * 最小检查间隔（毫秒）
+     */
+    @Value("${generation.task.poller.minDelayMs:3000}")
+    private long minDelayMs;
+
+    /**
+     * 最大检查间隔（毫秒）
+     */
+    @Value("${generation.task.poller.maxDelayMs:120000}")
+    private long maxDelayMs;
+
+    /**
+     * 平台暂无样本时图片任务的预计耗时（毫秒）
+     */
+    @Value("${generation.task.poller.imageExpectedMs:30000}")
+    private long imageExpectedMs;
+
+    /**
+     * 平台暂无样本时视频任务的预计耗时（毫秒）
+     */
+    @Value("${generation.task.poller.videoExpectedMs:180000}")
+    private long videoExpectedMs;
+
+    private final GenerationRecordMapper generationRecordMapper;
+    private final GenerationService generationService;
+    private final ApiPlatformService apiPlatformService;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 按下次检查时间排序的待检查任务
+     */
+    private final DelayQueue<PollEntry> queue = new DelayQueue<>();
+
+    /**
+     * 记录ID -> 跟踪项
+     */
+    private final Map<Long, PollEntry> tracked = new ConcurrentHashMap<>();
+
+    /**
+     * 平台ID -> 平台统计与并发额度
+     */
+    private final Map<Long, PlatformProfile> profiles = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+    private Semaphore workerPermits;
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    private final LongAdder checkCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder finishedCount = new LongAdder();
+    private final LongAdder throttledCount = new LongAdder();
+
+    public GenerationTaskPoller(GenerationRecordMapper generationRecordMapper,
+            GenerationService generationService,
+            ApiPlatformService apiPlatformService,
+            ApplicationEventPublisher eventPublisher) {
+        this.generationRecordMapper = generationRecordMapper;
+        this.generationService = generationService;
+        this.apiPlatformService = apiPlatformService;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (shardTotal < 1 || shardIndex < 0 || shardIndex >= shardTotal) {
+            throw new IllegalStateException("任务轮询分片配置错误: shardIndex=" + shardIndex + ", shardTotal=" + shardTotal);
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "generation-poller-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        workerPermits = new Semaphore(poolSize);
+
+        running = true;
+        dispatcher = new Thread(this::dispatchLoop, "generation-poller-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        log.info("生成任务轮询器已启动: shard={}/{}, poolSize={}, platformConcurrency={}",
+                shardIndex, shardTotal, poolSize, platformConcurrency);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 扫描本分片处理中的任务，把尚未跟踪的任务加入延迟队列
+     */
+    @Scheduled(fixedDelayString = "${generation.task.poller.scanIntervalMs:30000}")
+    public void scanProcessingTasks() {
+        long afterId = 0L;
+        while (tracked.size() < maxTracked) {
+            List<GenerationRecord> records = generationRecordMapper.selectProcessingShardIgnoreTenant(
+                    afterId, shardTotal, shardIndex, scanBatchSize);
+            for (GenerationRecord record : records) {
+                afterId = record.getId();
+                if (record.getSiteId() == null || tracked.containsKey(record.getId())) {
+                    continue;
+                }
+                track(record, resolvePlatformId(record));
+                if (tracked.size() >= maxTracked) {
+                    log.warn("任务轮询跟踪数已达上限 {}，剩余任务待下次扫描", maxTracked);
+                    break;
+                }
+            }
+            if (records.size() < scanBatchSize) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 本节点是否正在跟踪该记录
+     *
+     * @param recordId 生成记录ID
+     * @return 是否跟踪中
+     */
+    public boolean isTracking(Long recordId) {
+        return tracked.containsKey(recordId);
+    }
+
+    /**
+     * 获取轮询器指标
+     *
+     * @return 指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("shardIndex", shardIndex);
+        stats.put("shardTotal", shardTotal);
+        stats.put("tracked", tracked.size());
+        stats.put("activeChecks", poolSize - workerPermits.availablePermits());
+        stats.put("checks", checkCount.sum());
+        stats.put("errors", errorCount.sum());
+        stats.put("finished", finishedCount.sum());
+        stats.put("throttled", throttledCount.sum());
+
+        Map<Long, Map<String, Object>> platforms = new HashMap<>();
+        profiles.forEach((platformId, profile) -> {
+            Map<String, Object> platformStats = new LinkedHashMap<>();
+            platformStats.put("inFlight", platformConcurrency - profile.permits.availablePermits());
+            platformStats.put("samples", profile.samples);
+            platformStats.put("avgDurationMs", profile.samples > 0 ? (long) profile.avgDurationMs : null);
+            platforms.put(platformId, platformStats);
+        });
+        stats.put("platforms", platforms);
+        return stats;
+    }
+
+    private void track(GenerationRecord record, Long platformId) {
+        long createdAt = record.getCreatedAt() != null
+                ? record.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : System.currentTimeMillis();
+        boolean video = record.getType() != null && record.getType().contains("video");
+        PollEntry entry = new PollEntry(record.getId(), record.getSiteId(), platformId, video, createdAt);
+        if (tracked.putIfAbsent(record.getId(), entry) != null) {
+            return;
+        }
+        entry.nextCheckAt = System.currentTimeMillis() + nextDelay(entry, null);
+        queue.offer(entry);
+    }
+
+    private Long resolvePlatformId(GenerationRecord record) {
+        try {
+            // 任务提交时记录了受理平台，轮询按该平台分组限流
+            ApiPlatform platform = apiPlatformService.getTaskPlatform(record);
+            return platform != null ? platform.getId() : 0L;
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * 取出到期任务，在全局与平台并发额度内派发到工作线程
+     */
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                PollEntry entry = queue.take();
+                PlatformProfile profile = profiles.computeIfAbsent(entry.platformId, id -> new PlatformProfile(platformConcurrency));
+                if (!profile.permits.tryAcquire()) {
+                    // 平台并发已满，稍后再试，不阻塞其他平台
+                    throttledCount.increment();
+                    reschedule(entry, Math.min(minDelayMs, 1000L));
+                    continue;
+                }
+                workerPermits.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            check(entry, profile);
+                        } finally {
+                            profile.permits.release();
+                            workerPermits.release();
+                        }
+                    });
+                } catch (Exception e) {
+                    profile.permits.release();
+                    workerPermits.release();
+                    reschedule(entry, minDelayMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("任务轮询派发异常", e);
+            }
+        }
+    }
+
+    private void check(PollEntry entry, PlatformProfile profile) {
+        Long originalSiteId = SiteContext.getSiteId();
+        ImageGenerationResponse response;
+        try {
+            SiteContext.setSiteId(entry.siteId);
+            checkCount.increment();
+            response = generationService.getTaskStatus(entry.recordId);
+        } catch (BusinessException e) {
+            if (ErrorCode.RECORD_NOT_FOUND.getCode().equals(e.getCode())) {
+                tracked.remove(entry.recordId);
+                return;
+            }
+            onCheckError(entry, e);
+            return;
+        } catch (Exception e) {
+            onCheckError(entry, e);
+            return;
+        } finally {
+            if (originalSiteId == null) {
+                SiteContext.clear();
+            } else {
+                SiteContext.setSiteId(originalSiteId);
+            }
+        }
+
+        entry.failures = 0;
+        String status = response.getStatus();
+        if ("success".equals(status) || "failed".equals(status)) {
+            tracked.remove(entry.recordId);
+            finishedCount.increment();
+            if ("success".equals(status)) {
+                profile.addSample(System.currentTimeMillis() - entry.createdAt);
+            }
+        } else {
+            reschedule(entry, nextDelay(entry, response.getProgress()));
+        }
+        try {
+            eventPublisher.publishEvent(new GenerationTaskStatusEvent(entry.recordId, response));
+        } catch (Exception e) {
+            log.warn("发布任务状态事件失败 ID={}: {}", entry.recordId, e.getMessage());
+        }
+    }
+
+    private void onCheckError(PollEntry entry, Exception e) {
+        errorCount.increment();
+        entry.failures++;
+        log.warn("同步任务状态失败 ID={}: {}", entry.recordId, e.getMessage());
+        reschedule(entry, clamp(minDelayMs << Math.min(entry.failures, 10)));
+    }
+
+    private void reschedule(PollEntry entry, long delayMs) {
+        if (!running || !tracked.containsKey(entry.recordId)) {
+            return;
+        }
+        entry.nextCheckAt = System.currentTimeMillis() + delayMs;
+        queue.offer(entry);
+    }
+
+    /**
+     * 计算下次检查间隔
+     * 有进度时按已用时间和进度推算剩余时间，否则按平台平均耗时估算；在预计剩余时间的一半处再次检查，
+     * 任务超出预计耗时后按检查次数指数退避。
+     *
+     * @param entry    跟踪项
+     * @param progress 上游返回的进度（0-100，可为空）
+     * @return 间隔（毫秒）
+     */
+    private long nextDelay(PollEntry entry, Integer progress) {
+        long elapsed = Math.max(0L, System.currentTimeMillis() - entry.createdAt);
+        long remaining;
+        if (progress != null && progress > 0 && progress < 100) {
+            remaining = elapsed * (100 - progress) / progress;
+        } else {
+            PlatformProfile profile = profiles.get(entry.platformId);
+            long expected = profile != null && profile.samples > 0
+                    ? (long) profile.avgDurationMs
+                    : (entry.video ? videoExpectedMs : imageExpectedMs);
+            remaining = expected - elapsed;
+        }
+        if (remaining > 0) {
+            entry.overdueChecks = 0;
+            return clamp(remaining / 2);
+        }
+        return clamp(minDelayMs << Math.min(entry.overdueChecks++, 10));
+    }
+
+    private long clamp(long delayMs) {
+        return Math.max(minDelayMs, Math.min(maxDelayMs, delayMs));
+    }
+
+    /**
+     * 单个任务的跟踪项，按下次检查时间排序
+     */
+    private static final class PollEntry implements Delayed {
+        private final Long recordId;
+        private final Long siteId;
+        private final Long platformId;
+        private final boolean video;
+        private final long createdAt;
+        private volatile long nextCheckAt;
+        private int overdueChecks;
+        private int failures;
+
+        private PollEntry(Long recordId, Long siteId, Long platformId, boolean video, long createdAt) {
+            this.recordId = recordId;
+            this.siteId = siteId;
+            this.platformId = platformId;
+            this.video = video;
+            this.createdAt = createdAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextCheckAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(nextCheckAt, ((PollEntry) other).nextCheckAt);
+        }
+    }
+
+    /**
+     * 单个平台的并发额度与完成耗时统计（指数加权平均）
+     */
+    private static final class PlatformProfile {
+        private final Semaphore permits;
+        private volatile double avgDurationMs;
+        private volatile long samples;
+
+        private PlatformProfile(int concurrency) {
+            this.permits = new Semaphore(concurrency);
+        }
+
+        private synchronized void addSample(long durationMs) {
+            avgDurationMs = samples == 0 ? durationMs : avgDurationMs * 0.8 + durationMs * 0.2;
+            samples++;
+        }
+    }
+}
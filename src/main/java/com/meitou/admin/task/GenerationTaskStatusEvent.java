@@ -0,0 +1,27 @@
+package com.meitou.admin.task;
+
+import com.meitou.admin.dto.app.ImageGenerationResponse;
+import lombok.Getter;
+
+/**
+ * 生成任务状态事件
+ * 任务轮询器每次拿到任务最新状态后发布，供状态推送等组件订阅
+ */
+@Getter
+public class GenerationTaskStatusEvent {
+
+    /**
+     * 生成记录ID
+     */
+    private final Long recordId;
+
+    /**
+     * 任务状态
+     */
+    private final ImageGenerationResponse response;
+
+    public GenerationTaskStatusEvent(Long recordId, ImageGenerationResponse response) {
+        this.recordId = recordId;
+        this.response = response;
+    }
+}
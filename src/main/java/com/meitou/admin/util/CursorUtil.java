@@ -0,0 +1,106 @@
+package com.meitou.admin.util;
+
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * 游标分页工具类
+ * 游标记录上一页最后一条数据的排序键（可选的分组序号、时间、ID），编码为对客户端不透明的字符串，
+ * 下一页以该位置为起点做 WHERE 条件定位，避免 OFFSET 扫描和 COUNT 查询。
+ */
+public class CursorUtil {
+
+    private static final String SEPARATOR = "|";
+
+    /**
+     * 排序时间为空时写入游标的占位时间
+     * 早于所有真实时间，与 MySQL 倒序排序时 NULL 排在最后一致；按时间定位的查询需用 {@link Position#isNullTime()} 单独处理
+     */
+    public static final LocalDateTime NULL_TIME = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    /**
+     * 编码游标
+     *
+     * @param time 排序时间
+     * @param id   记录ID
+     * @return 游标
+     */
+    public static String encode(LocalDateTime time, Long id) {
+        return encode(0, time, id);
+    }
+
+    /**
+     * 编码游标
+     *
+     * @param rank 分组序号（如置顶=1、普通=0）
+     * @param time 排序时间，为空时写入 {@link #NULL_TIME}
+     * @param id   记录ID
+     * @return 游标
+     */
+    public static String encode(int rank, LocalDateTime time, Long id) {
+        String raw = rank + SEPARATOR + (time != null ? time : NULL_TIME) + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码游标
+     *
+     * @param cursor 游标，为空表示第一页
+     * @return 位置，第一页返回null
+     */
+    public static Position decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException(raw);
+            }
+            return new Position(Integer.parseInt(parts[0]), LocalDateTime.parse(parts[1]), Long.parseLong(parts[2]));
+        } catch (Exception e) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR.getCode(), "无效的分页游标");
+        }
+    }
+
+    /**
+     * 游标位置
+     */
+    @Getter
+    public static class Position {
+
+        /**
+         * 分组序号
+         */
+        private final int rank;
+
+        /**
+         * 排序时间
+         */
+        private final LocalDateTime time;
+
+        /**
+         * 记录ID
+         */
+        private final Long id;
+
+        public Position(int rank, LocalDateTime time, Long id) {
+            this.rank = rank;
+            this.time = time;
+            this.id = id;
+        }
+
+        /**
+         * 上一页最后一条数据的排序时间是否为空
+         */
+        public boolean isNullTime() {
+            return NULL_TIME.equals(time);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.meitou.admin.util;
+
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 端到端截止时间
+ * 从请求进入时开始计时，随调用链传递（调用上游 → 解析结果 → 转存OSS），
+ * 各阶段按剩余时间设置超时，超过截止时间后不再发起新的阶段。
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    /**
+     * 截止时间（毫秒时间戳），Long.MAX_VALUE 表示不限制
+     */
+    private final long expiresAtMillis;
+
+    private Deadline(long expiresAtMillis) {
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    /**
+     * 不限制截止时间
+     */
+    public static Deadline none() {
+        return NONE;
+    }
+
+    /**
+     * 从现在开始计时
+     *
+     * @param budgetMillis 时间预算（毫秒），非正数表示不限制
+     */
+    public static Deadline after(long budgetMillis) {
+        return startingAt(System.currentTimeMillis(), budgetMillis);
+    }
+
+    /**
+     * 从指定时间开始计时（如请求进入、记录创建时间）
+     *
+     * @param start        开始时间，为空时从现在开始
+     * @param budgetMillis 时间预算（毫秒），非正数表示不限制
+     */
+    public static Deadline startingAt(LocalDateTime start, long budgetMillis) {
+        long startMillis = start != null
+                ? start.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : System.currentTimeMillis();
+        return startingAt(startMillis, budgetMillis);
+    }
+
+    private static Deadline startingAt(long startMillis, long budgetMillis) {
+        if (budgetMillis <= 0) {
+            return NONE;
+        }
+        return new Deadline(startMillis + budgetMillis);
+    }
+
+    /**
+     * 是否设置了截止时间
+     */
+    public boolean isBounded() {
+        return expiresAtMillis != Long.MAX_VALUE;
+    }
+
+    /**
+     * 剩余毫秒数（已过期返回0，不限制时返回 Long.MAX_VALUE）
+     */
+    public long remainingMillis() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0L, expiresAtMillis - System.currentTimeMillis());
+    }
+
+    /**
+     * 是否已过截止时间
+     */
+    public boolean isExpired() {
+        return isBounded() && System.currentTimeMillis() >= expiresAtMillis;
+    }
+
+    /**
+     * 按剩余时间收紧超时：取配置超时与剩余时间（向上取整到秒）的较小值，至少1秒
+     *
+     * @param timeoutSeconds 配置的超时（秒）
+     * @return 本阶段使用的超时（秒）
+     */
+    public int timeoutSeconds(int timeoutSeconds) {
+        if (!isBounded()) {
+            return timeoutSeconds;
+        }
+        long remainingSeconds = (remainingMillis() + 999) / 1000;
+        return (int) Math.max(1L, Math.min(timeoutSeconds, remainingSeconds));
+    }
+
+    /**
+     * 进入下一阶段前检查是否已超时
+     *
+     * @param stage 阶段名（用于错误信息）
+     * @throws BusinessException 已超过截止时间
+     */
+    public void check(String stage) {
+        if (isExpired()) {
+            throw new BusinessException(ErrorCode.DEADLINE_EXCEEDED.getCode(),
+                    ErrorCode.DEADLINE_EXCEEDED.getMessage() + "（" + stage + "）");
+        }
+    }
+}
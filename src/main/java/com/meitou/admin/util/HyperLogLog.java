@@ -0,0 +1,109 @@
+package com.meitou.admin.util;
+
+/**
+ * HyperLogLog 基数估算
+ * 用固定大小的寄存器数组近似统计去重数量（如活跃用户数），多个草图可合并，适合按天预聚合后再跨天求并集。
+ * 使用 2^11 个寄存器（2KB），标准误差约 2.3%；基数较小时使用线性计数，结果接近精确值。
+ */
+public class HyperLogLog {
+
+    private static final int PRECISION = 11;
+    private static final int REGISTER_COUNT = 1 << PRECISION;
+
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this.registers = new byte[REGISTER_COUNT];
+    }
+
+    private HyperLogLog(byte[] registers) {
+        this.registers = registers;
+    }
+
+    /**
+     * 从序列化数据恢复草图
+     *
+     * @param bytes 序列化数据，为空或长度不符时返回空草图
+     * @return 草图
+     */
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length != REGISTER_COUNT) {
+            return new HyperLogLog();
+        }
+        return new HyperLogLog(bytes.clone());
+    }
+
+    /**
+     * 加入一个元素
+     *
+     * @param value 元素（如用户ID）
+     */
+    public void add(long value) {
+        long hash = mix(value);
+        int index = (int) (hash >>> (64 - PRECISION));
+        // 剩余位中第一个1出现的位置
+        long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * 合并另一个草图（求并集）
+     *
+     * @param other 草图
+     */
+    public void merge(HyperLogLog other) {
+        if (other == null) {
+            return;
+        }
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * 估算去重数量
+     *
+     * @return 估算值
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+        double estimate = alpha * REGISTER_COUNT * REGISTER_COUNT / sum;
+        if (estimate <= 2.5 * REGISTER_COUNT && zeros > 0) {
+            // 小基数使用线性计数
+            estimate = REGISTER_COUNT * Math.log((double) REGISTER_COUNT / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 序列化
+     *
+     * @return 寄存器数组副本
+     */
+    public byte[] toBytes() {
+        return registers.clone();
+    }
+
+    /**
+     * 64位哈希（SplitMix64 混淆），使相邻ID均匀分布到各寄存器
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
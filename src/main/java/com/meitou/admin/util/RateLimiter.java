@@ -3,103 +3,129 @@ package com.meitou.admin.util;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * 简单的基于内存的频率限制器
- * 用于防止用户恶意刷订单
+ * 基于内存的频率限制器（GCRA 令牌桶）
+ * 每个key只保存一个理论到达时间（TAT），通过 CAS 无锁更新；桶已满（TAT 早于当前时间）的key由定时任务清理（{@link #evictIdle}），
+ * 不在请求路径上遍历。
+ * 用于防止用户恶意刷订单、限制生成请求频率等
  */
 @Slf4j
 @Component
 public class RateLimiter {
 
-    // 存储每个key的访问记录
-    private final Map<String, RateLimitInfo> limitMap = new ConcurrentHashMap<>();
+    // 存储每个key的理论到达时间（相对 originNanos 的纳秒数）
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
 
-    // 定期清理过期数据的间隔（毫秒）
-    private static final long CLEANUP_INTERVAL_MS = 60000; // 1分钟
-    private long lastCleanupTime = System.currentTimeMillis();
+    // 时间基准，保证相对时间非负
+    private final long originNanos = System.nanoTime();
+
+    private final LongAdder allowedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
 
     /**
      * 检查是否允许访问
-     * 
+     *
      * @param key           限流key（如用户ID）
      * @param maxAttempts   最大访问次数
      * @param windowSeconds 时间窗口（秒）
      * @return true-允许访问，false-超过限制
      */
     public boolean tryAcquire(String key, int maxAttempts, int windowSeconds) {
-        // 定期清理过期数据
-        cleanupIfNeeded();
-
-        RateLimitInfo info = limitMap.computeIfAbsent(key, k -> new RateLimitInfo());
-
-        synchronized (info) {
-            LocalDateTime now = LocalDateTime.now();
-            LocalDateTime windowStart = now.minusSeconds(windowSeconds);
-
-            // 移除过期的访问记录
-            info.accessTimes.removeIf(time -> time.isBefore(windowStart));
+        long waitMillis = acquire(key, (double) maxAttempts / windowSeconds, maxAttempts, 1);
+        if (waitMillis > 0) {
+            log.warn("频率限制触发：key={}, 限制={}/{}秒, 需等待{}ms", key, maxAttempts, windowSeconds, waitMillis);
+            return false;
+        }
+        return true;
+    }
 
-            // 检查是否超过限制
-            if (info.accessTimes.size() >= maxAttempts) {
-                log.warn("频率限制触发：key={}, 当前次数={}, 限制={}/{}秒",
-                        key, info.accessTimes.size(), maxAttempts, windowSeconds);
-                return false;
+    /**
+     * 按 GCRA 算法尝试获取令牌
+     *
+     * @param key              限流key
+     * @param permitsPerSecond 令牌生成速率（个/秒）
+     * @param burst            桶容量（允许的突发数）
+     * @param permits          本次消耗的令牌数
+     * @return 0 表示允许；否则为需要等待的毫秒数
+     */
+    public long acquire(String key, double permitsPerSecond, int burst, int permits) {
+        long interval = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        long cost = interval * Math.max(1, permits);
+        // 单次消耗超过桶容量时，按桶满时可放行处理，避免永远无法获取
+        long tolerance = Math.max(interval * Math.max(1, burst), cost);
+
+        AtomicLong tat = buckets.get(key);
+        if (tat == null) {
+            tat = buckets.computeIfAbsent(key, k -> new AtomicLong());
+        }
+        while (true) {
+            long now = nowNanos();
+            long current = tat.get();
+            long next = Math.max(current, now) + cost;
+            long allowAt = next - tolerance;
+            if (allowAt > now) {
+                rejectedCount.increment();
+                return Math.max(1L, TimeUnit.NANOSECONDS.toMillis(allowAt - now));
+            }
+            if (tat.compareAndSet(current, next)) {
+                allowedCount.increment();
+                return 0L;
             }
-
-            // 记录本次访问
-            info.accessTimes.add(now);
-            return true;
         }
     }
 
     /**
-     * 定期清理过期数据，避免内存泄漏
+     * 退还令牌（已获取令牌但请求被其他条件拒绝时调用）
+     *
+     * @param key              限流key
+     * @param permitsPerSecond 令牌生成速率（个/秒）
+     * @param permits          退还的令牌数
      */
-    private void cleanupIfNeeded() {
-        long now = System.currentTimeMillis();
-        if (now - lastCleanupTime > CLEANUP_INTERVAL_MS) {
-            synchronized (this) {
-                if (now - lastCleanupTime > CLEANUP_INTERVAL_MS) {
-                    cleanup();
-                    lastCleanupTime = now;
-                }
-            }
+    public void refund(String key, double permitsPerSecond, int permits) {
+        AtomicLong tat = buckets.get(key);
+        if (tat == null) {
+            return;
         }
+        long interval = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        tat.addAndGet(-interval * Math.max(1, permits));
     }
 
     /**
-     * 清理长时间未使用的key
+     * 获取限流器指标
      */
-    private void cleanup() {
-        LocalDateTime threshold = LocalDateTime.now().minus(5, ChronoUnit.MINUTES);
-        int beforeSize = limitMap.size();
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedKeys", buckets.size());
+        stats.put("allowed", allowedCount.sum());
+        stats.put("rejected", rejectedCount.sum());
+        return stats;
+    }
 
-        limitMap.entrySet().removeIf(entry -> {
-            RateLimitInfo info = entry.getValue();
-            synchronized (info) {
-                // 移除5分钟内没有访问记录的key
-                info.accessTimes.removeIf(time -> time.isBefore(threshold));
-                return info.accessTimes.isEmpty();
-            }
-        });
+    private long nowNanos() {
+        return System.nanoTime() - originNanos;
+    }
 
-        int afterSize = limitMap.size();
+    /**
+     * 清理桶已满的key，避免内存泄漏（桶满与key不存在等价；由定时任务调用）
+     *
+     * @return 清除的key数
+     */
+    public int evictIdle() {
+        long now = nowNanos();
+        int beforeSize = buckets.size();
+        buckets.entrySet().removeIf(entry -> entry.getValue().get() <= now);
+        int afterSize = buckets.size();
         if (beforeSize != afterSize) {
             log.debug("RateLimiter清理完成：清理前={}, 清理后={}, 清除={}个",
                     beforeSize, afterSize, beforeSize - afterSize);
         }
-    }
-
-    /**
-     * 频率限制信息
-     */
-    private static class RateLimitInfo {
-        // 使用 java.util.concurrent.CopyOnWriteArrayList 保证线程安全
-        final java.util.List<LocalDateTime> accessTimes = new java.util.concurrent.CopyOnWriteArrayList<>();
+        return beforeSize - afterSize;
     }
 }
@@ -0,0 +1,405 @@
+package com.meitou.admin.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 上游生成结果 SSE 流的增量解析器
+ * 按行读取 Reader，每个 data 行用 Jackson 流式 JsonParser 扫描，只提取结果解析用到的字段
+ * （status、progress、error、failure_reason、url、video_url、data.*、results[].url），其余子树直接跳过，
+ * 不构建 JsonNode 树；整个流只保留最终状态，内存占用与事件数量无关。
+ */
+@Slf4j
+public final class SseResultParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private SseResultParser() {
+    }
+
+    /**
+     * 是否为成功终态
+     */
+    public static boolean isCompletedStatus(String status) {
+        return "completed".equals(status) || "success".equals(status) || "succeeded".equals(status);
+    }
+
+    /**
+     * 增量解析整个 SSE 流
+     *
+     * @param reader SSE 流
+     * @return 解析结果
+     */
+    public static Result parse(Reader reader) throws IOException {
+        Result result = new Result();
+        BufferedReader lines = toBufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String payload = dataPayload(line);
+            if (payload == null) {
+                continue;
+            }
+            Event event = parseEvent(payload);
+            if (event != null) {
+                result.accept(event);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 增量读取 SSE 流并压缩为只含关键事件的 SSE 文本
+     * 保留：第一条 data 行（异步任务ID）、所有成功终态行、最后一条带结果URL的行、最后一条带状态的行、最后一条 data 行；
+     * 中间的进度事件全部丢弃。压缩结果交给 {@link #parse(Reader)} 得到的结论与原始流一致。
+     *
+     * @param reader SSE 流
+     * @return 压缩后的 SSE 文本
+     */
+    public static String compact(Reader reader) throws IOException {
+        Map<Long, String> kept = new TreeMap<>();
+        long seq = 0;
+        long lastSeq = -1;
+        String lastLine = null;
+        long lastUrlSeq = -1;
+        String lastUrlLine = null;
+        long lastStatusSeq = -1;
+        String lastStatusLine = null;
+
+        BufferedReader lines = toBufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String payload = dataPayload(line);
+            if (payload == null) {
+                continue;
+            }
+            String dataLine = "data: " + payload;
+            if (seq == 0) {
+                kept.put(seq, dataLine);
+            }
+            Event event = parseEvent(payload);
+            if (event != null) {
+                if (event.getStatus() != null) {
+                    lastStatusSeq = seq;
+                    lastStatusLine = dataLine;
+                    if (isCompletedStatus(event.getStatus())) {
+                        kept.put(seq, dataLine);
+                    }
+                }
+                if (event.hasAnyUrl()) {
+                    lastUrlSeq = seq;
+                    lastUrlLine = dataLine;
+                }
+            }
+            lastSeq = seq;
+            lastLine = dataLine;
+            seq++;
+        }
+        if (lastUrlLine != null) {
+            kept.put(lastUrlSeq, lastUrlLine);
+        }
+        if (lastStatusLine != null) {
+            kept.put(lastStatusSeq, lastStatusLine);
+        }
+        if (lastLine != null) {
+            kept.put(lastSeq, lastLine);
+        }
+        if (seq > kept.size()) {
+            log.debug("SSE 响应已压缩：{} 条事件保留 {} 条", seq, kept.size());
+        }
+        return String.join("\n", kept.values());
+    }
+
+    /**
+     * 提取 data 行的负载（兼容 "data:" 后有无空格）
+     *
+     * @return 负载，非 data 行返回null
+     */
+    public static String dataPayload(String line) {
+        String trimmed = line.trim();
+        if (!trimmed.startsWith("data:")) {
+            return null;
+        }
+        return trimmed.substring(5).trim();
+    }
+
+    /**
+     * 流式扫描单个事件的 JSON
+     *
+     * @param json 事件 JSON
+     * @return 事件，JSON 无效时返回null
+     */
+    public static Event parseEvent(String json) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            Event event = new Event();
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                // 非对象的合法 JSON 视为不含任何字段的事件
+                parser.skipChildren();
+                return event;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "status" -> event.status = scalarText(parser, value);
+                    case "progress" -> event.progress = scalarText(parser, value);
+                    case "error" -> event.error = scalarText(parser, value);
+                    case "failure_reason" -> event.failureReason = scalarText(parser, value);
+                    case "url" -> event.url = scalarText(parser, value);
+                    case "video_url" -> event.videoUrl = scalarText(parser, value);
+                    case "data" -> event.data = value == JsonToken.START_OBJECT ? readData(parser) : skip(parser, null);
+                    case "results" -> event.results = value == JsonToken.START_ARRAY ? readResults(parser) : skip(parser, null);
+                    default -> parser.skipChildren();
+                }
+            }
+            return event;
+        } catch (IOException e) {
+            log.debug("解析SSE数据行失败：{}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static Data readData(JsonParser parser) throws IOException {
+        Data data = new Data();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "url" -> data.url = scalarText(parser, value);
+                case "video_url" -> data.videoUrl = scalarText(parser, value);
+                case "results" -> data.results = value == JsonToken.START_ARRAY ? readResults(parser) : skip(parser, null);
+                default -> parser.skipChildren();
+            }
+        }
+        return data;
+    }
+
+    private static Results readResults(JsonParser parser) throws IOException {
+        Results results = new Results();
+        boolean first = true;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            if (token == JsonToken.START_OBJECT) {
+                String url = null;
+                String videoUrl = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    switch (field) {
+                        case "url" -> url = scalarText(parser, value);
+                        case "video_url" -> videoUrl = scalarText(parser, value);
+                        default -> parser.skipChildren();
+                    }
+                }
+                if (url != null) {
+                    results.urls.add(url);
+                }
+                if (first) {
+                    results.firstUrl = url;
+                    results.firstVideoUrl = videoUrl;
+                }
+            } else if (token == JsonToken.VALUE_STRING) {
+                results.urls.add(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+            first = false;
+        }
+        return results;
+    }
+
+    /**
+     * 取标量字段的文本（与 JsonNode.asText 一致：null 为 "null"，对象/数组为空串）
+     */
+    private static String scalarText(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return "";
+        }
+        if (value == JsonToken.VALUE_NULL) {
+            return "null";
+        }
+        return parser.getText();
+    }
+
+    private static <T> T skip(JsonParser parser, T fallback) throws IOException {
+        parser.skipChildren();
+        return fallback;
+    }
+
+    private static BufferedReader toBufferedReader(Reader reader) {
+        return reader instanceof BufferedReader buffered ? buffered : new BufferedReader(reader);
+    }
+
+    private static boolean notEmpty(String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    /**
+     * 整个 SSE 流的解析结果
+     */
+    @Getter
+    public static class Result {
+
+        /**
+         * 成功终态事件中的图片URL（按出现顺序累积）
+         */
+        private final List<String> completedUrls = new ArrayList<>();
+
+        /**
+         * 最后一个带状态事件的状态
+         */
+        private String lastStatus;
+
+        /**
+         * 最后一个提取到的视频URL
+         */
+        private String lastVideoUrl;
+
+        /**
+         * 最后一个事件
+         */
+        private Event lastEvent;
+
+        /**
+         * 事件数
+         */
+        private long eventCount;
+
+        private void accept(Event event) {
+            eventCount++;
+            lastEvent = event;
+            if (event.status != null) {
+                lastStatus = event.status;
+                if (isCompletedStatus(event.status)) {
+                    completedUrls.addAll(event.getImageUrls());
+                }
+            }
+            String videoUrl = event.getVideoResultUrl();
+            if (notEmpty(videoUrl)) {
+                lastVideoUrl = videoUrl;
+            }
+        }
+    }
+
+    /**
+     * 单个事件中与结果相关的字段
+     */
+    public static class Event {
+        @Getter
+        private String status;
+        @Getter
+        private String progress;
+        @Getter
+        private String error;
+        @Getter
+        private String failureReason;
+        @Getter
+        private String url;
+        @Getter
+        private String videoUrl;
+        private Data data;
+        private Results results;
+
+        /**
+         * 图片URL：优先 results[]，否则取非空的 url 字段
+         */
+        public List<String> getImageUrls() {
+            if (results != null) {
+                return results.urls;
+            }
+            if (notEmpty(url)) {
+                return Collections.singletonList(url);
+            }
+            return Collections.emptyList();
+        }
+
+        /**
+         * results[] 中非空的URL（任务仍在处理中时返回的部分结果）
+         */
+        public List<String> getPartialImageUrls() {
+            if (results == null) {
+                return Collections.emptyList();
+            }
+            List<String> urls = new ArrayList<>();
+            for (String value : results.urls) {
+                if (notEmpty(value)) {
+                    urls.add(value);
+                }
+            }
+            return urls;
+        }
+
+        /**
+         * 视频URL，查找顺序：video_url、url、data.url、data.video_url、data.results[0]、results[0]
+         */
+        public String getVideoResultUrl() {
+            if (notEmpty(videoUrl)) {
+                return videoUrl;
+            }
+            if (notEmpty(url)) {
+                return url;
+            }
+            if (data != null) {
+                if (notEmpty(data.url)) {
+                    return data.url;
+                }
+                if (notEmpty(data.videoUrl)) {
+                    return data.videoUrl;
+                }
+                if (data.results != null && data.results.hasFirstUrl()) {
+                    return data.results.firstUrl();
+                }
+            }
+            if (results != null && results.hasFirstUrl()) {
+                return results.firstUrl();
+            }
+            return null;
+        }
+
+        private boolean hasAnyUrl() {
+            return !getPartialImageUrls().isEmpty() || notEmpty(getVideoResultUrl());
+        }
+    }
+
+    /**
+     * data 包装层
+     */
+    private static class Data {
+        private String url;
+        private String videoUrl;
+        private Results results;
+    }
+
+    /**
+     * results 数组
+     */
+    private static class Results {
+        private final List<String> urls = new ArrayList<>();
+        private String firstUrl;
+        private String firstVideoUrl;
+
+        private boolean hasFirstUrl() {
+            return firstUrl != null || firstVideoUrl != null;
+        }
+
+        private String firstUrl() {
+            return firstUrl != null ? firstUrl : firstVideoUrl;
+        }
+    }
+}
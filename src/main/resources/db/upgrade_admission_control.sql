@@ -0,0 +1,17 @@
+-- 集群共享限流后端（admission.backend=database）的令牌桶状态
+CREATE TABLE IF NOT EXISTS rate_limit_buckets (
+    bucket_key VARCHAR(191) NOT NULL COMMENT '桶key（策略:u/s:用户或站点ID）',
+    tat_ms BIGINT NOT NULL DEFAULT 0 COMMENT '理论到达时间（毫秒时间戳）',
+    updated_at DATETIME NOT NULL COMMENT '更新时间',
+    PRIMARY KEY (bucket_key),
+    KEY idx_rate_limit_buckets_tat (tat_ms)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COMMENT = '限流令牌桶状态';
+
+-- 准入控制按用户、站点统计进行中的任务数
+ALTER TABLE generation_records
+    ADD INDEX idx_generation_records_user_status (user_id, status),
+    ADD INDEX idx_generation_records_site_status (site_id, status);
+
+ALTER TABLE analysis_record
+    ADD INDEX idx_analysis_record_user_status_created (user_id, status, created_at),
+    ADD INDEX idx_analysis_record_site_status_created (site_id, status, created_at);
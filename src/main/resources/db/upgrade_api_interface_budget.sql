@@ -0,0 +1,3 @@
+-- 接口级端到端时间预算（秒），覆盖调用上游、解析结果和转存OSS，为空时使用全局默认值 generation.budget.*
+ALTER TABLE api_interfaces
+    ADD COLUMN budget_seconds INT NULL COMMENT '端到端时间预算（秒）' AFTER timeout_seconds;
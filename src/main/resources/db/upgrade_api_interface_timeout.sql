@@ -0,0 +1,3 @@
+-- 接口级读取超时配置（秒），为空时使用全局默认值 http.client.readTimeoutSeconds
+ALTER TABLE api_interfaces
+    ADD COLUMN timeout_seconds INT NULL COMMENT '读取超时时间（秒）' AFTER param_docs;
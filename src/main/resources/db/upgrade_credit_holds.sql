@@ -0,0 +1,11 @@
+-- 算力预留账本：提交生成任务时只预留算力，成功后批量结算到 balance 并写入消费流水，失败时直接释放
+ALTER TABLE users
+    ADD COLUMN held_balance INT NOT NULL DEFAULT 0 COMMENT '预留中的算力（未结算），可用余额 = balance - held_balance' AFTER balance;
+
+ALTER TABLE generation_records
+    ADD COLUMN charge_status VARCHAR(16) NULL COMMENT '扣费状态：HELD-已预留，SETTLING-待结算，SETTLED-已结算，RELEASED-已释放；NULL-提交时已直接扣费' AFTER cost,
+    ADD COLUMN settled_amount INT NULL COMMENT '实际结算积分' AFTER charge_status;
+
+-- 结算任务按扣费状态扫描待结算记录
+ALTER TABLE generation_records
+    ADD INDEX idx_generation_records_charge_status (charge_status, id);
@@ -0,0 +1,37 @@
+-- 数据概览按天预聚合：每个站点每天一行汇总，另按用户记录当天消耗（用于消耗排名）
+CREATE TABLE IF NOT EXISTS daily_site_metrics (
+    site_id            BIGINT      NOT NULL COMMENT '站点ID',
+    stat_date          DATE        NOT NULL COMMENT '统计日期',
+    new_users          BIGINT      NOT NULL DEFAULT 0 COMMENT '新增用户数',
+    consumption        BIGINT      NOT NULL DEFAULT 0 COMMENT '消耗积分',
+    recharge           BIGINT      NOT NULL DEFAULT 0 COMMENT '充值积分',
+    active_users       BIGINT      NOT NULL DEFAULT 0 COMMENT '产生消耗的用户数',
+    active_user_sketch VARBINARY(2048) NULL COMMENT '产生消耗用户的 HyperLogLog 草图（跨天合并去重）',
+    updated_at         DATETIME    NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (site_id, stat_date),
+    KEY idx_daily_site_metrics_date (stat_date)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COMMENT = '站点每日指标汇总';
+
+CREATE TABLE IF NOT EXISTS daily_user_consumption (
+    site_id     BIGINT NOT NULL COMMENT '站点ID',
+    stat_date   DATE   NOT NULL COMMENT '统计日期',
+    user_id     BIGINT NOT NULL COMMENT '用户ID',
+    consumption BIGINT NOT NULL DEFAULT 0 COMMENT '消耗积分',
+    PRIMARY KEY (site_id, stat_date, user_id),
+    KEY idx_daily_user_consumption_date_user (stat_date, user_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COMMENT = '用户每日消耗汇总';
+
+CREATE TABLE IF NOT EXISTS metrics_rollup_state (
+    name             VARCHAR(64) NOT NULL COMMENT '汇总名称',
+    rolled_from      DATE        NOT NULL COMMENT '已汇总的起始日期',
+    last_rolled_date DATE        NOT NULL COMMENT '已汇总的最后日期（含）',
+    updated_at       DATETIME    NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (name)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COMMENT = '指标汇总进度';
+
+-- 汇总任务按天扫描流水和用户
+ALTER TABLE user_transactions
+    ADD INDEX idx_user_transactions_created_type (created_at, type);
+
+ALTER TABLE users
+    ADD INDEX idx_users_created_at (created_at);
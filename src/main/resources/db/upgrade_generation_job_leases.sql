@@ -0,0 +1,9 @@
+-- 生成任务租约：提交任务时由受理节点持有租约并定时续约，节点崩溃后租约到期，任意节点可接管尚未取得上游 taskId 的任务
+ALTER TABLE generation_records
+    ADD COLUMN lease_owner VARCHAR(64) NULL COMMENT '执行任务的节点' AFTER task_id,
+    ADD COLUMN lease_expires_at DATETIME NULL COMMENT '租约到期时间' AFTER lease_owner,
+    ADD COLUMN job_attempts INT NOT NULL DEFAULT 0 COMMENT '执行次数（含接管后重新执行）' AFTER lease_expires_at;
+
+-- 接管扫描按状态和租约到期时间查找
+ALTER TABLE generation_records
+    ADD INDEX idx_generation_records_status_lease (status, lease_expires_at);
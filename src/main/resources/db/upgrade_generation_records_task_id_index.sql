@@ -0,0 +1,3 @@
+-- 上游任务回调按 (site_id, task_id) 查找生成记录
+ALTER TABLE generation_records
+    ADD INDEX idx_generation_records_site_task (site_id, task_id);
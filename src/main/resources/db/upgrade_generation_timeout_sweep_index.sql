@@ -0,0 +1,3 @@
+-- 超时清理与状态轮询按 (status, id) 游标扫描处理中的记录
+ALTER TABLE generation_records
+    ADD INDEX idx_generation_records_status_id (status, id);
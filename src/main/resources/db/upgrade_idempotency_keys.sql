@@ -0,0 +1,12 @@
+-- 生成提交接口的幂等键（请求头 Idempotency-Key），客户端超时重试时返回首次请求的响应，不重复扣费和提交上游
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    idem_key VARCHAR(191) NOT NULL COMMENT '幂等键（站点ID:用户ID:接口:客户端提交的键）',
+    request_hash CHAR(64) NOT NULL COMMENT '请求体摘要（SHA-256）',
+    status VARCHAR(16) NOT NULL COMMENT '状态：PENDING-处理中，DONE-已完成',
+    response MEDIUMTEXT NULL COMMENT '首次请求的响应（JSON）',
+    generation_record_id BIGINT NULL COMMENT '首次请求创建的生成记录ID（与记录在同一事务中写入）',
+    created_at DATETIME NOT NULL COMMENT '创建时间',
+    expires_at DATETIME NOT NULL COMMENT '过期时间',
+    PRIMARY KEY (idem_key),
+    KEY idx_idempotency_keys_expires (expires_at)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COMMENT = '幂等键';
@@ -0,0 +1,6 @@
+-- 游标分页索引：与查询的排序键一致，定位下一页时直接走索引范围扫描
+ALTER TABLE generation_records
+    ADD INDEX idx_generation_records_user_created (user_id, created_at, id);
+
+ALTER TABLE published_contents
+    ADD INDEX idx_published_contents_feed (site_id, status, is_pinned, published_at, id);
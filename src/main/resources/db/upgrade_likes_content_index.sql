@@ -0,0 +1,3 @@
+-- 点赞数校准按 content_id 统计 likes 记录
+ALTER TABLE likes
+    ADD INDEX idx_likes_content_id (content_id);
@@ -0,0 +1,6 @@
+-- 点赞去重：同一用户对同一内容只保留一条点赞记录（先清理历史重复数据）
+DELETE l1 FROM likes l1
+    JOIN likes l2 ON l1.user_id = l2.user_id AND l1.content_id = l2.content_id AND l1.id > l2.id;
+
+ALTER TABLE likes
+    ADD UNIQUE INDEX uk_likes_user_content (user_id, content_id);
@@ -0,0 +1,5 @@
+-- is_pinned 不允许为空：旧数据按未置顶回填，游标分页的置顶条件与排序保持一致，且可走 idx_published_contents_feed
+UPDATE published_contents SET is_pinned = 0 WHERE is_pinned IS NULL;
+
+ALTER TABLE published_contents
+    MODIFY COLUMN is_pinned TINYINT(1) NOT NULL DEFAULT 0 COMMENT '是否置顶';
@@ -0,0 +1,3 @@
+-- 生成任务按站点加权公平调度：排队时各站点按权重分配上游并发
+ALTER TABLE sites
+    ADD COLUMN schedule_weight INT NOT NULL DEFAULT 1 COMMENT '生成任务调度权重' AFTER status;
@@ -0,0 +1,206 @@
+package com.meitou.admin.service.admin;
+
+import com.meitou.admin.entity.DailySiteMetric;
+import com.meitou.admin.entity.DailyUserConsumption;
+import com.meitou.admin.mapper.DashboardRollupMapper;
+import com.meitou.admin.mapper.UserMapper;
+import com.meitou.admin.mapper.UserTransactionMapper;
+import com.meitou.admin.util.HyperLogLog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DashboardRollupServiceTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    private final DashboardRollupMapper rollupMapper = mock(DashboardRollupMapper.class);
+    private final UserMapper userMapper = mock(UserMapper.class);
+    private final UserTransactionMapper userTransactionMapper = mock(UserTransactionMapper.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private DashboardRollupService service;
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            Consumer<TransactionStatus> action = invocation.getArgument(0);
+            action.accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        service = new DashboardRollupService(rollupMapper, userMapper, userTransactionMapper, transactionTemplate);
+        ReflectionTestUtils.setField(service, "backfillDays", 90);
+        ReflectionTestUtils.setField(service, "maxDaysPerRun", 31);
+        ReflectionTestUtils.setField(service, "settleMinutes", 0);
+        ReflectionTestUtils.setField(service, "batchSize", 500);
+    }
+
+    @Test
+    void split_shouldQueryEverythingLiveBeforeFirstRollup() {
+        DashboardRollupService.RangeSplit split = service.split(TODAY.minusDays(6), TODAY);
+
+        assertFalse(split.hasRolled());
+        assertRanges(split, TODAY.minusDays(6), TODAY.plusDays(1));
+    }
+
+    @Test
+    void split_shouldReadRolledDaysAndQueryTodayLive() {
+        rolledWindow(TODAY.minusDays(30), TODAY.minusDays(1));
+
+        DashboardRollupService.RangeSplit split = service.split(TODAY.minusDays(6), TODAY);
+
+        assertEquals(TODAY.minusDays(6), split.getRolledStart());
+        assertEquals(TODAY.minusDays(1), split.getRolledEnd());
+        assertRanges(split, TODAY, TODAY.plusDays(1));
+    }
+
+    @Test
+    void split_shouldQueryDaysOutsideRolledWindowLive() {
+        rolledWindow(TODAY.minusDays(30), TODAY.minusDays(2));
+
+        DashboardRollupService.RangeSplit split = service.split(TODAY.minusDays(40), TODAY);
+
+        assertEquals(TODAY.minusDays(30), split.getRolledStart());
+        assertEquals(TODAY.minusDays(2), split.getRolledEnd());
+        assertRanges(split, TODAY.minusDays(40), TODAY.minusDays(30), TODAY.minusDays(1), TODAY.plusDays(1));
+    }
+
+    @Test
+    void split_shouldReadOnlyRolledDaysForPastRange() {
+        rolledWindow(TODAY.minusDays(30), TODAY.minusDays(1));
+
+        DashboardRollupService.RangeSplit split = service.split(TODAY.minusDays(10), TODAY.minusDays(3));
+
+        assertEquals(TODAY.minusDays(10), split.getRolledStart());
+        assertEquals(TODAY.minusDays(3), split.getRolledEnd());
+        assertTrue(split.getLiveRanges().isEmpty());
+    }
+
+    @Test
+    void split_shouldQueryLiveWhenRangeIsBeforeRolledWindow() {
+        rolledWindow(TODAY.minusDays(30), TODAY.minusDays(1));
+
+        DashboardRollupService.RangeSplit split = service.split(TODAY.minusDays(50), TODAY.minusDays(40));
+
+        assertFalse(split.hasRolled());
+        assertRanges(split, TODAY.minusDays(50), TODAY.minusDays(39));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void rollupDay_shouldAggregatePerSiteAndPerUser() {
+        LocalDate day = TODAY.minusDays(1);
+        when(userMapper.selectMapsIgnoreTenant(any())).thenReturn(List.of(row("site_id", 1L, "count", 2L)));
+        when(userTransactionMapper.selectMapsIgnoreTenant(any())).thenReturn(
+                List.of(row("site_id", 1L, "total", 500L)),
+                List.of(row("site_id", 1L, "user_id", 10L, "total", 30L),
+                        row("site_id", 1L, "user_id", 11L, "total", 20L),
+                        row("site_id", null, "user_id", 12L, "total", 5L)));
+
+        service.rollupDay(day);
+
+        ArgumentCaptor<List<DailySiteMetric>> metrics = ArgumentCaptor.forClass(List.class);
+        verify(rollupMapper).upsertSiteMetrics(metrics.capture());
+        List<DailySiteMetric> sorted = metrics.getValue().stream()
+                .sorted(Comparator.comparing(DailySiteMetric::getSiteId)).toList();
+        assertEquals(2, sorted.size());
+        DailySiteMetric legacy = sorted.get(0);
+        DailySiteMetric site = sorted.get(1);
+        assertEquals(0L, legacy.getSiteId());
+        assertEquals(5L, legacy.getConsumption());
+        assertEquals(1L, site.getSiteId());
+        assertEquals(day, site.getStatDate());
+        assertEquals(2L, site.getNewUsers());
+        assertEquals(500L, site.getRecharge());
+        assertEquals(50L, site.getConsumption());
+        assertEquals(2L, site.getActiveUsers());
+        assertEquals(2L, HyperLogLog.fromBytes(site.getActiveUserSketch()).estimate());
+
+        ArgumentCaptor<List<DailyUserConsumption>> users = ArgumentCaptor.forClass(List.class);
+        verify(rollupMapper).upsertUserConsumption(users.capture());
+        assertEquals(3, users.getValue().size());
+        assertEquals(30L, users.getValue().get(0).getConsumption());
+        assertEquals(day, users.getValue().get(0).getStatDate());
+    }
+
+    @Test
+    void rollupDay_shouldSkipWritesForEmptyDay() {
+        service.rollupDay(TODAY.minusDays(1));
+
+        verify(rollupMapper, never()).upsertSiteMetrics(any());
+        verify(rollupMapper, never()).upsertUserConsumption(any());
+    }
+
+    @Test
+    void catchUp_shouldRollMissingDaysAndAdvanceState() {
+        rolledWindow(TODAY.minusDays(10), TODAY.minusDays(4));
+
+        assertEquals(3, service.catchUp());
+
+        verify(rollupMapper).advanceRollupState("dashboard_daily", TODAY.minusDays(10), TODAY.minusDays(3));
+        verify(rollupMapper).advanceRollupState("dashboard_daily", TODAY.minusDays(10), TODAY.minusDays(2));
+        verify(rollupMapper).advanceRollupState("dashboard_daily", TODAY.minusDays(10), TODAY.minusDays(1));
+        verify(rollupMapper, times(3)).advanceRollupState(anyString(), any(), any());
+    }
+
+    @Test
+    void catchUp_shouldBackfillInBoundedSteps() {
+        ReflectionTestUtils.setField(service, "backfillDays", 5);
+        ReflectionTestUtils.setField(service, "maxDaysPerRun", 2);
+
+        assertEquals(2, service.catchUp());
+
+        verify(rollupMapper).advanceRollupState("dashboard_daily", TODAY.minusDays(5), TODAY.minusDays(5));
+        verify(rollupMapper).advanceRollupState("dashboard_daily", TODAY.minusDays(5), TODAY.minusDays(4));
+    }
+
+    @Test
+    void catchUp_shouldStopAtFailedDayWithoutAdvancingPastIt() {
+        rolledWindow(TODAY.minusDays(10), TODAY.minusDays(4));
+        when(userMapper.selectMapsIgnoreTenant(any()))
+                .thenReturn(List.of())
+                .thenThrow(new RuntimeException("db down"));
+
+        assertEquals(1, service.catchUp());
+
+        verify(rollupMapper).advanceRollupState("dashboard_daily", TODAY.minusDays(10), TODAY.minusDays(3));
+        verify(rollupMapper, times(1)).advanceRollupState(anyString(), any(), any());
+        assertEquals(1L, service.getStats().get("rollupFailures"));
+    }
+
+    private void rolledWindow(LocalDate from, LocalDate to) {
+        when(rollupMapper.selectRollupState("dashboard_daily"))
+                .thenReturn(Map.of("rolled_from", from, "last_rolled_date", to));
+    }
+
+    private static void assertRanges(DashboardRollupService.RangeSplit split, LocalDate... bounds) {
+        List<LocalDateTime[]> ranges = split.getLiveRanges();
+        assertEquals(bounds.length / 2, ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            assertEquals(bounds[i * 2].atStartOfDay(), ranges.get(i)[0]);
+            assertEquals(bounds[i * 2 + 1].atStartOfDay(), ranges.get(i)[1]);
+        }
+    }
+
+    private static Map<String, Object> row(Object... keyValues) {
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            row.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return row;
+    }
+}
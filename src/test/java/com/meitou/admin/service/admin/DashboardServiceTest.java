@@ -0,0 +1,311 @@
+package com.meitou.admin.service.admin;
+
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.entity.DailySiteMetric;
+import com.meitou.admin.entity.DailyUserConsumption;
+import com.meitou.admin.entity.User;
+import com.meitou.admin.mapper.DashboardRollupMapper;
+import com.meitou.admin.mapper.UserMapper;
+import com.meitou.admin.mapper.UserTransactionMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 数据概览读汇总表 + 实时查询今天的结果与全部实时查询流水的结果对比
+ * 流水与用户保存在内存中，Mapper 按查询条件在内存中执行，汇总表写入内存后再被读取。
+ */
+class DashboardServiceTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("MM-dd");
+    private static final Pattern LIMIT = Pattern.compile("LIMIT (\\d+)");
+
+    private final UserMapper userMapper = mock(UserMapper.class);
+    private final UserTransactionMapper userTransactionMapper = mock(UserTransactionMapper.class);
+    private final DashboardRollupMapper rollupMapper = mock(DashboardRollupMapper.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+
+    private final List<Row> users = new ArrayList<>();
+    private final List<Row> transactions = new ArrayList<>();
+    private final Map<String, DailySiteMetric> siteMetrics = new HashMap<>();
+    private final Map<String, DailyUserConsumption> userConsumption = new HashMap<>();
+    private Map<String, Object> rollupState;
+
+    private DashboardRollupService rollupService;
+    private DashboardService dashboardService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        SiteContext.clear();
+        doAnswer(invocation -> {
+            Consumer<TransactionStatus> action = invocation.getArgument(0);
+            action.accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        when(userMapper.selectMapsIgnoreTenant(any())).thenAnswer(invocation ->
+                query(invocation.getArgument(0), users));
+        when(userMapper.selectListIgnoreTenant(any())).thenAnswer(invocation -> users.stream()
+                .map(Row::userId).distinct().map(DashboardServiceTest::user).collect(Collectors.toList()));
+        when(userTransactionMapper.selectMapsIgnoreTenant(any())).thenAnswer(invocation ->
+                query(invocation.getArgument(0), transactions));
+        when(rollupMapper.upsertSiteMetrics(anyList())).thenAnswer(invocation -> {
+            for (DailySiteMetric metric : (List<DailySiteMetric>) invocation.getArgument(0)) {
+                siteMetrics.put(metric.getSiteId() + ":" + metric.getStatDate(), metric);
+            }
+            return 1;
+        });
+        when(rollupMapper.upsertUserConsumption(anyList())).thenAnswer(invocation -> {
+            for (DailyUserConsumption row : (List<DailyUserConsumption>) invocation.getArgument(0)) {
+                userConsumption.put(row.getSiteId() + ":" + row.getStatDate() + ":" + row.getUserId(), row);
+            }
+            return 1;
+        });
+        when(rollupMapper.selectRollupState("dashboard_daily")).thenAnswer(invocation -> rollupState);
+        when(rollupMapper.selectSiteMetrics(any(), any(), any())).thenAnswer(invocation -> siteMetrics.values().stream()
+                .filter(metric -> inRange(metric.getStatDate(), invocation.getArgument(0), invocation.getArgument(1)))
+                .filter(metric -> invocation.getArgument(2) == null || invocation.getArgument(2).equals(metric.getSiteId()))
+                .collect(Collectors.toList()));
+        when(rollupMapper.selectTopUserConsumption(any(), any(), any(), anyInt())).thenAnswer(invocation ->
+                ranked(userConsumption.values().stream()
+                        .filter(row -> inRange(row.getStatDate(), invocation.getArgument(0), invocation.getArgument(1)))
+                        .filter(row -> invocation.getArgument(2) == null || invocation.getArgument(2).equals(row.getSiteId())),
+                        invocation.getArgument(3)));
+        when(rollupMapper.selectUserConsumption(any(), any(), anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> userIds = invocation.getArgument(2);
+            return ranked(userConsumption.values().stream()
+                    .filter(row -> inRange(row.getStatDate(), invocation.getArgument(0), invocation.getArgument(1)))
+                    .filter(row -> userIds.contains(row.getUserId())), Integer.MAX_VALUE);
+        });
+
+        rollupService = new DashboardRollupService(rollupMapper, userMapper, userTransactionMapper, transactionTemplate);
+        ReflectionTestUtils.setField(rollupService, "batchSize", 500);
+        dashboardService = new DashboardService(userMapper, userTransactionMapper, rollupMapper, rollupService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SiteContext.clear();
+    }
+
+    @Test
+    void dashboard_shouldMatchLiveQueryAfterRollup() {
+        loadFixture();
+        String start = TODAY.minusDays(9).toString();
+        String end = TODAY.toString();
+        String pastEnd = TODAY.minusDays(3).toString();
+        List<Long> sites = Arrays.asList(null, 1L, 2L);
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        for (Long siteId : sites) {
+            expected.put("stats" + siteId, dashboardService.getStats(siteId, "custom", start, end));
+            expected.put("past" + siteId, dashboardService.getStats(siteId, "custom", start, pastEnd));
+            expected.put("trend" + siteId, dashboardService.getTrend(siteId, "custom", start, end));
+            expected.put("ranking" + siteId, dashboardService.getRanking(siteId, "custom", start, end));
+        }
+
+        rollUp(TODAY.minusDays(9), TODAY.minusDays(1));
+
+        for (Long siteId : sites) {
+            assertEquals(expected.get("stats" + siteId), dashboardService.getStats(siteId, "custom", start, end));
+            assertEquals(expected.get("past" + siteId), dashboardService.getStats(siteId, "custom", start, pastEnd));
+            assertEquals(expected.get("trend" + siteId), dashboardService.getTrend(siteId, "custom", start, end));
+            assertEquals(expected.get("ranking" + siteId), dashboardService.getRanking(siteId, "custom", start, end));
+        }
+        assertFalse(userConsumption.isEmpty());
+    }
+
+    @Test
+    void getRanking_shouldMergeRolledAndLiveTotalsWithTies() {
+        // 用户1在两天各消耗50，与用户2、用户6（汇总80 + 今天20）并列第一；
+        // 用户3/4/5并列90，只取ID较小的两个；用户7不在汇总前五且今天没有消耗
+        consume(1L, 1L, TODAY.minusDays(2), 50);
+        consume(1L, 1L, TODAY.minusDays(1), 50);
+        consume(1L, 2L, TODAY.minusDays(2), 100);
+        consume(1L, 3L, TODAY.minusDays(1), 90);
+        consume(1L, 4L, TODAY.minusDays(1), 90);
+        consume(1L, 5L, TODAY.minusDays(1), 90);
+        consume(1L, 6L, TODAY.minusDays(1), 80);
+        consume(1L, 6L, TODAY, 20);
+        consume(1L, 7L, TODAY.minusDays(2), 85);
+        for (long userId = 1; userId <= 7; userId++) {
+            users.add(new Row(1L, userId, "USER", 1, TODAY.minusDays(30).atStartOfDay()));
+        }
+        String start = TODAY.minusDays(2).toString();
+        Map<String, Object> live = dashboardService.getRanking(null, "custom", start, TODAY.toString());
+
+        rollUp(TODAY.minusDays(2), TODAY.minusDays(1));
+        Map<String, Object> merged = dashboardService.getRanking(null, "custom", start, TODAY.toString());
+
+        assertEquals(List.of("User 1", "User 2", "User 6", "User 3", "User 4"), names(merged));
+        assertEquals(List.of(100L, 100L, 100L, 90L, 90L), values(merged));
+        assertEquals(live, merged);
+    }
+
+    private void loadFixture() {
+        for (long userId = 1; userId <= 12; userId++) {
+            long siteId = userId <= 7 ? 1L : 2L;
+            users.add(new Row(siteId, userId, "USER", 1, TODAY.minusDays(userId % 10).atTime(9, (int) userId)));
+            for (int day = 0; day < 10; day++) {
+                LocalDateTime at = TODAY.minusDays(day).atTime((int) (userId + day) % 24, 30);
+                if ((userId * 3 + day) % 4 != 0) {
+                    transactions.add(new Row(siteId, userId, "CONSUME", -(userId % 4 + 1) * 10, at));
+                }
+                if ((userId + day) % 3 == 0) {
+                    transactions.add(new Row(siteId, userId, "RECHARGE", 100 * userId, at.plusMinutes(5)));
+                }
+            }
+        }
+        // 没有站点的历史流水
+        transactions.add(new Row(null, 99L, "CONSUME", -15, TODAY.minusDays(4).atTime(12, 0)));
+    }
+
+    private void consume(Long siteId, Long userId, LocalDate day, long amount) {
+        transactions.add(new Row(siteId, userId, "CONSUME", -amount, day.atTime(10, 0)));
+    }
+
+    private void rollUp(LocalDate from, LocalDate to) {
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            rollupService.rollupDay(day);
+        }
+        rollupState = Map.of("rolled_from", from, "last_rolled_date", to);
+    }
+
+    /**
+     * 按 DashboardService / DashboardRollupService 使用的查询条件在内存中执行查询
+     */
+    private static List<Map<String, Object>> query(Wrapper<?> wrapper, List<Row> source) {
+        QueryWrapper<?> queryWrapper = (QueryWrapper<?>) wrapper;
+        String select = queryWrapper.getSqlSelect();
+        String segment = queryWrapper.getSqlSegment();
+        if (select != null && select.contains("balance")) {
+            return List.of();
+        }
+        List<Object> params = queryWrapper.getParamNameValuePairs().entrySet().stream()
+                .sorted(Comparator.comparingInt(entry -> Integer.parseInt(entry.getKey().replaceAll("\\D", ""))))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+        String type = null;
+        Long siteId = null;
+        List<LocalDateTime> range = new ArrayList<>();
+        for (Object param : params) {
+            if (param instanceof String value) {
+                type = value;
+            } else if (param instanceof LocalDateTime value) {
+                range.add(value);
+            } else if (param instanceof Long value) {
+                siteId = value;
+            }
+        }
+        String filterType = type;
+        Long filterSite = siteId;
+        List<Row> rows = source.stream()
+                .filter(row -> filterType == null || filterType.equals(row.type()))
+                .filter(row -> filterSite == null || filterSite.equals(row.siteId()))
+                .filter(row -> !row.createdAt().isBefore(range.get(0)) && row.createdAt().isBefore(range.get(1)))
+                .collect(Collectors.toList());
+
+        List<String> keys = new ArrayList<>();
+        if (select.startsWith("DATE_FORMAT")) {
+            keys.add("date");
+        }
+        if (select.startsWith("site_id")) {
+            keys.add("site_id");
+        }
+        if (select.startsWith("user_id") || select.startsWith("site_id, user_id") || select.equals("distinct user_id")) {
+            keys.add("user_id");
+        }
+        Map<List<Object>, List<Row>> groups = new LinkedHashMap<>();
+        for (Row row : rows) {
+            List<Object> key = new ArrayList<>();
+            for (String column : keys) {
+                key.add(switch (column) {
+                    case "date" -> row.createdAt().format(DAY_FORMAT);
+                    case "site_id" -> row.siteId();
+                    default -> row.userId();
+                });
+            }
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+        }
+        if (keys.isEmpty() && groups.isEmpty()) {
+            groups.put(List.of(), List.of());
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        groups.forEach((key, group) -> {
+            Map<String, Object> out = new HashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                out.put(keys.get(i), key.get(i));
+            }
+            if (select.contains("count(distinct user_id)")) {
+                out.put("count", group.stream().map(Row::userId).distinct().count());
+            } else if (select.contains("count(*)")) {
+                out.put("count", (long) group.size());
+            } else if (select.contains("sum(abs(amount))")) {
+                out.put("total", group.isEmpty() ? null : group.stream().mapToLong(row -> Math.abs(row.amount())).sum());
+            }
+            result.add(out);
+        });
+        if (segment.contains("ORDER BY total DESC")) {
+            result.sort(Comparator.<Map<String, Object>>comparingLong(row -> -((Long) row.get("total")))
+                    .thenComparingLong(row -> (Long) row.get("user_id")));
+        }
+        Matcher limit = LIMIT.matcher(segment);
+        return limit.find() ? result.subList(0, Math.min(result.size(), Integer.parseInt(limit.group(1)))) : result;
+    }
+
+    private static List<Map<String, Object>> ranked(java.util.stream.Stream<DailyUserConsumption> rows, int limit) {
+        Map<Long, Long> totals = new HashMap<>();
+        rows.forEach(row -> totals.merge(row.getUserId(), row.getConsumption(), Long::sum));
+        return totals.entrySet().stream()
+                .sorted(Map.Entry.<Long, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(entry -> Map.<String, Object>of("user_id", entry.getKey(), "total", entry.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean inRange(LocalDate date, LocalDate start, LocalDate end) {
+        return !date.isBefore(start) && !date.isAfter(end);
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("User " + id);
+        return user;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> names(Map<String, Object> ranking) {
+        return ((List<Map<String, Object>>) ranking.get("rankingData")).stream()
+                .map(item -> (String) item.get("name")).collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> values(Map<String, Object> ranking) {
+        return ((List<Map<String, Object>>) ranking.get("rankingData")).stream()
+                .map(item -> (Long) item.get("value")).collect(Collectors.toList());
+    }
+
+    private record Row(Long siteId, Long userId, String type, long amount, LocalDateTime createdAt) {
+    }
+}
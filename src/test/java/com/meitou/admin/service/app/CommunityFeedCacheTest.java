@@ -0,0 +1,86 @@
+package com.meitou.admin.service.app;
+
+import com.meitou.admin.entity.PublishedContent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommunityFeedCacheTest {
+
+    private CommunityFeedCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new CommunityFeedCache();
+        ReflectionTestUtils.setField(cache, "maxItems", 200);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 60L);
+    }
+
+    @Test
+    void getRegular_shouldKeepLoadWhenOtherSegmentIsInvalidated() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.getRegular(1L, "image", () -> {
+            loads.incrementAndGet();
+            // 加载期间其他站点、其他段失效
+            cache.invalidateAfterCommit(2L, "image", true, true);
+            cache.invalidateAfterCommit(1L, "video", true, false);
+            return segment(content(10L, 5));
+        });
+        cache.getRegular(1L, "image", () -> {
+            loads.incrementAndGet();
+            return segment(content(10L, 5));
+        });
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void getRegular_shouldDropLoadWhenSameSegmentIsInvalidated() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.getRegular(1L, "image", () -> {
+            loads.incrementAndGet();
+            cache.invalidateAfterCommit(1L, "image", false, true);
+            return segment(content(10L, 5));
+        });
+        cache.getRegular(1L, "image", () -> {
+            loads.incrementAndGet();
+            return segment(content(10L, 5));
+        });
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void applyLikeDeltas_shouldPatchCachedLikeCountAfterFlush() {
+        PublishedContent item = content(10L, 5);
+        CommunityFeedCache.Segment segment = cache.getRegular(1L, "all", () -> segment(item));
+
+        cache.applyLikeDeltas(Map.of(10L, 3L, 99L, 1L));
+
+        assertEquals(8, segment.getLikeCount(item));
+        // 缓存对象本身不修改
+        assertEquals(5, item.getLikeCount());
+
+        cache.applyLikeDeltas(Map.of(10L, -10L));
+        assertEquals(0, segment.getLikeCount(item));
+    }
+
+    private static CommunityFeedCache.Segment segment(PublishedContent... items) {
+        return new CommunityFeedCache.Segment(List.of(items), items.length);
+    }
+
+    private static PublishedContent content(Long id, int likeCount) {
+        PublishedContent content = new PublishedContent();
+        content.setId(id);
+        content.setLikeCount(likeCount);
+        return content;
+    }
+}
@@ -0,0 +1,190 @@
+package com.meitou.admin.service.app;
+
+import com.meitou.admin.entity.GenerationRecord;
+import com.meitou.admin.entity.User;
+import com.meitou.admin.entity.UserTransaction;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import com.meitou.admin.mapper.UserMapper;
+import com.meitou.admin.mapper.UserTransactionMapper;
+import org.apache.ibatis.annotations.Update;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CreditLedgerServiceTest {
+
+    private final UserMapper userMapper = mock(UserMapper.class);
+    private final UserTransactionMapper userTransactionMapper = mock(UserTransactionMapper.class);
+    private final GenerationRecordMapper generationRecordMapper = mock(GenerationRecordMapper.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private CreditLedgerService ledger;
+
+    @BeforeEach
+    void setUp() {
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        ledger = new CreditLedgerService(userMapper, userTransactionMapper, generationRecordMapper, transactionTemplate);
+        ReflectionTestUtils.setField(ledger, "settleBatchSize", 500);
+    }
+
+    @Test
+    void hold_shouldReserveAvailableBalance() {
+        when(userMapper.holdBalance(eq(1L), eq(100), any(LocalDateTime.class))).thenReturn(1);
+
+        assertTrue(ledger.hold(1L, 100));
+        assertEquals(1L, ledger.getStats().get("holds"));
+    }
+
+    @Test
+    void hold_shouldRejectWhenAvailableBalanceInsufficient() {
+        when(userMapper.holdBalance(eq(1L), eq(100), any(LocalDateTime.class))).thenReturn(0);
+
+        assertFalse(ledger.hold(1L, 100));
+        assertEquals(1L, ledger.getStats().get("holdsRejected"));
+    }
+
+    @Test
+    void hold_shouldSkipFreeJobs() {
+        assertTrue(ledger.hold(1L, 0));
+        verifyNoInteractions(userMapper);
+    }
+
+    @Test
+    void release_shouldReturnHeldCredits() {
+        when(userMapper.releaseHold(eq(1L), eq(100), any(LocalDateTime.class))).thenReturn(1);
+
+        ledger.release(1L, 100);
+
+        verify(userMapper).releaseHold(eq(1L), eq(100), any(LocalDateTime.class));
+        verify(userMapper, never()).incrementBalance(anyLong(), anyInt(), any());
+        verifyNoInteractions(userTransactionMapper);
+    }
+
+    @Test
+    void release_shouldFailWhenHoldMissing() {
+        when(userMapper.releaseHold(eq(1L), eq(100), any(LocalDateTime.class))).thenReturn(0);
+
+        assertThrows(BusinessException.class, () -> ledger.release(1L, 100));
+    }
+
+    @Test
+    void settleAmount_shouldChargeProRataForPartialDelivery() {
+        assertEquals(100, CreditLedgerService.settleAmount(100, 1, 1));
+        assertEquals(100, CreditLedgerService.settleAmount(100, 4, 4));
+        assertEquals(50, CreditLedgerService.settleAmount(100, 2, 4));
+        assertEquals(33, CreditLedgerService.settleAmount(100, 1, 3));
+        assertEquals(0, CreditLedgerService.settleAmount(100, 0, 4));
+        assertEquals(100, CreditLedgerService.settleAmount(100, 5, 4));
+    }
+
+    @Test
+    void settleBatch_shouldMergePerUserAndWriteOneTransactionPerRecord() {
+        GenerationRecord partial = settling(1L, 1L, 100, 50);
+        GenerationRecord full = settling(2L, 1L, 30, null);
+        GenerationRecord other = settling(3L, 2L, 10, 10);
+        when(generationRecordMapper.selectSettlingForUpdateIgnoreTenant(500)).thenReturn(List.of(partial, full, other));
+        when(userMapper.settleHold(anyLong(), anyInt(), anyInt(), any(LocalDateTime.class))).thenReturn(1);
+        when(userMapper.selectBalancesIgnoreTenant(any())).thenReturn(List.of(user(1L, 920), user(2L, 90)));
+        when(userTransactionMapper.insertBatch(anyList())).thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+        when(generationRecordMapper.markSettledIgnoreTenant(anyList())).thenReturn(3);
+
+        assertEquals(3, ledger.settleBatch());
+
+        // 部分交付只扣减结算金额，但释放全部预留
+        verify(userMapper).settleHold(eq(1L), eq(80), eq(130), any(LocalDateTime.class));
+        verify(userMapper).settleHold(eq(2L), eq(10), eq(10), any(LocalDateTime.class));
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<UserTransaction>> captor = ArgumentCaptor.forClass(List.class);
+        verify(userTransactionMapper).insertBatch(captor.capture());
+        List<UserTransaction> transactions = captor.getValue();
+        assertEquals(3, transactions.size());
+        assertEquals(-50, transactions.get(0).getAmount());
+        assertEquals(950, transactions.get(0).getBalanceAfter());
+        assertEquals(-30, transactions.get(1).getAmount());
+        assertEquals(920, transactions.get(1).getBalanceAfter());
+        assertEquals(90, transactions.get(2).getBalanceAfter());
+        verify(generationRecordMapper).markSettledIgnoreTenant(List.of(1L, 2L, 3L));
+    }
+
+    @Test
+    void settleBatch_shouldFailWholeBatchWhenHoldMissing() {
+        when(generationRecordMapper.selectSettlingForUpdateIgnoreTenant(500)).thenReturn(List.of(settling(1L, 1L, 100, 100)));
+        when(userMapper.settleHold(anyLong(), anyInt(), anyInt(), any(LocalDateTime.class))).thenReturn(0);
+
+        assertThrows(BusinessException.class, () -> ledger.settleBatch());
+        verify(generationRecordMapper, never()).markSettledIgnoreTenant(anyList());
+    }
+
+    @Test
+    void settlePending_shouldSwallowFailuresAndCountThem() {
+        when(generationRecordMapper.selectSettlingForUpdateIgnoreTenant(500)).thenThrow(new IllegalStateException("db down"));
+
+        ledger.settlePending();
+
+        assertEquals(1L, ledger.getStats().get("settleFailures"));
+    }
+
+    @Test
+    void settlePending_shouldStopWhenNothingToSettle() {
+        when(generationRecordMapper.selectSettlingForUpdateIgnoreTenant(500)).thenReturn(Collections.emptyList());
+
+        ledger.settlePending();
+
+        verify(generationRecordMapper, times(1)).selectSettlingForUpdateIgnoreTenant(500);
+        verifyNoInteractions(userTransactionMapper);
+    }
+
+    @Test
+    void balanceGuards_shouldOnlySpendAvailableBalance() throws Exception {
+        String deduct = UserMapper.class.getMethod("deductBalance", Long.class, Integer.class, LocalDateTime.class)
+                .getAnnotation(Update.class).value()[0];
+        String hold = String.join("", UserMapper.class.getMethod("holdBalance", Long.class, Integer.class, LocalDateTime.class)
+                .getAnnotation(Update.class).value());
+
+        assertTrue(deduct.contains("balance - held_balance >= #{cost}"), deduct);
+        assertTrue(hold.contains("balance - held_balance >= #{amount}"), hold);
+    }
+
+    @Test
+    void availableBalance_shouldExcludeHeldCredits() {
+        User user = user(1L, 100);
+        user.setHeldBalance(30);
+        assertEquals(70, user.getAvailableBalance());
+        user.setHeldBalance(150);
+        assertEquals(0, user.getAvailableBalance());
+        assertEquals(0, new User().getAvailableBalance());
+    }
+
+    private GenerationRecord settling(Long id, Long userId, int cost, Integer settledAmount) {
+        GenerationRecord record = new GenerationRecord();
+        record.setId(id);
+        record.setUserId(userId);
+        record.setSiteId(1L);
+        record.setType("txt2img");
+        record.setCost(cost);
+        record.setSettledAmount(settledAmount);
+        record.setChargeStatus(CreditLedgerService.SETTLING);
+        return record;
+    }
+
+    private User user(Long id, int balance) {
+        User user = new User();
+        user.setId(id);
+        user.setBalance(balance);
+        return user;
+    }
+}
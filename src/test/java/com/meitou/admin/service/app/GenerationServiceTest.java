@@ -1,9 +1,16 @@
 package com.meitou.admin.service.app;
 
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.dto.app.ImageGenerationResponse;
+import com.meitou.admin.entity.ApiInterface;
+import com.meitou.admin.entity.ApiPlatform;
 import com.meitou.admin.entity.GenerationRecord;
 import com.meitou.admin.entity.User;
 import com.meitou.admin.entity.UserTransaction;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
 import com.meitou.admin.mapper.AnalysisRecordMapper;
 import com.meitou.admin.mapper.GenerationRecordMapper;
 import com.meitou.admin.mapper.UserMapper;
@@ -11,11 +18,41 @@ import com.meitou.admin.mapper.UserTransactionMapper;
 import com.meitou.admin.service.admin.ApiPlatformService;
 import com.meitou.admin.service.common.ApiParameterMappingCacheService;
 import com.meitou.admin.service.common.AliyunOssService;
+import com.meitou.admin.service.common.GenerationCallbackSigner;
+import com.meitou.admin.service.common.GenerationJobLeases;
+import com.meitou.admin.service.common.SseStreamRelay;
+import com.meitou.admin.service.common.GenerationResultIngestor;
+import com.meitou.admin.service.common.GenerationTaskExecutor;
+import com.meitou.admin.service.common.HedgedRequests;
 import com.meitou.admin.storage.FileStorageService;
+import com.meitou.admin.util.Deadline;
+import com.meitou.admin.util.SseResultParser;
+import com.meitou.admin.service.common.PlatformHealthRouter;
+import com.meitou.admin.service.common.PlatformRequestPlanCache;
+import com.meitou.admin.service.common.IdempotencyService;
+import com.meitou.admin.service.common.PromptOptimizeCache;
+import com.meitou.admin.service.common.UpstreamHttpClientProvider;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -33,6 +70,7 @@ class GenerationServiceTest {
         AliyunOssService aliyunOssService = mock(AliyunOssService.class);
         TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
         FileStorageService fileStorageService = mock(FileStorageService.class);
+        GenerationTaskExecutor generationTaskExecutor = mock(GenerationTaskExecutor.class);
         ObjectMapper objectMapper = new ObjectMapper();
 
         when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
@@ -67,7 +105,19 @@ class GenerationServiceTest {
                 userTransactionMapper,
                 aliyunOssService,
                 transactionTemplate,
-                fileStorageService);
+                fileStorageService,
+                generationTaskExecutor,
+                mock(UpstreamHttpClientProvider.class),
+                new PlatformRequestPlanCache(),
+                mock(GenerationResultIngestor.class),
+                mock(GenerationCallbackSigner.class),
+                mock(SseStreamRelay.class),
+                mock(PlatformHealthRouter.class),
+                mock(HedgedRequests.class),
+                mock(CreditLedgerService.class),
+                mock(GenerationJobLeases.class),
+                mock(PromptOptimizeCache.class),
+                mock(IdempotencyService.class));
 
         // First call - Success
         service.failIfProcessingAndRefund(10L, "failure reason");
@@ -87,4 +137,599 @@ class GenerationServiceTest {
         verify(userMapper, never()).incrementBalance(anyLong(), anyInt(), any(java.time.LocalDateTime.class));
         verify(userTransactionMapper, never()).insert(any(UserTransaction.class));
     }
+
+    private final ApiPlatformService apiPlatformService = mock(ApiPlatformService.class);
+    private final GenerationRecordMapper generationRecordMapper = mock(GenerationRecordMapper.class);
+    private final UserMapper userMapper = mock(UserMapper.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private final GenerationTaskExecutor generationTaskExecutor = mock(GenerationTaskExecutor.class);
+    private final CreditLedgerService creditLedgerService = mock(CreditLedgerService.class);
+    private final GenerationJobLeases generationJobLeases = mock(GenerationJobLeases.class);
+    private final GenerationCallbackSigner generationCallbackSigner = mock(GenerationCallbackSigner.class);
+    private final UpstreamHttpClientProvider upstreamHttpClientProvider = mock(UpstreamHttpClientProvider.class);
+    private final PlatformHealthRouter platformHealthRouter = mock(PlatformHealthRouter.class);
+
+    private GenerationService newService() {
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        return new GenerationService(
+                apiPlatformService,
+                generationRecordMapper,
+                mock(AnalysisRecordMapper.class),
+                mock(ApiParameterMappingCacheService.class),
+                userMapper,
+                mock(UserTransactionMapper.class),
+                mock(AliyunOssService.class),
+                transactionTemplate,
+                mock(FileStorageService.class),
+                generationTaskExecutor,
+                upstreamHttpClientProvider,
+                new PlatformRequestPlanCache(),
+                mock(GenerationResultIngestor.class),
+                generationCallbackSigner,
+                mock(SseStreamRelay.class),
+                platformHealthRouter,
+                mock(HedgedRequests.class),
+                creditLedgerService,
+                generationJobLeases,
+                mock(PromptOptimizeCache.class),
+                mock(IdempotencyService.class));
+    }
+
+    private GenerationRecord claimedRecord(int attempts) {
+        GenerationRecord record = new GenerationRecord();
+        record.setId(10L);
+        record.setType("txt2img");
+        record.setModel("model-a");
+        record.setUserId(20L);
+        record.setSiteId(1L);
+        record.setCost(50);
+        record.setStatus("processing");
+        record.setChargeStatus(CreditLedgerService.HELD);
+        record.setJobAttempts(attempts);
+        record.setGenerationParams("{\"prompt\":\"a cat\",\"model\":\"model-a\"}");
+        when(generationRecordMapper.selectById(10L)).thenReturn(record);
+        return record;
+    }
+
+    private void mockPlatform() {
+        ApiPlatform platform = new ApiPlatform();
+        platform.setId(7L);
+        when(apiPlatformService.getPlatformByTypeAndModel(eq("txt2img"), eq("model-a"), isNull())).thenReturn(platform);
+        ApiInterface apiInterface = new ApiInterface();
+        apiInterface.setId(70L);
+        apiInterface.setPlatformId(7L);
+        apiInterface.setResponseMode("JSON");
+        when(apiPlatformService.getRegisteredInterfaces(7L)).thenReturn(List.of(apiInterface));
+    }
+
+    @Test
+    void resumeGenerationJob_shouldSubmitClaimedJobUnderLease() {
+        GenerationService service = newService();
+        claimedRecord(2);
+        mockPlatform();
+
+        assertTrue(service.resumeGenerationJob(10L, 3));
+
+        verify(generationJobLeases).track(10L);
+        verify(generationTaskExecutor).submit(eq(7L), eq(GenerationTaskExecutor.Lane.IMAGE), eq(20L),
+                any(Runnable.class), any(Runnable.class));
+        verify(generationJobLeases, never()).releaseClaim(anyLong());
+    }
+
+    @Test
+    void resumeGenerationJob_shouldFailAndReleaseHoldWhenAttemptsExceeded() {
+        GenerationService service = newService();
+        claimedRecord(4);
+        when(generationRecordMapper.update(isNull(), any())).thenReturn(1);
+
+        assertFalse(service.resumeGenerationJob(10L, 3));
+
+        verify(generationRecordMapper).update(isNull(), any());
+        verify(creditLedgerService).release(20L, 50);
+        verify(generationTaskExecutor, never()).submit(anyLong(), any(), anyLong(), any(), any());
+    }
+
+    @Test
+    void resumeGenerationJob_shouldReturnClaimWithoutConsumingAttemptWhenQueueFull() {
+        GenerationService service = newService();
+        claimedRecord(3);
+        mockPlatform();
+        doThrow(new BusinessException(ErrorCode.GENERATION_QUEUE_FULL))
+                .when(generationTaskExecutor).submit(anyLong(), any(), anyLong(), any(), any());
+
+        assertFalse(service.resumeGenerationJob(10L, 3));
+
+        verify(generationJobLeases).releaseClaim(10L);
+        verify(generationJobLeases).untrack(10L);
+        verify(generationRecordMapper, never()).update(isNull(), any());
+        verify(creditLedgerService, never()).release(anyLong(), anyInt());
+    }
+
+    @Test
+    void resumeGenerationJob_shouldSkipJobThatAlreadyHasUpstreamTaskId() {
+        GenerationService service = newService();
+        GenerationRecord record = claimedRecord(2);
+        record.setTaskId("upstream-1");
+
+        assertFalse(service.resumeGenerationJob(10L, 3));
+
+        verify(generationTaskExecutor, never()).submit(anyLong(), any(), anyLong(), any(), any());
+        verify(generationJobLeases, never()).track(anyLong());
+    }
+
+    @Test
+    void handleTaskCallback_shouldRejectCallbackFromOtherPlatform() {
+        GenerationService service = newService();
+        GenerationRecord record = claimedRecord(1);
+        record.setTaskId("upstream-1");
+        when(generationRecordMapper.selectByTaskIdIgnoreTenant(1L, "upstream-1")).thenReturn(record);
+        ApiPlatform taskPlatform = new ApiPlatform();
+        taskPlatform.setId(7L);
+        when(apiPlatformService.getTaskPlatform(record)).thenReturn(taskPlatform);
+        ApiPlatform other = new ApiPlatform();
+        other.setId(8L);
+        other.setSiteId(1L);
+        when(generationCallbackSigner.verify(other, 10L, "token")).thenReturn(true);
+
+        BusinessException e = assertThrows(BusinessException.class,
+                () -> service.handleTaskCallback(other, "token", "{\"task_id\":\"upstream-1\"}", result -> { }));
+
+        assertEquals(ErrorCode.GENERATION_CALLBACK_VERIFY_FAILED.getCode(), e.getCode());
+        verify(generationTaskExecutor, never()).submit(anyLong(), any(), anyLong(), any(), any());
+    }
+
+    @Test
+    void handleTaskCallback_shouldRejectTokenNotIssuedForRecord() {
+        GenerationService service = newService();
+        GenerationRecord record = claimedRecord(1);
+        record.setTaskId("upstream-1");
+        when(generationRecordMapper.selectByTaskIdIgnoreTenant(1L, "upstream-1")).thenReturn(record);
+        ApiPlatform platform = new ApiPlatform();
+        platform.setId(7L);
+        platform.setSiteId(1L);
+        when(generationCallbackSigner.verify(platform, 10L, "token-of-other-record")).thenReturn(false);
+
+        BusinessException e = assertThrows(BusinessException.class, () -> service.handleTaskCallback(platform,
+                "token-of-other-record", "{\"task_id\":\"upstream-1\",\"status\":\"SUCCESS\"}", result -> { }));
+
+        assertEquals(ErrorCode.GENERATION_CALLBACK_VERIFY_FAILED.getCode(), e.getCode());
+        verify(generationTaskExecutor, never()).submit(anyLong(), any(), anyLong(), any(), any());
+    }
+
+    @Test
+    void handleTaskCallback_shouldHandOffIngestionToExecutor() {
+        GenerationService service = newService();
+        GenerationRecord record = claimedRecord(1);
+        record.setTaskId("upstream-1");
+        when(generationRecordMapper.selectByTaskIdIgnoreTenant(1L, "upstream-1")).thenReturn(record);
+        mockPlatform();
+        ApiPlatform platform = new ApiPlatform();
+        platform.setId(7L);
+        platform.setSiteId(1L);
+        when(apiPlatformService.getTaskPlatform(record)).thenReturn(platform);
+        List<ImageGenerationResponse> applied = new ArrayList<>();
+
+        when(generationCallbackSigner.verify(platform, 10L, "token")).thenReturn(true);
+        ImageGenerationResponse response = service.handleTaskCallback(platform, "token",
+                "{\"task_id\":\"upstream-1\",\"status\":\"RUNNING\",\"progress\":\"40%\"}", applied::add);
+
+        // 受理后立即返回，结果处理在线程池中执行
+        assertEquals("processing", response.getStatus());
+        assertTrue(applied.isEmpty());
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(generationTaskExecutor).submit(eq(7L), eq(GenerationTaskExecutor.Lane.IMAGE), eq(20L),
+                task.capture(), isNull());
+
+        task.getValue().run();
+
+        assertEquals(1, applied.size());
+        assertEquals(10L, applied.get(0).getGenerationRecordId());
+    }
+
+    @Test
+    void callApi_shouldNotCountOwnDeadlineExpiryAsPlatformFailure() {
+        GenerationService service = newService();
+        PlatformHealthRouter.Call call = mockTimingOutUpstream(100);
+
+        BusinessException e = assertThrows(BusinessException.class, () -> ReflectionTestUtils.invokeMethod(service,
+                "callApi", upstreamInterface(), upstreamPlatform(), new HashMap<String, Object>(), Deadline.after(20)));
+
+        assertEquals(ErrorCode.DEADLINE_EXCEEDED.getCode(), e.getCode());
+        verify(call).release();
+        verify(call, never()).failure(anyString());
+    }
+
+    @Test
+    void callApi_shouldCountTimeoutWithinBudgetAsPlatformFailure() {
+        GenerationService service = newService();
+        PlatformHealthRouter.Call call = mockTimingOutUpstream(0);
+
+        assertThrows(BusinessException.class, () -> ReflectionTestUtils.invokeMethod(service,
+                "callApi", upstreamInterface(), upstreamPlatform(), new HashMap<String, Object>(), Deadline.none()));
+
+        verify(call).failure("ResourceAccessException");
+        verify(call, never()).release();
+    }
+
+    @Test
+    void callApi_shouldSendPlanHeadersAndMappedParamsToInterfaceUrl() throws Exception {
+        GenerationService service = newService();
+        ApiInterface apiInterface = upstreamInterface();
+        apiInterface.setHeaders("{\"X-Api-Key\": \"{apiKey}\", \"X-Trace\": \"fixed\"}");
+        apiInterface.setParametersJson("{\"prompt\": \"text\"}");
+        MockClientHttpRequest sent = new MockClientHttpRequest();
+        List<Object> target = new ArrayList<>();
+        RestTemplate restTemplate = new RestTemplate() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
+                    ResponseExtractor<T> responseExtractor, Object... uriVariables) {
+                target.add(url);
+                target.add(method);
+                try {
+                    requestCallback.doWithRequest(sent);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return (T) "{\"code\":200}";
+            }
+        };
+        when(upstreamHttpClientProvider.getRestTemplate(any(ApiInterface.class), anyInt(), any(Deadline.class)))
+                .thenReturn(restTemplate);
+        PlatformHealthRouter.Call call = mock(PlatformHealthRouter.Call.class);
+        when(platformHealthRouter.begin(7L)).thenReturn(call);
+        HashMap<String, Object> params = new HashMap<>();
+        params.put("prompt", "a cat");
+        params.put("model", "flux");
+
+        Object mapped = ReflectionTestUtils.invokeMethod(service, "applyParameterMapping", params, upstreamPlatform(),
+                apiInterface);
+        String body = ReflectionTestUtils.invokeMethod(service, "callApi", apiInterface, upstreamPlatform(), mapped,
+                Deadline.none());
+
+        assertEquals("{\"code\":200}", body);
+        assertEquals(List.of("https://upstream.example.com/v1/draw", HttpMethod.POST), target);
+        assertEquals("key", sent.getHeaders().getFirst("X-Api-Key"));
+        assertEquals("fixed", sent.getHeaders().getFirst("X-Trace"));
+        assertEquals("Bearer key", sent.getHeaders().getFirst("Authorization"));
+        JsonNode sentBody = new ObjectMapper().readTree(sent.getBodyAsString());
+        assertEquals("a cat", sentBody.get("text").asText());
+        assertEquals("flux", sentBody.get("model").asText());
+        assertFalse(sentBody.has("prompt"));
+        verify(call).success();
+    }
+
+    private PlatformHealthRouter.Call mockTimingOutUpstream(long delayMillis) {
+        RestTemplate restTemplate = new RestTemplate() {
+            @Override
+            public <T> T execute(String url, HttpMethod method, RequestCallback requestCallback,
+                    ResponseExtractor<T> responseExtractor, Object... uriVariables) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new ResourceAccessException("Read timed out", new SocketTimeoutException("Read timed out"));
+            }
+        };
+        when(upstreamHttpClientProvider.getRestTemplate(any(ApiInterface.class), anyInt(), any(Deadline.class)))
+                .thenReturn(restTemplate);
+        PlatformHealthRouter.Call call = mock(PlatformHealthRouter.Call.class);
+        when(platformHealthRouter.begin(7L)).thenReturn(call);
+        return call;
+    }
+
+    private static ApiInterface upstreamInterface() {
+        ApiInterface apiInterface = new ApiInterface();
+        apiInterface.setId(70L);
+        apiInterface.setPlatformId(7L);
+        apiInterface.setMethod("POST");
+        apiInterface.setUrl("https://upstream.example.com/v1/draw");
+        return apiInterface;
+    }
+
+    private static ApiPlatform upstreamPlatform() {
+        ApiPlatform platform = new ApiPlatform();
+        platform.setId(7L);
+        platform.setName("upstream");
+        platform.setApiKey("key");
+        return platform;
+    }
+
+    @Test
+    void failGenerationTask_shouldReleaseHoldWithoutRefundTransaction() {
+        GenerationService service = newService();
+        claimedRecord(1);
+        when(generationRecordMapper.update(isNull(), any())).thenReturn(1, 0);
+
+        service.failIfProcessingAndRefund(10L, "failure reason");
+        service.failIfProcessingAndRefund(10L, "failure reason");
+
+        verify(creditLedgerService, times(1)).release(20L, 50);
+        verify(userMapper, never()).incrementBalance(anyLong(), anyInt(), any());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<UpdateWrapper<GenerationRecord>> captor = ArgumentCaptor.forClass(UpdateWrapper.class);
+        verify(generationRecordMapper, times(2)).update(isNull(), captor.capture());
+        assertTrue(captor.getAllValues().get(0).getParamNameValuePairs().containsValue(CreditLedgerService.RELEASED));
+    }
+
+    @Test
+    void completeAndSplitGenerationTask_shouldSettleProRataForPartialDelivery() {
+        GenerationService service = newService();
+        GenerationRecord record = claimedRecord(1);
+        record.setCost(100);
+        record.setGenerationParams("{\"prompt\":\"a cat\",\"quantity\":4}");
+        when(generationRecordMapper.update(isNull(), any())).thenReturn(1);
+
+        ReflectionTestUtils.invokeMethod(service, "completeAndSplitGenerationTask", 10L,
+                List.of("https://cdn.example.com/1.png", "https://cdn.example.com/2.png"), null);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<UpdateWrapper<GenerationRecord>> captor = ArgumentCaptor.forClass(UpdateWrapper.class);
+        verify(generationRecordMapper).update(isNull(), captor.capture());
+        UpdateWrapper<GenerationRecord> update = captor.getValue();
+        assertTrue(update.getSqlSet().contains("settled_amount"));
+        assertTrue(update.getParamNameValuePairs().containsValue(50));
+        assertTrue(update.getParamNameValuePairs().containsValue(CreditLedgerService.SETTLING));
+        verify(generationRecordMapper).insertBatch(argThat(split -> split.size() == 1 && split.get(0).getCost() == 0));
+        verify(creditLedgerService, never()).release(anyLong(), anyInt());
+    }
+
+    /**
+     * 图片SSE响应：覆盖进度事件、多个成功终态、跨行的 data、[DONE]、非JSON行、CRLF、错误与处理中状态
+     */
+    private static final List<String> IMAGE_SSE_SAMPLES = List.of(
+            "data: {\"id\":\"t1\",\"status\":\"running\",\"progress\":10}\n"
+                    + "data: {\"status\":\"running\",\"progress\":50}\n"
+                    + "data: {\"status\":\"completed\",\"results\":[{\"url\":\"https://a/1.png\"},{\"url\":\"https://a/2.png\"}]}\n",
+            "data: {\"status\":\"succeeded\",\"results\":[\"https://a/1.png\"]}\n\n"
+                    + "data: {\"status\":\"success\",\"url\":\"https://a/2.png\"}\n\n",
+            "data: {\"status\":\"running\"}\r\n\r\ndata: {\"status\":\"completed\",\"url\":\"https://a/1.png\"}\r\n\r\n",
+            "data: {\"status\":\"completed\",\"results\":[{\"url\":\"https://a/1.png\"}]}\ndata: [DONE]\n",
+            ": ping\nevent: message\nid: 1\ndata: not json\ndata: {\"status\":\"completed\",\"url\":\"https://a/1.png\"}\n",
+            "data: {\"status\":\n"
+                    + "data: \"completed\",\"url\":\"https://a/split.png\"}\n"
+                    + "data: {\"status\":\"completed\",\"results\":[{\"url\":\"https://a/1.png\"},{\"other\":1},3]}\n",
+            "data: {\"status\":\"failed\",\"error\":\"内容违规\"}\n",
+            "data: {\"status\":\"failed\",\"failure_reason\":\"额度不足\",\"error\":\"\"}\n",
+            "data: {\"status\":\"failed\",\"error\":null}\n",
+            "data: {\"status\":\"running\",\"results\":[{\"url\":\"\"},{\"url\":\"https://a/p.png\"},\"https://a/q.png\"]}\n",
+            "data: {\"status\":\"running\",\"progress\":90}\n",
+            "data: {\"status\":\"completed\"}\n",
+            "data: {\"status\":\"completed\",\"results\":\"https://a/not-array.png\",\"url\":\"https://a/1.png\"}\n",
+            "data: {\"status\":\"completed\",\"url\":\"https://a/1.png\"}\ndata: {\"progress\":100}\n",
+            "data: \"text\"\ndata: 42\n",
+            "data: \ndata: [DONE]\n",
+            "");
+
+    /**
+     * 视频SSE响应
+     */
+    private static final List<String> VIDEO_SSE_SAMPLES = List.of(
+            "data: {\"id\":\"v1\",\"status\":\"running\",\"progress\":10}\n"
+                    + "data: {\"status\":\"succeeded\",\"video_url\":\"https://v/1.mp4\"}\n",
+            "data: {\"status\":\"completed\",\"data\":{\"results\":[{\"url\":\"https://v/2.mp4\"}]}}\ndata: [DONE]\n",
+            "data: {\"status\":\"completed\",\"data\":{\"video_url\":\"https://v/3.mp4\",\"url\":\"\"}}\r\n",
+            "data: {\"status\":\"completed\",\"results\":[{\"video_url\":\"https://v/4.mp4\"}]}\n",
+            "data: {\"url\":\"https://v/early.mp4\"}\ndata: {\"status\":\"running\"}\ndata: {\"progress\":99}\n",
+            "data: {\"status\":\"running\",\n"
+                    + "data: \"url\":\"https://v/split.mp4\"}\n"
+                    + "data: {\"status\":\"running\"}\n",
+            "data: {\"status\":\"failed\",\"error\":\"上游超时\"}\n",
+            "data: {\"status\":\"failed\",\"failure_reason\":\"审核未通过\"}\n",
+            "data: {\"status\":\"completed\",\"results\":[{\"url\":\"\"}]}\n",
+            "data: not json\n",
+            "");
+
+    @Test
+    void parseSseResponse_shouldMatchLegacySplitAndReadTree() {
+        GenerationService service = newService();
+        for (String sse : IMAGE_SSE_SAMPLES) {
+            assertEquals(outcome(() -> legacyParseSseResponse(sse)),
+                    outcome(() -> ReflectionTestUtils.invokeMethod(service, "parseSseResponse", sse)), sse);
+        }
+    }
+
+    @Test
+    void parseVideoSseResponse_shouldMatchLegacySplitAndReadTree() {
+        GenerationService service = newService();
+        for (String sse : VIDEO_SSE_SAMPLES) {
+            assertEquals(outcome(() -> legacyParseVideoSseResponse(sse)),
+                    outcome(() -> ReflectionTestUtils.invokeMethod(service, "parseVideoSseResponse", sse)), sse);
+        }
+    }
+
+    @Test
+    void compactedSseResponse_shouldParseLikeOriginal() throws Exception {
+        GenerationService service = newService();
+        for (String sse : IMAGE_SSE_SAMPLES) {
+            String compacted = SseResultParser.compact(new StringReader(sse));
+            assertEquals(outcome(() -> ReflectionTestUtils.invokeMethod(service, "parseSseResponse", sse)),
+                    outcome(() -> ReflectionTestUtils.invokeMethod(service, "parseSseResponse", compacted)), sse);
+        }
+        for (String sse : VIDEO_SSE_SAMPLES) {
+            String compacted = SseResultParser.compact(new StringReader(sse));
+            assertEquals(outcome(() -> ReflectionTestUtils.invokeMethod(service, "parseVideoSseResponse", sse)),
+                    outcome(() -> ReflectionTestUtils.invokeMethod(service, "parseVideoSseResponse", compacted)), sse);
+        }
+    }
+
+    @Test
+    void parseSseResponse_shouldAcceptDataLineWithoutSpace() {
+        // 旧实现只识别 "data: "，SSE 规范允许冒号后没有空格，新实现两种都识别
+        GenerationService service = newService();
+
+        List<String> urls = ReflectionTestUtils.invokeMethod(service, "parseSseResponse",
+                "data:{\"status\":\"completed\",\"url\":\"https://a/1.png\"}\n");
+
+        assertEquals(List.of("https://a/1.png"), urls);
+    }
+
+    private static String outcome(Supplier<Object> parse) {
+        try {
+            return "ok:" + parse.get();
+        } catch (BusinessException e) {
+            return "error:" + e.getCode() + ":" + e.getMessage();
+        }
+    }
+
+    /**
+     * 改为增量解析前的图片SSE解析逻辑（按行分割，每行 readTree），作为等价性对照
+     */
+    private static List<String> legacyParseSseResponse(String sseResponse) {
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<String> imageUrls = new ArrayList<>();
+        JsonNode lastDataNode = null;
+        String lastStatus = null;
+        for (String line : sseResponse.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || !line.startsWith("data: ")) {
+                continue;
+            }
+            try {
+                JsonNode dataNode = objectMapper.readTree(line.substring(6));
+                lastDataNode = dataNode;
+                if (dataNode.has("status")) {
+                    lastStatus = dataNode.get("status").asText();
+                    if (legacyCompleted(lastStatus)) {
+                        legacyAddImageUrls(dataNode, imageUrls);
+                    }
+                }
+            } catch (Exception e) {
+                // 忽略解析失败的行
+            }
+        }
+        if (imageUrls.isEmpty() && lastDataNode != null && legacyCompleted(lastStatus)) {
+            legacyAddImageUrls(lastDataNode, imageUrls);
+        }
+        if (imageUrls.isEmpty() && lastDataNode != null) {
+            legacyThrowError(lastDataNode);
+            if ("running".equals(lastStatus)) {
+                if (lastDataNode.has("results") && lastDataNode.get("results").isArray()) {
+                    for (JsonNode result : lastDataNode.get("results")) {
+                        if (result.has("url") && !result.get("url").asText().isEmpty()) {
+                            imageUrls.add(result.get("url").asText());
+                        } else if (result.isTextual() && !result.asText().isEmpty()) {
+                            imageUrls.add(result.asText());
+                        }
+                    }
+                }
+                if (imageUrls.isEmpty()) {
+                    throw new BusinessException(ErrorCode.API_RESPONSE_ERROR.getCode(),
+                            "图片生成任务仍在处理中（状态：running），请稍后查询结果。如需实时获取结果，建议使用轮询或Webhook方式");
+                }
+            }
+        }
+        if (imageUrls.isEmpty()) {
+            throw new BusinessException(ErrorCode.PARSE_RESPONSE_FAILED.getCode(), "未找到生成的图片URL，响应状态：" + lastStatus);
+        }
+        return imageUrls;
+    }
+
+    /**
+     * 改为增量解析前的视频SSE解析逻辑，作为等价性对照
+     */
+    private static String legacyParseVideoSseResponse(String sseResponse) {
+        ObjectMapper objectMapper = new ObjectMapper();
+        String videoUrl = null;
+        JsonNode lastDataNode = null;
+        String lastStatus = null;
+        for (String line : sseResponse.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || !line.startsWith("data: ")) {
+                continue;
+            }
+            try {
+                JsonNode dataNode = objectMapper.readTree(line.substring(6));
+                lastDataNode = dataNode;
+                if (dataNode.has("status")) {
+                    lastStatus = dataNode.get("status").asText();
+                }
+                String url = legacyVideoUrl(dataNode);
+                if (url != null && !url.isEmpty()) {
+                    videoUrl = url;
+                }
+            } catch (Exception e) {
+                // 忽略解析失败的行
+            }
+        }
+        if (videoUrl != null) {
+            return videoUrl;
+        }
+        if (lastDataNode != null) {
+            legacyThrowError(lastDataNode);
+            if ("running".equals(lastStatus)) {
+                throw new BusinessException(ErrorCode.API_RESPONSE_ERROR.getCode(),
+                        "视频生成任务仍在处理中（状态：running），未返回结果URL");
+            }
+        }
+        throw new BusinessException(ErrorCode.PARSE_RESPONSE_FAILED.getCode(), "未找到生成的视频URL，响应状态：" + lastStatus);
+    }
+
+    private static boolean legacyCompleted(String status) {
+        return "completed".equals(status) || "success".equals(status) || "succeeded".equals(status);
+    }
+
+    private static void legacyAddImageUrls(JsonNode node, List<String> imageUrls) {
+        if (node.has("results") && node.get("results").isArray()) {
+            for (JsonNode result : node.get("results")) {
+                if (result.has("url")) {
+                    imageUrls.add(result.get("url").asText());
+                } else if (result.isTextual()) {
+                    imageUrls.add(result.asText());
+                }
+            }
+        } else if (node.has("url") && !node.get("url").asText().isEmpty()) {
+            imageUrls.add(node.get("url").asText());
+        }
+    }
+
+    private static void legacyThrowError(JsonNode node) {
+        if (node.has("error") && !node.get("error").asText().isEmpty()) {
+            throw new BusinessException(ErrorCode.API_RESPONSE_ERROR.getCode(), "API返回错误：" + node.get("error").asText());
+        }
+        if (node.has("failure_reason") && !node.get("failure_reason").asText().isEmpty()) {
+            throw new BusinessException(ErrorCode.API_RESPONSE_ERROR.getCode(),
+                    "API返回失败原因：" + node.get("failure_reason").asText());
+        }
+    }
+
+    private static String legacyVideoUrl(JsonNode node) {
+        if (node.has("video_url") && !node.get("video_url").asText().isEmpty()) {
+            return node.get("video_url").asText();
+        }
+        if (node.has("url") && !node.get("url").asText().isEmpty()) {
+            return node.get("url").asText();
+        }
+        if (node.has("data")) {
+            JsonNode data = node.get("data");
+            if (data.has("url") && !data.get("url").asText().isEmpty()) {
+                return data.get("url").asText();
+            }
+            if (data.has("video_url") && !data.get("video_url").asText().isEmpty()) {
+                return data.get("video_url").asText();
+            }
+            String first = legacyFirstResultUrl(data);
+            if (first != null) {
+                return first;
+            }
+        }
+        return legacyFirstResultUrl(node);
+    }
+
+    private static String legacyFirstResultUrl(JsonNode node) {
+        if (node.has("results") && node.get("results").isArray() && node.get("results").size() > 0) {
+            JsonNode first = node.get("results").get(0);
+            if (first.has("url")) {
+                return first.get("url").asText();
+            }
+            if (first.has("video_url")) {
+                return first.get("video_url").asText();
+            }
+        }
+        return null;
+    }
 }
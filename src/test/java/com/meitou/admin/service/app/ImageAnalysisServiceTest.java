@@ -7,6 +7,7 @@ import com.meitou.admin.mapper.UserMapper;
 import com.meitou.admin.mapper.UserTransactionMapper;
 import com.meitou.admin.service.admin.ApiPlatformService;
 import com.meitou.admin.service.common.AliyunOssService;
+import com.meitou.admin.service.common.SseStreamRelay;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.transaction.support.TransactionCallback;
@@ -50,7 +51,8 @@ class ImageAnalysisServiceTest {
                 userTransactionMapper,
                 analysisRecordMapper,
                 aliyunOssService,
-                transactionTemplate);
+                transactionTemplate,
+                mock(SseStreamRelay.class));
 
         Method method = ImageAnalysisService.class.getDeclaredMethod(
                 "failAndRefundIfPending",
@@ -99,7 +101,8 @@ class ImageAnalysisServiceTest {
                 userTransactionMapper,
                 analysisRecordMapper,
                 aliyunOssService,
-                transactionTemplate);
+                transactionTemplate,
+                mock(SseStreamRelay.class));
 
         Method method = ImageAnalysisService.class.getDeclaredMethod(
                 "failAndRefundIfPending",
@@ -0,0 +1,68 @@
+package com.meitou.admin.service.app;
+
+import com.meitou.admin.mapper.PublishedContentMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LikeCountBufferTest {
+
+    private final PublishedContentMapper contentMapper = mock(PublishedContentMapper.class);
+    private final CommunityFeedCache communityFeedCache = mock(CommunityFeedCache.class);
+    private LikeCountBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        buffer = new LikeCountBuffer(contentMapper, communityFeedCache);
+        ReflectionTestUtils.setField(buffer, "flushBatchSize", 500);
+        ReflectionTestUtils.setField(buffer, "reconcileBatchSize", 2);
+    }
+
+    @Test
+    void reconcile_shouldResetDriftedCountAndPatchFeedCache() {
+        when(contentMapper.selectLikeCountsAfterIgnoreTenant(0L, 2))
+                .thenReturn(List.of(row(1L, 5, 5), row(2L, 3, 7)));
+        when(contentMapper.resetLikeCountIgnoreTenant(2L, 3L, 7L)).thenReturn(1);
+
+        buffer.reconcile();
+
+        verify(contentMapper, never()).resetLikeCountIgnoreTenant(eq(1L), anyLong(), anyLong());
+        verify(communityFeedCache).applyLikeDeltas(Map.of(2L, 4L));
+        assertEquals(1L, buffer.getStats().get("reconciledRows"));
+    }
+
+    @Test
+    void reconcile_shouldSkipContentWithPendingDelta() {
+        buffer.add(2L, 1);
+        when(contentMapper.selectLikeCountsAfterIgnoreTenant(0L, 2)).thenReturn(List.of(row(2L, 3, 4)));
+
+        buffer.reconcile();
+
+        verify(contentMapper, never()).resetLikeCountIgnoreTenant(anyLong(), anyLong(), anyLong());
+        verify(communityFeedCache, never()).applyLikeDeltas(any());
+    }
+
+    @Test
+    void reconcile_shouldAdvanceCursorAndWrapAtEnd() {
+        when(contentMapper.selectLikeCountsAfterIgnoreTenant(0L, 2)).thenReturn(List.of(row(1L, 0, 0), row(4L, 0, 0)));
+        when(contentMapper.selectLikeCountsAfterIgnoreTenant(4L, 2)).thenReturn(List.of(row(9L, 0, 0)));
+
+        buffer.reconcile();
+        buffer.reconcile();
+        buffer.reconcile();
+
+        verify(contentMapper, times(2)).selectLikeCountsAfterIgnoreTenant(0L, 2);
+        verify(contentMapper).selectLikeCountsAfterIgnoreTenant(4L, 2);
+    }
+
+    private static Map<String, Object> row(Long id, int likeCount, long actualCount) {
+        return Map.of("id", id, "likeCount", likeCount, "actualCount", actualCount);
+    }
+}
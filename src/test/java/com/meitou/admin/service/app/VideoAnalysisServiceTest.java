@@ -6,6 +6,7 @@ import com.meitou.admin.mapper.AnalysisRecordMapper;
 import com.meitou.admin.mapper.UserMapper;
 import com.meitou.admin.mapper.UserTransactionMapper;
 import com.meitou.admin.service.admin.ApiPlatformService;
+import com.meitou.admin.service.common.SseStreamRelay;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.transaction.support.TransactionCallback;
@@ -47,7 +48,8 @@ class VideoAnalysisServiceTest {
                 userMapper,
                 userTransactionMapper,
                 analysisRecordMapper,
-                transactionTemplate);
+                transactionTemplate,
+                mock(SseStreamRelay.class));
 
         Method method = VideoAnalysisService.class.getDeclaredMethod(
                 "failAndRefundIfPending",
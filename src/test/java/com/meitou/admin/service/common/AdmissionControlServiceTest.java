@@ -0,0 +1,102 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.annotation.AdmissionControl;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.mapper.AnalysisRecordMapper;
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import com.meitou.admin.util.RateLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AdmissionControlServiceTest {
+
+    private final MockEnvironment environment = new MockEnvironment();
+    private final DatabaseRateLimiter databaseRateLimiter = mock(DatabaseRateLimiter.class);
+    private final GenerationRecordMapper generationRecordMapper = mock(GenerationRecordMapper.class);
+    private final AnalysisRecordMapper analysisRecordMapper = mock(AnalysisRecordMapper.class);
+    private AdmissionControlService service;
+
+    @BeforeEach
+    void setUp() {
+        environment.setProperty("admission.test.user.permitsPerMinute", "60");
+        environment.setProperty("admission.test.user.burst", "1");
+        environment.setProperty("admission.test.user.maxConcurrentJobs", "1");
+        environment.setProperty("admission.test.site.permitsPerMinute", "60");
+        environment.setProperty("admission.test.site.burst", "10");
+        environment.setProperty("admission.test.site.maxConcurrentJobs", "2");
+        service = new AdmissionControlService(environment, new RateLimiter(), databaseRateLimiter,
+                generationRecordMapper, analysisRecordMapper);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "backend", "local");
+        ReflectionTestUtils.setField(service, "analysisPendingMinutes", 10);
+        ReflectionTestUtils.setField(service, "siteJobsCacheMillis", 60000L);
+    }
+
+    @Test
+    void admit_shouldRefundTokenWhenQuotaRejects() {
+        when(generationRecordMapper.selectCount(any())).thenReturn(1L, 0L);
+
+        BusinessException e = assertThrows(BusinessException.class,
+                () -> service.admit("test", 1L, null, 1, AdmissionControl.Jobs.GENERATION));
+        assertEquals(ErrorCode.CONCURRENT_JOBS_EXCEEDED.getCode(), e.getCode());
+
+        // 突发为1，令牌未退还时第二次请求会被限流
+        service.admit("test", 1L, null, 1, AdmissionControl.Jobs.GENERATION).release();
+        assertEquals(1L, service.getStats().get("refundedPermits"));
+    }
+
+    @Test
+    void admit_shouldRefundUserTokenWhenSiteIsRateLimited() {
+        environment.setProperty("admission.test.site.burst", "1");
+        service.admit("test", 1L, 5L, 1, AdmissionControl.Jobs.NONE).release();
+
+        assertThrows(BusinessException.class, () -> service.admit("test", 2L, 5L, 1, AdmissionControl.Jobs.NONE));
+
+        // 用户2的令牌已退还：站点限流解除前仍只被站点限流，而非用户限流
+        BusinessException e = assertThrows(BusinessException.class,
+                () -> service.admit("test", 2L, 5L, 1, AdmissionControl.Jobs.NONE));
+        assertEquals("当前使用人数较多，请稍后再试", e.getMessage());
+    }
+
+    @Test
+    void admit_shouldCacheSiteJobCount() {
+        when(generationRecordMapper.selectCount(any())).thenReturn(0L);
+
+        service.admit("test", null, 5L, 1, AdmissionControl.Jobs.GENERATION);
+        service.admit("test", null, 5L, 1, AdmissionControl.Jobs.GENERATION);
+
+        verify(generationRecordMapper, times(1)).selectCount(any());
+    }
+
+    @Test
+    void admit_shouldCountReleasedAdmissionsAgainstCachedSiteQuota() {
+        when(generationRecordMapper.selectCount(any())).thenReturn(1L);
+
+        service.admit("test", null, 5L, 1, AdmissionControl.Jobs.GENERATION).release();
+
+        // 缓存仍是1，但已准入的任务已落库，应计入站点任务数
+        BusinessException e = assertThrows(BusinessException.class,
+                () -> service.admit("test", null, 5L, 1, AdmissionControl.Jobs.GENERATION));
+        assertEquals(ErrorCode.CONCURRENT_JOBS_EXCEEDED.getCode(), e.getCode());
+        verify(generationRecordMapper, times(1)).selectCount(any());
+    }
+
+    @Test
+    void admit_shouldUseLeasedPermitsForSiteBucketOnDatabaseBackend() {
+        ReflectionTestUtils.setField(service, "backend", "database");
+        when(databaseRateLimiter.acquire(anyString(), anyDouble(), anyInt(), anyInt())).thenReturn(0L);
+        when(databaseRateLimiter.acquireShared(anyString(), anyDouble(), anyInt(), anyInt())).thenReturn(0L);
+
+        service.admit("test", 1L, 5L, 1, AdmissionControl.Jobs.NONE);
+
+        verify(databaseRateLimiter).acquire(eq("test:u:1"), anyDouble(), eq(1), eq(1));
+        verify(databaseRateLimiter).acquireShared(eq("test:s:5"), anyDouble(), eq(10), eq(1));
+    }
+}
@@ -0,0 +1,86 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.mapper.RateLimitBucketMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DatabaseRateLimiterTest {
+
+    private final RateLimitBucketMapper rateLimitBucketMapper = mock(RateLimitBucketMapper.class);
+    private DatabaseRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new DatabaseRateLimiter(rateLimitBucketMapper);
+        ReflectionTestUtils.setField(limiter, "prefetchPermits", 10);
+        ReflectionTestUtils.setField(limiter, "leaseMillis", 60000L);
+    }
+
+    @Test
+    void acquire_shouldConsumeWithSingleConditionalUpdate() {
+        when(rateLimitBucketMapper.tryConsume(eq("k"), anyLong(), eq(1000L), eq(5000L))).thenReturn(1);
+
+        assertEquals(0L, limiter.acquire("k", 1.0, 5, 1));
+
+        verify(rateLimitBucketMapper, never()).selectTat(anyString());
+        verify(rateLimitBucketMapper, never()).insertIgnore(anyString(), anyLong());
+    }
+
+    @Test
+    void acquire_shouldCreateMissingBucketWithFirstCost() {
+        when(rateLimitBucketMapper.tryConsume(anyString(), anyLong(), anyLong(), anyLong())).thenReturn(0);
+        when(rateLimitBucketMapper.selectTat("k")).thenReturn(null);
+        when(rateLimitBucketMapper.insertIgnore(eq("k"), anyLong())).thenReturn(1);
+
+        assertEquals(0L, limiter.acquire("k", 1.0, 5, 1));
+    }
+
+    @Test
+    void acquire_shouldReturnWaitWhenBucketIsEmpty() {
+        when(rateLimitBucketMapper.tryConsume(anyString(), anyLong(), anyLong(), anyLong())).thenReturn(0);
+        when(rateLimitBucketMapper.selectTat("k")).thenReturn(System.currentTimeMillis() + 10000);
+
+        long wait = limiter.acquire("k", 1.0, 5, 1);
+
+        assertTrue(wait > 5000 && wait <= 6000, "wait=" + wait);
+    }
+
+    @Test
+    void acquireShared_shouldHitDatabaseOncePerPrefetchBatch() {
+        when(rateLimitBucketMapper.tryConsume(anyString(), anyLong(), anyLong(), anyLong())).thenReturn(1);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0L, limiter.acquireShared("site", 1.0, 20, 1));
+        }
+
+        verify(rateLimitBucketMapper, times(1)).tryConsume(eq("site"), anyLong(), eq(10000L), eq(20000L));
+        assertEquals(9L, limiter.getStats().get("leasedAcquires"));
+    }
+
+    @Test
+    void acquireShared_shouldReturnUnusedPermitsWhenLeaseExpires() {
+        ReflectionTestUtils.setField(limiter, "leaseMillis", 0L);
+        when(rateLimitBucketMapper.tryConsume(anyString(), anyLong(), anyLong(), anyLong())).thenReturn(1);
+
+        limiter.acquireShared("site", 1.0, 20, 1);
+        limiter.acquireShared("site", 1.0, 20, 1);
+
+        verify(rateLimitBucketMapper).refund("site", 9000L);
+    }
+
+    @Test
+    void refundShared_shouldReturnPermitsToLiveLeaseLocally() {
+        when(rateLimitBucketMapper.tryConsume(anyString(), anyLong(), anyLong(), anyLong())).thenReturn(1);
+        limiter.acquireShared("site", 1.0, 20, 1);
+
+        limiter.refundShared("site", 1.0, 1);
+
+        verify(rateLimitBucketMapper, never()).refund(anyString(), anyLong());
+        assertEquals(1L, limiter.getStats().get("refunds"));
+    }
+}
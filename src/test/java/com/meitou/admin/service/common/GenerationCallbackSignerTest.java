@@ -0,0 +1,73 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.entity.ApiPlatform;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GenerationCallbackSignerTest {
+
+    private GenerationCallbackSigner signer;
+    private ApiPlatform platform;
+
+    @BeforeEach
+    void setUp() {
+        signer = new GenerationCallbackSigner();
+        ReflectionTestUtils.setField(signer, "callbackBaseUrl", "https://api.example.com/");
+        platform = new ApiPlatform();
+        platform.setId(7L);
+        platform.setApiKey("secret");
+    }
+
+    @Test
+    void verify_shouldAcceptTokenOnlyForItsOwnRecord() {
+        String token = token(signer.buildCallbackUrl(platform, 10L));
+
+        assertTrue(signer.verify(platform, 10L, token));
+        assertFalse(signer.verify(platform, 11L, token));
+        assertFalse(signer.verify(platform, 10L, token + "x"));
+    }
+
+    @Test
+    void verify_shouldRejectTokenAfterKeyRotation() {
+        String token = token(signer.buildCallbackUrl(platform, 10L));
+        platform.setApiKey("rotated");
+
+        assertFalse(signer.verify(platform, 10L, token));
+    }
+
+    @Test
+    void applyCallbackWebHook_shouldReplacePlaceholderUnderMappedKey() {
+        Map<String, Object> apiRequest = new HashMap<>();
+        apiRequest.put("callback_url", "-1");
+        apiRequest.put("prompt", "a cat");
+
+        signer.applyCallbackWebHook(apiRequest, List.of("webHook", "callback_url"), platform, 10L);
+
+        assertEquals(signer.buildCallbackUrl(platform, 10L), apiRequest.get("callback_url"));
+        assertFalse(apiRequest.containsKey("webHook"));
+        assertTrue(signer.buildCallbackUrl(platform, 10L)
+                .startsWith("https://api.example.com/api/app/generation/callback/7?token="));
+    }
+
+    @Test
+    void applyCallbackWebHook_shouldKeepPlaceholderWhenDisabled() {
+        ReflectionTestUtils.setField(signer, "callbackBaseUrl", "");
+        Map<String, Object> apiRequest = new HashMap<>();
+        apiRequest.put("webHook", "-1");
+
+        signer.applyCallbackWebHook(apiRequest, List.of("webHook"), platform, 10L);
+
+        assertEquals("-1", apiRequest.get("webHook"));
+    }
+
+    private static String token(String callbackUrl) {
+        return callbackUrl.substring(callbackUrl.indexOf("token=") + "token=".length());
+    }
+}
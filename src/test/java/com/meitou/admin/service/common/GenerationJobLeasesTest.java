@@ -0,0 +1,99 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class GenerationJobLeasesTest {
+
+    private final GenerationRecordMapper generationRecordMapper = mock(GenerationRecordMapper.class);
+    private GenerationJobLeases leases;
+
+    @BeforeEach
+    void setUp() {
+        leases = new GenerationJobLeases(generationRecordMapper);
+        ReflectionTestUtils.setField(leases, "configuredNodeId", "node-a");
+        ReflectionTestUtils.setField(leases, "leaseSeconds", 60);
+        ReflectionTestUtils.setField(leases, "heartbeatMs", 3_600_000L);
+        leases.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        leases.shutdown();
+    }
+
+    @Test
+    void claim_shouldTakeExpiredLeaseForThisNode() {
+        when(generationRecordMapper.claimExpiredLeaseIgnoreTenant(eq(10L), anyString(), any(), any())).thenReturn(1);
+        LocalDateTime before = LocalDateTime.now();
+
+        assertTrue(leases.claim(10L));
+
+        verify(generationRecordMapper).claimExpiredLeaseIgnoreTenant(eq(10L), eq(leases.getNodeId()),
+                argThat(now -> !now.isBefore(before)),
+                argThat(expiresAt -> expiresAt.isAfter(before.plusSeconds(59))));
+        assertTrue(leases.getNodeId().startsWith("node-a-"));
+        assertEquals(1L, leases.getStats().get("claimed"));
+    }
+
+    @Test
+    void claim_shouldLoseRaceWhenAnotherNodeClaimedFirst() {
+        when(generationRecordMapper.claimExpiredLeaseIgnoreTenant(eq(10L), anyString(), any(), any())).thenReturn(0);
+
+        assertFalse(leases.claim(10L));
+        assertEquals(0L, leases.getStats().get("claimed"));
+    }
+
+    @Test
+    void heartbeat_shouldRenewOnlyTrackedJobs() {
+        leases.track(1L);
+        leases.track(2L);
+        leases.untrack(2L);
+
+        leases.heartbeat();
+
+        verify(generationRecordMapper).renewLeasesIgnoreTenant(eq(leases.getNodeId()), eq(List.of(1L)), any());
+    }
+
+    @Test
+    void isHeld_shouldFenceWhenLeaseMovedToAnotherNode() {
+        when(generationRecordMapper.countLeaseHeldIgnoreTenant(10L, leases.getNodeId())).thenReturn(0L);
+        when(generationRecordMapper.countLeaseHeldIgnoreTenant(11L, leases.getNodeId())).thenReturn(1L);
+
+        assertFalse(leases.isHeld(10L));
+        assertTrue(leases.isHeld(11L));
+        assertEquals(1L, leases.getStats().get("fenced"));
+    }
+
+    @Test
+    void saveTaskId_shouldNotOverwriteWhenLeaseLost() {
+        when(generationRecordMapper.updateTaskIdUnderLeaseIgnoreTenant(eq(10L), eq(leases.getNodeId()), eq("t-1"), anyString()))
+                .thenReturn(0);
+
+        assertFalse(leases.saveTaskId(10L, "t-1", "{}"));
+        assertEquals(1L, leases.getStats().get("fenced"));
+    }
+
+    @Test
+    void releaseClaim_shouldExpireLeaseAndStopRenewing() {
+        when(generationRecordMapper.releaseClaimIgnoreTenant(eq(10L), anyString(), any())).thenReturn(1);
+        leases.track(10L);
+
+        leases.releaseClaim(10L);
+        leases.heartbeat();
+
+        verify(generationRecordMapper).releaseClaimIgnoreTenant(eq(10L), eq(leases.getNodeId()), any());
+        verify(generationRecordMapper, never()).renewLeasesIgnoreTenant(anyString(), anyList(), any());
+        assertEquals(1L, leases.getStats().get("released"));
+    }
+}
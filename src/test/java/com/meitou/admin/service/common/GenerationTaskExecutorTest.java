@@ -0,0 +1,288 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.entity.Site;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.service.SiteCacheService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class GenerationTaskExecutorTest {
+
+    private final SiteCacheService siteCacheService = mock(SiteCacheService.class);
+    private GenerationTaskExecutor executor;
+    private List<String> executed;
+    private CountDownLatch done;
+
+    @BeforeEach
+    void setUp() {
+        start(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+        SiteContext.clear();
+    }
+
+    @Test
+    void dispatch_shouldSplitLanesByLaneWeight() throws Exception {
+        List<String> order = dispatchAfterBlocker(() -> {
+            for (int i = 0; i < 8; i++) {
+                submit(null, GenerationTaskExecutor.Lane.IMAGE, 20L, "image");
+            }
+            for (int i = 0; i < 4; i++) {
+                submit(null, GenerationTaskExecutor.Lane.VIDEO, 21L, "video");
+            }
+        }, 12);
+
+        // 图片:视频 = 3:1
+        List<String> firstEight = order.subList(0, 8);
+        assertEquals(6, Collections.frequency(firstEight, "image"));
+        assertEquals(2, Collections.frequency(firstEight, "video"));
+    }
+
+    @Test
+    void dispatch_shouldSplitSitesBySiteWeight() throws Exception {
+        when(siteCacheService.getSiteById(1L)).thenReturn(site(2));
+        when(siteCacheService.getSiteById(2L)).thenReturn(site(1));
+
+        List<String> order = dispatchAfterBlocker(() -> {
+            for (int i = 0; i < 6; i++) {
+                submit(1L, GenerationTaskExecutor.Lane.IMAGE, 20L, "site1");
+                submit(2L, GenerationTaskExecutor.Lane.IMAGE, 30L, "site2");
+            }
+        }, 12);
+
+        // 站点1:站点2 = 2:1
+        List<String> firstSix = order.subList(0, 6);
+        assertEquals(4, Collections.frequency(firstSix, "site1"));
+        assertEquals(2, Collections.frequency(firstSix, "site2"));
+    }
+
+    @Test
+    void dispatch_shouldKeepEachUserFifoAndRotateUsers() throws Exception {
+        List<String> order = dispatchAfterBlocker(() -> {
+            for (int i = 1; i <= 3; i++) {
+                submit(1L, GenerationTaskExecutor.Lane.IMAGE, 20L, "a" + i);
+            }
+            for (int i = 1; i <= 3; i++) {
+                submit(1L, GenerationTaskExecutor.Lane.IMAGE, 30L, "b" + i);
+            }
+        }, 6);
+
+        assertEquals(List.of("a1", "b1", "a2", "b2", "a3", "b3"), order);
+    }
+
+    @Test
+    void dispatch_shouldNotBurstSiteReturningFromIdle() throws Exception {
+        // 站点1单独运行一段时间，站点2空闲
+        dispatchAfterBlocker(() -> {
+            for (int i = 0; i < 6; i++) {
+                submit(1L, GenerationTaskExecutor.Lane.IMAGE, 20L, "site1");
+            }
+        }, 6);
+
+        List<String> order = dispatchAfterBlocker(() -> {
+            for (int i = 0; i < 4; i++) {
+                submit(1L, GenerationTaskExecutor.Lane.IMAGE, 20L, "site1");
+            }
+            for (int i = 0; i < 4; i++) {
+                submit(2L, GenerationTaskExecutor.Lane.IMAGE, 30L, "site2");
+            }
+        }, 8);
+
+        // 站点2不因空闲期累积额度而连续占用
+        assertEquals(List.of("site1", "site2", "site1", "site2", "site1", "site2", "site1", "site2"), order);
+    }
+
+    @Test
+    void dispatch_shouldReserveImageSlotFromVideo() throws Exception {
+        executor.shutdown();
+        start(2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch videoStarted = new CountDownLatch(1);
+        CountDownLatch imageRan = new CountDownLatch(1);
+        AtomicInteger videosRunning = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            executor.submit(1L, GenerationTaskExecutor.Lane.VIDEO, 20L, () -> {
+                videosRunning.incrementAndGet();
+                videoStarted.countDown();
+                await(release);
+            }, null);
+        }
+        assertTrue(videoStarted.await(5, TimeUnit.SECONDS));
+        executor.submit(1L, GenerationTaskExecutor.Lane.IMAGE, 30L, imageRan::countDown, null);
+
+        assertTrue(imageRan.await(5, TimeUnit.SECONDS));
+        assertEquals(1, videosRunning.get());
+        release.countDown();
+    }
+
+    @Test
+    void videoConcurrency_shouldLeaveOneSlotForImages() {
+        assertEquals(1, GenerationTaskExecutor.videoConcurrency(1, 0.75));
+        assertEquals(1, GenerationTaskExecutor.videoConcurrency(2, 0.75));
+        assertEquals(3, GenerationTaskExecutor.videoConcurrency(4, 1.0));
+        assertEquals(6, GenerationTaskExecutor.videoConcurrency(8, 0.75));
+    }
+
+    @Test
+    void shutdown_shouldRunQueuedJobsWithinTimeout() {
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger drops = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            executor.submit(1L, GenerationTaskExecutor.Lane.IMAGE, 20L, () -> {
+                sleep(20);
+                runs.incrementAndGet();
+            }, drops::incrementAndGet);
+        }
+
+        executor.shutdown();
+
+        assertEquals(5, runs.get());
+        assertEquals(0, drops.get());
+    }
+
+    @Test
+    void shutdown_shouldDropJobsStillQueuedAtTimeout() throws Exception {
+        ReflectionTestUtils.setField(executor, "shutdownTimeoutSeconds", 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean queuedRan = new AtomicBoolean();
+        AtomicInteger drops = new AtomicInteger();
+        executor.submit(1L, GenerationTaskExecutor.Lane.IMAGE, 20L, () -> {
+            started.countDown();
+            await(release);
+        }, drops::incrementAndGet);
+        executor.submit(1L, GenerationTaskExecutor.Lane.IMAGE, 21L, () -> queuedRan.set(true), drops::incrementAndGet);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Thread releaser = new Thread(() -> {
+            sleep(1500);
+            release.countDown();
+        });
+        releaser.start();
+        executor.shutdown();
+        releaser.join();
+
+        assertFalse(queuedRan.get());
+        assertEquals(1, drops.get());
+        assertEquals(1L, executor.getStats().get("dropped"));
+    }
+
+    @Test
+    void drain_shouldRunDropCallbackAfterReleasingPlatformLock() {
+        // 线程池已关闭但执行器尚未进入关闭流程：任务被接收后派发失败，放弃回调不应持有平台锁
+        ((ThreadPoolExecutor) ReflectionTestUtils.getField(executor, "executor")).shutdown();
+        Map<?, ?> lanes = (Map<?, ?>) ReflectionTestUtils.getField(executor, "lanes");
+        AtomicBoolean queuedRan = new AtomicBoolean();
+        AtomicInteger drops = new AtomicInteger();
+        AtomicBoolean heldLock = new AtomicBoolean();
+
+        executor.submit(1L, GenerationTaskExecutor.Lane.IMAGE, 20L, () -> queuedRan.set(true), () -> {
+            drops.incrementAndGet();
+            heldLock.set(Thread.holdsLock(lanes.get(1L)));
+        });
+
+        assertFalse(queuedRan.get());
+        assertEquals(1, drops.get());
+        assertFalse(heldLock.get());
+        assertEquals(1L, executor.getStats().get("dropped"));
+    }
+
+    @Test
+    void submit_shouldRejectNewJobsAfterShutdown() {
+        executor.shutdown();
+
+        BusinessException e = assertThrows(BusinessException.class,
+                () -> executor.submit(1L, GenerationTaskExecutor.Lane.IMAGE, 20L, () -> { }, null));
+
+        assertEquals(ErrorCode.GENERATION_QUEUE_FULL.getCode(), e.getCode());
+    }
+
+    private void start(int platformConcurrency) {
+        executor = new GenerationTaskExecutor(siteCacheService);
+        ReflectionTestUtils.setField(executor, "poolSize", 2);
+        ReflectionTestUtils.setField(executor, "queueCapacity", 100);
+        ReflectionTestUtils.setField(executor, "platformConcurrency", platformConcurrency);
+        ReflectionTestUtils.setField(executor, "imageLaneWeight", 3);
+        ReflectionTestUtils.setField(executor, "videoLaneWeight", 1);
+        ReflectionTestUtils.setField(executor, "videoMaxShare", 0.75);
+        ReflectionTestUtils.setField(executor, "shutdownTimeoutSeconds", 5);
+        executor.init();
+    }
+
+    /**
+     * 先用一个任务占住平台唯一的并发，排好队后再放开，按实际执行顺序返回各任务的标签
+     */
+    private List<String> dispatchAfterBlocker(Runnable enqueue, int count) throws Exception {
+        executed = Collections.synchronizedList(new ArrayList<>());
+        done = new CountDownLatch(count);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(1L, GenerationTaskExecutor.Lane.IMAGE, 0L, () -> {
+            started.countDown();
+            await(release);
+        }, null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        enqueue.run();
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return new ArrayList<>(executed);
+    }
+
+    private void submit(Long siteId, GenerationTaskExecutor.Lane lane, Long userId, String label) {
+        List<String> target = executed;
+        CountDownLatch latch = done;
+        if (siteId != null) {
+            SiteContext.setSiteId(siteId);
+        }
+        try {
+            executor.submit(1L, lane, userId, () -> {
+                target.add(label);
+                latch.countDown();
+            }, null);
+        } finally {
+            SiteContext.clear();
+        }
+    }
+
+    private static Site site(int scheduleWeight) {
+        Site site = new Site();
+        site.setScheduleWeight(scheduleWeight);
+        return site;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.meitou.admin.service.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgedRequestsTest {
+
+    private static final String KEY = "status:7";
+
+    private HedgedRequests hedgedRequests;
+
+    @BeforeEach
+    void setUp() {
+        hedgedRequests = new HedgedRequests();
+        ReflectionTestUtils.setField(hedgedRequests, "enabled", true);
+        ReflectionTestUtils.setField(hedgedRequests, "minSamples", 1);
+        ReflectionTestUtils.setField(hedgedRequests, "minDelayMs", 1L);
+        ReflectionTestUtils.setField(hedgedRequests, "maxInFlight", 4);
+        ReflectionTestUtils.setField(hedgedRequests, "poolSize", 4);
+        hedgedRequests.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        hedgedRequests.shutdown();
+    }
+
+    @Test
+    void executeCancellable_shouldCancelLosingPrimaryWhenHedgeWins() throws Exception {
+        hedgedRequests.recordLatency(KEY, 10L);
+        CountDownLatch cancelled = new CountDownLatch(1);
+
+        String result = hedgedRequests.executeCancellable(KEY, onCancel -> {
+            CountDownLatch blocked = new CountDownLatch(1);
+            onCancel.accept(() -> {
+                cancelled.countDown();
+                blocked.countDown();
+            });
+            blocked.await(5, TimeUnit.SECONDS);
+            return "primary";
+        }, onCancel -> "hedge");
+
+        assertEquals("hedge", result);
+        assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+        assertEquals(1L, hedgedRequests.getStats().get("hedgeWins"));
+        assertEquals(1L, hedgedRequests.getStats().get("cancelled"));
+    }
+
+    @Test
+    void executeCancellable_shouldInterruptLosingCallableWithoutCancelAction() throws Exception {
+        hedgedRequests.recordLatency(KEY, 10L);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        String result = hedgedRequests.execute(KEY, () -> {
+            try {
+                Thread.sleep(5_000L);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "primary";
+        }, () -> "hedge");
+
+        assertEquals("hedge", result);
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void execute_shouldCallPrimaryDirectlyWithoutLatencySamples() throws Exception {
+        AtomicInteger hedgeCalls = new AtomicInteger();
+
+        String result = hedgedRequests.execute(KEY, () -> "primary", () -> {
+            hedgeCalls.incrementAndGet();
+            return "hedge";
+        });
+
+        assertEquals("primary", result);
+        assertEquals(0, hedgeCalls.get());
+        assertEquals(0L, hedgedRequests.getStats().get("hedges"));
+    }
+}
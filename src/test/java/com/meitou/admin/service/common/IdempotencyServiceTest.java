@@ -0,0 +1,222 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.common.Result;
+import com.meitou.admin.entity.IdempotencyKey;
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import com.meitou.admin.mapper.IdempotencyKeyMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class IdempotencyServiceTest {
+
+    private static final String IDEM_KEY = "1:20:text-to-image:abc";
+
+    private final IdempotencyKeyMapper idempotencyKeyMapper = mock(IdempotencyKeyMapper.class);
+    private IdempotencyService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new IdempotencyService(idempotencyKeyMapper);
+        ReflectionTestUtils.setField(service, "ttlHours", 24);
+        ReflectionTestUtils.setField(service, "maxEntries", 100);
+        ReflectionTestUtils.setField(service, "waitSeconds", 5);
+        ReflectionTestUtils.setField(service, "pendingTimeoutSeconds", 120);
+    }
+
+    @Test
+    void execute_shouldRunOnceAndSaveResponse() throws Throwable {
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(1);
+
+        Object result = execute(Map.of("prompt", "cat"), () -> Result.success("操作成功", "first"));
+
+        assertEquals("first", ((Result<?>) result).getData());
+        verify(idempotencyKeyMapper).complete(eq(IDEM_KEY), contains("first"));
+        assertEquals(1L, service.getStats().get("executed"));
+    }
+
+    @Test
+    void execute_shouldReplaySavedResponseWithoutRunning() throws Throwable {
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(1);
+        ArgumentCaptor<String> hash = ArgumentCaptor.forClass(String.class);
+        execute(Map.of("prompt", "cat"), () -> Result.success("操作成功", "first"));
+        verify(idempotencyKeyMapper).insertPending(eq(IDEM_KEY), hash.capture(), any());
+
+        // 另一个节点：键已被占用且响应已保存
+        IdempotencyService other = new IdempotencyService(idempotencyKeyMapper);
+        ReflectionTestUtils.setField(other, "ttlHours", 24);
+        ReflectionTestUtils.setField(other, "maxEntries", 100);
+        ReflectionTestUtils.setField(other, "waitSeconds", 5);
+        ReflectionTestUtils.setField(other, "pendingTimeoutSeconds", 120);
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(0);
+        when(idempotencyKeyMapper.selectByKey(IDEM_KEY))
+                .thenReturn(saved(hash.getValue(), "DONE", "{\"code\":200,\"message\":\"操作成功\",\"data\":\"first\"}",
+                        LocalDateTime.now(), 10L));
+        AtomicInteger runs = new AtomicInteger();
+
+        Object result = other.execute("text-to-image", 1L, 20L, "abc", Map.of("prompt", "cat"), Result.class, () -> {
+            runs.incrementAndGet();
+            return Result.success("操作成功", "second");
+        });
+
+        assertEquals(0, runs.get());
+        assertEquals("first", ((Result<?>) result).getData());
+        assertEquals(1L, other.getStats().get("replayed"));
+    }
+
+    @Test
+    void execute_shouldRejectSameKeyWithDifferentBody() throws Throwable {
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(0);
+        when(idempotencyKeyMapper.selectByKey(IDEM_KEY))
+                .thenReturn(saved("other-hash", "DONE", "{}", LocalDateTime.now(), 10L));
+
+        BusinessException e = assertThrows(BusinessException.class,
+                () -> execute(Map.of("prompt", "dog"), () -> Result.success("操作成功", "never")));
+
+        assertEquals(ErrorCode.PARAM_ERROR.getCode(), e.getCode());
+        assertEquals(1L, service.getStats().get("conflicts"));
+    }
+
+    @Test
+    void execute_shouldCoalesceConcurrentDuplicatesOnSameNode() throws Exception {
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = pool.submit(() -> {
+                try {
+                    return execute(Map.of("prompt", "cat"), () -> {
+                        runs.incrementAndGet();
+                        started.countDown();
+                        release.await(5, TimeUnit.SECONDS);
+                        return Result.success("操作成功", "first");
+                    });
+                } catch (Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Object> duplicate = pool.submit(() -> {
+                try {
+                    return execute(Map.of("prompt", "cat"), () -> {
+                        runs.incrementAndGet();
+                        return Result.success("操作成功", "second");
+                    });
+                } catch (Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+            });
+            release.countDown();
+
+            assertSame(first.get(5, TimeUnit.SECONDS), duplicate.get(5, TimeUnit.SECONDS));
+            assertEquals(1, runs.get());
+            assertEquals(1L, service.getStats().get("coalesced"));
+            verify(idempotencyKeyMapper, times(1)).insertPending(eq(IDEM_KEY), anyString(), any());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_shouldTakeOverStalePendingKeyWithoutRecord() throws Throwable {
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(0, 1);
+        when(idempotencyKeyMapper.selectByKey(IDEM_KEY))
+                .thenAnswer(invocation -> saved(null, "PENDING", null, LocalDateTime.now().minusMinutes(10), null));
+
+        Object result = execute(Map.of("prompt", "cat"), () -> Result.success("操作成功", "retried"));
+
+        assertEquals("retried", ((Result<?>) result).getData());
+        verify(idempotencyKeyMapper).deleteStalePending(eq(IDEM_KEY), any());
+        verify(idempotencyKeyMapper).complete(eq(IDEM_KEY), contains("retried"));
+    }
+
+    @Test
+    void execute_shouldNeverTakeOverStalePendingKeyBoundToRecord() {
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(0);
+        when(idempotencyKeyMapper.selectByKey(IDEM_KEY))
+                .thenReturn(saved(null, "PENDING", null, LocalDateTime.now().minusMinutes(10), 10L));
+        AtomicInteger runs = new AtomicInteger();
+
+        BusinessException e = assertThrows(BusinessException.class, () -> execute(Map.of("prompt", "cat"), () -> {
+            runs.incrementAndGet();
+            return Result.success("操作成功", "duplicate");
+        }));
+
+        assertEquals(ErrorCode.REQUEST_IN_PROGRESS.getCode(), e.getCode());
+        assertEquals(0, runs.get());
+        verify(idempotencyKeyMapper, never()).deleteStalePending(anyString(), any());
+    }
+
+    @Test
+    void execute_shouldBindRecordCreatedByFirstRequest() throws Throwable {
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(1);
+
+        execute(Map.of("prompt", "cat"), () -> {
+            service.bindGenerationRecord(10L);
+            return Result.success("操作成功", "first");
+        });
+        service.bindGenerationRecord(11L);
+
+        verify(idempotencyKeyMapper).bindGenerationRecord(IDEM_KEY, 10L);
+        verify(idempotencyKeyMapper, never()).bindGenerationRecord(anyString(), eq(11L));
+    }
+
+    @Test
+    void execute_shouldRetrySavingResponse() throws Throwable {
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(1);
+        when(idempotencyKeyMapper.complete(eq(IDEM_KEY), anyString()))
+                .thenThrow(new IllegalStateException("db down"))
+                .thenReturn(1);
+
+        Object result = execute(Map.of("prompt", "cat"), () -> Result.success("操作成功", "first"));
+
+        assertEquals("first", ((Result<?>) result).getData());
+        verify(idempotencyKeyMapper, times(2)).complete(eq(IDEM_KEY), anyString());
+        assertEquals(0L, service.getStats().get("completeFailures"));
+    }
+
+    @Test
+    void execute_shouldReleaseKeyWhenFirstRequestFails() {
+        when(idempotencyKeyMapper.insertPending(eq(IDEM_KEY), anyString(), any())).thenReturn(1);
+
+        assertThrows(BusinessException.class, () -> execute(Map.of("prompt", "cat"), () -> {
+            throw new BusinessException(ErrorCode.INSUFFICIENT_BALANCE);
+        }));
+
+        verify(idempotencyKeyMapper).deletePending(IDEM_KEY);
+        verify(idempotencyKeyMapper, never()).complete(anyString(), anyString());
+    }
+
+    private Object execute(Object body, IdempotencyService.Action action) throws Throwable {
+        return service.execute("text-to-image", 1L, 20L, "abc", body, Result.class, action);
+    }
+
+    private IdempotencyKey saved(String requestHash, String status, String response, LocalDateTime createdAt,
+            Long generationRecordId) {
+        IdempotencyKey key = new IdempotencyKey();
+        key.setIdemKey(IDEM_KEY);
+        key.setRequestHash(requestHash);
+        key.setStatus(status);
+        key.setResponse(response);
+        key.setCreatedAt(createdAt);
+        key.setGenerationRecordId(generationRecordId);
+        return key;
+    }
+}
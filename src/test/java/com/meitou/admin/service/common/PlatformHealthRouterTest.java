@@ -0,0 +1,74 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.entity.ApiPlatform;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlatformHealthRouterTest {
+
+    private PlatformHealthRouter router;
+
+    @BeforeEach
+    void setUp() {
+        router = new PlatformHealthRouter();
+        ReflectionTestUtils.setField(router, "failureThreshold", 1);
+        ReflectionTestUtils.setField(router, "errorRateThreshold", 0.5);
+        ReflectionTestUtils.setField(router, "minSamples", 20);
+        ReflectionTestUtils.setField(router, "openSeconds", 1);
+        ReflectionTestUtils.setField(router, "maxOpenSeconds", 1);
+        ReflectionTestUtils.setField(router, "probeTimeoutSeconds", 120);
+        ReflectionTestUtils.setField(router, "initialLatencyMs", 5000L);
+    }
+
+    @Test
+    void chooseAvailable_shouldNotTakeHalfOpenProbe() throws InterruptedException {
+        ApiPlatform platform = platform(7L);
+        router.begin(7L).failure("HTTP 503");
+        Thread.sleep(1_100L);
+
+        assertNull(router.chooseAvailable(List.of(platform)));
+        assertSame(platform, router.choose(List.of(platform)));
+        assertEquals(1L, router.getStats().get("probes"));
+    }
+
+    @Test
+    void release_shouldReturnProbeSlotImmediately() throws InterruptedException {
+        ApiPlatform platform = platform(7L);
+        router.begin(7L).failure("HTTP 503");
+        Thread.sleep(1_100L);
+
+        assertSame(platform, router.choose(List.of(platform)));
+        assertNull(router.choose(List.of(platform)));
+        router.begin(7L).release();
+
+        assertSame(platform, router.choose(List.of(platform)));
+        assertEquals(2L, router.getStats().get("probes"));
+        assertEquals(1L, router.getStats().get("probesReleased"));
+    }
+
+    @Test
+    void success_shouldCloseBreakerAfterProbe() throws InterruptedException {
+        ApiPlatform platform = platform(7L);
+        router.begin(7L).failure("HTTP 503");
+        assertFalse(router.isAvailable(7L));
+        Thread.sleep(1_100L);
+
+        assertSame(platform, router.choose(List.of(platform)));
+        router.begin(7L).success();
+
+        assertTrue(router.isAvailable(7L));
+        assertSame(platform, router.chooseAvailable(List.of(platform)));
+    }
+
+    private ApiPlatform platform(Long id) {
+        ApiPlatform platform = new ApiPlatform();
+        platform.setId(id);
+        platform.setName("platform-" + id);
+        return platform;
+    }
+}
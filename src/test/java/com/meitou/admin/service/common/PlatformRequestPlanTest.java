@@ -0,0 +1,318 @@
+package com.meitou.admin.service.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.meitou.admin.entity.ApiInterface;
+import com.meitou.admin.entity.ApiPlatform;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 请求计划与原先每次调用时解析 JSON 配置的结果对比（legacy* 方法为原实现的副本）
+ */
+class PlatformRequestPlanTest {
+
+    private static final String MODELS = """
+            [
+              {"name": "flux", "defaultCost": 10,
+               "costRules": [{"resolution": "2K", "cost": 20}, {"resolution": "", "duration": 10, "cost": 30},
+                             {"resolution": "4K", "duration": 5, "cost": 40}, {"resolution": "8K", "cost": -1}]},
+              {"name": "flux", "defaultCost": 99},
+              {"name": "free", "defaultCost": -1},
+              {"id": "by-id"},
+              {"value": "by-value"},
+              "plain"
+            ]
+            """;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void headers_shouldMatchLegacyParsing() throws Exception {
+        List<String> configs = Arrays.asList(
+                null,
+                "",
+                "   ",
+                "{}",
+                "{\"Authorization\": \"Bearer {apiKey}\", \"X-Api-Key\": \"{apiKey}\", \"X-Trace\": \"fixed\"}",
+                "{\"X-Count\": 3, \"X-Flag\": true, \"X-Null\": null}",
+                "{\"X-Key\": \"{apiKey}-{apiKey}\"}",
+                "[{\"key\": \"X-Api-Key\", \"value\": \"{apiKey}\"}]",
+                "not json");
+        for (String apiKey : Arrays.asList("secret", null)) {
+            ApiPlatform platform = platform(apiKey, null);
+            for (String config : configs) {
+                ApiInterface apiInterface = apiInterface(config, null);
+                Map<String, String> headers = PlatformRequestPlan.compile(platform, objectMapper)
+                        .getInterfacePlan(apiInterface).getHeaders();
+
+                Map<String, String> legacy = legacyHeaders(apiInterface, platform);
+                assertEquals(new ArrayList<>(legacy.entrySet()), new ArrayList<>(headers.entrySet()),
+                        "headers=" + config + " apiKey=" + apiKey);
+            }
+        }
+    }
+
+    @Test
+    void parameterMappings_shouldMatchLegacyParsing() throws Exception {
+        List<String> configs = Arrays.asList(
+                null,
+                "",
+                "{}",
+                "{\"image\": \"reference_image\", \"prompt\": \"text\"}",
+                "{\"prompt\": \"text\", \"text\": \"prompt\"}",
+                "{\"size\": 1024}",
+                "[\"prompt\"]",
+                "not json");
+        Map<String, Object> params = new HashMap<>();
+        params.put("prompt", "a cat");
+        params.put("image", "https://cdn.example.com/1.png");
+        params.put("text", "ignored");
+        params.put("model", "flux");
+        for (String config : configs) {
+            ApiInterface apiInterface = apiInterface(null, config);
+            Map<String, String> mappings = PlatformRequestPlan.compile(platform("secret", null), objectMapper)
+                    .getInterfacePlan(apiInterface).getParameterMappings();
+
+            assertEquals(legacyParameterMapping(params, apiInterface), applyMappings(params, mappings),
+                    "parametersJson=" + config);
+        }
+    }
+
+    @Test
+    void supportsModel_shouldMatchLegacyParsing() throws Exception {
+        List<String> configs = Arrays.asList(MODELS, "flux#sdxl # plain", "[\"flux\", \"plain\"", "flux");
+        List<String> models = Arrays.asList("flux", "free", "by-id", "by-value", "plain", "sdxl", "missing", "");
+        for (String config : configs) {
+            PlatformRequestPlan plan = PlatformRequestPlan.compile(platform("secret", config), objectMapper);
+            assertFalse(plan.isGeneric());
+            for (String model : models) {
+                assertEquals(legacySupportsModel(config, model), plan.supportsModel(model),
+                        "supportedModels=" + config + " model=" + model);
+            }
+        }
+        for (String config : Arrays.asList(null, "", "  ", "[]")) {
+            assertTrue(PlatformRequestPlan.compile(platform("secret", config), objectMapper).isGeneric());
+        }
+    }
+
+    @Test
+    void resolveUnitCost_shouldMatchLegacyParsing() throws Exception {
+        List<String> models = Arrays.asList("flux", "free", "by-id", "plain", "missing");
+        List<String> resolutions = Arrays.asList(null, "1K", "2K", "4K", "8K");
+        List<Integer> durations = Arrays.asList(null, 5, 10);
+        PlatformRequestPlan plan = PlatformRequestPlan.compile(platform("secret", MODELS), objectMapper);
+        for (String model : models) {
+            for (String resolution : resolutions) {
+                for (Integer duration : durations) {
+                    assertEquals(legacyUnitCost(MODELS, model, resolution, duration),
+                            plan.resolveUnitCost(model, resolution, duration),
+                            "model=" + model + " resolution=" + resolution + " duration=" + duration);
+                }
+            }
+        }
+        assertEquals(20, plan.resolveUnitCost("flux", "2K", null));
+        assertEquals(40, plan.resolveUnitCost("flux", "4K", 5));
+        assertEquals(10, plan.resolveUnitCost("flux", "8K", null));
+        assertNull(plan.resolveUnitCost("free", null, null));
+    }
+
+    @Test
+    void matches_shouldDetectPlatformConfigChanges() {
+        ApiPlatform platform = platform("secret", MODELS);
+        PlatformRequestPlan plan = PlatformRequestPlan.compile(platform, objectMapper);
+        assertTrue(plan.matches(platform));
+        assertTrue(plan.matches(platform("secret", MODELS)));
+
+        ApiPlatform updated = platform("secret", MODELS);
+        updated.setUpdatedAt(platform.getUpdatedAt().plusSeconds(1));
+        assertFalse(plan.matches(updated));
+
+        assertFalse(plan.matches(platform("rotated", MODELS)));
+        assertFalse(plan.matches(platform(null, MODELS)));
+        assertFalse(plan.matches(platform("secret", "flux")));
+        assertFalse(plan.matches(platform("secret", null)));
+
+        ApiPlatform other = platform("secret", MODELS);
+        other.setId(8L);
+        assertFalse(plan.matches(other));
+        assertFalse(plan.matches(null));
+    }
+
+    @Test
+    void cache_shouldRecompileOnlyWhenPlatformChanges() {
+        PlatformRequestPlanCache cache = new PlatformRequestPlanCache();
+        ApiPlatform platform = platform("secret", MODELS);
+        PlatformRequestPlan plan = cache.getPlan(platform);
+
+        assertSame(plan, cache.getPlan(platform("secret", MODELS)));
+
+        ApiPlatform updated = platform("secret", MODELS);
+        updated.setUpdatedAt(platform.getUpdatedAt().plusMinutes(1));
+        PlatformRequestPlan recompiled = cache.getPlan(updated);
+        assertNotSame(plan, recompiled);
+        assertSame(recompiled, cache.getPlan(updated));
+
+        ApiPlatform rotated = platform("rotated", MODELS);
+        rotated.setUpdatedAt(updated.getUpdatedAt());
+        PlatformRequestPlan rotatedPlan = cache.getPlan(rotated);
+        assertNotSame(recompiled, rotatedPlan);
+        assertEquals("rotated", rotatedPlan.getInterfacePlan(apiInterface("{\"X-Api-Key\": \"{apiKey}\"}", null))
+                .getHeaders().get("X-Api-Key"));
+
+        ApiPlatform remodeled = platform("rotated", "flux#sdxl");
+        remodeled.setUpdatedAt(updated.getUpdatedAt());
+        PlatformRequestPlan remodeledPlan = cache.getPlan(remodeled);
+        assertNotSame(rotatedPlan, remodeledPlan);
+        assertTrue(remodeledPlan.supportsModel("sdxl"));
+
+        cache.invalidate(remodeled.getId());
+        assertNotSame(remodeledPlan, cache.getPlan(remodeled));
+    }
+
+    @Test
+    void getInterfacePlan_shouldRecompileWhenInterfaceConfigChanges() {
+        PlatformRequestPlan plan = PlatformRequestPlan.compile(platform("secret", null), objectMapper);
+        ApiInterface apiInterface = apiInterface("{\"X-Api-Key\": \"{apiKey}\"}", "{\"prompt\": \"text\"}");
+        PlatformRequestPlan.InterfacePlan interfacePlan = plan.getInterfacePlan(apiInterface);
+
+        assertSame(interfacePlan, plan.getInterfacePlan(apiInterface("{\"X-Api-Key\": \"{apiKey}\"}", "{\"prompt\": \"text\"}")));
+
+        apiInterface.setHeaders("{\"X-Other\": \"{apiKey}\"}");
+        assertEquals(Map.of("X-Other", "secret"), plan.getInterfacePlan(apiInterface).getHeaders());
+
+        apiInterface.setParametersJson("{\"prompt\": \"input\"}");
+        assertEquals(Map.of("prompt", "input"), plan.getInterfacePlan(apiInterface).getParameterMappings());
+    }
+
+    private static ApiPlatform platform(String apiKey, String supportedModels) {
+        ApiPlatform platform = new ApiPlatform();
+        platform.setId(7L);
+        platform.setName("upstream");
+        platform.setApiKey(apiKey);
+        platform.setSupportedModels(supportedModels);
+        platform.setUpdatedAt(LocalDateTime.of(2026, 1, 1, 0, 0));
+        return platform;
+    }
+
+    private static ApiInterface apiInterface(String headers, String parametersJson) {
+        ApiInterface apiInterface = new ApiInterface();
+        apiInterface.setId(70L);
+        apiInterface.setPlatformId(7L);
+        apiInterface.setHeaders(headers);
+        apiInterface.setParametersJson(parametersJson);
+        return apiInterface;
+    }
+
+    private static Map<String, Object> applyMappings(Map<String, Object> params, Map<String, String> mappings) {
+        if (mappings.isEmpty()) {
+            return params;
+        }
+        Map<String, Object> mappedParams = new HashMap<>();
+        params.forEach((key, value) -> mappedParams.put(mappings.getOrDefault(key, key), value));
+        return mappedParams;
+    }
+
+    private Map<String, String> legacyHeaders(ApiInterface apiInterface, ApiPlatform platform) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (apiInterface.getHeaders() != null && !apiInterface.getHeaders().isEmpty()) {
+            try {
+                JsonNode headersNode = objectMapper.readTree(apiInterface.getHeaders());
+                headersNode.fields().forEachRemaining(entry -> {
+                    String key = entry.getKey();
+                    String value = entry.getValue().asText();
+                    if (value.contains("{apiKey}") && platform.getApiKey() != null) {
+                        value = value.replace("{apiKey}", platform.getApiKey());
+                    }
+                    headers.put(key, value);
+                });
+            } catch (Exception e) {
+                // 解析失败时不添加请求头
+            }
+        }
+        return headers;
+    }
+
+    private Map<String, Object> legacyParameterMapping(Map<String, Object> params, ApiInterface apiInterface) {
+        if (apiInterface.getParametersJson() == null || apiInterface.getParametersJson().trim().isEmpty()) {
+            return params;
+        }
+        try {
+            JsonNode mappingNode = objectMapper.readTree(apiInterface.getParametersJson());
+            Map<String, Object> mappedParams = new HashMap<>();
+            for (Map.Entry<String, Object> entry : params.entrySet()) {
+                if (mappingNode.has(entry.getKey())) {
+                    mappedParams.put(mappingNode.get(entry.getKey()).asText(), entry.getValue());
+                } else {
+                    mappedParams.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return mappedParams;
+        } catch (Exception e) {
+            return params;
+        }
+    }
+
+    private boolean legacySupportsModel(String supportedModels, String model) {
+        try {
+            if (supportedModels.trim().startsWith("[")) {
+                for (JsonNode m : objectMapper.readTree(supportedModels)) {
+                    if (m.isTextual()) {
+                        if (m.asText().equals(model)) {
+                            return true;
+                        }
+                    } else if (m.isObject()) {
+                        for (String field : new String[] { "name", "id", "value" }) {
+                            if (m.has(field) && m.get(field).asText().equals(model)) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+                return false;
+            }
+            return Arrays.stream(supportedModels.split("#")).anyMatch(m -> m.trim().equals(model));
+        } catch (Exception e) {
+            return Arrays.stream(supportedModels.split("#")).anyMatch(m -> m.trim().equals(model));
+        }
+    }
+
+    private Integer legacyUnitCost(String supportedModels, String model, String resolution, Integer duration)
+            throws Exception {
+        for (JsonNode m : objectMapper.readTree(supportedModels)) {
+            if (m.has("name") && m.get("name").asText().equals(model)) {
+                if (m.has("costRules") && m.get("costRules").isArray()) {
+                    for (JsonNode rule : m.get("costRules")) {
+                        boolean match = true;
+                        if (rule.has("resolution") && !rule.get("resolution").asText().isEmpty()) {
+                            if (resolution == null || !resolution.equals(rule.get("resolution").asText())) {
+                                match = false;
+                            }
+                        }
+                        if (match && rule.has("duration") && rule.get("duration").asInt() > 0) {
+                            if (duration == null || duration.intValue() != rule.get("duration").asInt()) {
+                                match = false;
+                            }
+                        }
+                        if (match && rule.has("cost") && rule.get("cost").asInt() >= 0) {
+                            return rule.get("cost").asInt();
+                        }
+                    }
+                }
+                if (m.has("defaultCost") && m.get("defaultCost").asInt() >= 0) {
+                    return m.get("defaultCost").asInt();
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,146 @@
+package com.meitou.admin.service.common;
+
+import com.meitou.admin.common.SiteContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PromptOptimizeCacheTest {
+
+    private PromptOptimizeCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new PromptOptimizeCache();
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 3600);
+        ReflectionTestUtils.setField(cache, "maxResultChars", 20000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SiteContext.clear();
+    }
+
+    @Test
+    void key_shouldKeepLineBreaksAndIndentation() {
+        String multiLine = cache.key(1L, "gpt", messages("画一只猫\n  - 橘色\n  - 趴着"));
+
+        assertEquals(multiLine, cache.key(1L, "gpt", messages("  画一只猫\n  - 橘色\n  - 趴着\n")));
+        assertNotEquals(multiLine, cache.key(1L, "gpt", messages("画一只猫 - 橘色 - 趴着")));
+        assertNotEquals(multiLine, cache.key(1L, "gpt", messages("画一只猫\n- 橘色\n- 趴着")));
+    }
+
+    @Test
+    void key_shouldBeScopedBySite() {
+        SiteContext.setSiteId(1L);
+        String site1 = cache.key(1L, "gpt", messages("画一只猫"));
+        SiteContext.setSiteId(2L);
+        String site2 = cache.key(1L, "gpt", messages("画一只猫"));
+
+        assertNotEquals(site1, site2);
+    }
+
+    @Test
+    void lookup_shouldEvictLeastRecentlyUsedEntry() {
+        store("k1", "a");
+        store("k2", "b");
+        assertNotNull(cache.lookup("k1").cached());
+
+        store("k3", "c");
+
+        assertNotNull(cache.lookup("k1").cached());
+        assertNotNull(cache.lookup("k3").cached());
+        assertTrue(cache.lookup("k2").leader());
+        assertEquals(1L, cache.getStats().get("evicted"));
+    }
+
+    @Test
+    void lookup_shouldDropExpiredEntry() throws Exception {
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 0);
+        store("k1", "a");
+        Thread.sleep(5);
+
+        PromptOptimizeCache.Lookup lookup = cache.lookup("k1");
+
+        assertNull(lookup.cached());
+        assertTrue(lookup.leader());
+    }
+
+    @Test
+    void lookup_shouldJoinInFlightRequestAndReplayChunksInOrder() {
+        PromptOptimizeCache.Lookup leader = cache.lookup("k1");
+        assertTrue(leader.leader());
+        leader.flight().publish("a");
+        leader.flight().publish("b");
+
+        PromptOptimizeCache.Lookup joined = cache.lookup("k1");
+        assertFalse(joined.leader());
+        assertSame(leader.flight(), joined.flight());
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        joined.flight().subscribe(subscriber);
+        leader.flight().publish("c");
+        leader.flight().complete();
+
+        assertEquals(List.of("a", "b", "c", "complete:abc"), subscriber.events);
+        PromptOptimizeCache.CachedResult cached = cache.lookup("k1").cached();
+        assertEquals(List.of("a", "b", "c"), cached.getChunks());
+        assertEquals("abc", cached.getFullText());
+        assertEquals(1L, cache.getStats().get("joined"));
+    }
+
+    @Test
+    void flight_shouldPropagateFailureToSubscribersAndNotCache() {
+        PromptOptimizeCache.Lookup leader = cache.lookup("k1");
+        leader.flight().publish("a");
+        RecordingSubscriber early = new RecordingSubscriber();
+        cache.lookup("k1").flight().subscribe(early);
+
+        leader.flight().fail("上游超时");
+        RecordingSubscriber late = new RecordingSubscriber();
+        leader.flight().subscribe(late);
+
+        assertEquals(List.of("a", "error:上游超时"), early.events);
+        assertEquals(List.of("a", "error:上游超时"), late.events);
+        assertTrue(cache.lookup("k1").leader());
+        assertEquals(1L, cache.getStats().get("failedFlights"));
+    }
+
+    private void store(String key, String chunk) {
+        PromptOptimizeCache.Lookup lookup = cache.lookup(key);
+        assertTrue(lookup.leader());
+        lookup.flight().publish(chunk);
+        lookup.flight().complete();
+    }
+
+    private static List<Map<String, Object>> messages(String content) {
+        return List.of(Map.of("role", "user", "content", content));
+    }
+
+    private static final class RecordingSubscriber implements PromptOptimizeCache.Subscriber {
+
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onChunk(String chunk) {
+            events.add(chunk);
+        }
+
+        @Override
+        public void onComplete(String fullText) {
+            events.add("complete:" + fullText);
+        }
+
+        @Override
+        public void onError(String errorMsg) {
+            events.add("error:" + errorMsg);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.meitou.admin.task;
+
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.entity.GenerationRecord;
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import com.meitou.admin.service.app.GenerationService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class GenerationCleanupTaskTest {
+
+    private final GenerationRecordMapper generationRecordMapper = mock(GenerationRecordMapper.class);
+    private final GenerationService generationService = mock(GenerationService.class);
+    private final GenerationTaskPoller generationTaskPoller = mock(GenerationTaskPoller.class);
+    private GenerationCleanupTask task;
+
+    @BeforeEach
+    void setUp() {
+        task = new GenerationCleanupTask(generationRecordMapper, generationService, generationTaskPoller);
+        ReflectionTestUtils.setField(task, "timeoutMinutes", 60);
+        ReflectionTestUtils.setField(task, "timeoutBatchSize", 100);
+        ReflectionTestUtils.setField(task, "chunkSize", 50);
+        ReflectionTestUtils.setField(task, "parallelism", 1);
+        ReflectionTestUtils.setField(task, "maxPerRun", 1000);
+        ReflectionTestUtils.setField(task, "statusCheckParallelism", 4);
+        ReflectionTestUtils.setField(task, "statusCheckTimeoutSeconds", 1);
+        ReflectionTestUtils.setField(task, "pollerGraceMinutes", 60);
+        task.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        task.shutdown();
+    }
+
+    @Test
+    void cleanupStuckTasks_shouldSyncUpstreamOnlyForSubmittedTasks() {
+        when(generationRecordMapper.selectExpiredProcessingIgnoreTenant(any(), eq(0L), eq(100)))
+                .thenReturn(List.of(expired(1L, "task-1"), expired(2L, null)));
+        AtomicReference<Long> siteDuringSync = new AtomicReference<>();
+        when(generationService.getTaskStatus(1L)).thenAnswer(invocation -> {
+            siteDuringSync.set(SiteContext.getSiteId());
+            return null;
+        });
+        when(generationService.failProcessingBatchAndRefund(eq(5L), eq(List.of(1L, 2L)), anyString()))
+                .thenReturn(List.of(expired(2L, null)));
+
+        task.cleanupStuckTasks();
+
+        verify(generationService).getTaskStatus(1L);
+        verify(generationService, never()).getTaskStatus(2L);
+        assertEquals(5L, siteDuringSync.get());
+        assertEquals(1L, task.getStats().get("upstreamChecks"));
+        assertEquals(1L, task.getStats().get("sweptRecords"));
+    }
+
+    @Test
+    void cleanupStuckTasks_shouldSweepEvenWhenUpstreamSyncFails() {
+        when(generationRecordMapper.selectExpiredProcessingIgnoreTenant(any(), eq(0L), eq(100)))
+                .thenReturn(List.of(expired(1L, "task-1")));
+        when(generationService.getTaskStatus(1L)).thenThrow(new RuntimeException("upstream down"));
+        when(generationService.failProcessingBatchAndRefund(eq(5L), eq(List.of(1L)), anyString()))
+                .thenReturn(List.of(expired(1L, "task-1")));
+
+        task.cleanupStuckTasks();
+
+        assertEquals(1L, task.getStats().get("upstreamCheckFailures"));
+        assertEquals(1L, task.getStats().get("sweptRecords"));
+    }
+
+    @Test
+    void cleanupStuckTasks_shouldLeaveTasksTrackedByPollerWithinGrace() {
+        GenerationRecord tracked = expired(1L, "task-1");
+        tracked.setCreatedAt(LocalDateTime.now().minusMinutes(90));
+        GenerationRecord abandoned = expired(2L, "task-2");
+        abandoned.setCreatedAt(LocalDateTime.now().minusMinutes(150));
+        when(generationRecordMapper.selectExpiredProcessingIgnoreTenant(any(), eq(0L), eq(100)))
+                .thenReturn(List.of(tracked, abandoned));
+        when(generationTaskPoller.isTracking(anyLong())).thenReturn(true);
+        when(generationService.failProcessingBatchAndRefund(eq(5L), eq(List.of(2L)), anyString()))
+                .thenReturn(List.of(abandoned));
+
+        task.cleanupStuckTasks();
+
+        verify(generationService, never()).getTaskStatus(1L);
+        verify(generationService).getTaskStatus(2L);
+        assertEquals(1L, task.getStats().get("deferredToPoller"));
+        assertEquals(1L, task.getStats().get("sweptRecords"));
+    }
+
+    @Test
+    void cleanupStuckTasks_shouldBoundSlowUpstreamChecks() {
+        when(generationRecordMapper.selectExpiredProcessingIgnoreTenant(any(), eq(0L), eq(100)))
+                .thenReturn(List.of(expired(1L, "task-1"), expired(2L, "task-2"), expired(3L, "task-3")));
+        when(generationService.getTaskStatus(anyLong())).thenAnswer(invocation -> {
+            Thread.sleep(5000);
+            return null;
+        });
+        when(generationService.failProcessingBatchAndRefund(eq(5L), eq(List.of(1L, 2L, 3L)), anyString()))
+                .thenReturn(List.of());
+
+        long startedAt = System.currentTimeMillis();
+        task.cleanupStuckTasks();
+
+        // 三条并发查询，共用一次查询超时，不按条累加
+        assertTrue(System.currentTimeMillis() - startedAt < 3000);
+        assertEquals(3L, task.getStats().get("upstreamCheckFailures"));
+        verify(generationService).failProcessingBatchAndRefund(eq(5L), eq(List.of(1L, 2L, 3L)), anyString());
+    }
+
+    @Test
+    void cleanupStuckTasks_shouldCountOnlyRecordsFailedByFallback() {
+        when(generationRecordMapper.selectExpiredProcessingIgnoreTenant(any(), eq(0L), eq(100)))
+                .thenReturn(List.of(expired(1L, null), expired(2L, null), expired(3L, null)));
+        when(generationService.failProcessingBatchAndRefund(eq(5L), anyList(), anyString()))
+                .thenThrow(new RuntimeException("deadlock"));
+        when(generationService.failIfProcessingAndRefund(eq(1L), anyString())).thenReturn(true);
+        when(generationService.failIfProcessingAndRefund(eq(2L), anyString())).thenReturn(false);
+        when(generationService.failIfProcessingAndRefund(eq(3L), anyString())).thenThrow(new RuntimeException("boom"));
+
+        task.cleanupStuckTasks();
+
+        assertEquals(1L, task.getStats().get("chunkFailures"));
+        assertEquals(1L, task.getStats().get("fallbackRecords"));
+        assertEquals(1L, task.getStats().get("sweptRecords"));
+        assertEquals(1L, task.getStats().get("lastRunRecords"));
+    }
+
+    private GenerationRecord expired(long id, String taskId) {
+        GenerationRecord record = new GenerationRecord();
+        record.setId(id);
+        record.setSiteId(5L);
+        record.setTaskId(taskId);
+        return record;
+    }
+}
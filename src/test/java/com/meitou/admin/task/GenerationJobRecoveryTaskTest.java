@@ -0,0 +1,77 @@
+package com.meitou.admin.task;
+
+import com.meitou.admin.common.SiteContext;
+import com.meitou.admin.entity.GenerationRecord;
+import com.meitou.admin.mapper.GenerationRecordMapper;
+import com.meitou.admin.service.app.GenerationService;
+import com.meitou.admin.service.common.GenerationJobLeases;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class GenerationJobRecoveryTaskTest {
+
+    private final GenerationRecordMapper generationRecordMapper = mock(GenerationRecordMapper.class);
+    private final GenerationService generationService = mock(GenerationService.class);
+    private final GenerationJobLeases generationJobLeases = mock(GenerationJobLeases.class);
+
+    private GenerationJobRecoveryTask newTask() {
+        GenerationJobRecoveryTask task = new GenerationJobRecoveryTask(generationRecordMapper, generationService,
+                generationJobLeases);
+        ReflectionTestUtils.setField(task, "batchSize", 50);
+        ReflectionTestUtils.setField(task, "maxAttempts", 3);
+        return task;
+    }
+
+    private GenerationRecord expired(long id, long siteId) {
+        GenerationRecord record = new GenerationRecord();
+        record.setId(id);
+        record.setSiteId(siteId);
+        return record;
+    }
+
+    @Test
+    void recoverExpiredJobs_shouldResumeOnlyClaimedJobsUnderTheirSite() {
+        when(generationRecordMapper.selectExpiredLeasesIgnoreTenant(any(), eq(50)))
+                .thenReturn(List.of(expired(1L, 5L), expired(2L, 6L)));
+        when(generationJobLeases.claim(1L)).thenReturn(true);
+        when(generationJobLeases.claim(2L)).thenReturn(false);
+        AtomicReference<Long> siteDuringResume = new AtomicReference<>();
+        when(generationService.resumeGenerationJob(1L, 3)).thenAnswer(invocation -> {
+            siteDuringResume.set(SiteContext.getSiteId());
+            return true;
+        });
+
+        GenerationJobRecoveryTask task = newTask();
+        task.recoverExpiredJobs();
+
+        verify(generationService).resumeGenerationJob(1L, 3);
+        verify(generationService, never()).resumeGenerationJob(eq(2L), anyInt());
+        assertEquals(5L, siteDuringResume.get());
+        assertNull(SiteContext.getSiteId());
+        assertEquals(1L, task.getStats().get("resumed"));
+        assertEquals(1L, task.getStats().get("lostRaces"));
+    }
+
+    @Test
+    void recoverExpiredJobs_shouldContinueAfterSingleJobFailure() {
+        when(generationRecordMapper.selectExpiredLeasesIgnoreTenant(any(), eq(50)))
+                .thenReturn(List.of(expired(1L, 5L), expired(2L, 5L)));
+        when(generationJobLeases.claim(anyLong())).thenReturn(true);
+        when(generationService.resumeGenerationJob(1L, 3)).thenThrow(new IllegalStateException("boom"));
+        when(generationService.resumeGenerationJob(2L, 3)).thenReturn(true);
+
+        GenerationJobRecoveryTask task = newTask();
+        task.recoverExpiredJobs();
+
+        verify(generationService).resumeGenerationJob(2L, 3);
+        assertEquals(1L, task.getStats().get("errors"));
+        assertEquals(1L, task.getStats().get("resumed"));
+    }
+}
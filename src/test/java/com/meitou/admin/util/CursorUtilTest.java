@@ -0,0 +1,63 @@
+package com.meitou.admin.util;
+
+import com.meitou.admin.exception.BusinessException;
+import com.meitou.admin.exception.ErrorCode;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CursorUtilTest {
+
+    @Test
+    void decode_shouldRoundTripEncodedPosition() {
+        LocalDateTime time = LocalDateTime.of(2026, 3, 5, 12, 30, 15, 123_000_000);
+
+        CursorUtil.Position position = CursorUtil.decode(CursorUtil.encode(1, time, 42L));
+
+        assertEquals(1, position.getRank());
+        assertEquals(time, position.getTime());
+        assertEquals(42L, position.getId());
+        assertFalse(position.isNullTime());
+    }
+
+    @Test
+    void decode_shouldRoundTripWholeMinuteTime() {
+        // LocalDateTime.toString 在秒为0时省略秒
+        LocalDateTime time = LocalDateTime.of(2026, 3, 5, 12, 30);
+
+        CursorUtil.Position position = CursorUtil.decode(CursorUtil.encode(time, 7L));
+
+        assertEquals(0, position.getRank());
+        assertEquals(time, position.getTime());
+        assertEquals(7L, position.getId());
+    }
+
+    @Test
+    void decode_shouldRoundTripNullTimeAsSentinel() {
+        CursorUtil.Position position = CursorUtil.decode(CursorUtil.encode(0, null, 9L));
+
+        assertTrue(position.isNullTime());
+        assertEquals(CursorUtil.NULL_TIME, position.getTime());
+        assertEquals(9L, position.getId());
+    }
+
+    @Test
+    void decode_shouldTreatEmptyCursorAsFirstPage() {
+        assertNull(CursorUtil.decode(null));
+        assertNull(CursorUtil.decode(""));
+    }
+
+    @Test
+    void decode_shouldRejectMalformedCursor() {
+        for (String raw : new String[] { "0|null|9", "0|2026-03-05T12:30", "x|2026-03-05T12:30|9" }) {
+            String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+            BusinessException e = assertThrows(BusinessException.class, () -> CursorUtil.decode(cursor));
+            assertEquals(ErrorCode.PARAM_ERROR.getCode(), e.getCode());
+        }
+        assertThrows(BusinessException.class, () -> CursorUtil.decode("not base64!"));
+    }
+}
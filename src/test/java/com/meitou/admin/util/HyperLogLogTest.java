@@ -0,0 +1,102 @@
+package com.meitou.admin.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HyperLogLogTest {
+
+    @Test
+    void estimate_shouldBeZeroForEmptySketch() {
+        assertEquals(0L, new HyperLogLog().estimate());
+    }
+
+    @Test
+    void estimate_shouldBeNearlyExactAtSmallCardinality() {
+        // 线性计数区间：十个以内精确，其余取约三倍标准误差作为上限
+        assertEstimateWithin(1, 0);
+        assertEstimateWithin(10, 0);
+        assertEstimateWithin(100, 5);
+        assertEstimateWithin(1_000, 50);
+    }
+
+    @Test
+    void estimate_shouldStayWithinErrorBoundAtLargeCardinality() {
+        // 标准误差约 2.3%，取约三倍标准误差作为上限
+        assertEstimateWithin(10_000, 700);
+        assertEstimateWithin(100_000, 7_000);
+        assertEstimateWithin(1_000_000, 70_000);
+    }
+
+    @Test
+    void add_shouldIgnoreDuplicates() {
+        HyperLogLog sketch = sketchOf(0, 500);
+        byte[] before = sketch.toBytes();
+
+        for (long i = 0; i < 500; i++) {
+            sketch.add(i);
+        }
+
+        assertArrayEquals(before, sketch.toBytes());
+    }
+
+    @Test
+    void merge_shouldBeIdempotent() {
+        HyperLogLog sketch = sketchOf(0, 3_000);
+        HyperLogLog other = sketchOf(2_000, 6_000);
+
+        sketch.merge(other);
+        byte[] once = sketch.toBytes();
+        sketch.merge(other);
+        sketch.merge(HyperLogLog.fromBytes(once));
+
+        assertArrayEquals(once, sketch.toBytes());
+    }
+
+    @Test
+    void merge_shouldEqualSketchOfUnion() {
+        // 跨天合并：同一用户出现在多天只计一次
+        HyperLogLog day1 = sketchOf(0, 5_000);
+        HyperLogLog day2 = sketchOf(2_500, 7_500);
+
+        day1.merge(day2);
+
+        assertArrayEquals(sketchOf(0, 7_500).toBytes(), day1.toBytes());
+    }
+
+    @Test
+    void merge_shouldIgnoreNull() {
+        HyperLogLog sketch = sketchOf(0, 100);
+        byte[] before = sketch.toBytes();
+
+        sketch.merge(null);
+
+        assertArrayEquals(before, sketch.toBytes());
+    }
+
+    @Test
+    void fromBytes_shouldRoundTripAndRejectInvalidData() {
+        HyperLogLog sketch = sketchOf(0, 1_000);
+
+        HyperLogLog restored = HyperLogLog.fromBytes(sketch.toBytes());
+
+        assertArrayEquals(sketch.toBytes(), restored.toBytes());
+        assertEquals(sketch.estimate(), restored.estimate());
+        assertEquals(0L, HyperLogLog.fromBytes(null).estimate());
+        assertEquals(0L, HyperLogLog.fromBytes(new byte[16]).estimate());
+    }
+
+    private static void assertEstimateWithin(int cardinality, long tolerance) {
+        long estimate = sketchOf(1, cardinality + 1L).estimate();
+        assertTrue(Math.abs(estimate - cardinality) <= tolerance,
+                "cardinality=" + cardinality + " estimate=" + estimate);
+    }
+
+    private static HyperLogLog sketchOf(long fromInclusive, long toExclusive) {
+        HyperLogLog sketch = new HyperLogLog();
+        for (long i = fromInclusive; i < toExclusive; i++) {
+            sketch.add(i);
+        }
+        return sketch;
+    }
+}
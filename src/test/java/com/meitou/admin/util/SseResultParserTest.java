@@ -0,0 +1,221 @@
+package com.meitou.admin.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式解析结果与 ObjectMapper.readTree 整棵树解析结果的对比
+ */
+class SseResultParserTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * 上游实际返回的事件（截取），以及字段类型不规范、重复字段、无关大字段等边界情况
+     */
+    private static final List<String> EVENTS = List.of(
+            "{\"id\":\"task_01\",\"status\":\"running\",\"progress\":0,\"created\":1760000000}",
+            "{\"id\":\"task_01\",\"status\":\"running\",\"progress\":37.5,\"results\":[]}",
+            "{\"id\":\"task_01\",\"status\":\"succeeded\",\"progress\":100,\"results\":[{\"url\":\"https://cdn.example.com/a.png\","
+                    + "\"content\":\"\",\"width\":1024,\"height\":1024}],\"usage\":{\"total_tokens\":4160}}",
+            "{\"status\":\"completed\",\"results\":[\"https://cdn.example.com/1.png\",{\"url\":\"https://cdn.example.com/2.png\"},"
+                    + "{\"url\":null},{\"url\":{\"nested\":true}},{\"other\":1},7,null,[\"x\"]]}",
+            "{\"status\":\"completed\",\"url\":\"https://cdn.example.com/only.png\",\"results\":\"not-an-array\"}",
+            "{\"status\":\"success\",\"url\":\"\",\"video_url\":\"https://cdn.example.com/v.mp4\"}",
+            "{\"status\":\"completed\",\"data\":{\"url\":\"\",\"video_url\":\"\",\"results\":[{\"video_url\":\"https://cdn.example.com/d.mp4\"}]}}",
+            "{\"status\":\"completed\",\"data\":{\"results\":[{\"url\":\"\"}]},\"results\":[{\"url\":\"https://cdn.example.com/r.mp4\"}]}",
+            "{\"status\":\"completed\",\"data\":\"not-an-object\",\"results\":[{\"video_url\":\"https://cdn.example.com/r2.mp4\"}]}",
+            "{\"status\":\"failed\",\"error\":\"content policy violation\",\"failure_reason\":\"\"}",
+            "{\"status\":\"failed\",\"error\":{\"code\":\"E1\",\"message\":\"nested\"},\"failure_reason\":\"quota\"}",
+            "{\"status\":null,\"error\":null,\"progress\":null}",
+            "{\"status\":42,\"progress\":true,\"url\":3.5}",
+            "{\"status\":\"running\",\"status\":\"completed\",\"url\":\"https://cdn.example.com/first.png\","
+                    + "\"url\":\"https://cdn.example.com/dup.png\"}",
+            "{\"status\":\"\\u5b8c\\u6210\",\"url\":\"https://cdn.example.com/\\u4e2d.png\"}",
+            "{\"payload\":{\"status\":\"completed\",\"url\":\"https://ignored\",\"results\":[{\"url\":\"https://ignored\"}]},"
+                    + "\"logs\":[" + "\"line\",".repeat(200) + "\"end\"],\"status\":\"running\"}",
+            "{}",
+            "[]",
+            "[{\"status\":\"completed\"}]",
+            "\"text\"",
+            "42",
+            "null");
+
+    @Test
+    void parseEvent_shouldExtractSameFieldsAsReadTree() throws Exception {
+        for (String json : EVENTS) {
+            JsonNode node = OBJECT_MAPPER.readTree(json);
+            SseResultParser.Event event = SseResultParser.parseEvent(json);
+
+            assertNotNull(event, json);
+            assertEquals(text(node, "status"), event.getStatus(), json);
+            assertEquals(text(node, "progress"), event.getProgress(), json);
+            assertEquals(text(node, "error"), event.getError(), json);
+            assertEquals(text(node, "failure_reason"), event.getFailureReason(), json);
+            assertEquals(text(node, "url"), event.getUrl(), json);
+            assertEquals(text(node, "video_url"), event.getVideoUrl(), json);
+            assertEquals(imageUrls(node), event.getImageUrls(), json);
+            assertEquals(partialImageUrls(node), event.getPartialImageUrls(), json);
+            assertEquals(videoResultUrl(node), event.getVideoResultUrl(), json);
+        }
+    }
+
+    @Test
+    void parseEvent_shouldRejectInvalidJsonLikeReadTree() {
+        for (String json : List.of("not json", "{\"status\":\"running\",", "{\"status\":}", "[DONE]")) {
+            assertThrows(Exception.class, () -> OBJECT_MAPPER.readTree(json), json);
+            assertNull(SseResultParser.parseEvent(json), json);
+        }
+        assertNull(SseResultParser.parseEvent(""));
+    }
+
+    @Test
+    void parse_shouldMatchReadTreeOverRecordedStream() throws Exception {
+        // 一次完整的生成：任务ID、数百条进度事件（含无法解析的心跳行）、部分结果、成功终态、[DONE]
+        StringBuilder sse = new StringBuilder("data: {\"id\":\"task_01\",\"status\":\"queued\"}\n\n");
+        for (int i = 1; i < 500; i++) {
+            sse.append("data: {\"id\":\"task_01\",\"status\":\"running\",\"progress\":").append(i / 5.0).append("}\n\n");
+            if (i % 100 == 0) {
+                sse.append(": keep-alive\n\ndata: [PING]\n\n");
+            }
+        }
+        sse.append("data: {\"status\":\"running\",\"results\":[{\"url\":\"https://cdn.example.com/partial.png\"}]}\n\n");
+        for (String json : EVENTS) {
+            sse.append("data: ").append(json).append("\r\n\r\n");
+        }
+        sse.append("data: {\"status\":\"completed\",\"results\":[{\"url\":\"https://cdn.example.com/final.png\"}]}\n\n");
+        sse.append("data: [DONE]\n\n");
+
+        SseResultParser.Result result = SseResultParser.parse(new StringReader(sse.toString()));
+
+        List<String> completedUrls = new ArrayList<>();
+        String lastStatus = null;
+        String lastVideoUrl = null;
+        JsonNode lastEvent = null;
+        long eventCount = 0;
+        for (String line : sse.toString().split("\n")) {
+            String payload = SseResultParser.dataPayload(line);
+            JsonNode node = payload != null ? readTreeOrNull(payload) : null;
+            if (node == null) {
+                continue;
+            }
+            eventCount++;
+            lastEvent = node;
+            if (node.has("status")) {
+                lastStatus = node.get("status").asText();
+                if (SseResultParser.isCompletedStatus(lastStatus)) {
+                    completedUrls.addAll(imageUrls(node));
+                }
+            }
+            String videoUrl = videoResultUrl(node);
+            if (videoUrl != null && !videoUrl.isEmpty()) {
+                lastVideoUrl = videoUrl;
+            }
+        }
+
+        assertEquals(completedUrls, result.getCompletedUrls());
+        assertEquals(lastStatus, result.getLastStatus());
+        assertEquals(lastVideoUrl, result.getLastVideoUrl());
+        assertEquals(eventCount, result.getEventCount());
+        assertEquals(text(lastEvent, "status"), result.getLastEvent().getStatus());
+
+        String compacted = SseResultParser.compact(new StringReader(sse.toString()));
+        SseResultParser.Result compactedResult = SseResultParser.parse(new StringReader(compacted));
+        assertTrue(compacted.split("\n").length < 40, compacted);
+        assertEquals(result.getCompletedUrls(), compactedResult.getCompletedUrls());
+        assertEquals(result.getLastStatus(), compactedResult.getLastStatus());
+        assertEquals(result.getLastVideoUrl(), compactedResult.getLastVideoUrl());
+    }
+
+    private static JsonNode readTreeOrNull(String json) {
+        try {
+            JsonNode node = OBJECT_MAPPER.readTree(json);
+            return node.isMissingNode() ? null : node;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String text(JsonNode node, String field) {
+        return node.has(field) ? node.get(field).asText() : null;
+    }
+
+    /**
+     * 成功终态取图片URL：results 数组中对象的 url 与字符串元素，否则取非空的 url
+     */
+    private static List<String> imageUrls(JsonNode node) {
+        List<String> urls = new ArrayList<>();
+        if (node.has("results") && node.get("results").isArray()) {
+            for (JsonNode result : node.get("results")) {
+                if (result.has("url")) {
+                    urls.add(result.get("url").asText());
+                } else if (result.isTextual()) {
+                    urls.add(result.asText());
+                }
+            }
+        } else if (node.has("url") && !node.get("url").asText().isEmpty()) {
+            urls.add(node.get("url").asText());
+        }
+        return urls;
+    }
+
+    /**
+     * 处理中状态的部分结果：results 数组中非空的URL
+     */
+    private static List<String> partialImageUrls(JsonNode node) {
+        if (!node.has("results") || !node.get("results").isArray()) {
+            return Collections.emptyList();
+        }
+        List<String> urls = new ArrayList<>();
+        for (JsonNode result : node.get("results")) {
+            if (result.has("url") && !result.get("url").asText().isEmpty()) {
+                urls.add(result.get("url").asText());
+            } else if (result.isTextual() && !result.asText().isEmpty()) {
+                urls.add(result.asText());
+            }
+        }
+        return urls;
+    }
+
+    private static String videoResultUrl(JsonNode node) {
+        for (String field : new String[] { "video_url", "url" }) {
+            if (node.has(field) && !node.get(field).asText().isEmpty()) {
+                return node.get(field).asText();
+            }
+        }
+        if (node.has("data")) {
+            JsonNode data = node.get("data");
+            for (String field : new String[] { "url", "video_url" }) {
+                if (data.has(field) && !data.get(field).asText().isEmpty()) {
+                    return data.get(field).asText();
+                }
+            }
+            String first = firstResultUrl(data);
+            if (first != null) {
+                return first;
+            }
+        }
+        return firstResultUrl(node);
+    }
+
+    private static String firstResultUrl(JsonNode node) {
+        if (node.has("results") && node.get("results").isArray() && node.get("results").size() > 0) {
+            JsonNode first = node.get("results").get(0);
+            if (first.has("url")) {
+                return first.get("url").asText();
+            }
+            if (first.has("video_url")) {
+                return first.get("video_url").asText();
+            }
+        }
+        return null;
+    }
+}